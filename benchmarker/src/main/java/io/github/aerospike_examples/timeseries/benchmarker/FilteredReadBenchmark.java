@@ -0,0 +1,153 @@
+package io.github.aerospike_examples.timeseries.benchmarker;
+
+import com.aerospike.client.AerospikeClient;
+import io.github.aerospike_examples.timeseries.DataPoint;
+import io.github.aerospike_examples.timeseries.TimeSeriesClient;
+import io.github.aerospike_examples.timeseries.ValuePredicate;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark comparing reads selecting points by value on the server with reading every point and selecting them on the client
+ * <p>
+ * A single series of uniformly distributed values between 0 and 100 is written. For a range of thresholds, queries for the
+ * points above the threshold over ranges at random positions in the series are timed, first using
+ * TimeSeriesClient.getPoints(String, Date, Date, ValuePredicate), then using getPoints(String, Date, Date) and filtering the result.
+ * The fewer points selected, the less the server side read transfers and decodes.
+ * <p>
+ * Usage : FilteredReadBenchmark [host] [namespace] [set]. The set is truncated before the benchmark runs
+ */
+public class FilteredReadBenchmark {
+
+    // Default Aerospike settings
+    private static final String DEFAULT_HOST = "localhost";
+    private static final String DEFAULT_NAMESPACE = "test";
+    private static final String DEFAULT_SET = "FilteredReadBenchmark";
+
+    // Points in the series - 1 week of observations every second
+    private static final int POINT_COUNT = 7 * 24 * 60 * 60;
+    // Values are uniformly distributed between 0 and MAX_VALUE, so a threshold of t selects 100 - t % of the points
+    private static final double MAX_VALUE = 100;
+    private static final double[] THRESHOLDS = new double[]{0, 50, 90, 99, 99.9};
+    // Queries timed for each threshold and read type
+    private static final int QUERIES_PER_THRESHOLD = 100;
+    // Points covered by each query - 1 day
+    private static final int POINTS_PER_QUERY = 24 * 60 * 60;
+    // Points are written in batches of this size
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final String SERIES_NAME = "FilteredReadBenchmarkSeries";
+
+    private final TimeSeriesClient timeSeriesClient;
+    private final Random random = new Random();
+    // Output stream
+    PrintStream output = System.out;
+
+    /**
+     * FilteredReadBenchmark constructor
+     *
+     * @param timeSeriesClient - client to use for writes and queries
+     */
+    FilteredReadBenchmark(TimeSeriesClient timeSeriesClient) {
+        this.timeSeriesClient = timeSeriesClient;
+    }
+
+    /**
+     * Main entry point for cmd line running of the benchmark
+     *
+     * @param args optional host, namespace and set
+     */
+    public static void main(String[] args) {
+        String asHost = args.length > 0 ? args[0] : DEFAULT_HOST;
+        String asNamespace = args.length > 1 ? args[1] : DEFAULT_NAMESPACE;
+        String asSet = args.length > 2 ? args[2] : DEFAULT_SET;
+        AerospikeClient asClient = new AerospikeClient(asHost, 3100);
+        try {
+            new FilteredReadBenchmark(new TimeSeriesClient(asClient, asNamespace, asSet,
+                    Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK)).run();
+        } finally {
+            asClient.close();
+        }
+    }
+
+    /**
+     * Write the series, then time server and client side filtering for each threshold
+     * The benchmark set and its index set are truncated first
+     */
+    void run() {
+        AerospikeClient asClient = timeSeriesClient.getAsClient();
+        asClient.truncate(null, timeSeriesClient.getAsNamespace(), timeSeriesClient.getTimeSeriesSet(), null);
+        asClient.truncate(null, timeSeriesClient.getAsNamespace(), timeSeriesClient.timeSeriesIndexSetName(), null);
+        long startTimestamp = System.currentTimeMillis() - (long) POINT_COUNT * Constants.MILLISECONDS_IN_SECOND;
+        startTimestamp -= startTimestamp % Constants.MILLISECONDS_IN_SECOND;
+        for (int pointsWritten = 0; pointsWritten < POINT_COUNT; pointsWritten += WRITE_BATCH_SIZE) {
+            int batchSize = Math.min(WRITE_BATCH_SIZE, POINT_COUNT - pointsWritten);
+            DataPoint[] dataPoints = new DataPoint[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                dataPoints[i] = new DataPoint(startTimestamp + (long) (pointsWritten + i) * Constants.MILLISECONDS_IN_SECOND,
+                        random.nextDouble() * MAX_VALUE);
+            }
+            timeSeriesClient.put(SERIES_NAME, dataPoints);
+        }
+
+        output.println(String.format("%10s %15s %20s %20s", "Threshold", "Avg points", "Server avg ms", "Client avg ms"));
+        for (double threshold : THRESHOLDS) {
+            ValuePredicate predicate = ValuePredicate.greaterThan(threshold);
+            long[] queryStartTimestamps = queryStartTimestamps(startTimestamp);
+            long selectedPointCount = 0;
+            long queryStartTime = System.nanoTime();
+            for (long queryStartTimestamp : queryStartTimestamps) {
+                selectedPointCount += timeSeriesClient.getPoints(SERIES_NAME, new Date(queryStartTimestamp), queryEndDate(queryStartTimestamp),
+                        predicate).length;
+            }
+            double serverAvgMs = (System.nanoTime() - queryStartTime) / 1e6 / QUERIES_PER_THRESHOLD;
+            queryStartTime = System.nanoTime();
+            for (long queryStartTimestamp : queryStartTimestamps) {
+                clientSideFilter(timeSeriesClient.getPoints(SERIES_NAME, new Date(queryStartTimestamp), queryEndDate(queryStartTimestamp)),
+                        predicate);
+            }
+            double clientAvgMs = (System.nanoTime() - queryStartTime) / 1e6 / QUERIES_PER_THRESHOLD;
+            output.println(String.format("%10.1f %15d %20.3f %20.3f", threshold, selectedPointCount / QUERIES_PER_THRESHOLD,
+                    serverAvgMs, clientAvgMs));
+        }
+    }
+
+    /**
+     * Start times for queries covering POINTS_PER_QUERY points, at random positions in the series
+     * The same start times are used for both read types, so they read the same blocks
+     *
+     * @param startTimestamp - timestamp of first point in series
+     * @return query start timestamps
+     */
+    private long[] queryStartTimestamps(long startTimestamp) {
+        long[] queryStartTimestamps = new long[QUERIES_PER_THRESHOLD];
+        for (int i = 0; i < queryStartTimestamps.length; i++) {
+            long firstPoint = (long) (random.nextDouble() * (POINT_COUNT - POINTS_PER_QUERY));
+            queryStartTimestamps[i] = startTimestamp + firstPoint * Constants.MILLISECONDS_IN_SECOND;
+        }
+        return queryStartTimestamps;
+    }
+
+    private static Date queryEndDate(long queryStartTimestamp) {
+        return new Date(queryStartTimestamp + (POINTS_PER_QUERY - 1) * Constants.MILLISECONDS_IN_SECOND);
+    }
+
+    /**
+     * Select points by value on the client, as needed without server side filtering
+     *
+     * @param dataPoints - all the points in the range
+     * @param predicate  - condition on the values of the points
+     * @return selected points
+     */
+    static DataPoint[] clientSideFilter(DataPoint[] dataPoints, ValuePredicate predicate) {
+        List<DataPoint> selectedPoints = new ArrayList<>();
+        for (DataPoint dataPoint : dataPoints) {
+            if (predicate.test(dataPoint.getValue())) selectedPoints.add(dataPoint);
+        }
+        return selectedPoints.toArray(new DataPoint[0]);
+    }
+}
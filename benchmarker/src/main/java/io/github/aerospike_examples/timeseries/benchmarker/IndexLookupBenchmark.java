@@ -0,0 +1,122 @@
+package io.github.aerospike_examples.timeseries.benchmarker;
+
+import com.aerospike.client.AerospikeClient;
+import io.github.aerospike_examples.timeseries.DataPoint;
+import io.github.aerospike_examples.timeseries.TimeSeriesClient;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Benchmark showing how query latency varies with the number of blocks in a series
+ * <p>
+ * A single series is grown in stages, to tens of thousands of blocks. At each stage, queries covering a fixed number of
+ * points at random positions in the series are timed. As the index lookup only returns the blocks overlapping the query
+ * range, latency should not grow with the size of the series.
+ * <p>
+ * Usage : IndexLookupBenchmark [host] [namespace] [set]. The set is truncated before the benchmark runs
+ */
+public class IndexLookupBenchmark {
+
+    // Default Aerospike settings
+    private static final String DEFAULT_HOST = "localhost";
+    private static final String DEFAULT_NAMESPACE = "test";
+    private static final String DEFAULT_SET = "IndexLookupBenchmark";
+
+    // Small blocks allow a large block count to be built quickly
+    private static final int RECORDS_PER_BLOCK = 10;
+    // Series size, in blocks, at each stage
+    private static final int[] BLOCK_COUNT_STAGES = new int[]{100, 1000, 10000, 50000};
+    // Queries timed at each stage
+    private static final int QUERIES_PER_STAGE = 1000;
+    // Points covered by each query
+    private static final int POINTS_PER_QUERY = 50;
+    // Points are written in batches of this size
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final String SERIES_NAME = "IndexLookupBenchmarkSeries";
+
+    private final TimeSeriesClient timeSeriesClient;
+    private final Random random = new Random();
+    // Output stream
+    PrintStream output = System.out;
+
+    /**
+     * IndexLookupBenchmark constructor
+     *
+     * @param timeSeriesClient - client to use for writes and queries
+     */
+    IndexLookupBenchmark(TimeSeriesClient timeSeriesClient) {
+        this.timeSeriesClient = timeSeriesClient;
+    }
+
+    /**
+     * Main entry point for cmd line running of the benchmark
+     *
+     * @param args optional host, namespace and set
+     */
+    public static void main(String[] args) {
+        String asHost = args.length > 0 ? args[0] : DEFAULT_HOST;
+        String asNamespace = args.length > 1 ? args[1] : DEFAULT_NAMESPACE;
+        String asSet = args.length > 2 ? args[2] : DEFAULT_SET;
+        AerospikeClient asClient = new AerospikeClient(asHost, 3100);
+        try {
+            new IndexLookupBenchmark(new TimeSeriesClient(asClient, asNamespace, asSet, RECORDS_PER_BLOCK)).run();
+        } finally {
+            asClient.close();
+        }
+    }
+
+    /**
+     * Grow the series stage by stage, timing queries at each stage
+     * The benchmark set and its index set are truncated first
+     */
+    void run() {
+        AerospikeClient asClient = timeSeriesClient.getAsClient();
+        asClient.truncate(null, timeSeriesClient.getAsNamespace(), timeSeriesClient.getTimeSeriesSet(), null);
+        asClient.truncate(null, timeSeriesClient.getAsNamespace(), timeSeriesClient.timeSeriesIndexSetName(), null);
+        long startTimestamp = System.currentTimeMillis() - (long) BLOCK_COUNT_STAGES[BLOCK_COUNT_STAGES.length - 1] * RECORDS_PER_BLOCK
+                * Constants.MILLISECONDS_IN_SECOND;
+        startTimestamp -= startTimestamp % Constants.MILLISECONDS_IN_SECOND;
+        long pointsWritten = 0;
+        output.println(String.format("%10s %15s %15s %15s", "Blocks", "Avg ms", "P99 ms", "Max ms"));
+        for (int blockCount : BLOCK_COUNT_STAGES) {
+            long requiredPoints = (long) blockCount * RECORDS_PER_BLOCK;
+            while (pointsWritten < requiredPoints) {
+                int batchSize = (int) Math.min(WRITE_BATCH_SIZE, requiredPoints - pointsWritten);
+                DataPoint[] dataPoints = new DataPoint[batchSize];
+                for (int i = 0; i < batchSize; i++) {
+                    dataPoints[i] = new DataPoint(startTimestamp + (pointsWritten + i) * Constants.MILLISECONDS_IN_SECOND, random.nextDouble());
+                }
+                timeSeriesClient.put(SERIES_NAME, dataPoints);
+                pointsWritten += batchSize;
+            }
+            double[] latenciesMs = queryLatenciesMs(startTimestamp, pointsWritten);
+            Arrays.sort(latenciesMs);
+            output.println(String.format("%10d %15.3f %15.3f %15.3f", blockCount, Arrays.stream(latenciesMs).average().orElse(0),
+                    latenciesMs[(int) (latenciesMs.length * 0.99)], latenciesMs[latenciesMs.length - 1]));
+        }
+    }
+
+    /**
+     * Time queries covering POINTS_PER_QUERY points, at random positions in the series
+     *
+     * @param startTimestamp - timestamp of first point in series
+     * @param pointCount     - number of points in series
+     * @return query latencies in milliseconds
+     */
+    private double[] queryLatenciesMs(long startTimestamp, long pointCount) {
+        double[] latenciesMs = new double[QUERIES_PER_STAGE];
+        for (int i = 0; i < QUERIES_PER_STAGE; i++) {
+            long firstPoint = (long) (random.nextDouble() * (pointCount - POINTS_PER_QUERY));
+            Date fromDateTime = new Date(startTimestamp + firstPoint * Constants.MILLISECONDS_IN_SECOND);
+            Date toDateTime = new Date(fromDateTime.getTime() + (POINTS_PER_QUERY - 1) * Constants.MILLISECONDS_IN_SECOND);
+            long queryStartTime = System.nanoTime();
+            timeSeriesClient.getPoints(SERIES_NAME, fromDateTime, toDateTime);
+            latenciesMs[i] = (System.nanoTime() - queryStartTime) / 1e6;
+        }
+        return latenciesMs;
+    }
+}
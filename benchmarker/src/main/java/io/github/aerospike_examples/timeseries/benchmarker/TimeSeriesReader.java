@@ -1,6 +1,7 @@
 package io.github.aerospike_examples.timeseries.benchmarker;
 
 import com.aerospike.client.AerospikeClient;
+import io.github.aerospike_examples.timeseries.DataPoint;
 import io.github.aerospike_examples.timeseries.TimeSeriesClient;
 import io.github.aerospike_examples.timeseries.benchmarker.util.ClientUtils;
 import io.github.aerospike_examples.timeseries.util.Constants;
@@ -14,6 +15,7 @@ import org.apache.commons.cli.ParseException;
 import java.util.Vector;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 
 /**
  * Time Series Reader class to write out a time series to the command line
@@ -118,11 +120,12 @@ public class TimeSeriesReader {
 		if (timeSeriesName != null) {
 			//System.out.println("ritesh"+this.start);
 			//System.out.println("ritesh"+this.end);
-			int i;
 			System.out.println("timestamp " + this.timeSeriesName_alias);
-			for(i=0;i<timeSeriesClient.getPoints(timeSeriesName ,this.start, this.end).length	;i++) {
-				System.out.println("" + timeSeriesClient.getPoints(timeSeriesName ,this.start, this.end)[i].getTimestamp() + " " +
-								   timeSeriesClient.getPoints(timeSeriesName ,this.start, this.end)[i].getValue());
+			// Points are fetched a few blocks at a time, so the range can be any length
+			Iterator<DataPoint> dataPoints = timeSeriesClient.iterator(timeSeriesName, this.start, this.end);
+			while (dataPoints.hasNext()) {
+				DataPoint dataPoint = dataPoints.next();
+				System.out.println("" + dataPoint.getTimestamp() + " " + dataPoint.getValue());
 			}
 		}
     }
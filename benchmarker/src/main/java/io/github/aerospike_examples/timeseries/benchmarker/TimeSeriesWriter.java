@@ -24,6 +24,9 @@ import io.github.aerospike_examples.timeseries.DataPoint;
 @SuppressWarnings("WeakerAccess") // Want to expose class
 public class TimeSeriesWriter {
 
+    // Max number of series sent in a single multi-series put - bounds memory use when reading large inputs
+    private static final int SERIES_PER_WRITE = 1000;
+
     // Specify Aerospike cluster, namespace, set
     private final AerospikeClient asClient;
     private final String asNamespace;
@@ -87,6 +90,8 @@ public class TimeSeriesWriter {
     private void run(String[] args) {
         TimeSeriesClient timeSeriesClient = new TimeSeriesClient(asClient, asNamespace, asSet,
 																 Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK);
+		// Every line shares the same timestamp, so series are written together via the multi-series put
+		Map<String, DataPoint[]> dataPointsBySeries = new HashMap<>();
 		Scanner sc = new Scanner(System.in);	//System.in is a standard input stream
 		while(sc.hasNext()) {
 			String timeSeriesName = sc.nextLine();
@@ -96,9 +101,13 @@ public class TimeSeriesWriter {
 
 			DataPoint dataPoint = new DataPoint(this.timestamp_ritesh,
 												value);
-			timeSeriesClient.put(timeSeriesName,
-								 dataPoint);
+			dataPointsBySeries.put(timeSeriesName, new DataPoint[]{dataPoint});
+			if (dataPointsBySeries.size() >= SERIES_PER_WRITE) {
+				timeSeriesClient.put(dataPointsBySeries);
+				dataPointsBySeries.clear();
+			}
 		}
+		timeSeriesClient.put(dataPointsBySeries);
 		sc.close();
 	}
 }
@@ -4,12 +4,8 @@ import com.aerospike.client.AerospikeException;
 import com.aerospike.client.Record;
 import com.aerospike.client.ResultCode;
 import com.aerospike.client.Value;
-import com.aerospike.client.cdt.CTX;
 import com.aerospike.client.cdt.MapOperation;
-import com.aerospike.client.cdt.MapPolicy;
 import com.aerospike.client.cdt.MapReturnType;
-import com.aerospike.client.exp.Exp;
-import com.aerospike.client.policy.WritePolicy;
 import io.github.aerospike_examples.timeseries.DataPoint;
 import io.github.aerospike_examples.timeseries.TimeSeriesClient;
 import io.github.aerospike_examples.timeseries.TimeSeriesInfo;
@@ -17,6 +13,7 @@ import io.github.aerospike_examples.timeseries.util.Constants;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Iterator;
 
 public final class ClientUtils {
 
@@ -31,19 +28,13 @@ public final class ClientUtils {
      * @param timeSeriesName Time Series to remove dummy records for
      */
     public static void removeDummyRecords(TimeSeriesClient timeSeriesClient, String timeSeriesName) {
-        long startTime;
-        // Create a policy to make sure, when we look up the first start time from the index that we don't get an error if it doesn't exist
-        WritePolicy blockRecordExistsPolicy = new WritePolicy(timeSeriesClient.getWritePolicy());
-        // Now try and get the earliest start time from the index
-        blockRecordExistsPolicy.filterExp = Exp.build(Exp.binExists(Constants.TIME_SERIES_INDEX_BIN_NAME));
-
-        Record startTimeFromFirstHistoricBlockRecord = timeSeriesClient.getAsClient().operate(blockRecordExistsPolicy,
-                timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
-                MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_BIN_NAME, 0, MapReturnType.KEY));
+        // Find the first historic block, if there is one
+        long startTime = timeSeriesClient.startTimeForSeries(timeSeriesName);
+        long[] blockStartTimes = timeSeriesClient.getTimestampsForTimeSeries(timeSeriesName, startTime, startTime);
 
         // If there are historic blocks
-        if (startTimeFromFirstHistoricBlockRecord != null) {
-            startTime = startTimeFromFirstHistoricBlockRecord.getLong(Constants.TIME_SERIES_INDEX_BIN_NAME);
+        if (blockStartTimes.length > 0 && blockStartTimes[0] != TimeSeriesClient.CURRENT_RECORD_TIMESTAMP) {
+            startTime = blockStartTimes[0];
             // Remove dummy records from the first block
             Record r = timeSeriesClient.getAsClient().operate(timeSeriesClient.getWritePolicy(),
                     timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTime),
@@ -52,13 +43,7 @@ public final class ClientUtils {
             );
             // The resulting entry count is returned
             long entryCount = (Long) (r.getList(Constants.TIME_SERIES_BIN_NAME).get(1));
-
-            timeSeriesClient.getAsClient().operate(blockRecordExistsPolicy, timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
-                    MapOperation.put(new MapPolicy(), Constants.TIME_SERIES_INDEX_BIN_NAME,
-                            new Value.StringValue(Constants.ENTRY_COUNT_FIELD_NAME), new Value.LongValue(entryCount),
-                            CTX.mapIndex(0)
-                    )
-            );
+            timeSeriesClient.updateIndexEntryCount(timeSeriesName, startTime, entryCount);
         }
         // Remove dummy records from the current block if it exists
         // Turns out we need to do this in a try/catch as can't avoid 'key not found' if not found
@@ -89,10 +74,11 @@ public final class ClientUtils {
         TimeSeriesInfo timeSeriesInfo = TimeSeriesInfo.getTimeSeriesDetails(timeSeriesClient, timeSeriesName);
         System.out.println(timeSeriesInfo);
         System.out.println();
-        DataPoint[] dataPoints = timeSeriesClient.getPoints(timeSeriesName, new Date(timeSeriesInfo.getStartDateTimestamp()),
+        Iterator<DataPoint> dataPoints = timeSeriesClient.iterator(timeSeriesName, new Date(timeSeriesInfo.getStartDateTimestamp()),
                 new Date(timeSeriesInfo.getEndDateTimestamp()));
         System.out.println("Timestamp,Value");
-        for (DataPoint dataPoint : dataPoints) {
+        while (dataPoints.hasNext()) {
+            DataPoint dataPoint = dataPoints.next();
             System.out.printf("%s,%.5f%n", dateFormatter.format(new Date(dataPoint.getTimestamp())), dataPoint.getValue());
         }
     }
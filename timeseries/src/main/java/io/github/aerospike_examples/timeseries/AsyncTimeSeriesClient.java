@@ -0,0 +1,609 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.async.EventLoop;
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.listener.BatchListListener;
+import com.aerospike.client.listener.DeleteListener;
+import com.aerospike.client.listener.RecordArrayListener;
+import com.aerospike.client.listener.RecordListener;
+import com.aerospike.client.listener.WriteListener;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.WritePolicy;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking equivalent of TimeSeriesClient, built on the Aerospike async (event loop) API
+ * <p>
+ * Every method returns immediately with a CompletableFuture. Multi-step operations - archiving of full blocks on write,
+ * and index lookup followed by block retrieval on read - are chained on the event loops, so no thread is held while a
+ * request is in flight.
+ * <p>
+ * The AerospikeClient used by the TimeSeriesClient must have been created with ClientPolicy.eventLoops set, and the same
+ * EventLoops object should be supplied here. Settings - policies, set names, block size, compression - are taken from the
+ * TimeSeriesClient, and data written by either client can be read by the other.
+ * <p>
+ * Futures are completed on event loop threads. Callers doing significant work on completion should use the *Async
+ * CompletableFuture methods with their own executor so as not to hold up the event loops.
+ */
+public class AsyncTimeSeriesClient implements IAsyncTimeSeriesClient {
+
+    // Synchronous client - provides settings and the operations shared between the two clients
+    private final TimeSeriesClient timeSeriesClient;
+    // Aerospike Client - must be event loop enabled
+    private final AerospikeClient asClient;
+    // Event loops requests are distributed over
+    private final EventLoops eventLoops;
+
+    /**
+     * AsyncTimeSeriesClient constructor
+     *
+     * @param timeSeriesClient - time series client supplying Aerospike client, namespace, set and policies
+     * @param eventLoops       - event loops the Aerospike client was created with
+     */
+    public AsyncTimeSeriesClient(TimeSeriesClient timeSeriesClient, EventLoops eventLoops) {
+        this.timeSeriesClient = timeSeriesClient;
+        this.asClient = timeSeriesClient.getAsClient();
+        this.eventLoops = eventLoops;
+    }
+
+    /**
+     * Getter for underlying synchronous client
+     *
+     * @return time series client
+     */
+    @SuppressWarnings("unused") // Required in API
+    public TimeSeriesClient getTimeSeriesClient() {
+        return timeSeriesClient;
+    }
+
+    /**
+     * Saves data point to the database
+     * <p>
+     * If max values per block is reached, the current block is archived before the future completes. If another client holds
+     * the claim on it, the block takes further points up to its overflow limit - see TimeSeriesClient.put(String, DataPoint)
+     *
+     * @param timeSeriesName - time series name to write to
+     * @param dataPoint      - data point to write
+     * @return future completing when the write is done
+     */
+    public CompletableFuture<Void> put(String timeSeriesName, DataPoint dataPoint) {
+        if (timeSeriesClient.isTimeBucketed()) return putToTimeBuckets(timeSeriesName, new DataPoint[]{dataPoint});
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName),
+                timeSeriesClient.opsForDataPointInsert(timeSeriesName, new DataPoint[]{dataPoint}, 0, 1))
+                .thenCompose(record -> {
+                    // Put operation returns map size by default
+                    long mapSize = record.getLong(Constants.TIME_SERIES_BIN_NAME);
+                    // If the block is at its overflow limit, archiving has fallen behind - retry until it is below the limit
+                    if (mapSize >= timeSeriesClient.maxOverflowingBlockEntryCount()) {
+                        return archiveOverflowingBlock(timeSeriesName).thenApply(ignored -> null);
+                    }
+                    if (mapSize >= timeSeriesClient.getMaxBlockEntryCount()) {
+                        return copyCurrentDataToHistoricBlock(timeSeriesName).thenApply(ignored -> null);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    /**
+     * Save data points to the database
+     * <p>
+     * As per TimeSeriesClient.put(String, DataPoint[]) - the points are written in as few operations as the space
+     * remaining in the current block allows, archiving blocks as they fill
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array
+     * @return future completing when the write is done
+     */
+    public CompletableFuture<Void> put(String timeSeriesName, DataPoint[] dataPoints) {
+        if (timeSeriesClient.isTimeBucketed()) return putToTimeBuckets(timeSeriesName, dataPoints);
+        // First of all need to find out how much 'room' is available
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName),
+                MapOperation.size(Constants.TIME_SERIES_BIN_NAME))
+                .thenCompose(record -> {
+                    int existingRecordCount = record != null ? record.getInt(Constants.TIME_SERIES_BIN_NAME) : 0;
+                    return putFrom(timeSeriesName, dataPoints, 0, existingRecordCount);
+                });
+    }
+
+    /**
+     * Write dataPoints from index lastRecordLoaded onwards, given existingRecordCount points in the current block
+     * Calls itself on completion until all points are written - equivalent to the loop in TimeSeriesClient.put(String, DataPoint[])
+     *
+     * @param timeSeriesName      - time series name
+     * @param dataPoints          - data points as an array
+     * @param lastRecordLoaded    - index of next data point to write
+     * @param existingRecordCount - number of points in the current block
+     * @return future completing when the write is done
+     */
+    private CompletableFuture<Void> putFrom(String timeSeriesName, DataPoint[] dataPoints, int lastRecordLoaded, int existingRecordCount) {
+        if (lastRecordLoaded >= dataPoints.length) return CompletableFuture.completedFuture(null);
+        int maxBlockEntryCount = timeSeriesClient.getMaxBlockEntryCount();
+        // Load records remaining or whatever we have space for, whichever is the smaller
+        // If the block is already full it is waiting to be archived by another writer, so add to it, up to its overflow limit.
+        // At the limit, archive it before going on
+        int spaceAvailable = maxBlockEntryCount - existingRecordCount;
+        if (spaceAvailable <= 0) spaceAvailable = timeSeriesClient.maxOverflowingBlockEntryCount() - existingRecordCount;
+        if (spaceAvailable <= 0) {
+            return archiveOverflowingBlock(timeSeriesName).thenCompose(blockEntryCount ->
+                    putFrom(timeSeriesName, dataPoints, lastRecordLoaded, blockEntryCount));
+        }
+        int numberOfRecordsToLoad = Math.min(dataPoints.length - lastRecordLoaded, spaceAvailable);
+        Operation[] ops = timeSeriesClient.opsForDataPointInsert(timeSeriesName, dataPoints, lastRecordLoaded, numberOfRecordsToLoad);
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName), ops)
+                .thenCompose(record -> {
+                    // Each put returns the map size, so the last gives the size of the block
+                    int blockEntryCount = TimeSeriesClient.currentBlockEntryCount(record, existingRecordCount + numberOfRecordsToLoad);
+                    if (blockEntryCount < maxBlockEntryCount) return CompletableFuture.completedFuture(blockEntryCount);
+                    // If the block is full, 'archive' it. If that leaves points in it - another writer holds the claim, or added
+                    // points while it was archived - find out how many
+                    return copyCurrentDataToHistoricBlock(timeSeriesName).thenCompose(archived ->
+                            archived ? CompletableFuture.completedFuture(0) : currentBlockEntryCount(timeSeriesName));
+                })
+                .thenCompose(blockEntryCount -> putFrom(timeSeriesName, dataPoints, lastRecordLoaded + numberOfRecordsToLoad, blockEntryCount));
+    }
+
+    /**
+     * Asynchronous version of TimeSeriesClient.archiveOverflowingBlock
+     * Archive a current block at its overflow limit, retrying while another client holds the claim on it
+     *
+     * @param timeSeriesName - name of series whose current block is at its overflow limit
+     * @return future holding the number of points in the current block once it is below the limit
+     */
+    private CompletableFuture<Integer> archiveOverflowingBlock(String timeSeriesName) {
+        return copyCurrentDataToHistoricBlock(timeSeriesName)
+                .thenCompose(archived -> archived ? CompletableFuture.completedFuture(0) : currentBlockEntryCount(timeSeriesName))
+                .thenCompose(blockEntryCount -> blockEntryCount < timeSeriesClient.maxOverflowingBlockEntryCount() ?
+                        CompletableFuture.completedFuture(blockEntryCount) :
+                        delay(Constants.OVERFLOW_ROLLOVER_RETRY_MS).thenCompose(ignored -> archiveOverflowingBlock(timeSeriesName)));
+    }
+
+    /**
+     * Number of points in the current block for a series
+     *
+     * @param timeSeriesName - time series name
+     * @return future holding the entry count - zero if there is no current block
+     */
+    private CompletableFuture<Integer> currentBlockEntryCount(String timeSeriesName) {
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName),
+                MapOperation.size(Constants.TIME_SERIES_BIN_NAME))
+                .thenApply(record -> TimeSeriesClient.currentBlockEntryCount(record, 0));
+    }
+
+    /**
+     * Asynchronous version of TimeSeriesClient.putToTimeBuckets
+     * Writes to each bucket are issued concurrently. Each is followed by adding the bucket to the index, unless known to be done
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array, in any order
+     * @return future completing when all writes are done
+     */
+    private CompletableFuture<Void> putToTimeBuckets(String timeSeriesName, DataPoint[] dataPoints) {
+        DataPoint[] sortedDataPoints = TimeSeriesClient.sortedByTimestamp(dataPoints);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        int offset = 0;
+        while (offset < sortedDataPoints.length) {
+            long bucketStartTime = timeSeriesClient.timeBucketStartTime(sortedDataPoints[offset].getTimestamp());
+            int count = timeSeriesClient.timeBucketPointCount(sortedDataPoints, offset);
+            writes.add(operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, bucketStartTime),
+                    timeSeriesClient.opsForTimeBucketInsert(timeSeriesName, sortedDataPoints, offset, count))
+                    .thenCompose(ignored -> {
+                        if (timeSeriesClient.isTimeBucketIndexed(timeSeriesName, bucketStartTime)) return CompletableFuture.completedFuture(null);
+                        return addTimeSeriesIndexRecord(timeSeriesName, bucketStartTime,
+                                bucketStartTime + timeSeriesClient.getTimeBucketDurationMs() - 1, 0, null)
+                                .thenRun(() -> timeSeriesClient.timeBucketIndexed(timeSeriesName, bucketStartTime));
+                    }));
+            offset += count;
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Asynchronous version of TimeSeriesClient.copyCurrentDataToHistoricBlock
+     * Claim and read current block, write historic block, add to index, then remove the current block provided it has not changed.
+     * If it has changed, only the archived points are removed from the current block. Rollups are updated once the archived
+     * points have left the current block
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @return future holding true if the current block was archived and removed, or no longer exists - false if it was not
+     * full, was claimed by another client, or points added while archiving remain in it
+     */
+    private CompletableFuture<Boolean> copyCurrentDataToHistoricBlock(String timeSeriesName) {
+        Key currentKey = timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName);
+        return operate(timeSeriesClient.rolloverClaimWritePolicy(), currentKey, timeSeriesClient.opsForRolloverClaim())
+                .handle((currentRecord, throwable) -> {
+                    if (throwable != null) {
+                        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                        // Block has already been archived
+                        if (cause instanceof AerospikeException && ((AerospikeException) cause).getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) {
+                            return CompletableFuture.completedFuture(true);
+                        }
+                        throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+                    }
+                    // Filtered out - block is claimed by someone else, or is not full
+                    if (currentRecord == null) return CompletableFuture.completedFuture(false);
+                    return archiveClaimedBlock(timeSeriesName, currentRecord);
+                })
+                .thenCompose(archived -> archived);
+    }
+
+    /**
+     * Archive a current block once claimed - the steps of copyCurrentDataToHistoricBlock following the claim
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param currentRecord  - current block record, as read by the claim
+     * @return future holding true if the current block was archived and removed, false if points added while archiving remain in it
+     */
+    private CompletableFuture<Boolean> archiveClaimedBlock(String timeSeriesName, Record currentRecord) {
+        Key currentKey = timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName);
+        Bin[] bins = timeSeriesClient.binsForHistoricBlock(currentRecord);
+        long startTime = (Long) currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
+        long lastTimestamp = TimeSeriesClient.endTimeForBlock(currentRecord);
+        long entryCount = currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).size();
+        double[] summary = TimeSeriesClient.blockSummary(currentRecord);
+
+        return put(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTime), bins)
+                .thenCompose(ignored -> addTimeSeriesIndexRecord(timeSeriesName, startTime, lastTimestamp, entryCount, summary))
+                .thenCompose(ignored -> ignoringResultCode(
+                        delete(timeSeriesClient.generationCheckWritePolicy(currentRecord.generation), currentKey)
+                                .thenApply(deleted -> Boolean.TRUE), ResultCode.GENERATION_ERROR))
+                .thenCompose(deleted -> {
+                    if (deleted != null) return updateRollupsIfEnabled(timeSeriesName, currentRecord).thenApply(ignored -> true);
+                    // Points added while we were archiving - remove only those archived, and release the claim
+                    return operate(timeSeriesClient.updateOnlyWritePolicy(), currentKey, timeSeriesClient.opsForRolloverRelease(currentRecord))
+                            .thenCompose(releasedRecord -> updateRollupsIfEnabled(timeSeriesName, currentRecord).thenApply(ignored -> releasedRecord))
+                            .thenCompose(releasedRecord -> {
+                                if (releasedRecord == null) return CompletableFuture.completedFuture(false);
+                                long remainingCount = TimeSeriesClient.currentBlockSizeAfterRelease(releasedRecord);
+                                // Writers that filled the block while we held the claim will have left archiving to us
+                                if (remainingCount >= timeSeriesClient.getMaxBlockEntryCount()) return copyCurrentDataToHistoricBlock(timeSeriesName);
+                                if (remainingCount > 0) return CompletableFuture.completedFuture(false);
+                                // Nothing left - remove the block, unless there have been further writes
+                                return ignoringResultCode(delete(timeSeriesClient.generationCheckWritePolicy(releasedRecord.generation),
+                                        currentKey), ResultCode.GENERATION_ERROR).thenApply(ignored -> false);
+                            });
+                });
+    }
+
+    /**
+     * Asynchronous version of TimeSeriesClient.updateRollups, if rollups are enabled
+     * Rollup records are updated concurrently, each by a read then a generation checked write, retried on conflict
+     *
+     * @param timeSeriesName - name of series being archived
+     * @param currentRecord  - current block record as archived
+     * @return future completing when every rollup tier has been updated
+     */
+    private CompletableFuture<Void> updateRollupsIfEnabled(String timeSeriesName, Record currentRecord) {
+        if (!timeSeriesClient.getRollupsEnabled()) return CompletableFuture.completedFuture(null);
+        long blockStartTime = (Long) currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
+        List<CompletableFuture<Void>> updates = new ArrayList<>();
+        for (Map.Entry<Key, TreeMap<Long, RollupPoint>> rollupRecordUpdate : timeSeriesClient.rollupRecordUpdates(timeSeriesName, currentRecord).entrySet()) {
+            updates.add(updateRollupRecord(timeSeriesName, rollupRecordUpdate.getKey(), rollupRecordUpdate.getValue(), blockStartTime));
+        }
+        return CompletableFuture.allOf(updates.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Add buckets to a rollup record, retrying if another client updates the record between the read and the write
+     * Nothing is written if the record already holds the block
+     *
+     * @param timeSeriesName - name of series being archived
+     * @param rollupKey      - rollup record key
+     * @param buckets        - buckets to be added, keyed by bucket start time
+     * @param blockStartTime - start time of the block being added
+     * @return future completing when the record has been updated
+     */
+    private CompletableFuture<Void> updateRollupRecord(String timeSeriesName, Key rollupKey, TreeMap<Long, RollupPoint> buckets, long blockStartTime) {
+        return ignoringResultCode(operate(timeSeriesClient.getWritePolicy(), rollupKey, TimeSeriesClient.opsForRollupRead(buckets, blockStartTime)),
+                ResultCode.KEY_NOT_FOUND_ERROR)
+                .thenCompose(storedRecord -> TimeSeriesClient.isBlockInRollupRecord(storedRecord) ? CompletableFuture.completedFuture(Boolean.TRUE) :
+                        operate(timeSeriesClient.rollupWritePolicy(storedRecord), rollupKey,
+                                timeSeriesClient.opsForRollupWrite(timeSeriesName, storedRecord, buckets, blockStartTime))
+                                .handle((record, throwable) -> {
+                                    if (throwable == null) return Boolean.TRUE;
+                                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                                    if (cause instanceof AerospikeException && TimeSeriesClient.isRollupWriteConflict((AerospikeException) cause)) {
+                                        return Boolean.FALSE;
+                                    }
+                                    throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+                                }))
+                .thenCompose(written -> written ? CompletableFuture.completedFuture(null) : updateRollupRecord(timeSeriesName, rollupKey, buckets, blockStartTime));
+    }
+
+    /**
+     * Retrieve all time series points between two given date / times (inclusive)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return future holding array of DataPoint objects
+     */
+    public CompletableFuture<DataPoint[]> getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return getTimeSeriesPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime()).thenApply(TimeSeriesPoints::toDataPoints);
+    }
+
+    /**
+     * Retrieve all time series points between two given date / times (inclusive), in columnar form
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return future holding TimeSeriesPoints object
+     */
+    public CompletableFuture<TimeSeriesPoints> getTimeSeriesPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return getTimeSeriesPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime());
+    }
+
+    /**
+     * Asynchronous version of TimeSeriesClient.addTimeSeriesIndexRecord
+     * Add the block to its index page, then update the root index record
+     *
+     * @param timeSeriesName - name of time series we are updating index for
+     * @param startTime      - start time of the block
+     * @param endTime        - end time of the block
+     * @param entryCount     - number of data points in the block
+     * @param summary        - summary of the block's values - null if the block may change once indexed
+     * @return future completing when the index has been updated
+     */
+    private CompletableFuture<Void> addTimeSeriesIndexRecord(String timeSeriesName, long startTime, long endTime, long entryCount, double[] summary) {
+        return operate(timeSeriesClient.getWritePolicy(),
+                timeSeriesClient.asKeyForTimeSeriesIndexPage(timeSeriesName, timeSeriesClient.indexPageStartTime(startTime)),
+                timeSeriesClient.opsForTimeSeriesIndexRecord(timeSeriesName, startTime, endTime, entryCount, summary))
+                .thenCompose(ignored -> operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
+                        timeSeriesClient.opsForTimeSeriesIndexRoot(timeSeriesName, startTime, endTime, entryCount)))
+                .thenApply(ignored -> null);
+    }
+
+    /**
+     * Internal method - retrieve time series data points with start and end time expressed as milliseconds since the epoch
+     * Index lookup, then a batch get of the blocks required. If blocks are keyed by time bucket, the index lookup is not
+     * needed unless the range covers many buckets
+     *
+     * @param timeSeriesName name of time series we're retrieving points for
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return future holding TimeSeriesPoints
+     */
+    private CompletableFuture<TimeSeriesPoints> getTimeSeriesPoints(String timeSeriesName, long startTime, long endTime) {
+        if (endTime < startTime) return CompletableFuture.completedFuture(TimeSeriesPoints.EMPTY);
+        return getBlocks(timeSeriesName, startTime, endTime)
+                .thenApply(timeSeriesBlocks -> TimeSeriesClient.timeSeriesPointsFromBlocks(timeSeriesBlocks, startTime, endTime));
+    }
+
+    /**
+     * Retrieve the blocks holding the data points between startTime and endTime - those at the ends of the range are trimmed
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of required range
+     * @param endTime        - end time of required range
+     * @return future holding block records, in time order. May contain nulls
+     */
+    private CompletableFuture<Record[]> getBlocks(String timeSeriesName, long startTime, long endTime) {
+        List<BatchRead> bucketReads = timeSeriesClient.isTimeBucketed() ?
+                timeSeriesClient.batchReadsForTimeBucketRange(timeSeriesName, startTime, endTime) : null;
+        CompletableFuture<List<BatchRead>> batchReadsFuture = bucketReads != null ? CompletableFuture.completedFuture(bucketReads) :
+                indexEntriesForRange(timeSeriesName, startTime, endTime)
+                        .thenApply(indexEntries -> timeSeriesClient.batchReadsForIndexEntries(timeSeriesName, indexEntries, startTime, endTime));
+        // Blocks at the ends of the range are trimmed to the range on the server
+        return batchReadsFuture
+                .thenCompose(batchReads -> get(new BatchPolicy(timeSeriesClient.getReadPolicy()), batchReads));
+    }
+
+    /**
+     * Asynchronous version of TimeSeriesClient.indexEntriesForRange
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return future holding map of block start time to {end time, entry count}
+     */
+    private CompletableFuture<TreeMap<Long, long[]>> indexEntriesForRange(String timeSeriesName, long startTime, long endTime) {
+        long[] pageStartTimes = timeSeriesClient.indexPageStartTimesForRange(startTime, endTime);
+        CompletableFuture<long[]> pageStartTimesFuture = pageStartTimes != null ? CompletableFuture.completedFuture(pageStartTimes) :
+                // Too many pages - find the ones that exist
+                operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
+                        timeSeriesClient.opForIndexPageRange(startTime, endTime))
+                        .thenApply(TimeSeriesClient::indexPageStartTimes);
+        return pageStartTimesFuture
+                .thenCompose(startTimes -> get(new BatchPolicy(timeSeriesClient.getReadPolicy()),
+                        timeSeriesClient.keysForIndexRead(timeSeriesName, startTimes),
+                        TimeSeriesClient.opsForIndexRead(startTime, endTime)))
+                .thenApply(indexRecords -> TimeSeriesClient.indexEntriesFromRecords(indexRecords, startTime, endTime));
+    }
+
+    /**
+     * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @return future holding result of the query
+     */
+    public CompletableFuture<Double> runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        if (endTime < startTime) return CompletableFuture.completedFuture(TimeSeriesClient.queryResult(operation, TimeSeriesPoints.EMPTY));
+        // Blocks are aggregated as they are decoded - see TimeSeriesClient.queryResultFromBlocks
+        if (timeSeriesClient.isTimeBucketed()) {
+            return getBlocks(timeSeriesName, startTime, endTime)
+                    .thenApply(timeSeriesBlocks -> TimeSeriesClient.queryResultFromBlocks(operation, timeSeriesBlocks, startTime, endTime));
+        }
+        // Blocks within the range are answered from their index entry summary - see TimeSeriesClient.runQuery
+        return indexEntriesForRange(timeSeriesName, startTime, endTime)
+                .thenCompose(indexEntries -> get(new BatchPolicy(timeSeriesClient.getReadPolicy()),
+                        timeSeriesClient.batchReadsForUnsummarisedBlocks(timeSeriesName, indexEntries, startTime, endTime, operation.isQuantile()))
+                        .thenApply(timeSeriesBlocks -> TimeSeriesClient.accumulateIndexedBlocks(indexEntries, timeSeriesBlocks, startTime, endTime,
+                                operation.isQuantile())))
+                .thenCompose(accumulator -> accumulator.isComplete() ? CompletableFuture.completedFuture(accumulator.result(operation)) :
+                        getBlocks(timeSeriesName, startTime, endTime)
+                                .thenApply(timeSeriesBlocks -> TimeSeriesClient.queryResultFromBlocks(operation, timeSeriesBlocks, startTime, endTime)));
+    }
+
+    /*
+        Adapters from the Aerospike listener API to CompletableFuture
+        Synchronous exceptions e.g. event loop queue full, are delivered via the future, the same as asynchronous failures
+     */
+
+    /**
+     * Future completing after a delay, without holding a thread. Completes on an event loop thread
+     *
+     * @param delayMs - delay in milliseconds
+     * @return future
+     */
+    private CompletableFuture<Void> delay(long delayMs) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        EventLoop eventLoop = eventLoops.next();
+        // schedule must be called from the event loop's own thread
+        eventLoop.execute(() -> eventLoop.schedule(() -> future.complete(null), delayMs, TimeUnit.MILLISECONDS));
+        return future;
+    }
+
+    private CompletableFuture<Record> operate(WritePolicy writePolicy, Key key, Operation... ops) {
+        CompletableFuture<Record> future = new CompletableFuture<>();
+        try {
+            asClient.operate(eventLoops.next(), recordListener(future), writePolicy, key, ops);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Record[]> get(BatchPolicy batchPolicy, List<BatchRead> batchReads) {
+        CompletableFuture<Record[]> future = new CompletableFuture<>();
+        // Batch calls with no keys are rejected by the client
+        if (batchReads.isEmpty()) {
+            future.complete(new Record[0]);
+            return future;
+        }
+        try {
+            asClient.get(eventLoops.next(), new BatchListListener() {
+                @Override
+                public void onSuccess(List<BatchRead> records) {
+                    future.complete(TimeSeriesClient.recordsFromBatchReads(records));
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    future.completeExceptionally(e);
+                }
+            }, batchPolicy, batchReads);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Record[]> get(BatchPolicy batchPolicy, Key[] keys, Operation... ops) {
+        CompletableFuture<Record[]> future = new CompletableFuture<>();
+        // Batch calls with no keys are rejected by the client
+        if (keys.length == 0) {
+            future.complete(new Record[0]);
+            return future;
+        }
+        try {
+            asClient.get(eventLoops.next(), new RecordArrayListener() {
+                @Override
+                public void onSuccess(Key[] keys, Record[] records) {
+                    future.complete(records);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    future.completeExceptionally(e);
+                }
+            }, batchPolicy, keys, ops);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> put(WritePolicy writePolicy, Key key, Bin... bins) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            asClient.put(eventLoops.next(), new WriteListener() {
+                @Override
+                public void onSuccess(Key key) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    future.completeExceptionally(e);
+                }
+            }, writePolicy, key, bins);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> delete(WritePolicy writePolicy, Key key) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            asClient.delete(eventLoops.next(), new DeleteListener() {
+                @Override
+                public void onSuccess(Key key, boolean existed) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onFailure(AerospikeException e) {
+                    future.completeExceptionally(e);
+                }
+            }, writePolicy, key);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Future completing with null, rather than exceptionally, if the given future fails with the given result code
+     *
+     * @param future     - future to wrap
+     * @param resultCode - result code considered a normal outcome
+     * @param <T>        - result type
+     * @return wrapped future
+     */
+    private static <T> CompletableFuture<T> ignoringResultCode(CompletableFuture<T> future, int resultCode) {
+        return future.handle((result, throwable) -> {
+            if (throwable == null) return result;
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof AerospikeException && ((AerospikeException) cause).getResultCode() == resultCode) return null;
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+        });
+    }
+
+    private static RecordListener recordListener(CompletableFuture<Record> future) {
+        return new RecordListener() {
+            @Override
+            public void onSuccess(Key key, Record record) {
+                future.complete(record);
+            }
+
+            @Override
+            public void onFailure(AerospikeException e) {
+                future.completeExceptionally(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.GorillaCodec;
+
+/**
+ * Single pass accumulator for bucketed query operations - each point is folded into the QueryAccumulator for its time bucket
+ * <p>
+ * Buckets are bucketWidthMs wide, starting at startTime. Accumulators are only created for buckets that receive points.
+ * Points within a bucket must arrive in timestamp order - if they do not, the accumulator is marked as out of order and the
+ * caller must merge the points before aggregating them
+ */
+class BucketedQueryAccumulator implements GorillaCodec.DataPointConsumer {
+
+    private final long startTime;
+    private final long endTime;
+    private final long bucketWidthMs;
+    private final boolean sketchQuantiles;
+    private final QueryAccumulator[] bucketAccumulators;
+    // Set if a point did not follow the previous one in its bucket in time
+    private boolean outOfOrder = false;
+
+    /**
+     * BucketedQueryAccumulator constructor
+     *
+     * @param startTime       - start time of range aggregated - the start of the first bucket
+     * @param endTime         - end time of range aggregated
+     * @param bucketWidthMs   - width of each bucket in milliseconds
+     * @param sketchQuantiles - true if quantile operations such as P99 are needed
+     */
+    BucketedQueryAccumulator(long startTime, long endTime, long bucketWidthMs, boolean sketchQuantiles) {
+        if (bucketWidthMs < 1) throw new IllegalArgumentException("bucketWidthMs must be at least 1");
+        // Range may be wider than Long.MAX_VALUE, but never negative, so the difference is treated as unsigned
+        long lastBucket = Long.divideUnsigned(endTime - startTime, bucketWidthMs);
+        if (Long.compareUnsigned(lastBucket, Integer.MAX_VALUE - 9) > 0) {
+            throw new IllegalArgumentException("Too many buckets - bucketWidthMs is too small for the range");
+        }
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.bucketWidthMs = bucketWidthMs;
+        this.sketchQuantiles = sketchQuantiles;
+        this.bucketAccumulators = new QueryAccumulator[(int) lastBucket + 1];
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        if (timestamp < startTime || timestamp > endTime) return;
+        int bucket = (int) Long.divideUnsigned(timestamp - startTime, bucketWidthMs);
+        QueryAccumulator bucketAccumulator = bucketAccumulators[bucket];
+        if (bucketAccumulator == null) {
+            bucketAccumulator = new QueryAccumulator(Long.MIN_VALUE, Long.MAX_VALUE, sketchQuantiles);
+            bucketAccumulators[bucket] = bucketAccumulator;
+        }
+        bucketAccumulator.accept(timestamp, value);
+        if (bucketAccumulator.isOutOfOrder()) outOfOrder = true;
+    }
+
+    /**
+     * Whether a point arrived out of timestamp order within its bucket, or with the timestamp of the previous point
+     * If so, results do not reflect all the points supplied
+     *
+     * @return true if out of order
+     */
+    boolean isOutOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * Start time of the range aggregated
+     *
+     * @return start time
+     */
+    long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * End time of the range aggregated
+     *
+     * @return end time
+     */
+    long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * A new accumulator for the same buckets, holding no points
+     *
+     * @return empty accumulator
+     */
+    BucketedQueryAccumulator emptyCopy() {
+        return new BucketedQueryAccumulator(startTime, endTime, bucketWidthMs, sketchQuantiles);
+    }
+
+    /**
+     * Result of a query operation for each bucket
+     *
+     * @param operation - operation
+     * @return results in bucket order - buckets with no points give the result for no points, as given by QueryAccumulator
+     */
+    double[] results(QueryOperation operation) {
+        double emptyBucketResult = new QueryAccumulator(startTime, endTime).result(operation);
+        double[] results = new double[bucketAccumulators.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = bucketAccumulators[i] != null ? bucketAccumulators[i].result(operation) : emptyBucketResult;
+        }
+        return results;
+    }
+}
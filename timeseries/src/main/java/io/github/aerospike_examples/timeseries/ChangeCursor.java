@@ -0,0 +1,109 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position in the change feed of a time series - see TimeSeriesClient.readSince
+ * <p>
+ * Holds the timestamp of the last point read, and the start time of the current block when it was read. While the current
+ * block start time is unchanged no block has been archived, so the points since the cursor are all in the current block.
+ * <p>
+ * Cursors are opaque. toString gives a token which parse turns back into a cursor, so consumers can store their position
+ */
+public class ChangeCursor {
+
+    // Cursor from which every point in a series is read
+    static final ChangeCursor START = new ChangeCursor(TimeSeriesIndexCache.NO_CURRENT_BLOCK, Long.MIN_VALUE);
+
+    private static final int TOKEN_BYTES = 2 * Long.BYTES;
+
+    private final long blockStartTime;
+    private final long lastTimestamp;
+
+    /**
+     * ChangeCursor constructor
+     *
+     * @param blockStartTime - start time of the current block when the cursor was issued - TimeSeriesIndexCache.NO_CURRENT_BLOCK if unknown
+     * @param lastTimestamp  - timestamp of the last point read - Long.MIN_VALUE if none have been
+     */
+    ChangeCursor(long blockStartTime, long lastTimestamp) {
+        this.blockStartTime = blockStartTime;
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    /**
+     * Cursor from which only points after a given time are read e.g. new Date() to follow a series from now on
+     *
+     * @param dateTime - time after which points are read
+     * @return cursor
+     */
+    @SuppressWarnings("unused") // Required in API
+    public static ChangeCursor after(Date dateTime) {
+        return new ChangeCursor(TimeSeriesIndexCache.NO_CURRENT_BLOCK, dateTime.getTime());
+    }
+
+    /**
+     * Cursor from a token given by toString
+     *
+     * @param token - cursor token
+     * @return cursor
+     */
+    public static ChangeCursor parse(String token) {
+        // Decoder throws IllegalArgumentException if the token is not valid Base64
+        byte[] bytes = Base64.getUrlDecoder().decode(token);
+        if (bytes.length != TOKEN_BYTES) throw new IllegalArgumentException("token must be a ChangeCursor token");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new ChangeCursor(buffer.getLong(), buffer.getLong());
+    }
+
+    long getBlockStartTime() {
+        return blockStartTime;
+    }
+
+    long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Start of the range holding the points not yet read
+     *
+     * @return timestamp of the first point that may follow the cursor
+     */
+    long readFromTime() {
+        return lastTimestamp == Long.MIN_VALUE ? Long.MIN_VALUE : lastTimestamp + 1;
+    }
+
+    /**
+     * Whether no point can follow the cursor
+     *
+     * @return true if the last point read had the latest possible timestamp
+     */
+    boolean isAtEnd() {
+        return lastTimestamp == Long.MAX_VALUE;
+    }
+
+    /**
+     * Token from which parse gives an equal cursor
+     *
+     * @return cursor token
+     */
+    @Override
+    public String toString() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                ByteBuffer.allocate(TOKEN_BYTES).putLong(blockStartTime).putLong(lastTimestamp).array());
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof ChangeCursor)) return false;
+        ChangeCursor cursor = (ChangeCursor) object;
+        return blockStartTime == cursor.blockStartTime && lastTimestamp == cursor.lastTimestamp;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(blockStartTime) * 31 + Long.hashCode(lastTimestamp);
+    }
+}
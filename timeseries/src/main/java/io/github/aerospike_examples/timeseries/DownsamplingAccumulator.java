@@ -0,0 +1,113 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.GorillaCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass accumulator reducing a range of points to at most four per time bucket - the M4 aggregation
+ * <p>
+ * The range is divided into bucketCount equal time buckets, and for each only the first, last, lowest and highest points are kept.
+ * A line chart bucketCount pixels wide drawn from these points is identical to one drawn from every point, as each pixel column
+ * only shows where the line enters and leaves it, and its extremes. Memory is fixed by bucketCount, however many points are folded in.
+ * <p>
+ * Points outside startTime to endTime are ignored. Points must arrive in timestamp order, as given by TimeSeriesPointIterator
+ */
+class DownsamplingAccumulator implements GorillaCodec.DataPointConsumer {
+
+    /**
+     * Max number of points given for each bucket
+     */
+    static final int POINTS_PER_BUCKET = 4;
+
+    private final long startTime;
+    private final long endTime;
+    private final long bucketWidthMs;
+
+    private final boolean[] occupied;
+    private final long[] firstTimestamps;
+    private final double[] firstValues;
+    private final long[] lastTimestamps;
+    private final double[] lastValues;
+    private final long[] minTimestamps;
+    private final double[] minValues;
+    private final long[] maxTimestamps;
+    private final double[] maxValues;
+
+    /**
+     * DownsamplingAccumulator constructor
+     *
+     * @param startTime   - start time of range - the start of the first bucket
+     * @param endTime     - end time of range - within the last bucket. Must not be before startTime
+     * @param bucketCount - number of buckets
+     */
+    DownsamplingAccumulator(long startTime, long endTime, int bucketCount) {
+        if (bucketCount < 1) throw new IllegalArgumentException("bucketCount must be at least 1");
+        this.startTime = startTime;
+        this.endTime = endTime;
+        // Range may be wider than Long.MAX_VALUE, but never negative, so the difference is treated as unsigned
+        // Rounded up, so the last point in the range falls in the last bucket. Zero if a single bucket covers every timestamp
+        this.bucketWidthMs = Long.divideUnsigned(endTime - startTime, bucketCount) + 1;
+        occupied = new boolean[bucketCount];
+        firstTimestamps = new long[bucketCount];
+        firstValues = new double[bucketCount];
+        lastTimestamps = new long[bucketCount];
+        lastValues = new double[bucketCount];
+        minTimestamps = new long[bucketCount];
+        minValues = new double[bucketCount];
+        maxTimestamps = new long[bucketCount];
+        maxValues = new double[bucketCount];
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        if (timestamp < startTime || timestamp > endTime) return;
+        int bucket = bucketWidthMs == 0 ? 0 : (int) Long.divideUnsigned(timestamp - startTime, bucketWidthMs);
+        if (!occupied[bucket]) {
+            occupied[bucket] = true;
+            firstTimestamps[bucket] = timestamp;
+            firstValues[bucket] = value;
+            minTimestamps[bucket] = timestamp;
+            minValues[bucket] = value;
+            maxTimestamps[bucket] = timestamp;
+            maxValues[bucket] = value;
+        } else if (value < minValues[bucket]) {
+            minTimestamps[bucket] = timestamp;
+            minValues[bucket] = value;
+        } else if (value > maxValues[bucket]) {
+            maxTimestamps[bucket] = timestamp;
+            maxValues[bucket] = value;
+        }
+        lastTimestamps[bucket] = timestamp;
+        lastValues[bucket] = value;
+    }
+
+    /**
+     * Points kept - for each bucket holding points, its first, lowest, highest and last points in time order, without repeats
+     *
+     * @return array of DataPoint objects, in time order
+     */
+    DataPoint[] toDataPoints() {
+        List<DataPoint> dataPoints = new ArrayList<>();
+        long[] timestamps = new long[POINTS_PER_BUCKET];
+        double[] values = new double[POINTS_PER_BUCKET];
+        for (int bucket = 0; bucket < occupied.length; bucket++) {
+            if (!occupied[bucket]) continue;
+            timestamps[0] = firstTimestamps[bucket];
+            values[0] = firstValues[bucket];
+            // Lowest and highest may come in either order, but always between the first and last
+            boolean minFirst = minTimestamps[bucket] <= maxTimestamps[bucket];
+            timestamps[1] = minFirst ? minTimestamps[bucket] : maxTimestamps[bucket];
+            values[1] = minFirst ? minValues[bucket] : maxValues[bucket];
+            timestamps[2] = minFirst ? maxTimestamps[bucket] : minTimestamps[bucket];
+            values[2] = minFirst ? maxValues[bucket] : minValues[bucket];
+            timestamps[3] = lastTimestamps[bucket];
+            values[3] = lastValues[bucket];
+            for (int i = 0; i < POINTS_PER_BUCKET; i++) {
+                if (i == 0 || timestamps[i] != timestamps[i - 1]) dataPoints.add(new DataPoint(timestamps[i], values[i]));
+            }
+        }
+        return dataPoints.toArray(new DataPoint[0]);
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+
+@SuppressWarnings("unused")
+public interface IAsyncTimeSeriesClient {
+
+    /**
+     * Put a data point for time series timeSeriesName into the database
+     * The future completes once the point has been written, and the block archived if it is full
+     *
+     * @param timeSeriesName - name of time series
+     * @param dataPoint      - data point
+     * @return future completing when the write is done
+     */
+    CompletableFuture<Void> put(String timeSeriesName, DataPoint dataPoint);
+
+    /**
+     * Save data points to the database
+     * The future completes once all points have been written, and any full blocks archived
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array
+     * @return future completing when the write is done
+     */
+    CompletableFuture<Void> put(String timeSeriesName, DataPoint[] dataPoints);
+
+    /**
+     * Get all the data points for time series timeSeriesName
+     * between startDateTime and endDateTime (inclusive)
+     *
+     * @param timeSeriesName - time series name
+     * @param startDateTime  - start time for interval
+     * @param endDateTime    - end time for interval
+     * @return future holding the Data Points found for timeSeriesName between startDateTime and endDateTime
+     */
+    CompletableFuture<DataPoint[]> getPoints(String timeSeriesName, Date startDateTime, Date endDateTime);
+
+    /**
+     * Get all the data points for time series timeSeriesName
+     * between startDateTime and endDateTime (inclusive), in columnar form
+     *
+     * @param timeSeriesName - time series name
+     * @param startDateTime  - start time for interval
+     * @param endDateTime    - end time for interval
+     * @return future holding the Data Points found for timeSeriesName between startDateTime and endDateTime
+     */
+    CompletableFuture<TimeSeriesPoints> getTimeSeriesPoints(String timeSeriesName, Date startDateTime, Date endDateTime);
+
+    /**
+     * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     *
+     * @param timeSeriesName - time series name
+     * @param operation      - operation to apply vs query e.g. count, avg, min, max, vol
+     * @param fromDateTime   - start time for relevant time range
+     * @param toDateTime     - end time for relevant time range
+     * @return future holding the query result
+     */
+    CompletableFuture<Double> runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime);
+
+}
@@ -1,6 +1,9 @@
 package io.github.aerospike_examples.timeseries;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("unused")
 public interface ITimeSeriesClient {
@@ -24,6 +27,13 @@ public interface ITimeSeriesClient {
      */
     void put(String timeSeriesName, DataPoint[] dataPoints);
 
+    /**
+     * Save data points for many series to the database, minimising round trips
+     *
+     * @param dataPointsBySeries - data points to write, keyed by time series name
+     */
+    void put(Map<String, DataPoint[]> dataPointsBySeries);
+
     /**
      * Get all the data points for time series timeSeriesName
      * between startDateTime and endDateTime (inclusive)
@@ -35,6 +45,51 @@ public interface ITimeSeriesClient {
      */
     DataPoint[] getPoints(String timeSeriesName, Date startDateTime, Date endDateTime);
 
+    /**
+     * Get the data points for time series timeSeriesName between startDateTime and endDateTime (inclusive),
+     * reduced to at most targetPointCount points for charting
+     *
+     * @param timeSeriesName   - time series name
+     * @param startDateTime    - start time for interval
+     * @param endDateTime      - end time for interval
+     * @param targetPointCount - max number of points to return
+     * @return first, last, lowest and highest Data Points for each of targetPointCount / 4 time buckets
+     */
+    DataPoint[] getPoints(String timeSeriesName, Date startDateTime, Date endDateTime, int targetPointCount);
+
+    /**
+     * Get the data points for time series timeSeriesName between startDateTime and endDateTime (inclusive)
+     * whose value meets a predicate, selected on the server
+     *
+     * @param timeSeriesName - time series name
+     * @param startDateTime  - start time for interval
+     * @param endDateTime    - end time for interval
+     * @param predicate      - condition on the values of the points e.g. greater than 95
+     * @return Data Points found for timeSeriesName between startDateTime and endDateTime meeting the predicate
+     */
+    DataPoint[] getPoints(String timeSeriesName, Date startDateTime, Date endDateTime, ValuePredicate predicate);
+
+    /**
+     * Get all the data points for time series timeSeriesName
+     * between startDateTime and endDateTime (inclusive), in columnar form
+     *
+     * @param timeSeriesName - time series name
+     * @param startDateTime  - start time for interval
+     * @param endDateTime    - end time for interval
+     * @return Data Points found for timeSeriesName between startDateTime and endDateTime
+     */
+    TimeSeriesPoints getTimeSeriesPoints(String timeSeriesName, Date startDateTime, Date endDateTime);
+
+    /**
+     * Get the data points between startDateTime and endDateTime (inclusive) for many series, minimising round trips
+     *
+     * @param timeSeriesNames - time series names
+     * @param startDateTime   - start time for interval
+     * @param endDateTime     - end time for interval
+     * @return Data Points found for each series, keyed by time series name
+     */
+    Map<String, DataPoint[]> getPoints(Collection<String> timeSeriesNames, Date startDateTime, Date endDateTime);
+
     /**
      * Get a particular data point for timeSeriesName
      * Returns null if no point available
@@ -45,6 +100,59 @@ public interface ITimeSeriesClient {
      */
     DataPoint getPoint(String timeSeriesName, Date dateTime);
 
+    /**
+     * Get the most recent data point for a time series
+     *
+     * @param timeSeriesName - time series name
+     * @return Data Point with the latest timestamp - null if there is none
+     */
+    DataPoint getLatest(String timeSeriesName);
+
+    /**
+     * Get the n most recent data points for a time series
+     *
+     * @param timeSeriesName - time series name
+     * @param n              - number of points required
+     * @return up to n Data Points with the latest timestamps, in time order
+     */
+    DataPoint[] getLast(String timeSeriesName, int n);
+
+    /**
+     * Get the most recent data point for each of many time series, minimising round trips
+     *
+     * @param timeSeriesNames - time series names
+     * @return Data Point with the latest timestamp, keyed by time series name
+     */
+    Map<String, DataPoint> getLatest(Collection<String> timeSeriesNames);
+
+    /**
+     * Get the n most recent data points for each of many time series, minimising round trips
+     *
+     * @param timeSeriesNames - time series names
+     * @param n               - number of points required for each series
+     * @return up to n Data Points with the latest timestamps for each series, keyed by time series name
+     */
+    Map<String, DataPoint[]> getLast(Collection<String> timeSeriesNames, int n);
+
+    /**
+     * Retrieve the points added to a named time series since a cursor - an incremental change feed
+     *
+     * @param timeSeriesName - name of time series
+     * @param cursor         - cursor returned by the last call. Null to read every point
+     * @param maxPoints      - max number of points returned - the cursor is set at the last point returned
+     * @return points added since the cursor, and the cursor to use in the next call
+     */
+    TimeSeriesChanges readSince(String timeSeriesName, ChangeCursor cursor, int maxPoints);
+
+    /**
+     * Retrieve the points added to each of many series since a cursor
+     *
+     * @param cursorsBySeries - cursor for each series, keyed by time series name. Null cursors read every point
+     * @param maxPoints       - max number of points returned for each series
+     * @return points added since the cursor, and the cursor to use in the next call, keyed by time series name
+     */
+    Map<String, TimeSeriesChanges> readSince(Map<String, ChangeCursor> cursorsBySeries, int maxPoints);
+
     /**
      * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
      *
@@ -56,4 +164,118 @@ public interface ITimeSeriesClient {
      */
     double runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime);
 
+    /**
+     * Estimate quantiles of the values of a particular time series range
+     *
+     * @param timeSeriesName - time series name
+     * @param quantiles      - quantiles required, each between 0 and 1 e.g. 0.99
+     * @param fromDateTime   - start time for relevant time range
+     * @param toDateTime     - end time for relevant time range
+     * @return estimate of each quantile, in the order given
+     */
+    double[] runQuantileQuery(String timeSeriesName, double[] quantiles, Date fromDateTime, Date toDateTime);
+
+    /**
+     * Run a query vs the same range of many series, minimising round trips
+     *
+     * @param timeSeriesNames - time series names
+     * @param operation       - operation to apply vs query e.g. count, avg, min, max, vol
+     * @param fromDateTime    - start time for relevant time range
+     * @param toDateTime      - end time for relevant time range
+     * @return result of the query for each series, keyed by time series name
+     */
+    Map<String, Double> runQuery(Collection<String> timeSeriesNames, QueryOperation operation, Date fromDateTime, Date toDateTime);
+
+    /**
+     * Run a query vs a particular time series range, giving a result for each time bucket of bucketWidthMs starting at fromDateTime
+     *
+     * @param timeSeriesName - time series name
+     * @param operation      - operation to apply to each bucket e.g. count, avg, min, max, vol
+     * @param fromDateTime   - start time for relevant time range
+     * @param toDateTime     - end time for relevant time range
+     * @param bucketWidthMs  - width of each bucket in milliseconds
+     * @return result of the query for each bucket, in time order
+     */
+    double[] runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime, long bucketWidthMs);
+
+    /**
+     * Retrieve the count, sum, min and max of the points in time buckets no wider than resolutionMs
+     *
+     * @param timeSeriesName - time series name
+     * @param fromDateTime   - start time for relevant time range
+     * @param toDateTime     - end time for relevant time range
+     * @param resolutionMs   - widest bucket acceptable, in milliseconds
+     * @return RollupPoint for each bucket holding points, in time order
+     */
+    RollupPoint[] getRollups(String timeSeriesName, Date fromDateTime, Date toDateTime, long resolutionMs);
+
+    /**
+     * Set the tags for a series, replacing any it already has, and update the tag index used to find series by tag
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - tag values keyed by tag name
+     */
+    void setTags(String timeSeriesName, Map<String, String> tags);
+
+    /**
+     * Get the tags for a series
+     *
+     * @param timeSeriesName - time series name
+     * @return tag values keyed by tag name
+     */
+    Map<String, String> getTags(String timeSeriesName);
+
+    /**
+     * Names of the series holding all of a set of tags, found from the tag index
+     *
+     * @param tagSelector - tag values keyed by tag name
+     * @return names of the selected series
+     */
+    List<String> getTimeSeriesNames(Map<String, String> tagSelector);
+
+    /**
+     * Get the data points between startDateTime and endDateTime (inclusive) for every series holding a set of tags
+     *
+     * @param tagSelector   - tag values keyed by tag name
+     * @param startDateTime - start time for interval
+     * @param endDateTime   - end time for interval
+     * @return Data Points found for each selected series, keyed by time series name
+     */
+    Map<String, DataPoint[]> getPoints(Map<String, String> tagSelector, Date startDateTime, Date endDateTime);
+
+    /**
+     * Run a query vs the same range of every series holding a set of tags
+     *
+     * @param tagSelector  - tag values keyed by tag name
+     * @param operation    - operation to apply vs query e.g. count, avg, min, max, vol
+     * @param fromDateTime - start time for relevant time range
+     * @param toDateTime   - end time for relevant time range
+     * @return result of the query for each selected series, keyed by time series name
+     */
+    Map<String, Double> runQuery(Map<String, String> tagSelector, QueryOperation operation, Date fromDateTime, Date toDateTime);
+
+    /**
+     * Find the K series with the highest result for a query vs the same range
+     *
+     * @param timeSeriesNames - time series names
+     * @param operation       - operation to rank the series by e.g. count, avg, min, max
+     * @param fromDateTime    - start time for relevant time range
+     * @param toDateTime      - end time for relevant time range
+     * @param k               - number of series to return
+     * @return result of the query for the top K series, keyed by time series name, highest first
+     */
+    Map<String, Double> runTopKQuery(Collection<String> timeSeriesNames, QueryOperation operation, Date fromDateTime, Date toDateTime, int k);
+
+    /**
+     * Find the K series holding a set of tags with the highest result for a query vs the same range
+     *
+     * @param tagSelector  - tag values keyed by tag name
+     * @param operation    - operation to rank the series by e.g. count, avg, min, max
+     * @param fromDateTime - start time for relevant time range
+     * @param toDateTime   - end time for relevant time range
+     * @param k            - number of series to return
+     * @return result of the query for the top K selected series, keyed by time series name, highest first
+     */
+    Map<String, Double> runTopKQuery(Map<String, String> tagSelector, QueryOperation operation, Date fromDateTime, Date toDateTime, int k);
+
 }
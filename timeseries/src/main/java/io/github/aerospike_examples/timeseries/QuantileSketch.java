@@ -0,0 +1,163 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mergeable sketch of a set of values, from which quantiles can be estimated - after DDSketch
+ * <p>
+ * Values are counted in logarithmically sized bins, so any quantile is estimated to within a relative error of
+ * Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY. The number of bins depends only on the range of the values, not how many
+ * there are. Sketches are merged by adding bin counts, so merging the sketches of several blocks gives exactly the sketch
+ * of all their values.
+ * <p>
+ * A sketch is built for each block as it is archived, and held in the block record - see TimeSeriesClient.binsForHistoricBlock
+ */
+class QuantileSketch {
+
+    private static final double GAMMA = (1 + Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY) / (1 - Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    // Positions of the fields of a stored sketch, as given by toStoredSketch
+    private static final int STORED_ZERO_COUNT = 0;
+    private static final int STORED_MIN = 1;
+    private static final int STORED_MAX = 2;
+    private static final int STORED_POSITIVE_COUNTS = 3;
+    private static final int STORED_NEGATIVE_COUNTS = 4;
+
+    // Bin counts keyed by bin index, for positive values and for the magnitudes of negative values
+    private final TreeMap<Long, Long> positiveCounts = new TreeMap<>();
+    private final TreeMap<Long, Long> negativeCounts = new TreeMap<>();
+    // Values too close to zero to be binned
+    private long zeroCount = 0;
+    private long count = 0;
+    // Exact extremes - estimates are kept within them
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Add a value to the sketch. NaN values are ignored
+     *
+     * @param value - value
+     */
+    void add(double value) {
+        if (Double.isNaN(value)) return;
+        if (value >= Double.MIN_NORMAL) positiveCounts.merge(binIndex(value), 1L, Long::sum);
+        else if (value <= -Double.MIN_NORMAL) negativeCounts.merge(binIndex(-value), 1L, Long::sum);
+        else zeroCount++;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add the values counted by another sketch to this one
+     *
+     * @param sketch - sketch to merge in
+     */
+    void merge(QuantileSketch sketch) {
+        for (Map.Entry<Long, Long> bin : sketch.positiveCounts.entrySet()) positiveCounts.merge(bin.getKey(), bin.getValue(), Long::sum);
+        for (Map.Entry<Long, Long> bin : sketch.negativeCounts.entrySet()) negativeCounts.merge(bin.getKey(), bin.getValue(), Long::sum);
+        zeroCount += sketch.zeroCount;
+        count += sketch.count;
+        min = Math.min(min, sketch.min);
+        max = Math.max(max, sketch.max);
+    }
+
+    /**
+     * Number of values added
+     *
+     * @return count
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Estimate of a quantile of the values added - e.g. 0.5 for the median
+     *
+     * @param quantile - quantile, between 0 and 1
+     * @return estimate, within the relative accuracy of the sketch - NaN if no values have been added
+     */
+    double quantile(double quantile) {
+        if (count == 0) return Double.NaN;
+        if (quantile <= 0) return min;
+        if (quantile >= 1) return max;
+        double rank = quantile * (count - 1);
+        long seen = 0;
+        // Most negative values first
+        for (Map.Entry<Long, Long> bin : negativeCounts.descendingMap().entrySet()) {
+            seen += bin.getValue();
+            if (seen > rank) return clamp(-binValue(bin.getKey()));
+        }
+        seen += zeroCount;
+        if (seen > rank) return clamp(0);
+        for (Map.Entry<Long, Long> bin : positiveCounts.entrySet()) {
+            seen += bin.getValue();
+            if (seen > rank) return clamp(binValue(bin.getKey()));
+        }
+        return max;
+    }
+
+    /**
+     * The sketch in the form stored in a block record - [ZeroCount, Min, Max, {bin index: count} for positive values,
+     * {bin index: count} for negative values]
+     *
+     * @return stored sketch
+     */
+    List<Object> toStoredSketch() {
+        List<Object> storedSketch = new ArrayList<>();
+        storedSketch.add(zeroCount);
+        storedSketch.add(min);
+        storedSketch.add(max);
+        storedSketch.add(positiveCounts);
+        storedSketch.add(negativeCounts);
+        return storedSketch;
+    }
+
+    /**
+     * Sketch held in a block record
+     *
+     * @param timeSeriesBlock - block record. May be null
+     * @return sketch - null if the record holds none, as for blocks archived by earlier versions
+     */
+    static QuantileSketch fromRecord(Record timeSeriesBlock) {
+        List<?> storedSketch = timeSeriesBlock != null ? timeSeriesBlock.getList(Constants.QUANTILE_SKETCH_BIN_NAME) : null;
+        if (storedSketch == null) return null;
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.zeroCount = (Long) storedSketch.get(STORED_ZERO_COUNT);
+        sketch.min = (Double) storedSketch.get(STORED_MIN);
+        sketch.max = (Double) storedSketch.get(STORED_MAX);
+        sketch.count = sketch.zeroCount + addStoredCounts(sketch.positiveCounts, storedSketch.get(STORED_POSITIVE_COUNTS))
+                + addStoredCounts(sketch.negativeCounts, storedSketch.get(STORED_NEGATIVE_COUNTS));
+        return sketch;
+    }
+
+    private static long addStoredCounts(TreeMap<Long, Long> counts, Object storedCounts) {
+        long total = 0;
+        for (Map.Entry<?, ?> bin : ((Map<?, ?>) storedCounts).entrySet()) {
+            counts.put((Long) bin.getKey(), (Long) bin.getValue());
+            total += (Long) bin.getValue();
+        }
+        return total;
+    }
+
+    // Bin holding values in (GAMMA^(index - 1), GAMMA^index]
+    private static long binIndex(double magnitude) {
+        return (long) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    // Value within GAMMA^(index - 1) to GAMMA^index having the same relative error from both ends
+    private static double binValue(long index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
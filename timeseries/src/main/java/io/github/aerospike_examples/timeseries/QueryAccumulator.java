@@ -0,0 +1,211 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.GorillaCodec;
+
+/**
+ * Single pass accumulator for query operations - data points are folded in one at a time, so no arrays need be built
+ * Variance is accumulated using Welford's method, avoiding the loss of precision of the sum of squares approach
+ * <p>
+ * Points outside startTime to endTime are ignored. Points must arrive in timestamp order - if one does not, the accumulator
+ * is marked as out of order and the caller must merge the points before aggregating them
+ * <p>
+ * Whole blocks may also be folded in using the summary held for them in the index - see addBlockSummary
+ * <p>
+ * Quantile operations need a QuantileSketch of the values. This is only kept if asked for, being far more costly than the
+ * other fields. Whole blocks then also need their stored sketch - see addBlockQuantileSketch
+ */
+class QueryAccumulator implements GorillaCodec.DataPointConsumer {
+
+    // Positions of the fields of a block summary, as returned by summary
+    static final int SUMMARY_SUM = 0;
+    static final int SUMMARY_SUM_SQUARED_DIFFERENCES = 1;
+    static final int SUMMARY_MIN = 2;
+    static final int SUMMARY_MAX = 3;
+    static final int SUMMARY_FIRST = 4;
+    static final int SUMMARY_LAST = 5;
+    static final int SUMMARY_LENGTH = 6;
+
+    private final long startTime;
+    private final long endTime;
+
+    private long count = 0;
+    private double sum = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double firstValue = Double.NaN;
+    private double lastValue = Double.NaN;
+    private long lastTimestamp;
+    // Welford - running mean and sum of squared differences from it
+    private double mean = 0;
+    private double sumSquaredDifferences = 0;
+    // Set if a point did not follow the previous one in time
+    private boolean outOfOrder = false;
+    // Null unless quantiles are needed
+    private final QuantileSketch quantileSketch;
+    // Set if a block was summarised without the sketch needed for quantiles
+    private boolean quantileSketchMissing = false;
+
+    /**
+     * QueryAccumulator constructor
+     *
+     * @param startTime - start time of range aggregated
+     * @param endTime   - end time of range aggregated
+     */
+    QueryAccumulator(long startTime, long endTime) {
+        this(startTime, endTime, false);
+    }
+
+    /**
+     * QueryAccumulator constructor
+     *
+     * @param startTime       - start time of range aggregated
+     * @param endTime         - end time of range aggregated
+     * @param sketchQuantiles - true if quantile operations such as P99 are needed
+     */
+    QueryAccumulator(long startTime, long endTime, boolean sketchQuantiles) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.quantileSketch = sketchQuantiles ? new QuantileSketch() : null;
+    }
+
+    @Override
+    public void accept(long timestamp, double value) {
+        if (timestamp < startTime || timestamp > endTime) return;
+        if (count > 0 && timestamp <= lastTimestamp) {
+            outOfOrder = true;
+            return;
+        }
+        if (count == 0) firstValue = value;
+        lastValue = value;
+        lastTimestamp = timestamp;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        double difference = value - mean;
+        mean += difference / count;
+        sumSquaredDifferences += difference * (value - mean);
+        if (quantileSketch != null) quantileSketch.add(value);
+    }
+
+    /**
+     * Fold in a whole block using its summary, rather than its points. The block must lie entirely within the range
+     * Summaries are combined using Chan's parallel form of Welford's method
+     *
+     * @param blockStartTime - start time of the block
+     * @param blockEndTime   - end time of the block - the timestamp of its last point
+     * @param blockCount     - number of points in the block
+     * @param summary        - block summary, as returned by summary
+     */
+    void addBlockSummary(long blockStartTime, long blockEndTime, long blockCount, double[] summary) {
+        if (blockCount == 0) return;
+        if (count > 0 && blockStartTime <= lastTimestamp) {
+            outOfOrder = true;
+            return;
+        }
+        long totalCount = count + blockCount;
+        double blockMean = summary[SUMMARY_SUM] / blockCount;
+        double difference = blockMean - mean;
+        mean += difference * blockCount / totalCount;
+        sumSquaredDifferences += summary[SUMMARY_SUM_SQUARED_DIFFERENCES] + difference * difference * count / totalCount * blockCount;
+        if (count == 0) firstValue = summary[SUMMARY_FIRST];
+        lastValue = summary[SUMMARY_LAST];
+        lastTimestamp = blockEndTime;
+        count = totalCount;
+        sum += summary[SUMMARY_SUM];
+        min = Math.min(min, summary[SUMMARY_MIN]);
+        max = Math.max(max, summary[SUMMARY_MAX]);
+    }
+
+    /**
+     * Fold in the quantile sketch for a whole block, following addBlockSummary. Ignored unless quantiles are needed
+     *
+     * @param blockSketch - sketch stored with the block - null if the block has none, in which case the accumulator is incomplete
+     */
+    void addBlockQuantileSketch(QuantileSketch blockSketch) {
+        if (quantileSketch == null) return;
+        if (blockSketch == null) quantileSketchMissing = true;
+        else quantileSketch.merge(blockSketch);
+    }
+
+    /**
+     * Summary of the points accumulated, in the form stored in the index for an archived block
+     *
+     * @return {sum, sum of squared differences from the mean, min, max, first value, last value}
+     */
+    double[] summary() {
+        double[] summary = new double[SUMMARY_LENGTH];
+        summary[SUMMARY_SUM] = sum;
+        summary[SUMMARY_SUM_SQUARED_DIFFERENCES] = sumSquaredDifferences;
+        summary[SUMMARY_MIN] = min;
+        summary[SUMMARY_MAX] = max;
+        summary[SUMMARY_FIRST] = firstValue;
+        summary[SUMMARY_LAST] = lastValue;
+        return summary;
+    }
+
+    /**
+     * Whether a point arrived out of timestamp order, or with the timestamp of the previous point
+     * If so, result does not reflect all the points supplied
+     *
+     * @return true if out of order
+     */
+    boolean isOutOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * Whether results reflect all the points and blocks supplied - false if they arrived out of order, or a block needed
+     * for quantiles had no sketch. If so, the caller must aggregate the points of the blocks instead
+     *
+     * @return true if complete
+     */
+    boolean isComplete() {
+        return !outOfOrder && !quantileSketchMissing;
+    }
+
+    /**
+     * Estimate of a quantile of the points accumulated, within Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY
+     *
+     * @param quantile - quantile, between 0 and 1
+     * @return estimate - NaN if there are no points, or quantiles were not asked for
+     */
+    double quantile(double quantile) {
+        return quantileSketch != null ? quantileSketch.quantile(quantile) : Double.NaN;
+    }
+
+    /**
+     * Result of a query operation over the points accumulated
+     *
+     * @param operation - operation
+     * @return result - NaN if there are too few points for the operation
+     */
+    double result(QueryOperation operation) {
+        switch (operation) {
+            case MAX:
+                return count > 0 ? max : Double.NaN;
+            case MIN:
+                return count > 0 ? min : Double.NaN;
+            case COUNT:
+                return count;
+            case SUM:
+                return sum;
+            case AVG:
+                return count > 0 ? sum / count : Double.NaN;
+            case FIRST:
+                return firstValue;
+            case LAST:
+                return lastValue;
+            case VOL:
+                return count > 0 ? Math.sqrt(sumSquaredDifferences / count) : Double.NaN;
+            case STD_DEV:
+                return count > 1 ? Math.sqrt(sumSquaredDifferences / (count - 1)) : Double.NaN;
+            case P50:
+            case P90:
+            case P99:
+                return quantile(operation.getQuantile());
+            default:
+                return Double.NaN;
+        }
+    }
+}
@@ -28,14 +28,58 @@ public enum QueryOperation {
     /**
      * Indicates the VOL operation ( = sqrt(variance) ) should be executed across an array of DataPoints
      */
-    VOL("vol", "volatility of values in series");
+    VOL("vol", "volatility of values in series"),
+
+    /**
+     * Indicates the SUM operation should be executed across an array of DataPoints
+     */
+    SUM("sum", "sum of values in series"),
+
+    /**
+     * Indicates the FIRST operation - the value of the earliest DataPoint - should be executed across an array of DataPoints
+     */
+    FIRST("first", "first value in series"),
+
+    /**
+     * Indicates the LAST operation - the value of the latest DataPoint - should be executed across an array of DataPoints
+     */
+    LAST("last", "last value in series"),
+
+    /**
+     * Indicates the STD_DEV operation ( = sqrt(sample variance) ) should be executed across an array of DataPoints
+     * Differs from VOL, the population standard deviation, in dividing by one less than the count
+     */
+    STD_DEV("stddev", "sample standard deviation of values in series"),
+
+    /**
+     * Indicates the P50 operation - the median value - should be executed across an array of DataPoints
+     * Quantiles are estimated to within Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY
+     */
+    P50("p50", "median value of series", 0.5),
+
+    /**
+     * Indicates the P90 operation - the 90th percentile value - should be executed across an array of DataPoints
+     */
+    P90("p90", "90th percentile value of series", 0.9),
+
+    /**
+     * Indicates the P99 operation - the 99th percentile value - should be executed across an array of DataPoints
+     */
+    P99("p99", "99th percentile value of series", 0.99);
 
     private final String shortName;
     private final String description;
+    // Quantile estimated by the operation - NaN if not a quantile operation
+    private final double quantile;
 
     QueryOperation(String shortName, String description) {
+        this(shortName, description, Double.NaN);
+    }
+
+    QueryOperation(String shortName, String description, double quantile) {
         this.shortName = shortName;
         this.description = description;
+        this.quantile = quantile;
     }
 
     /**
@@ -57,4 +101,22 @@ public enum QueryOperation {
     public String getDescription() {
         return description;
     }
+
+    /**
+     * Whether the operation estimates a quantile, such as P99
+     *
+     * @return true if a quantile operation
+     */
+    public boolean isQuantile() {
+        return !Double.isNaN(quantile);
+    }
+
+    /**
+     * Quantile estimated by the operation e.g. 0.99 for P99
+     *
+     * @return quantile - NaN if not a quantile operation
+     */
+    public double getQuantile() {
+        return quantile;
+    }
 }
@@ -0,0 +1,133 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summary of the data points in a time bucket - as returned by TimeSeriesClient.getRollups
+ * Holds the count, sum, min and max of the points, so buckets can be combined without loss
+ */
+public class RollupPoint {
+
+    private final long bucketStartTime;
+    private long count = 0;
+    private double sum = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * RollupPoint constructor - an empty bucket
+     *
+     * @param bucketStartTime - start time of the bucket
+     */
+    RollupPoint(long bucketStartTime) {
+        this.bucketStartTime = bucketStartTime;
+    }
+
+    /**
+     * Start time of the bucket
+     *
+     * @return bucket start time
+     */
+    public long getBucketStartTime() {
+        return bucketStartTime;
+    }
+
+    /**
+     * Number of data points in the bucket
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Sum of the values in the bucket
+     *
+     * @return sum
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Minimum value in the bucket
+     *
+     * @return min - NaN if the bucket is empty
+     */
+    public double getMin() {
+        return count > 0 ? min : Double.NaN;
+    }
+
+    /**
+     * Maximum value in the bucket
+     *
+     * @return max - NaN if the bucket is empty
+     */
+    public double getMax() {
+        return count > 0 ? max : Double.NaN;
+    }
+
+    /**
+     * Average value in the bucket
+     *
+     * @return average - NaN if the bucket is empty
+     */
+    @SuppressWarnings("unused") // Required in API
+    public double getAverage() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Add a data point to the bucket
+     *
+     * @param value - value of data point
+     */
+    void add(double value) {
+        add(1, value, value, value);
+    }
+
+    /**
+     * Combine a summary of further points with the bucket
+     *
+     * @param count - number of points
+     * @param sum   - sum of their values
+     * @param min   - min value
+     * @param max   - max value
+     */
+    void add(long count, double sum, double min, double max) {
+        if (count == 0) return;
+        this.count += count;
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    /**
+     * Combine another bucket with this one
+     *
+     * @param rollupPoint - bucket to combine
+     */
+    void add(RollupPoint rollupPoint) {
+        add(rollupPoint.count, rollupPoint.sum, rollupPoint.min, rollupPoint.max);
+    }
+
+    /**
+     * Combine a bucket as stored in a rollup record, [Count, Sum, Min, Max], with the bucket
+     *
+     * @param storedBucket - stored bucket
+     */
+    void add(List<?> storedBucket) {
+        add((Long) storedBucket.get(0), (Double) storedBucket.get(1), (Double) storedBucket.get(2), (Double) storedBucket.get(3));
+    }
+
+    /**
+     * The bucket in the form stored in a rollup record
+     *
+     * @return [Count, Sum, Min, Max]
+     */
+    List<Object> toStoredBucket() {
+        return Arrays.<Object>asList(count, sum, min, max);
+    }
+}
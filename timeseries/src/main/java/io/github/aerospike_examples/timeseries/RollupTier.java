@@ -0,0 +1,88 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+/**
+ * Enumeration of the rollup tiers maintained for a time series, if rollups are enabled - see TimeSeriesClient.setRollupsEnabled
+ * <p>
+ * Each tier holds the count, sum, min and max of the points in each bucket of its duration, and is stored in its own set
+ */
+public enum RollupTier {
+
+    /**
+     * One minute buckets
+     */
+    MINUTE("1m", 60 * Constants.MILLISECONDS_IN_SECOND),
+
+    /**
+     * One hour buckets
+     */
+    HOUR("1h", 60 * 60 * Constants.MILLISECONDS_IN_SECOND),
+
+    /**
+     * One day buckets
+     */
+    DAY("1d", 24 * 60 * 60 * Constants.MILLISECONDS_IN_SECOND);
+
+    private final String shortName;
+    private final long bucketDurationMs;
+
+    RollupTier(String shortName, long bucketDurationMs) {
+        this.shortName = shortName;
+        this.bucketDurationMs = bucketDurationMs;
+    }
+
+    /**
+     * Get short name for tier - used to form the name of the set the tier is stored in
+     *
+     * @return short name for tier
+     */
+    @SuppressWarnings("unused")
+    public String getShortName() {
+        return shortName;
+    }
+
+    /**
+     * Duration of the buckets held by the tier
+     *
+     * @return bucket duration in milliseconds
+     */
+    public long getBucketDurationMs() {
+        return bucketDurationMs;
+    }
+
+    /**
+     * Start time of the bucket covering a timestamp
+     *
+     * @param timestamp - timestamp
+     * @return bucket start time
+     */
+    long bucketStartTime(long timestamp) {
+        return Math.floorDiv(timestamp, bucketDurationMs) * bucketDurationMs;
+    }
+
+    /**
+     * Start time of the rollup record holding the bucket covering a timestamp. Each record holds Constants.ROLLUP_BUCKETS_PER_RECORD buckets
+     *
+     * @param timestamp - timestamp
+     * @return rollup record start time
+     */
+    long recordStartTime(long timestamp) {
+        long recordDurationMs = bucketDurationMs * Constants.ROLLUP_BUCKETS_PER_RECORD;
+        return Math.floorDiv(timestamp, recordDurationMs) * recordDurationMs;
+    }
+
+    /**
+     * The coarsest tier whose buckets are no wider than a given resolution
+     *
+     * @param resolutionMs - required resolution in milliseconds
+     * @return tier - null if the resolution is finer than every tier
+     */
+    static RollupTier coarsestWithin(long resolutionMs) {
+        RollupTier coarsestTier = null;
+        for (RollupTier tier : values()) {
+            if (tier.bucketDurationMs <= resolutionMs) coarsestTier = tier;
+        }
+        return coarsestTier;
+    }
+}
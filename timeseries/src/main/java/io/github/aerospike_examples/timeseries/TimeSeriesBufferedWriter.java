@@ -0,0 +1,293 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-coalescing wrapper for a TimeSeriesClient
+ * <p>
+ * Every TimeSeriesClient.put call results in the current block for the series being re-written. For series receiving
+ * many points per second this is expensive. TimeSeriesBufferedWriter holds points per series in memory and writes them
+ * using a single TimeSeriesClient.put(String, DataPoint[]) call once either
+ * <ul>
+ *     <li>maxBufferedPointsPerSeries points have been buffered for the series or</li>
+ *     <li>the oldest buffered point for the series has been held for lingerMs milliseconds</li>
+ * </ul>
+ * Points held in the buffer are not visible to readers until they are written. Call flush() to write all buffered points
+ * immediately and close() when done - points still buffered when the writer is discarded without close() are lost.
+ * <p>
+ * Writes triggered by the linger time happen on a background thread. If one fails, the exception is re-thrown by the next
+ * call to flush() or close(). Points from a failed write, on any thread, are returned to the buffer, so are written again
+ * by a later write for the series.
+ */
+public class TimeSeriesBufferedWriter implements Closeable {
+
+    // Client used for writes
+    private final TimeSeriesClient timeSeriesClient;
+    // Max points held per series before a write is triggered
+    private final int maxBufferedPointsPerSeries;
+    // Max time points are held for before a write is triggered
+    private final long lingerMs;
+
+    // Buffered points, by series name
+    private final ConcurrentHashMap<String, SeriesBuffer> buffers = new ConcurrentHashMap<>();
+    // Executes linger time triggered writes
+    private final ScheduledThreadPoolExecutor lingerExecutor;
+    // First failure seen on the background thread, if any, not yet reported
+    private final AtomicReference<RuntimeException> backgroundFailure = new AtomicReference<>();
+
+    private volatile boolean closed = false;
+    // Held for read while points are buffered, and for write while closing, so no points are buffered once close has begun its flush
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * TimeSeriesBufferedWriter constructor
+     *
+     * @param timeSeriesClient           - client used to write the buffered points
+     * @param maxBufferedPointsPerSeries - number of points held for a series before they are written
+     * @param lingerMs                   - max time in milliseconds points are held before they are written
+     */
+    public TimeSeriesBufferedWriter(TimeSeriesClient timeSeriesClient, int maxBufferedPointsPerSeries, long lingerMs) {
+        if (maxBufferedPointsPerSeries < 1) throw new IllegalArgumentException("maxBufferedPointsPerSeries must be at least 1");
+        if (lingerMs < 1) throw new IllegalArgumentException("lingerMs must be at least 1");
+        this.timeSeriesClient = timeSeriesClient;
+        this.maxBufferedPointsPerSeries = maxBufferedPointsPerSeries;
+        this.lingerMs = lingerMs;
+        this.lingerExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "TimeSeriesBufferedWriter-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // On close, linger writes not yet due are dropped - their buffers are written by the final flush
+        lingerExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * TimeSeriesBufferedWriter constructor using default size and linger time thresholds
+     * See Constants.DEFAULT_BUFFERED_WRITER_MAX_POINTS_PER_SERIES and Constants.DEFAULT_BUFFERED_WRITER_LINGER_MS
+     *
+     * @param timeSeriesClient - client used to write the buffered points
+     */
+    @SuppressWarnings("unused") // Required in API
+    public TimeSeriesBufferedWriter(TimeSeriesClient timeSeriesClient) {
+        this(timeSeriesClient, Constants.DEFAULT_BUFFERED_WRITER_MAX_POINTS_PER_SERIES, Constants.DEFAULT_BUFFERED_WRITER_LINGER_MS);
+    }
+
+    /**
+     * Buffer a data point for a series. If the size threshold is reached, the buffered points for the series are
+     * written by the calling thread
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoint      - data point
+     */
+    public void put(String timeSeriesName, DataPoint dataPoint) {
+        put(timeSeriesName, new DataPoint[]{dataPoint});
+    }
+
+    /**
+     * Buffer data points for a series. If the size threshold is reached, the buffered points for the series are
+     * written by the calling thread
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array
+     */
+    public void put(String timeSeriesName, DataPoint[] dataPoints) {
+        // Taken out of the map inside compute, so only this thread can write it
+        SeriesBuffer[] fullBuffer = new SeriesBuffer[1];
+        closeLock.readLock().lock();
+        try {
+            if (closed) throw new IllegalStateException("TimeSeriesBufferedWriter has been closed");
+            if (dataPoints.length == 0) return;
+            buffers.compute(timeSeriesName, (name, buffer) -> {
+                if (buffer == null) {
+                    buffer = new SeriesBuffer();
+                    scheduleLingerWrite(name, buffer);
+                }
+                // Synchronized only so getBufferedPointCount sees a consistent list
+                synchronized (buffer) {
+                    buffer.dataPoints.addAll(Arrays.asList(dataPoints));
+                }
+                if (buffer.dataPoints.size() >= maxBufferedPointsPerSeries) {
+                    fullBuffer[0] = buffer;
+                    return null;
+                }
+                return buffer;
+            });
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        if (fullBuffer[0] != null) write(timeSeriesName, fullBuffer[0]);
+    }
+
+    /**
+     * Write all buffered points for a series
+     *
+     * @param timeSeriesName - time series name
+     */
+    @SuppressWarnings("unused") // Required in API
+    public void flush(String timeSeriesName) {
+        SeriesBuffer buffer = buffers.remove(timeSeriesName);
+        if (buffer != null) write(timeSeriesName, buffer);
+        throwBackgroundFailure();
+    }
+
+    /**
+     * Write all buffered points for all series
+     */
+    public void flush() {
+        for (String timeSeriesName : buffers.keySet()) {
+            SeriesBuffer buffer = buffers.remove(timeSeriesName);
+            if (buffer != null) write(timeSeriesName, buffer);
+        }
+        throwBackgroundFailure();
+    }
+
+    /**
+     * Write all buffered points and stop the background thread. Further calls to put will throw an IllegalStateException
+     * A linger write already in progress is allowed to complete first. If a write fails, its points remain buffered and
+     * flush() may be called to retry them
+     */
+    @Override
+    public void close() {
+        // Wait for puts buffering points - those starting later will see the writer is closed
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        lingerExecutor.shutdown();
+        try {
+            lingerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Number of points currently buffered, across all series
+     *
+     * @return buffered point count
+     */
+    @SuppressWarnings("unused") // Required in API
+    public int getBufferedPointCount() {
+        int bufferedPointCount = 0;
+        for (SeriesBuffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                bufferedPointCount += buffer.dataPoints.size();
+            }
+        }
+        return bufferedPointCount;
+    }
+
+    /**
+     * Getter for size threshold
+     *
+     * @return max points buffered per series
+     */
+    @SuppressWarnings("unused") // Required in API
+    public int getMaxBufferedPointsPerSeries() {
+        return maxBufferedPointsPerSeries;
+    }
+
+    /**
+     * Getter for linger time threshold
+     *
+     * @return max time points are buffered for, in milliseconds
+     */
+    @SuppressWarnings("unused") // Required in API
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    /**
+     * Schedule the write of a buffer once the linger time has elapsed
+     * If the buffer has already been written because the size threshold was reached or flush was called, nothing happens
+     *
+     * @param timeSeriesName - time series name
+     * @param buffer         - newly created buffer for the series
+     */
+    private void scheduleLingerWrite(String timeSeriesName, SeriesBuffer buffer) {
+        if (closed) return;
+        try {
+            lingerExecutor.schedule(() -> {
+                // remove(key, value) makes sure we only write the buffer if no-one else has taken it
+                if (buffers.remove(timeSeriesName, buffer)) {
+                    try {
+                        write(timeSeriesName, buffer);
+                    } catch (RuntimeException e) {
+                        backgroundFailure.compareAndSet(null, e);
+                    }
+                }
+            }, lingerMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed since the check above - the buffer is written by the final flush
+        }
+    }
+
+    /**
+     * Write the contents of a buffer which has been removed from the buffer map
+     * Points are sorted so the start time recorded for a new block is the earliest point
+     * If the write fails, the points are returned to the buffer for the series before the exception is re-thrown
+     *
+     * @param timeSeriesName - time series name
+     * @param buffer         - buffer to write
+     */
+    private void write(String timeSeriesName, SeriesBuffer buffer) {
+        // Once a buffer is out of the map no further points can be added to it
+        DataPoint[] dataPoints = buffer.dataPoints.toArray(new DataPoint[0]);
+        Arrays.sort(dataPoints, Comparator.comparingLong(DataPoint::getTimestamp));
+        try {
+            timeSeriesClient.put(timeSeriesName, dataPoints);
+        } catch (RuntimeException e) {
+            requeue(timeSeriesName, dataPoints);
+            throw e;
+        }
+    }
+
+    /**
+     * Return the points of a failed write to the buffer for the series, to be written with the next write for the series
+     * Points rewritten more than once are harmless - a put of an existing point replaces it
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - points of the failed write
+     */
+    private void requeue(String timeSeriesName, DataPoint[] dataPoints) {
+        buffers.compute(timeSeriesName, (name, buffer) -> {
+            if (buffer == null) {
+                buffer = new SeriesBuffer();
+                scheduleLingerWrite(name, buffer);
+            }
+            synchronized (buffer) {
+                buffer.dataPoints.addAll(Arrays.asList(dataPoints));
+            }
+            return buffer;
+        });
+    }
+
+    private void throwBackgroundFailure() {
+        RuntimeException e = backgroundFailure.getAndSet(null);
+        if (e != null) throw e;
+    }
+
+    /**
+     * Points buffered for a single series
+     * Identity equality is required - see scheduleLingerWrite
+     */
+    private static class SeriesBuffer {
+        private final List<DataPoint> dataPoints = new ArrayList<>();
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.aerospike_examples.timeseries;
+
+/**
+ * Points added to a time series since a ChangeCursor, and the cursor to read from next - as returned by TimeSeriesClient.readSince
+ */
+public class TimeSeriesChanges {
+
+    private final DataPoint[] dataPoints;
+    private final ChangeCursor cursor;
+
+    /**
+     * TimeSeriesChanges constructor
+     *
+     * @param dataPoints - points read, in time order
+     * @param cursor     - cursor following the last point read
+     */
+    TimeSeriesChanges(DataPoint[] dataPoints, ChangeCursor cursor) {
+        this.dataPoints = dataPoints;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Points added since the cursor
+     *
+     * @return array of DataPoint objects, in time order. Empty if there are none
+     */
+    public DataPoint[] getDataPoints() {
+        return dataPoints;
+    }
+
+    /**
+     * Cursor to pass to the next readSince call. Unchanged if no points were read
+     *
+     * @return cursor
+     */
+    public ChangeCursor getCursor() {
+        return cursor;
+    }
+}
@@ -2,6 +2,9 @@ package io.github.aerospike_examples.timeseries;
 
 import com.aerospike.client.Record;
 import com.aerospike.client.*;
+import com.aerospike.client.cdt.CTX;
+import com.aerospike.client.cdt.ListOperation;
+import com.aerospike.client.cdt.ListReturnType;
 import com.aerospike.client.cdt.MapOperation;
 import com.aerospike.client.cdt.MapOrder;
 import com.aerospike.client.cdt.MapPolicy;
@@ -9,31 +12,48 @@ import com.aerospike.client.cdt.MapReturnType;
 import com.aerospike.client.cdt.MapWriteFlags;
 import com.aerospike.client.cdt.MapWriteMode;
 import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.ExpOperation;
+import com.aerospike.client.exp.ExpWriteFlags;
+import com.aerospike.client.exp.MapExp;
 import com.aerospike.client.policy.BatchPolicy;
 import com.aerospike.client.policy.GenerationPolicy;
 import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.RecordExistsAction;
 import com.aerospike.client.policy.WritePolicy;
 import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.GorillaCodec;
 
+import java.io.Closeable;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * TimeSeriesClient is the fundamental object for writing and reading time series data to Aerospike
  */
-public class TimeSeriesClient implements ITimeSeriesClient {
+public class TimeSeriesClient implements ITimeSeriesClient, Closeable {
 
     /**
-     * The code for 'archiving' blocks of data means no data will ever be lost - the current block will only be deleted after
-     * 1) it has been copied
-     * 2) the original block has not changed in the meantime
-     * If we detect 2) ( &amp; note that 1) must have occurred before we get to check 2) )
-     * Then we retry a set number of times - governed by the parameter below
-     * Note that
-     * If we don't succeed in RETRY_COUNT_FOR_FAILED_BLOCK_COPY times, we still have all the data, but we may have it twice
-     * Eventually when the code runs all the way through, normal operation will be restored
-     * In the meantime, we have duplicate resolution built into the 'get' calls
+     * The code for 'archiving' blocks of data means no data will ever be lost - a client first 'claims' the current block,
+     * reading it in the same call, so only one client archives a given block. Once the block is copied and indexed,
+     * the current block is deleted if it has not changed since it was claimed. If it has, only the points that were archived
+     * are removed. See copyCurrentDataToHistoricBlock
+     * <p>
+     * If a client fails part way through archiving, its claim is ignored once older than the period below, allowing another
+     * client to complete the job
+     * Package level visibility as AsyncTimeSeriesClient follows the same approach
      */
-    private static final int RETRY_COUNT_FOR_FAILED_BLOCK_COPY = 5;
+    static final long ROLLOVER_CLAIM_TIMEOUT_MS = 30 * Constants.MILLISECONDS_IN_SECOND;
 
     // Aerospike Client required
     private final AerospikeClient asClient;
@@ -50,6 +70,39 @@ public class TimeSeriesClient implements ITimeSeriesClient {
     // Max entry count per data block
     private final int maxBlockEntryCount;
 
+    // Whether historic blocks are stored in compressed form. Off by default
+    private boolean compressHistoricBlocks = false;
+
+    // If non zero, each block holds the points for a fixed time bucket of this duration and is keyed by the bucket start time
+    // Zero, the default, means blocks are filled up to maxBlockEntryCount then archived
+    private long timeBucketDurationMs = 0;
+
+    // Duration of the time range covered by each index page
+    private long indexPageDurationMs = Constants.DEFAULT_INDEX_PAGE_DURATION_MS;
+
+    // Max number of series written concurrently by put(Map<String, DataPoint[]>)
+    private int multiSeriesWriteParallelism = Constants.DEFAULT_MULTI_SERIES_WRITE_PARALLELISM;
+    // Thread pool used by put(Map<String, DataPoint[]>). Created on first use
+    private ExecutorService multiSeriesWriteExecutor;
+
+    // Executor for archiving full blocks in the background. Null if archiving is done by the writing thread - the default
+    private volatile ThreadPoolExecutor rolloverExecutor;
+    // Series with a background rollover queued or running
+    private final ConcurrentHashMap<String, PendingRollover> pendingRollovers = new ConcurrentHashMap<>();
+    // Background rollovers that threw an exception. The data remains in the current block and the rollover is re-requested by the next put
+    private final AtomicLong failedRolloverCount = new AtomicLong();
+
+    // Thread pool making fetches in the background for iterators. Created on first use
+    private ExecutorService prefetchExecutor;
+
+    // Client-side cache of block indexes. Null if not enabled - the default
+    private volatile TimeSeriesIndexCache indexCache;
+
+    // Start of the last time bucket added to the index by this client, by series name. See addTimeBucketToIndex
+    private final ConcurrentHashMap<String, Long> indexedTimeBuckets = new ConcurrentHashMap<>();
+
+    // Whether rollup tiers are maintained as blocks are archived. Off by default
+    private volatile boolean rollupsEnabled = false;
 
     // Map policy for inserts - these are not modifiable
     private final MapPolicy insertMapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteMode.UPDATE);
@@ -64,6 +117,26 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      */
     private final static String TIME_SERIES_INDEX_SET_SUFFIX = "idx";
 
+    /**
+     * Rollup tiers are stored in separate sets - each set name is formed by appending this suffix (rollup), then the tier
+     * short name, to the time series set name
+     */
+    private final static String ROLLUP_SET_SUFFIX = "rollup";
+
+    /**
+     * The tag index is stored in a separate set - this set name is formed by appending this suffix (tag)
+     * to the time series set name
+     */
+    private final static String TAG_SET_SUFFIX = "tag";
+
+    // Separates tag name from tag value in tag index keys. Tag names may not contain it
+    private final static String TAG_SEPARATOR = "=";
+
+    /**
+     * Separates the tag from the shard number in tag index record keys
+     */
+    private final static String TAG_INDEX_SHARD_SEPARATOR = "#";
+
     // parameters allowing testing of correct handling of race conditions
     public boolean testMode = false;
     public double failurePctRateForCopyBlock = 0;
@@ -181,473 +254,3442 @@ public class TimeSeriesClient implements ITimeSeriesClient {
     }
 
     /**
-     * Saves data point to the database
-     * <p>
-     * By default insert always goes to the current block for the time series which has key TimeSeriesName
-     * <p>
-     * If Max Values per block is exceeded, save block under name TimeSeries-StartTime and remove 'current' block
+     * Whether historic blocks are written in compressed form
      *
-     * @param timeSeriesName - time series name to write to
-     * @param dataPoint      - data point to write
+     * @return true if historic blocks are compressed
      */
-    public void put(String timeSeriesName, DataPoint dataPoint) {
-        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
-        // Need to put the metadata ops and the insert together in one array
-        Operation[] ops = new Operation[4];
-        // Data point put operation
-        ops[0] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
-                new Value.LongValue(dataPoint.getTimestamp()), new Value.DoubleValue(dataPoint.getValue()));
-        // Metadata operations
-        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, dataPoint.getTimestamp(), maxBlockEntryCount);
-        // Add to the actual operations list
-        ops[1] = metadataOps[0];
-        ops[2] = metadataOps[1];
-        ops[3] = metadataOps[2];
-        // and execute
-        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), ops);
-        // Put operation returns map size by default
-        long mapSize = r.getLong(Constants.TIME_SERIES_BIN_NAME);
-        // If it is greater than the required size, save a copy of the block with key TimeSeries-StartTime
-        if (mapSize >= maxBlockEntryCount) {
-            copyCurrentDataToHistoricBlock(timeSeriesName);
-        }
+    @SuppressWarnings("unused") // Required in API
+    public boolean getCompressHistoricBlocks() {
+        return compressHistoricBlocks;
     }
 
     /**
-     * Private method to create the operations needed to insert the metadata for a time series block
-     * Breaking out as a separate method as we use in more than one place
+     * Setter controlling whether historic blocks are compressed when they are archived
+     * <p>
+     * If true, blocks are stored as a single blob using delta-of-delta timestamp encoding and XOR value encoding
+     * (see GorillaCodec), rather than as a map. Reads handle both formats, so this can be changed at any time.
+     * It does not alter blocks that have already been archived.
      *
-     * @param timeSeriesName - time series name
-     * @param startTimestamp - timestamp
-     * @param maxEntryCount  - max entry count
-     * @return the operations required to build the metadata
+     * @param compressHistoricBlocks - true if historic blocks should be compressed
      */
-    private Operation[] opsForMetadataCreation(String timeSeriesName, long startTimestamp, long maxEntryCount) {
-        // createOnlyMapPolicy ensures we are not over-writing the start time for the block
-        Operation[] opsForMetadataCreation = new Operation[3];
-        // Store time series name at time of creation
-        opsForMetadataCreation[0] =
-                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
-                        new Value.StringValue(Constants.TIME_SERIES_NAME_FIELD_NAME), new Value.StringValue(timeSeriesName));
-        // Start time for block
-        opsForMetadataCreation[1] =
-                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
-                        new Value.StringValue(Constants.START_TIME_FIELD_NAME), new Value.LongValue(startTimestamp));
-        // Max entries for block
-        opsForMetadataCreation[2] =
-                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
-                        new Value.StringValue(Constants.MAX_BLOCK_TIME_SERIES_ENTRIES_FIELD_NAME), new Value.LongValue(maxEntryCount));
-        return opsForMetadataCreation;
+    @SuppressWarnings("unused")
+    public void setCompressHistoricBlocks(boolean compressHistoricBlocks) {
+        this.compressHistoricBlocks = compressHistoricBlocks;
     }
 
     /**
-     * Take current block for timeSeriesName and copy it to a historic block
-     * Remove the current block when done
+     * Duration of the time bucket covered by each block, if blocks are keyed by time bucket
      *
-     * @param timeSeriesName - name of series we're processing
+     * @return time bucket duration in milliseconds - zero if time bucketing is not in use
      */
-    private void copyCurrentDataToHistoricBlock(String timeSeriesName) {
-        copyCurrentDataToHistoricBlock(timeSeriesName, RETRY_COUNT_FOR_FAILED_BLOCK_COPY);
+    @SuppressWarnings("unused") // Required in API
+    public long getTimeBucketDurationMs() {
+        return timeBucketDurationMs;
     }
 
     /**
-     * copyCurrentDataToHistoricBlock(String timeSeriesName) will retry a set number of times if there is a failure
-     * This is facilitated via the function below. Every time we retry, retryCount is deprecated
+     * Setter allowing blocks to be keyed by time bucket
+     * <p>
+     * If set, each block holds the points for a bucket of timeBucketDurationMs milliseconds, and is stored under key
+     * TimeSeriesName-BucketStartTime. Blocks are never archived, so maxBlockEntryCount and compression do not apply -
+     * the bucket duration should be chosen so a bucket holds a sensible number of points. As block keys can be
+     * calculated from the time range, getPoints reads all the blocks needed in a single batch call with no index lookup,
+     * unless the range covers more than Constants.MAX_TIME_BUCKETS_READ_WITHOUT_INDEX buckets. Points can be written
+     * in any order.
+     * <p>
+     * The index is still maintained, as buckets are created, for use by startTimeForSeries, endTimeForSeries,
+     * dataPointCount and wide range reads.
+     * <p>
+     * A series must always be written and read with the same setting. Series written without time bucketing cannot be
+     * read with it, and vice versa.
      *
-     * @param timeSeriesName - name of series we're processing
-     * @param retryCount     - number of retries to allow if there is a generation check error - function calls itself recursively to do this
+     * @param timeBucketDurationMs - bucket duration in milliseconds. Zero turns time bucketing off
      */
-    private void copyCurrentDataToHistoricBlock(String timeSeriesName, int retryCount) {
-        Record currentRecord = asClient.get(readPolicy, asCurrentKeyForTimeSeries(timeSeriesName));
-        Objects.requireNonNull(currentRecord, "currentRecord is null");
-        // Need to copy the current record into a historic block
-        Bin[] bins = new Bin[2];
-        // First the time series bin
-        bins[0] = new Bin(Constants.TIME_SERIES_BIN_NAME,
-                currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME),
-                MapOrder.KEY_ORDERED);
-        // Now the metadata - add in the timestamp of the most recent observation
-        Map metadata = currentRecord.getMap(Constants.METADATA_BIN_NAME);
-        @SuppressWarnings("unchecked") // Should be able to assume the below casting works
-        long lastTimestamp = Collections.max(((Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME)).keySet());
-        //noinspection unchecked
-        metadata.put(Constants.END_TIME_FIELD_NAME, lastTimestamp);
-        bins[1] = new Bin(Constants.METADATA_BIN_NAME, metadata);
-
-        long startTime = (Long) currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
-        long entryCount = currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).size();
-
-        addTimeSeriesIndexRecord(timeSeriesName, startTime, lastTimestamp, entryCount);
-        Key key = asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTime);
-        asClient.put(writePolicy, key, bins);
-        // and remove the current block, if the archived block exists
-        // Strictly speaking I don't think the 'exists' check is necessary, but it does make things clear
-        if (asClient.exists(readPolicy, key)) {
-            // We check that in the meantime the current record has not changed via the generation check
-            WritePolicy checkGenerationWritePolicy = new WritePolicy(writePolicy);
-            checkGenerationWritePolicy.generation = currentRecord.generation;
-            checkGenerationWritePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
-            // This code is for testing purposes to verify that even if the current record is modified
-            // we still get correct results
-            // testMode = true should only be set by test code
-            if (testMode) {
-                // & we mimic 'new writes' with probability failurePctRateForCopyBlock, set to zero by default
-                if (new Random().nextDouble() < failurePctRateForCopyBlock / 100) {
-                    asClient.touch(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName));
-                    System.out.println("Failure triggered in copy block section");
-                }
-            }
-            // Out of test code block. If the delete fails, we retry
-            try {
-                asClient.delete(checkGenerationWritePolicy, asCurrentKeyForTimeSeries(timeSeriesName));
-            } catch (AerospikeException e) {
-                if (e.getResultCode() == ResultCode.GENERATION_ERROR) {
-                    if (retryCount > 0) {
-                        retryCount--;
-                        copyCurrentDataToHistoricBlock(timeSeriesName, retryCount);
-                    }
-                } else {
-                    throw e;
-                }
-            }
-        }
+    @SuppressWarnings("unused") // Required in API
+    public void setTimeBucketDurationMs(long timeBucketDurationMs) {
+        if (timeBucketDurationMs < 0) throw new IllegalArgumentException("timeBucketDurationMs must not be negative");
+        this.timeBucketDurationMs = timeBucketDurationMs;
     }
 
     /**
-     * Save data points to the database
-     * <p>
-     * Inserts always go to the current block for the time series which has key TimeSeriesName
+     * Duration of the time range covered by each page of the block index
      *
-     * @param timeSeriesName - time series name
-     * @param dataPoints     - data points as an array
+     * @return index page duration in milliseconds
      */
-    public void put(String timeSeriesName, DataPoint[] dataPoints) {
-        // First of all need to find out how much 'room' is available
-        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), MapOperation.size(Constants.TIME_SERIES_BIN_NAME));
-        int existingRecordCount = 0;
-        if (r != null) existingRecordCount = r.getInt(Constants.TIME_SERIES_BIN_NAME);
-
-        // We will be working through the data points iteratively, so we need to keep track of where we are
-        int lastRecordLoaded = 0;
-
-        // Stop when all records have been 'put'
-        while (lastRecordLoaded < dataPoints.length) {
-            // Load records remaining or whatever we have space for, whichever is the smaller
-            int numberOfRecordsToLoad = Math.min(dataPoints.length - lastRecordLoaded, maxBlockEntryCount - existingRecordCount);
-            // Insert metadata - may not be needed, but will be ignored if it already exists
-            Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, dataPoints[lastRecordLoaded].getTimestamp(), maxBlockEntryCount);
-            // Batch inserting data points is done via an array of operations
-            Operation[] ops = new Operation[numberOfRecordsToLoad + metadataOps.length];
-            // Construct the array of operations
-            for (int i = lastRecordLoaded; i < lastRecordLoaded + numberOfRecordsToLoad; i++)
-                ops[i - lastRecordLoaded] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
-                        Value.get(dataPoints[i].getTimestamp()), Value.get(dataPoints[i].getValue()));
-            // and add the metadata
-            System.arraycopy(metadataOps, 0, ops, numberOfRecordsToLoad, metadataOps.length);
-            // Put to the database
-            asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), ops);
-            // If the block is full, 'archive' it
-            if (numberOfRecordsToLoad + existingRecordCount == maxBlockEntryCount)
-                copyCurrentDataToHistoricBlock(timeSeriesName);
-            // If we're at this point in the code we know we'll be inserting to an empty block
-            existingRecordCount = 0;
-            // Update the running total of records we've inserted
-            lastRecordLoaded += numberOfRecordsToLoad;
-        }
+    @SuppressWarnings("unused") // Required in API
+    public long getIndexPageDurationMs() {
+        return indexPageDurationMs;
     }
 
     /**
-     * Retrieve a specific data point for a named time series
+     * Setter for the duration of the time range covered by each page of the block index
+     * <p>
+     * The index for a series is split into pages so it can grow without limit, and so reads only retrieve the part of the
+     * index they need. Each page should hold no more than a few thousand blocks - e.g. with the default duration of a day,
+     * and 1000 points per block, a page holds about 86 blocks for a series receiving a point per second.
+     * <p>
+     * A series must always be written and read with the same setting.
      *
-     * @param timeSeriesName name of relevant series
-     * @param dateTime       timestamp for point we want
-     * @return data point if found
+     * @param indexPageDurationMs - index page duration in milliseconds
      */
-    public DataPoint getPoint(String timeSeriesName, Date dateTime) {
-        DataPoint[] dataPointArray = getPoints(timeSeriesName, dateTime, dateTime);
-        if (dataPointArray.length == 1) {
-            return dataPointArray[0];
-        } else {
-            return null;
-        }
+    @SuppressWarnings("unused") // Required in API
+    public void setIndexPageDurationMs(long indexPageDurationMs) {
+        if (indexPageDurationMs < 1) throw new IllegalArgumentException("indexPageDurationMs must be at least 1");
+        this.indexPageDurationMs = indexPageDurationMs;
     }
 
     /**
-     * Retrieve all time series points between two given date / times (inclusive)
+     * Whether rollup tiers are maintained as blocks are archived
      *
-     * @param timeSeriesName - name of time series
-     * @param fromDateTime   - start time for required range
-     * @param toDateTime     - end time for required range
-     * @return array of DataPoint objects
+     * @return true if rollups are maintained
      */
-    public DataPoint[] getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
-        return getPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime());
+    @SuppressWarnings("unused") // Required in API
+    public boolean getRollupsEnabled() {
+        return rollupsEnabled;
     }
 
     /**
-     * Aerospike Key for a given time series name
-     * Package level visibility to allow testing
+     * Setter controlling whether rollup tiers are maintained as blocks are archived
+     * <p>
+     * If true, when a block is archived the count, sum, min and max of its points are added to the buckets of each
+     * RollupTier - one minute, one hour and one day. Each tier is stored in its own set, named by suffixing the time
+     * series set name with "rollup" and the tier short name e.g. TimeSeriesrollup1m, in records holding
+     * Constants.ROLLUP_BUCKETS_PER_RECORD buckets. getRollups reads the coarsest tier fine enough for the resolution
+     * requested, so charting a long range reads a few records rather than every block.
+     * <p>
+     * Rollups only cover blocks archived while they are enabled, and are not maintained for series keyed by time bucket,
+     * whose blocks are never archived. Each point is assumed to be written once - a point written again after its block
+     * has been archived is counted twice.
      *
-     * @param timeSeriesName name of time series
-     * @return Aerospike Key for current block for this time series
+     * @param rollupsEnabled - true if rollup tiers should be maintained
      */
-    public Key asCurrentKeyForTimeSeries(String timeSeriesName) {
-        return new Key(asNamespace, timeSeriesSet, timeSeriesName);
+    @SuppressWarnings("unused") // Required in API
+    public void setRollupsEnabled(boolean rollupsEnabled) {
+        this.rollupsEnabled = rollupsEnabled;
     }
 
     /**
-     * Aerospike Key for a given block for a given time series
+     * Whether blocks are keyed by time bucket
      *
-     * @param timeSeriesName         - name of time series
-     * @param startTimestampForBlock - start timestamp for block
-     * @return Aerospike Key for required block
+     * @return true if time bucketing is in use
      */
-    public Key asKeyForHistoricTimeSeriesBlock(String timeSeriesName, long startTimestampForBlock) {
-        String historicBlockKey = String.format("%s-%d", timeSeriesName, startTimestampForBlock);
-        return new Key(asNamespace, timeSeriesSet, historicBlockKey);
+    boolean isTimeBucketed() {
+        return timeBucketDurationMs > 0;
     }
 
     /**
-     * Aerospike Index Key name for a given time series name
+     * Max number of series written concurrently by put(Map&lt;String, DataPoint[]&gt;), and of tasks run concurrently by runTopKQuery
      *
-     * @param timeSeriesName - time series in question
-     * @return - Aerospike Key to index block for that time series
+     * @return parallelism
      */
-    public Key asKeyForTimeSeriesIndexes(String timeSeriesName) {
-        return new Key(asNamespace, timeSeriesIndexSetName(), timeSeriesName);
+    @SuppressWarnings("unused") // Required in API
+    public int getMultiSeriesWriteParallelism() {
+        return multiSeriesWriteParallelism;
     }
 
     /**
-     * Each time series will have a number of Aerospike records associated with it
-     * We keep a record of these to make data retrieval efficient
+     * Setter for the max number of series written concurrently by put(Map&lt;String, DataPoint[]&gt;), and of tasks run concurrently by runTopKQuery
+     * A value of 1 means series are written, and tasks run, one after another by the calling thread
      *
-     * @param timeSeriesName - name of time series we are updating index for
-     * @param startTime      - start time of the block we're adding to the index
+     * @param multiSeriesWriteParallelism - number of series to write concurrently
      */
-    private void addTimeSeriesIndexRecord(String timeSeriesName, long startTime, long endTime, long entryCount) {
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put(Constants.END_TIME_FIELD_NAME, endTime);
-        metadata.put(Constants.ENTRY_COUNT_FIELD_NAME, entryCount);
-        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
-        asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
-                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))),
-                // Inserts data point
-                MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_INDEX_BIN_NAME,
-                        new Value.LongValue(startTime), new Value.MapValue(metadata))
-        );
+    @SuppressWarnings("unused")
+    public synchronized void setMultiSeriesWriteParallelism(int multiSeriesWriteParallelism) {
+        if (multiSeriesWriteParallelism < 1) throw new IllegalArgumentException("multiSeriesWriteParallelism must be at least 1");
+        this.multiSeriesWriteParallelism = multiSeriesWriteParallelism;
+        // Existing pool, if any, is the wrong size. Let running writes finish - a new pool will be created when next needed
+        if (multiSeriesWriteExecutor != null) {
+            multiSeriesWriteExecutor.shutdown();
+            multiSeriesWriteExecutor = null;
+        }
     }
 
     /**
-     * Internal method to calculate the start times of the blocks we need to retrieve for time range represented by
-     * timestamps startTime and endTime
+     * Archive full blocks in the background rather than in the thread calling put
+     * <p>
+     * By default, the put that fills a block also archives it - this requires several round trips so puts filling a block
+     * take considerably longer than others. Once this method is called, the block is instead queued for archiving by one of
+     * threadCount background threads and put returns as soon as the data point is written.
+     * Until the block is archived, further points are added to it, so it may temporarily exceed the max entry count.
+     * All points remain visible to readers throughout.
+     * <p>
+     * At most queueCapacity blocks can be waiting. If the queue is full, the block is archived by the writing thread as before.
+     * Call close() to stop the background threads.
      *
-     * @param timeSeriesName - name of time series we are getting block start times for
-     * @param startTime      - start time of range we're interested in
-     * @param endTime        - end time of range we're interested in
-     * @return long[] containing the timestamps
-     */
-    /*
-        Algorithm is, to find first block, go forward until we find the first start time after startTime then go back one
-        and for endTime, go back until we find the first start time that is after the end time
-
-        Doesn't work if endTime / startTime are inverted so require specific logic for that
+     * @param threadCount   - number of background threads
+     * @param queueCapacity - max number of blocks waiting to be archived
      */
-    public long[] getTimestampsForTimeSeries(String timeSeriesName, long startTime, long endTime) {
-        if (endTime >= startTime) {
-            Operation mapOperation = MapOperation.getByKeyRange(
-                    Constants.TIME_SERIES_INDEX_BIN_NAME,
-                    null,
-                    null,
-                    MapReturnType.KEY
-            );
-            Record indexListRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), mapOperation);
-            if (indexListRecord != null) {
-                @SuppressWarnings("unchecked")  // Can assume below casting works
-                List<Long> timestampList = (List<Long>) indexListRecord.getList(Constants.TIME_SERIES_INDEX_BIN_NAME);
-                int indexOfFirstTimestamp = 0;
-                int indexOfLastTimestamp = timestampList.size() - 1;
-                while ((indexOfFirstTimestamp <= timestampList.size() - 2) && (timestampList.get(indexOfFirstTimestamp) < startTime))
-                    indexOfFirstTimestamp++;
-                if (timestampList.get(indexOfFirstTimestamp) > startTime)
-                    indexOfFirstTimestamp = Math.max(0, indexOfFirstTimestamp - 1);
-                while (timestampList.get(indexOfLastTimestamp) > endTime) indexOfLastTimestamp--;
-                // If we are bringing back the most recent block available we might need the current block - need a special way of indicating this
-                int extraTimestampSlot = indexOfLastTimestamp == timestampList.size() - 1 ? 1 : 0;
-                long[] timestamps = new long[indexOfLastTimestamp - indexOfFirstTimestamp + 1 + extraTimestampSlot];
-                for (int i = 0; i < timestamps.length - extraTimestampSlot; i++) {
-                    timestamps[i] = timestampList.get(i + indexOfFirstTimestamp);
-                }
-                if (extraTimestampSlot == 1) timestamps[timestamps.length - 1] = CURRENT_RECORD_TIMESTAMP;
-                return timestamps;
-            }
-            // If there's no index records, could be in the current block
-            else
-                return new long[]{CURRENT_RECORD_TIMESTAMP};
-        } else
-            return new long[0];
+    @SuppressWarnings("unused") // Required in API
+    public synchronized void enableBackgroundRollover(int threadCount, int queueCapacity) {
+        if (threadCount < 1) throw new IllegalArgumentException("threadCount must be at least 1");
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be at least 1");
+        if (rolloverExecutor != null) shutdownRolloverExecutor();
+        rolloverExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "TimeSeriesClient-rollover");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                // Queue full, or executor shut down - the writing thread does the archiving
+                // This slows writers down until the queue drains
+                (runnable, executor) -> runnable.run());
     }
 
     /**
-     * Get the Aerospike Keys we need for the data for timeSeriesName between startTime and endTime
-     * where this represents milliseconds since the epoch
+     * Number of blocks waiting to be archived by the background rollover threads
      *
-     * @param timeSeriesName time series name
-     * @param startTime      start time as long
-     * @param endTime        end time as long
-     * @return Aerospike Key[]
+     * @return rollover queue depth - zero if background rollover is not enabled
      */
-    private Key[] getKeysForQuery(String timeSeriesName, long startTime, long endTime) {
-        long[] startTimesForBlocks = getTimestampsForTimeSeries(timeSeriesName, startTime, endTime);
-        Key[] keysForQuery = new Key[startTimesForBlocks.length];
-        for (int i = 0; i < startTimesForBlocks.length - 1; i++)
-            keysForQuery[i] = asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTimesForBlocks[i]);
-        if ((startTimesForBlocks.length > 0)) {
-            if (startTimesForBlocks[startTimesForBlocks.length - 1] == CURRENT_RECORD_TIMESTAMP) {
-                keysForQuery[startTimesForBlocks.length - 1] = asCurrentKeyForTimeSeries(timeSeriesName);
-            } else {
-                keysForQuery[startTimesForBlocks.length - 1] = asKeyForHistoricTimeSeriesBlock(timeSeriesName,
-                        startTimesForBlocks[startTimesForBlocks.length - 1]);
-            }
-        }
-        return keysForQuery;
+    @SuppressWarnings("unused") // Required in API
+    public int getRolloverQueueDepth() {
+        ThreadPoolExecutor executor = rolloverExecutor;
+        return executor != null ? executor.getQueue().size() : 0;
     }
 
     /**
-     * Internal method - retrieve time series data points with start and end time expressed
-     * as unix epochs (seconds since 1st Jan 1970) multiplied by required resolution
-     * (10^Constants.TIMESTAMP_DECIMAL_PLACES_PER_SECOND)
+     * Time since the oldest outstanding background rollover was requested
      *
-     * @param timeSeriesName name of time series we're retrieving points fpr
-     * @param startTime      start time of required range
-     * @param endTime        end time of required range
-     * @return DataPoint[]
+     * @return rollover lag in milliseconds - zero if no rollovers are outstanding
      */
-    private DataPoint[] getPoints(String timeSeriesName, long startTime, long endTime) {
-        Key[] keys = getKeysForQuery(timeSeriesName, startTime, endTime);
-        Record[] timeSeriesBlocks = asClient.get(new BatchPolicy(readPolicy), keys, Constants.TIME_SERIES_BIN_NAME);
-        Map<Long, DataPoint> uniqueTimestampMap = new TreeMap<>();
-
-        for (Record currentRecord : timeSeriesBlocks) {
-            // Null record is a possibility if we have just made the current block a historic block
-            if (currentRecord != null) {
-                @SuppressWarnings("unchecked")
-                Map<Long, Double> timeSeries = (Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
-                for (Long timestamp : timeSeries.keySet()) {
-                    if (timestamp >= startTime && timestamp <= endTime) {
-                        uniqueTimestampMap.putIfAbsent(timestamp, new DataPoint(timestamp, timeSeries.get(timestamp)));
-                    }
-                }
-            }
+    @SuppressWarnings("unused") // Required in API
+    public long getRolloverLagMs() {
+        long now = System.currentTimeMillis();
+        long oldestRequestTime = now;
+        for (PendingRollover pendingRollover : pendingRollovers.values()) {
+            oldestRequestTime = Math.min(oldestRequestTime, pendingRollover.requestTime);
         }
-        return uniqueTimestampMap.values().toArray(new DataPoint[0]);
+        return now - oldestRequestTime;
     }
 
     /**
-     * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     * Number of background rollovers that have failed with an exception
+     * Data is not lost when this happens - it remains in the current block, and archiving is re-attempted following the next put
      *
-     * @param timeSeriesName - time series to run query against
-     * @param operation      - operation to apply to query e.g. avg, vol, max, min
-     * @param fromDateTime   - start time for required time series range
-     * @param toDateTime     - end time for required time series range
-     * @return result of the query as a double
+     * @return failed rollover count
      */
-    public double runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime) {
-        DataPoint[] dataPoints = getPoints(timeSeriesName, fromDateTime, toDateTime);
-        switch (operation) {
-            case MAX:
-                double maxValue = Double.MIN_VALUE;
-                for (DataPoint d : dataPoints) maxValue = Math.max(maxValue, d.getValue());
-                return maxValue == Double.MIN_VALUE ? Double.NaN : maxValue;
-            case MIN:
-                double minValue = Double.MAX_VALUE;
-                for (DataPoint d : dataPoints) minValue = Math.min(minValue, d.getValue());
-                return minValue == Double.MAX_VALUE ? Double.NaN : minValue;
-            case COUNT:
-                return dataPoints.length;
-            case AVG:
-                double sum = 0;
-                double count = dataPoints.length;
-                for (DataPoint d : dataPoints) sum += d.getValue();
-                return count > 0 ? sum / count : Double.NaN;
-            case VOL:
-                sum = 0;
-                count = dataPoints.length;
-                if (count == 0) return Double.NaN;
-                for (DataPoint d : dataPoints) sum += d.getValue();
-                double avg = sum / count;
-                double sumsq = 0;
-                for (DataPoint d : dataPoints) sumsq += Math.pow(d.getValue() - avg, 2);
-                return Math.sqrt(sumsq / count);
-            default:
-                return Double.NaN;
-        }
+    @SuppressWarnings("unused") // Required in API
+    public long getFailedRolloverCount() {
+        return failedRolloverCount.get();
     }
 
     /**
-     * We store some 'indexes' to make the time series db work.
-     * This gives the name of the set they're stored in
-     * It simply suffixes the time series set name with TIME_SERIES_INDEX_SET_SUFFIX
+     * Cache the block index for each series in memory, saving a round trip on most reads
+     * <p>
+     * Reads normally look up the index for the series before retrieving the blocks they need. Once this method is called,
+     * getPoints, runQuery, getTimestampsForTimeSeries, startTimeForSeries and dataPointCount use a cached copy of the index instead.
+     * Entries for archived blocks never change, so the cached copy is refreshed by reading only the entries from its last block on.
+     * getPoints and dataPointCount detect blocks archived by other clients from the current block, which they read anyway,
+     * and refresh straight away. Other reads see such blocks once the cached copy is older than maxAgeMs.
+     * Blocks archived by this client are added to the cache as they are archived.
+     * <p>
+     * Least recently used series are discarded once more than maxCachedSeries series or maxCachedIndexEntries index entries are held.
+     * The cache is not used if blocks are keyed by time bucket, as such reads do not need the index.
      *
-     * @return the set name for the time series indexes
+     * @param maxCachedSeries       - max number of series cached
+     * @param maxCachedIndexEntries - max number of index entries cached, across all series
+     * @param maxAgeMs              - max time in milliseconds a cached index is used for before it is refreshed
      */
-    public String timeSeriesIndexSetName() {
-        return timeSeriesIndexSetName(timeSeriesSet);
+    @SuppressWarnings("unused") // Required in API
+    public void enableIndexCache(int maxCachedSeries, long maxCachedIndexEntries, long maxAgeMs) {
+        if (maxCachedSeries < 1) throw new IllegalArgumentException("maxCachedSeries must be at least 1");
+        if (maxCachedIndexEntries < 1) throw new IllegalArgumentException("maxCachedIndexEntries must be at least 1");
+        if (maxAgeMs < 0) throw new IllegalArgumentException("maxAgeMs must not be negative");
+        indexCache = new TimeSeriesIndexCache(maxCachedSeries, maxCachedIndexEntries, maxAgeMs);
     }
 
     /**
-     * Static method allowing inference of the time index set name - useful in a couple of places elsewhere
+     * Number of reads that found the index for their series in the index cache
      *
-     * @param setName - the name of the set that stores the time series data
-     * @return - the name of the set to store the indexes in
+     * @return index cache hit count - zero if the index cache is not enabled
      */
-    public static String timeSeriesIndexSetName(String setName) {
-        return String.format("%s%s", setName, TIME_SERIES_INDEX_SET_SUFFIX);
+    @SuppressWarnings("unused") // Required in API
+    public long getIndexCacheHitCount() {
+        TimeSeriesIndexCache cache = indexCache;
+        return cache != null ? cache.getHitCount() : 0;
     }
 
     /**
-     * Get the earliest timestamp for the given series
+     * Number of reads that had to load the index for their series into the index cache, or refresh it as it had expired
      *
-     * @param timeSeriesName time series name
-     * @return earliest timestamp Long.MAX if series does not exist
+     * @return index cache miss count - zero if the index cache is not enabled
      */
-    public long startTimeForSeries(String timeSeriesName) {
-        // First we get the earliest start time from the index block, if it exists
-        // Then earliest start time from the current block
-        // else Long.MAX - there is no data for this series
-        long startTime = Long.MAX_VALUE;
-
-        // Create a policy to make sure, when we look up the first start time from the index that we don't get an error if it doesn't exist
-        WritePolicy blockRecordExistsPolicy = new WritePolicy(getWritePolicy());
-        // Now try and get the earliest start time from the index
-        blockRecordExistsPolicy.filterExp = Exp.build(Exp.binExists(Constants.TIME_SERIES_INDEX_BIN_NAME));
-
-        Record startTimeFromFirstHistoricBlockRecord = asClient.operate(blockRecordExistsPolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
-                MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_BIN_NAME, 0, MapReturnType.KEY));
+    @SuppressWarnings("unused") // Required in API
+    public long getIndexCacheMissCount() {
+        TimeSeriesIndexCache cache = indexCache;
+        return cache != null ? cache.getMissCount() : 0;
+    }
 
-        if (startTimeFromFirstHistoricBlockRecord != null) {
-            startTime = startTimeFromFirstHistoricBlockRecord.getLong(Constants.TIME_SERIES_INDEX_BIN_NAME);
-        } else {
-            WritePolicy currentRecordExistsPolicy = new WritePolicy(getWritePolicy());
-            currentRecordExistsPolicy.filterExp = Exp.build(Exp.binExists(Constants.TIME_SERIES_BIN_NAME));
+    /**
+     * Stop background threads - waits for queued rollovers to complete
+     * The Aerospike client is not closed, as it was supplied by the caller
+     */
+    @Override
+    public synchronized void close() {
+        shutdownRolloverExecutor();
+        if (multiSeriesWriteExecutor != null) {
+            multiSeriesWriteExecutor.shutdown();
+            multiSeriesWriteExecutor = null;
+        }
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdown();
+            prefetchExecutor = null;
+        }
+    }
 
-            Record startTimeFromCurrentBlockRecord = asClient.operate(currentRecordExistsPolicy, asCurrentKeyForTimeSeries(timeSeriesName),
-                    MapOperation.getByIndex(Constants.TIME_SERIES_BIN_NAME, 0, MapReturnType.KEY));
-            if (startTimeFromCurrentBlockRecord != null) {
-                startTime = startTimeFromCurrentBlockRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
-            }
+    private void shutdownRolloverExecutor() {
+        if (rolloverExecutor == null) return;
+        rolloverExecutor.shutdown();
+        try {
+            //noinspection ResultOfMethodCallIgnored - nothing further we can do if this times out
+            rolloverExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return startTime;
+        rolloverExecutor = null;
     }
 
     /**
-     * Get the latest timestamp for the given series
+     * Saves data point to the database
+     * <p>
+     * By default insert always goes to the current block for the time series which has key TimeSeriesName
+     * <p>
+     * If Max Values per block is exceeded, save block under name TimeSeries-StartTime and remove 'current' block
      *
-     * @param timeSeriesName time series name
-     * @return latest timestamp Long.MAX if series does not exist
+     * @param timeSeriesName - time series name to write to
+     * @param dataPoint      - data point to write
      */
-    public long endTimeForSeries(String timeSeriesName) {
-        // First we get the latest time from the current block.
-        // If this does not exist then we get the  end time from the last record in the historic blocks, if it exists
+    public void put(String timeSeriesName, DataPoint dataPoint) {
+        if (isTimeBucketed()) {
+            putToTimeBuckets(timeSeriesName, new DataPoint[]{dataPoint});
+            return;
+        }
+        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                opsForDataPointInsert(timeSeriesName, new DataPoint[]{dataPoint}, 0, 1));
+        // Put operation returns map size by default
+        long mapSize = r.getLong(Constants.TIME_SERIES_BIN_NAME);
+        // If the block is at its overflow limit, archiving has fallen behind - archive it in this thread
+        if (mapSize >= maxOverflowingBlockEntryCount()) {
+            archiveOverflowingBlock(timeSeriesName);
+        }
+        // If it is greater than the required size, save a copy of the block with key TimeSeries-StartTime
+        else if (mapSize >= maxBlockEntryCount) {
+            requestRollover(timeSeriesName);
+        }
+    }
+
+    /**
+     * Max number of points held in a current block. A full block waiting to be archived - by another writer or in the
+     * background - takes points up to this limit, so writers are not held up. Beyond it, the writer archives the block itself
+     *
+     * @return max current block entry count
+     */
+    int maxOverflowingBlockEntryCount() {
+        return maxBlockEntryCount * Constants.MAX_CURRENT_BLOCK_OVERFLOW_FACTOR;
+    }
+
+    /**
+     * Archive a current block at its overflow limit in this thread, retrying while another client holds the claim on it
+     * A claim is ignored once older than ROLLOVER_CLAIM_TIMEOUT_MS, so this completes even if the other client has failed
+     *
+     * @param timeSeriesName - name of series whose current block is at its overflow limit
+     * @return number of points in the current block once it is below the limit
+     */
+    private int archiveOverflowingBlock(String timeSeriesName) {
+        while (true) {
+            if (copyCurrentDataToHistoricBlock(timeSeriesName)) return 0;
+            int currentBlockEntryCount = currentBlockEntryCount(asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                    MapOperation.size(Constants.TIME_SERIES_BIN_NAME)), 0);
+            if (currentBlockEntryCount < maxOverflowingBlockEntryCount()) return currentBlockEntryCount;
+            try {
+                Thread.sleep(Constants.OVERFLOW_ROLLOVER_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AerospikeException(e);
+            }
+        }
+    }
+
+    /**
+     * Archive the current block for a series - immediately, or via the background executor if enabled
+     * A series is only queued once, however many puts see the block as full before the rollover runs
+     *
+     * @param timeSeriesName - name of series whose current block is full
+     */
+    private void requestRollover(String timeSeriesName) {
+        ThreadPoolExecutor executor = rolloverExecutor;
+        if (executor == null) {
+            copyCurrentDataToHistoricBlock(timeSeriesName);
+            return;
+        }
+        // If a rollover is already queued or running for the series, flag that it needs re-checking when done rather than queue another
+        boolean[] queueRollover = new boolean[1];
+        pendingRollovers.compute(timeSeriesName, (name, pendingRollover) -> {
+            if (pendingRollover == null) {
+                queueRollover[0] = true;
+                return new PendingRollover(System.currentTimeMillis());
+            }
+            pendingRollover.requestedAgain = true;
+            return pendingRollover;
+        });
+        if (!queueRollover[0]) return;
+        executor.execute(() -> {
+            boolean runAgain;
+            do {
+                try {
+                    copyCurrentDataToHistoricBlock(timeSeriesName);
+                } catch (RuntimeException e) {
+                    failedRolloverCount.incrementAndGet();
+                }
+                // Remove the series from the pending list unless it was requested again while we were running
+                // copyCurrentDataToHistoricBlock returns immediately if there turns out to be nothing to do
+                boolean[] requestedAgain = new boolean[1];
+                pendingRollovers.computeIfPresent(timeSeriesName, (name, pendingRollover) -> {
+                    requestedAgain[0] = pendingRollover.requestedAgain;
+                    pendingRollover.requestedAgain = false;
+                    return requestedAgain[0] ? pendingRollover : null;
+                });
+                runAgain = requestedAgain[0];
+            } while (runAgain);
+        });
+    }
+
+    /**
+     * State for a queued or running background rollover
+     */
+    private static class PendingRollover {
+        // When the rollover was first requested - used for the lag metric
+        private final long requestTime;
+        // Set if a put saw the block as full while the rollover was queued or running
+        private boolean requestedAgain = false;
+
+        PendingRollover(long requestTime) {
+            this.requestTime = requestTime;
+        }
+    }
+
+    /**
+     * Operations needed to insert dataPoints[offset] to dataPoints[offset + count - 1] into the current block,
+     * together with the block metadata, which is created if not already present
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points
+     * @param offset         - index of first data point to insert
+     * @param count          - number of data points to insert
+     * @return the operations required
+     */
+    Operation[] opsForDataPointInsert(String timeSeriesName, DataPoint[] dataPoints, int offset, int count) {
+        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
+        // Need to put the metadata ops and the insert together in one array
+        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, dataPoints[offset].getTimestamp(), maxBlockEntryCount);
+        Operation[] ops = new Operation[count + metadataOps.length];
+        for (int i = 0; i < count; i++)
+            ops[i] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
+                    new Value.LongValue(dataPoints[offset + i].getTimestamp()), new Value.DoubleValue(dataPoints[offset + i].getValue()));
+        System.arraycopy(metadataOps, 0, ops, count, metadataOps.length);
+        return ops;
+    }
+
+    /**
+     * Private method to create the operations needed to insert the metadata for a time series block
+     * Breaking out as a separate method as we use in more than one place
+     *
+     * @param timeSeriesName - time series name
+     * @param startTimestamp - timestamp
+     * @param maxEntryCount  - max entry count
+     * @return the operations required to build the metadata
+     */
+    private Operation[] opsForMetadataCreation(String timeSeriesName, long startTimestamp, long maxEntryCount) {
+        // createOnlyMapPolicy ensures we are not over-writing the start time for the block
+        Operation[] opsForMetadataCreation = new Operation[3];
+        // Store time series name at time of creation
+        opsForMetadataCreation[0] =
+                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                        new Value.StringValue(Constants.TIME_SERIES_NAME_FIELD_NAME), new Value.StringValue(timeSeriesName));
+        // Start time for block
+        opsForMetadataCreation[1] =
+                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                        new Value.StringValue(Constants.START_TIME_FIELD_NAME), new Value.LongValue(startTimestamp));
+        // Max entries for block
+        opsForMetadataCreation[2] =
+                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                        new Value.StringValue(Constants.MAX_BLOCK_TIME_SERIES_ENTRIES_FIELD_NAME), new Value.LongValue(maxEntryCount));
+        return opsForMetadataCreation;
+    }
+
+    /**
+     * Take current block for timeSeriesName and copy it to a historic block
+     * Remove the current block when done
+     * <p>
+     * Steps are
+     * 1) Claim the block and read it in a single call. Nothing happens if the block no longer exists, is not full or is claimed by another client
+     * 2) Write the historic block
+     * 3) Add the block to the index
+     * 4) Delete the current block, provided it has not changed since it was claimed
+     * If it has changed, other clients have added points while we were archiving. In that case the points that were archived
+     * are removed from the current block, the block start time is updated to reflect the points that remain and the claim is released
+     * 5) Add the block to the rollup tiers if enabled. Only done once the archived points have left the current block, so a
+     * rollover retried after a failure never adds them again
+     * <p>
+     * So in the normal case this takes four round trips, and no point is ever held in more than one block once archiving completes
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @return true if the current block was archived and removed, or no longer exists - false if it was not full, was claimed
+     * by another client, or points added while archiving remain in it
+     */
+    private boolean copyCurrentDataToHistoricBlock(String timeSeriesName) {
+        Key currentKey = asCurrentKeyForTimeSeries(timeSeriesName);
+        // 1) Claim and read
+        Record currentRecord;
+        try {
+            currentRecord = asClient.operate(rolloverClaimWritePolicy(), currentKey, opsForRolloverClaim());
+        } catch (AerospikeException e) {
+            // Block has already been archived
+            if (e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) return true;
+            throw e;
+        }
+        // Filtered out - block is claimed by someone else, or is not full
+        if (currentRecord == null) return false;
+
+        Bin[] bins = binsForHistoricBlock(currentRecord);
+        long startTime = (Long) currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
+        long lastTimestamp = endTimeForBlock(currentRecord);
+        long entryCount = currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).size();
+        double[] summary = blockSummary(currentRecord);
+
+        // 2) Historic block and 3) index
+        asClient.put(writePolicy, asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTime), bins);
+        addTimeSeriesIndexRecord(timeSeriesName, startTime, lastTimestamp, entryCount, summary);
+
+        // This code is for testing purposes to verify that even if the current record is modified
+        // we still get correct results
+        // testMode = true should only be set by test code
+        if (testMode) {
+            // & we mimic 'new writes' with probability failurePctRateForCopyBlock, set to zero by default
+            if (new Random().nextDouble() < failurePctRateForCopyBlock / 100) {
+                asClient.touch(writePolicy, currentKey);
+                System.out.println("Failure triggered in copy block section");
+            }
+        }
+        // Out of test code block.
+
+        // 4) Remove the current block - we check that in the meantime the current record has not changed via the generation check
+        try {
+            asClient.delete(generationCheckWritePolicy(currentRecord.generation), currentKey);
+            // 5) Rollups
+            if (rollupsEnabled) updateRollups(timeSeriesName, currentRecord);
+            return true;
+        } catch (AerospikeException e) {
+            if (e.getResultCode() != ResultCode.GENERATION_ERROR) throw e;
+            // Points have been added since we claimed the block. Remove only those archived, and release the claim
+            Record releasedRecord = asClient.operate(updateOnlyWritePolicy(), currentKey, opsForRolloverRelease(currentRecord));
+            // 5) Rollups
+            if (rollupsEnabled) updateRollups(timeSeriesName, currentRecord);
+            long remainingCount = releasedRecord != null ? currentBlockSizeAfterRelease(releasedRecord) : 0;
+            // If the only writes were new values for archived points, nothing is left. Remove the block, unless there are further writes
+            if (releasedRecord != null && remainingCount == 0) {
+                try {
+                    asClient.delete(generationCheckWritePolicy(releasedRecord.generation), currentKey);
+                } catch (AerospikeException e2) {
+                    // Further writes - the block is valid so leave it
+                    if (e2.getResultCode() != ResultCode.GENERATION_ERROR) throw e2;
+                }
+            }
+            // Writers that filled the block while we held the claim will have left archiving to us
+            if (remainingCount >= maxBlockEntryCount) return copyCurrentDataToHistoricBlock(timeSeriesName);
+            return false;
+        }
+    }
+
+    /**
+     * Write policy for claiming a current block for archiving
+     * The claim only succeeds if the block exists, is full and has no live claim. Otherwise the operation is filtered out
+     *
+     * @return write policy
+     */
+    WritePolicy rolloverClaimWritePolicy() {
+        WritePolicy claimPolicy = updateOnlyWritePolicy();
+        Exp claimTime = Exp.cond(Exp.binExists(Constants.ROLLOVER_CLAIM_BIN_NAME), Exp.intBin(Constants.ROLLOVER_CLAIM_BIN_NAME), Exp.val(0L));
+        claimPolicy.filterExp = Exp.build(Exp.and(
+                Exp.lt(claimTime, Exp.val(System.currentTimeMillis() - ROLLOVER_CLAIM_TIMEOUT_MS)),
+                Exp.ge(MapExp.size(Exp.mapBin(Constants.TIME_SERIES_BIN_NAME)), Exp.val(maxBlockEntryCount))));
+        claimPolicy.failOnFilteredOut = false;
+        return claimPolicy;
+    }
+
+    /**
+     * Operations claiming a current block for archiving and reading it
+     * The claim is held in its own bin so the time series and metadata bins are returned unaltered
+     *
+     * @return the operations required
+     */
+    Operation[] opsForRolloverClaim() {
+        return new Operation[]{
+                Operation.put(new Bin(Constants.ROLLOVER_CLAIM_BIN_NAME, System.currentTimeMillis())),
+                Operation.get(Constants.TIME_SERIES_BIN_NAME),
+                Operation.get(Constants.METADATA_BIN_NAME)
+        };
+    }
+
+    /**
+     * Operations used when points have been added to a current block while it was being archived
+     * Removes the archived points and the claim, and resets the block start time to the earliest remaining point.
+     * If no points remain, the start time is removed, so it is set afresh by the next write
+     * Points re-written with a new value while their block is being archived keep the archived value
+     *
+     * @param claimedRecord - current block as read when it was claimed
+     * @return the operations required - the final operation returns the size of the remaining block
+     */
+    Operation[] opsForRolloverRelease(Record claimedRecord) {
+        List<Value> archivedTimestamps = new ArrayList<>();
+        for (Object timestamp : claimedRecord.getMap(Constants.TIME_SERIES_BIN_NAME).keySet()) {
+            archivedTimestamps.add(Value.get(timestamp));
+        }
+        Exp timeSeries = Exp.mapBin(Constants.TIME_SERIES_BIN_NAME);
+        Exp metadata = Exp.mapBin(Constants.METADATA_BIN_NAME);
+        Exp updatedMetadata = Exp.cond(
+                Exp.gt(MapExp.size(timeSeries), Exp.val(0)),
+                MapExp.put(insertMapPolicy, Exp.val(Constants.START_TIME_FIELD_NAME),
+                        MapExp.getByIndex(MapReturnType.KEY, Exp.Type.INT, Exp.val(0), timeSeries), metadata),
+                MapExp.removeByKey(Exp.val(Constants.START_TIME_FIELD_NAME), metadata));
+        return new Operation[]{
+                MapOperation.removeByKeyList(Constants.TIME_SERIES_BIN_NAME, archivedTimestamps, MapReturnType.NONE),
+                ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(updatedMetadata), ExpWriteFlags.DEFAULT),
+                Operation.put(Bin.asNull(Constants.ROLLOVER_CLAIM_BIN_NAME)),
+                MapOperation.size(Constants.TIME_SERIES_BIN_NAME)
+        };
+    }
+
+    /**
+     * Size of the current block, from the record returned by the opsForRolloverRelease operations
+     *
+     * @param releasedRecord - record returned
+     * @return number of points remaining
+     */
+    static long currentBlockSizeAfterRelease(Record releasedRecord) {
+        Object result = releasedRecord.getValue(Constants.TIME_SERIES_BIN_NAME);
+        // Multiple operations on the same bin may return a list of results - size is the last
+        if (result instanceof List) {
+            List<?> results = (List<?>) result;
+            result = results.get(results.size() - 1);
+        }
+        return (Long) result;
+    }
+
+    /**
+     * Write policy which will not create a record that does not exist
+     *
+     * @return write policy
+     */
+    WritePolicy updateOnlyWritePolicy() {
+        WritePolicy updateOnlyPolicy = new WritePolicy(writePolicy);
+        updateOnlyPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        return updateOnlyPolicy;
+    }
+
+    /**
+     * The bins for the historic block a current block is archived to - the time series, either as a map or compressed,
+     * and the metadata, to which the timestamp of the most recent observation is added
+     *
+     * @param currentRecord - the current block record
+     * @return bins for the historic block - time series bin first, metadata bin second, quantile sketch third
+     */
+    Bin[] binsForHistoricBlock(Record currentRecord) {
+        // Need to copy the current record into a historic block
+        Bin[] bins = new Bin[3];
+        // First the time series bin - either as a map or in compressed form
+        if (compressHistoricBlocks) {
+            @SuppressWarnings("unchecked") // Should be able to assume the below casting works
+            Map<Long, Double> timeSeries = (Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
+            bins[0] = new Bin(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, compressTimeSeriesMap(timeSeries));
+        } else {
+            bins[0] = new Bin(Constants.TIME_SERIES_BIN_NAME,
+                    currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME),
+                    MapOrder.KEY_ORDERED);
+        }
+        // Now the metadata - add in the timestamp of the most recent observation
+        Map metadata = new HashMap<>(currentRecord.getMap(Constants.METADATA_BIN_NAME));
+        //noinspection unchecked
+        metadata.put(Constants.END_TIME_FIELD_NAME, endTimeForBlock(currentRecord));
+        bins[1] = new Bin(Constants.METADATA_BIN_NAME, metadata);
+        // Sketch used by quantile queries covering the whole block - see runQuery
+        bins[2] = new Bin(Constants.QUANTILE_SKETCH_BIN_NAME, blockQuantileSketch(currentRecord).toStoredSketch());
+        return bins;
+    }
+
+    /**
+     * Timestamp of the most recent observation in a current block
+     *
+     * @param currentRecord - the current block record
+     * @return most recent timestamp
+     */
+    static long endTimeForBlock(Record currentRecord) {
+        @SuppressWarnings("unchecked") // Should be able to assume the below casting works
+        Map<Long, Double> timeSeries = (Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
+        return Collections.max(timeSeries.keySet());
+    }
+
+    /**
+     * Write policy which only allows the write if the record generation is as given
+     * Used when removing the current block after archiving, to make sure it has not changed in the meantime
+     *
+     * @param generation - expected generation
+     * @return write policy
+     */
+    WritePolicy generationCheckWritePolicy(int generation) {
+        WritePolicy checkGenerationWritePolicy = new WritePolicy(writePolicy);
+        checkGenerationWritePolicy.generation = generation;
+        checkGenerationWritePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        return checkGenerationWritePolicy;
+    }
+
+    /**
+     * Convert a time series map into the compressed block format
+     *
+     * @param timeSeries - map of timestamp to value
+     * @return compressed block
+     */
+    private static byte[] compressTimeSeriesMap(Map<Long, Double> timeSeries) {
+        // Map may not be ordered if it has been retrieved as an unordered structure, so sort to be sure
+        long[] timestamps = new long[timeSeries.size()];
+        int i = 0;
+        for (Long timestamp : timeSeries.keySet()) timestamps[i++] = timestamp;
+        Arrays.sort(timestamps);
+        double[] values = new double[timestamps.length];
+        for (i = 0; i < timestamps.length; i++) values[i] = timeSeries.get(timestamps[i]);
+        return GorillaCodec.encode(timestamps, values, timestamps.length);
+    }
+
+    /**
+     * Save data points to the database
+     * <p>
+     * Inserts always go to the current block for the time series which has key TimeSeriesName
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array
+     */
+    public void put(String timeSeriesName, DataPoint[] dataPoints) {
+        if (isTimeBucketed()) {
+            putToTimeBuckets(timeSeriesName, dataPoints);
+            return;
+        }
+        // First of all need to find out how much 'room' is available
+        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), MapOperation.size(Constants.TIME_SERIES_BIN_NAME));
+        int existingRecordCount = 0;
+        if (r != null) existingRecordCount = r.getInt(Constants.TIME_SERIES_BIN_NAME);
+        put(timeSeriesName, dataPoints, existingRecordCount);
+    }
+
+    /**
+     * Save data points for many series to the database
+     * <p>
+     * Intended for the case where a snapshot of many series is taken at once. The space available in the current block
+     * for every series is found with a single batch call, which the Aerospike client groups by node. The writes themselves
+     * are then executed concurrently - see setMultiSeriesWriteParallelism - with blocks archived as they fill, as per
+     * put(String, DataPoint[])
+     * <p>
+     * If any write fails, the first exception seen is re-thrown once all writes have completed. Writes for other series are not undone
+     *
+     * @param dataPointsBySeries - data points to write, keyed by time series name
+     */
+    public void put(Map<String, DataPoint[]> dataPointsBySeries) {
+        List<String> timeSeriesNames = new ArrayList<>();
+        for (Map.Entry<String, DataPoint[]> entry : dataPointsBySeries.entrySet()) {
+            if (entry.getValue().length > 0) timeSeriesNames.add(entry.getKey());
+        }
+        if (timeSeriesNames.isEmpty()) return;
+
+        Key[] keys = new Key[timeSeriesNames.size()];
+        for (int i = 0; i < keys.length; i++) keys[i] = asCurrentKeyForTimeSeries(timeSeriesNames.get(i));
+        // Find out how much 'room' is available in each current block - null record means no current block
+        // Not needed if blocks are keyed by time bucket
+        Record[] sizeRecords = isTimeBucketed() ? null :
+                asClient.get(new BatchPolicy(readPolicy), keys, MapOperation.size(Constants.TIME_SERIES_BIN_NAME));
+
+        List<Callable<Void>> writes = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            String timeSeriesName = timeSeriesNames.get(i);
+            if (sizeRecords == null) {
+                writes.add(() -> {
+                    putToTimeBuckets(timeSeriesName, dataPointsBySeries.get(timeSeriesName));
+                    return null;
+                });
+                continue;
+            }
+            int existingRecordCount = sizeRecords[i] != null ? sizeRecords[i].getInt(Constants.TIME_SERIES_BIN_NAME) : 0;
+            writes.add(() -> {
+                put(timeSeriesName, dataPointsBySeries.get(timeSeriesName), existingRecordCount);
+                return null;
+            });
+        }
+
+        invokeAll(writes);
+    }
+
+    /**
+     * Run tasks using the multi-series thread pool, or one after another on the calling thread if there is no pool or only one task
+     * Every task is run to completion - the first failure, if any, is then thrown
+     *
+     * @param tasks - tasks to run
+     */
+    private void invokeAll(List<Callable<Void>> tasks) {
+        ExecutorService executor = getMultiSeriesWriteExecutor();
+        if (executor == null || tasks.size() == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw e instanceof RuntimeException ? (RuntimeException) e : new AerospikeException(e);
+                }
+            }
+        } else {
+            RuntimeException firstFailure = null;
+            try {
+                for (Future<Void> result : executor.invokeAll(tasks)) {
+                    try {
+                        result.get();
+                    } catch (ExecutionException e) {
+                        if (firstFailure == null) {
+                            firstFailure = e.getCause() instanceof RuntimeException ?
+                                    (RuntimeException) e.getCause() : new AerospikeException(e.getCause());
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AerospikeException(e);
+            }
+            if (firstFailure != null) throw firstFailure;
+        }
+    }
+
+    /**
+     * Thread pool for put(Map&lt;String, DataPoint[]&gt;) and runTopKQuery - null if work is to be done by the calling thread
+     * Threads are daemon threads, so the pool does not need to be shut down
+     *
+     * @return executor service
+     */
+    private synchronized ExecutorService getMultiSeriesWriteExecutor() {
+        if (multiSeriesWriteParallelism == 1) return null;
+        if (multiSeriesWriteExecutor == null) {
+            multiSeriesWriteExecutor = Executors.newFixedThreadPool(multiSeriesWriteParallelism, runnable -> {
+                Thread thread = new Thread(runnable, "TimeSeriesClient-multiSeriesWrite");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return multiSeriesWriteExecutor;
+    }
+
+    /**
+     * Write data points to a series, given the number of points already in the current block
+     * Used by both put(String, DataPoint[]) and put(Map&lt;String, DataPoint[]&gt;)
+     *
+     * @param timeSeriesName      - time series name
+     * @param dataPoints          - data points as an array
+     * @param existingRecordCount - number of points in the current block
+     */
+    private void put(String timeSeriesName, DataPoint[] dataPoints, int existingRecordCount) {
+        // We will be working through the data points iteratively, so we need to keep track of where we are
+        int lastRecordLoaded = 0;
+
+        // Stop when all records have been 'put'
+        while (lastRecordLoaded < dataPoints.length) {
+            // Load records remaining or whatever we have space for, whichever is the smaller
+            // If the block is already full it is waiting to be archived - either by another writer or in the background - so add
+            // to it, up to its overflow limit. At the limit, archive it in this thread
+            int spaceAvailable = maxBlockEntryCount - existingRecordCount;
+            if (spaceAvailable <= 0) spaceAvailable = maxOverflowingBlockEntryCount() - existingRecordCount;
+            if (spaceAvailable <= 0) {
+                existingRecordCount = archiveOverflowingBlock(timeSeriesName);
+                continue;
+            }
+            int numberOfRecordsToLoad = Math.min(dataPoints.length - lastRecordLoaded, spaceAvailable);
+            // Batch inserting data points is done via an array of operations
+            // Metadata is included - may not be needed, but will be ignored if it already exists
+            Operation[] ops = opsForDataPointInsert(timeSeriesName, dataPoints, lastRecordLoaded, numberOfRecordsToLoad);
+            // Put to the database. Each put returns the map size, so the last gives the size of the block
+            Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), ops);
+            existingRecordCount = currentBlockEntryCount(r, existingRecordCount + numberOfRecordsToLoad);
+            // If the block is full, 'archive' it - in this thread unless background rollover is enabled
+            if (existingRecordCount >= maxBlockEntryCount) {
+                if (rolloverExecutor != null) {
+                    requestRollover(timeSeriesName);
+                } else if (copyCurrentDataToHistoricBlock(timeSeriesName)) {
+                    existingRecordCount = 0;
+                } else {
+                    // Another writer may hold the claim on the block, or have added points while it was archived
+                    existingRecordCount = currentBlockEntryCount(asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                            MapOperation.size(Constants.TIME_SERIES_BIN_NAME)), 0);
+                }
+            }
+            // Update the running total of records we've inserted
+            lastRecordLoaded += numberOfRecordsToLoad;
+        }
+    }
+
+    /**
+     * Number of points in a current block, from the result of a write or size operation
+     * A bin with more than one operation applied gives a list of results - the last is the size once all have been applied
+     *
+     * @param r            - record returned by the operation. May be null
+     * @param defaultCount - count to use if the record holds none
+     * @return current block entry count
+     */
+    static int currentBlockEntryCount(Record r, int defaultCount) {
+        Object result = r != null ? r.getValue(Constants.TIME_SERIES_BIN_NAME) : null;
+        if (result instanceof List) result = ((List<?>) result).isEmpty() ? null : ((List<?>) result).get(((List<?>) result).size() - 1);
+        return result instanceof Long ? ((Long) result).intValue() : defaultCount;
+    }
+
+    /**
+     * Write data points to a series whose blocks are keyed by time bucket
+     * One write per bucket covered by the points, each followed by adding the bucket to the index - see addTimeBucketToIndex
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array, in any order
+     */
+    private void putToTimeBuckets(String timeSeriesName, DataPoint[] dataPoints) {
+        DataPoint[] sortedDataPoints = sortedByTimestamp(dataPoints);
+        int offset = 0;
+        while (offset < sortedDataPoints.length) {
+            long bucketStartTime = timeBucketStartTime(sortedDataPoints[offset].getTimestamp());
+            int count = timeBucketPointCount(sortedDataPoints, offset);
+            asClient.operate(writePolicy, asKeyForHistoricTimeSeriesBlock(timeSeriesName, bucketStartTime),
+                    opsForTimeBucketInsert(timeSeriesName, sortedDataPoints, offset, count));
+            if (!isTimeBucketIndexed(timeSeriesName, bucketStartTime)) {
+                addTimeSeriesIndexRecord(timeSeriesName, bucketStartTime, bucketStartTime + timeBucketDurationMs - 1, 0, null);
+                timeBucketIndexed(timeSeriesName, bucketStartTime);
+            }
+            offset += count;
+        }
+    }
+
+    /**
+     * Whether this client has added a time bucket to the index
+     * Adding a bucket to the index is idempotent, so it is repeated for every write unless known to be done. This way an index
+     * write which failed, here or in another client, is repaired by the next write to the bucket
+     *
+     * @param timeSeriesName  - time series name
+     * @param bucketStartTime - bucket start time
+     * @return true if the bucket is known to be in the index
+     */
+    boolean isTimeBucketIndexed(String timeSeriesName, long bucketStartTime) {
+        Long indexedBucketStartTime = indexedTimeBuckets.get(timeSeriesName);
+        return indexedBucketStartTime != null && indexedBucketStartTime == bucketStartTime;
+    }
+
+    /**
+     * Record that a time bucket has been added to the index. Only the last bucket is held per series, as writes usually go to it
+     *
+     * @param timeSeriesName  - time series name
+     * @param bucketStartTime - bucket start time
+     */
+    void timeBucketIndexed(String timeSeriesName, long bucketStartTime) {
+        // Forgetting buckets only costs a repeated index write, so bound the memory used by starting again
+        if (indexedTimeBuckets.size() >= Constants.MAX_INDEXED_TIME_BUCKET_SERIES) indexedTimeBuckets.clear();
+        indexedTimeBuckets.put(timeSeriesName, bucketStartTime);
+    }
+
+    /**
+     * Start time of the time bucket a timestamp falls in
+     *
+     * @param timestamp - timestamp
+     * @return bucket start time
+     */
+    long timeBucketStartTime(long timestamp) {
+        return Math.floorDiv(timestamp, timeBucketDurationMs) * timeBucketDurationMs;
+    }
+
+    /**
+     * Number of consecutive points, starting at offset, falling in the same time bucket
+     *
+     * @param sortedDataPoints - data points, in timestamp order
+     * @param offset           - index of first data point
+     * @return number of points
+     */
+    int timeBucketPointCount(DataPoint[] sortedDataPoints, int offset) {
+        long bucketStartTime = timeBucketStartTime(sortedDataPoints[offset].getTimestamp());
+        int count = 1;
+        while (offset + count < sortedDataPoints.length
+                && timeBucketStartTime(sortedDataPoints[offset + count].getTimestamp()) == bucketStartTime) count++;
+        return count;
+    }
+
+    /**
+     * Copy of data points, sorted by timestamp. Returns the original array if already sorted
+     *
+     * @param dataPoints - data points
+     * @return data points in timestamp order
+     */
+    static DataPoint[] sortedByTimestamp(DataPoint[] dataPoints) {
+        for (int i = 1; i < dataPoints.length; i++) {
+            if (dataPoints[i].getTimestamp() < dataPoints[i - 1].getTimestamp()) {
+                DataPoint[] sortedDataPoints = dataPoints.clone();
+                Arrays.sort(sortedDataPoints, Comparator.comparingLong(DataPoint::getTimestamp));
+                return sortedDataPoints;
+            }
+        }
+        return dataPoints;
+    }
+
+    /**
+     * Operations needed to insert data points into a time bucket. Block start time is the bucket start time
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points
+     * @param offset         - index of first data point to insert
+     * @param count          - number of data points to insert - all must be in the same bucket
+     * @return the operations required
+     */
+    Operation[] opsForTimeBucketInsert(String timeSeriesName, DataPoint[] dataPoints, int offset, int count) {
+        Operation[] ops = opsForDataPointInsert(timeSeriesName, dataPoints, offset, count);
+        ops[count + 1] = MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                new Value.StringValue(Constants.START_TIME_FIELD_NAME), new Value.LongValue(timeBucketStartTime(dataPoints[offset].getTimestamp())));
+        return ops;
+    }
+
+    /**
+     * Batch reads for the time buckets covering startTime to endTime, calculated without reference to the index
+     * Only the first and last buckets can hold points outside the range, so only these are trimmed - see batchReadForBlock
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return batch reads - null if more than Constants.MAX_TIME_BUCKETS_READ_WITHOUT_INDEX buckets would be needed
+     */
+    List<BatchRead> batchReadsForTimeBucketRange(String timeSeriesName, long startTime, long endTime) {
+        List<BatchRead> batchReads = new ArrayList<>();
+        if (endTime < startTime) return batchReads;
+        long firstBucketStartTime = timeBucketStartTime(startTime);
+        long lastBucketStartTime = timeBucketStartTime(endTime);
+        // Difference can overflow for extreme ranges - treat as too many buckets
+        long difference = lastBucketStartTime - firstBucketStartTime;
+        if (difference < 0 || difference / timeBucketDurationMs >= Constants.MAX_TIME_BUCKETS_READ_WITHOUT_INDEX) return null;
+        for (long bucketStartTime = firstBucketStartTime; bucketStartTime <= lastBucketStartTime; bucketStartTime += timeBucketDurationMs) {
+            boolean withinRange = bucketStartTime >= startTime && bucketStartTime + timeBucketDurationMs - 1 <= endTime;
+            batchReads.add(batchReadForBlock(asKeyForHistoricTimeSeriesBlock(timeSeriesName, bucketStartTime), withinRange, startTime, endTime));
+        }
+        return batchReads;
+    }
+
+    /**
+     * Retrieve a specific data point for a named time series
+     *
+     * @param timeSeriesName name of relevant series
+     * @param dateTime       timestamp for point we want
+     * @return data point if found
+     */
+    public DataPoint getPoint(String timeSeriesName, Date dateTime) {
+        DataPoint[] dataPointArray = getPoints(timeSeriesName, dateTime, dateTime);
+        if (dataPointArray.length == 1) {
+            return dataPointArray[0];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the most recent data point for a named time series - see getLast(String, int)
+     *
+     * @param timeSeriesName - name of time series
+     * @return data point with the latest timestamp - null if the series has no points
+     */
+    public DataPoint getLatest(String timeSeriesName) {
+        DataPoint[] dataPoints = getLast(timeSeriesName, 1);
+        return dataPoints.length > 0 ? dataPoints[0] : null;
+    }
+
+    /**
+     * Retrieve the n most recent data points for a named time series, without needing a time range
+     * <p>
+     * The tail of the current block is read using a single map index range operation, so unlike getPoints the index is not read.
+     * Only if the current block holds fewer than n points is the newest archived block found from the index, and its tail read.
+     * Should that still give fewer than n points, earlier blocks are read as per getPoints, in windows going back in time from
+     * the newest archived block, each twice as wide as the last, until n points are found or the start of the series is reached
+     *
+     * @param timeSeriesName - name of time series
+     * @param n              - number of points required
+     * @return up to n data points with the latest timestamps, in time order - fewer if the series has fewer points
+     */
+    public DataPoint[] getLast(String timeSeriesName, int n) {
+        if (n < 1) throw new IllegalArgumentException("n must be at least 1");
+        Record currentBlockTail = isTimeBucketed() ? null :
+                asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), opsForBlockTail(n));
+        return getLast(timeSeriesName, n, currentBlockTail);
+    }
+
+    /**
+     * Retrieve the most recent data point for each of many series - see getLast(Collection, int)
+     *
+     * @param timeSeriesNames - names of time series
+     * @return data point with the latest timestamp, keyed by time series name. Series with no points are not included
+     */
+    public Map<String, DataPoint> getLatest(Collection<String> timeSeriesNames) {
+        Map<String, DataPoint> latestBySeries = new LinkedHashMap<>();
+        for (Map.Entry<String, DataPoint[]> dataPoints : getLast(timeSeriesNames, 1).entrySet()) {
+            if (dataPoints.getValue().length > 0) latestBySeries.put(dataPoints.getKey(), dataPoints.getValue()[0]);
+        }
+        return latestBySeries;
+    }
+
+    /**
+     * Retrieve the n most recent data points for each of many series e.g. for a dashboard
+     * <p>
+     * The tails of the current blocks of every series are read in a single batch call. Series whose current block holds fewer
+     * than n points then have earlier points read as per getLast(String, int), in parallel - see setMultiSeriesWriteParallelism
+     *
+     * @param timeSeriesNames - names of time series
+     * @param n               - number of points required for each series
+     * @return up to n data points with the latest timestamps for each series, in time order, keyed by time series name
+     */
+    public Map<String, DataPoint[]> getLast(Collection<String> timeSeriesNames, int n) {
+        if (n < 1) throw new IllegalArgumentException("n must be at least 1");
+        List<String> distinctSeriesNames = new ArrayList<>(new LinkedHashSet<>(timeSeriesNames));
+        DataPoint[][] lastPoints = new DataPoint[distinctSeriesNames.size()][];
+        List<BatchRead> batchReads = new ArrayList<>();
+        if (!isTimeBucketed()) {
+            for (String timeSeriesName : distinctSeriesNames) batchReads.add(new BatchRead(asCurrentKeyForTimeSeries(timeSeriesName), opsForBlockTail(n)));
+        }
+        Record[] currentBlockTails = isTimeBucketed() ? new Record[distinctSeriesNames.size()] : get(multiSeriesBatchPolicy(), batchReads);
+        List<Callable<Void>> earlierReads = new ArrayList<>();
+        for (int i = 0; i < lastPoints.length; i++) {
+            TimeSeriesPoints currentBlockPoints = timeSeriesPointsFromBlocks(new Record[]{currentBlockTails[i]}, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (currentBlockPoints.size() >= n) {
+                lastPoints[i] = currentBlockPoints.toDataPoints();
+                continue;
+            }
+            int seriesIndex = i;
+            earlierReads.add(() -> {
+                lastPoints[seriesIndex] = getLast(distinctSeriesNames.get(seriesIndex), n, currentBlockTails[seriesIndex]);
+                return null;
+            });
+        }
+        invokeAll(earlierReads);
+        Map<String, DataPoint[]> lastPointsBySeries = new LinkedHashMap<>();
+        for (int i = 0; i < lastPoints.length; i++) lastPointsBySeries.put(distinctSeriesNames.get(i), lastPoints[i]);
+        return lastPointsBySeries;
+    }
+
+    /**
+     * Retrieve the n most recent data points for a named time series, given the tail of its current block
+     *
+     * @param timeSeriesName   - name of time series
+     * @param n                - number of points required
+     * @param currentBlockTail - current block record, read using opsForBlockTail - null if there is none
+     * @return up to n data points with the latest timestamps, in time order
+     */
+    private DataPoint[] getLast(String timeSeriesName, int n, Record currentBlockTail) {
+        // Points from later blocks are read first. Should a timestamp be in more than one block, the point from the earlier block
+        // replaces it, as in timeSeriesPointsFromBlocks
+        TreeMap<Long, Double> points = new TreeMap<>();
+        addPoints(points, timeSeriesPointsFromBlocks(new Record[]{currentBlockTail}, Long.MIN_VALUE, Long.MAX_VALUE));
+        if (points.size() >= n) return lastDataPoints(points, n);
+
+        // {block start time, block end time, entry count}
+        long[] newestIndexEntry = indexEntryAtBoundary(timeSeriesName, -1);
+        if (newestIndexEntry == null) return lastDataPoints(points, n);
+        Record newestBlockTail = asClient.operate(writePolicy, asKeyForHistoricTimeSeriesBlock(timeSeriesName, newestIndexEntry[0]),
+                opsForBlockTail(n));
+        addPoints(points, timeSeriesPointsFromBlocks(new Record[]{newestBlockTail}, Long.MIN_VALUE, Long.MAX_VALUE));
+        if (points.size() >= n) return lastDataPoints(points, n);
+
+        long seriesStartTime = startTimeForSeries(timeSeriesName);
+        long windowEndTime = newestIndexEntry[0] - 1;
+        long windowDurationMs = Math.max(1, newestIndexEntry[1] - newestIndexEntry[0] + 1);
+        while (points.size() < n && windowEndTime >= seriesStartTime) {
+            long windowStartTime = windowEndTime - seriesStartTime < windowDurationMs ? seriesStartTime : windowEndTime - windowDurationMs + 1;
+            addPoints(points, getTimeSeriesPoints(timeSeriesName, windowStartTime, windowEndTime));
+            windowEndTime = windowStartTime - 1;
+            // Double the window, treating overflow as unbounded
+            windowDurationMs = windowDurationMs > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : windowDurationMs * 2;
+        }
+        return lastDataPoints(points, n);
+    }
+
+    /**
+     * Operations reading the n points with the latest timestamps from a block - the map is key ordered, so these are the last n
+     * Compressed blocks cannot be read in part, so are read whole
+     *
+     * @param n - number of points required
+     * @return the operations required
+     */
+    static Operation[] opsForBlockTail(int n) {
+        return new Operation[]{
+                // Index range is limited to the entries that exist, so blocks holding fewer than n points are read whole
+                MapOperation.getByIndexRange(Constants.TIME_SERIES_BIN_NAME, -n, n, MapReturnType.KEY_VALUE),
+                Operation.get(Constants.COMPRESSED_TIME_SERIES_BIN_NAME)
+        };
+    }
+
+    /**
+     * Add points read from blocks earlier than those already added. Points from earlier blocks take precedence, as in timeSeriesPointsFromBlocks
+     *
+     * @param points           - values keyed by timestamp
+     * @param timeSeriesPoints - points from earlier blocks
+     */
+    private static void addPoints(TreeMap<Long, Double> points, TimeSeriesPoints timeSeriesPoints) {
+        for (int i = 0; i < timeSeriesPoints.size(); i++) points.put(timeSeriesPoints.getTimestamp(i), timeSeriesPoints.getValue(i));
+    }
+
+    /**
+     * The n points with the latest timestamps
+     *
+     * @param points - values keyed by timestamp
+     * @param n      - number of points required
+     * @return up to n data points, in time order
+     */
+    static DataPoint[] lastDataPoints(TreeMap<Long, Double> points, int n) {
+        DataPoint[] dataPoints = new DataPoint[Math.min(n, points.size())];
+        int i = dataPoints.length;
+        for (Map.Entry<Long, Double> point : points.descendingMap().entrySet()) {
+            if (i == 0) break;
+            dataPoints[--i] = new DataPoint(point.getKey(), point.getValue());
+        }
+        return dataPoints;
+    }
+
+    /**
+     * Retrieve the points added to a named time series since a cursor - an incremental change feed for downstream consumers
+     * <p>
+     * While no block has been archived since the cursor was issued, the points since the cursor are read from the current block
+     * using a single map operation, so neither the index nor points already read are transferred. Otherwise, and
+     * always for time bucketed series, the points after the cursor are read block by block as per iterator, stopping once
+     * maxPoints have been read.
+     * <p>
+     * At most maxPoints are returned, the earliest first, with the cursor set at the last point returned, so a consumer that is
+     * behind pages through the backlog with repeated calls. A call returning fewer than maxPoints has caught up.
+     * <p>
+     * Points are assumed to arrive in timestamp order. Points written with a timestamp at or before that of the cursor are not seen
+     *
+     * @param timeSeriesName - name of time series
+     * @param cursor         - cursor returned by the last call, or given by ChangeCursor.parse or ChangeCursor.after. Null to read every point
+     * @param maxPoints      - max number of points returned
+     * @return points added since the cursor, in time order, and the cursor to use in the next call
+     */
+    public TimeSeriesChanges readSince(String timeSeriesName, ChangeCursor cursor, int maxPoints) {
+        if (maxPoints < 1) throw new IllegalArgumentException("maxPoints must be at least 1");
+        ChangeCursor startCursor = cursor != null ? cursor : ChangeCursor.START;
+        if (startCursor.isAtEnd()) return new TimeSeriesChanges(new DataPoint[0], startCursor);
+        Record currentBlock = isTimeBucketed() ? null :
+                asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), opsForPointsSince(startCursor.readFromTime(), maxPoints));
+        return changesSince(timeSeriesName, startCursor, currentBlock, maxPoints);
+    }
+
+    /**
+     * Retrieve the points added to each of many series since a cursor - see readSince(String, ChangeCursor, int)
+     * <p>
+     * The points since the cursor in the current blocks of every series are read in a single batch call. Series with blocks
+     * archived since their cursor then have their points read as per getPoints, in parallel - see setMultiSeriesWriteParallelism
+     *
+     * @param cursorsBySeries - cursor for each series, keyed by time series name. Null cursors read every point
+     * @param maxPoints       - max number of points returned for each series
+     * @return points added since the cursor, and the cursor to use in the next call, keyed by time series name
+     */
+    public Map<String, TimeSeriesChanges> readSince(Map<String, ChangeCursor> cursorsBySeries, int maxPoints) {
+        if (maxPoints < 1) throw new IllegalArgumentException("maxPoints must be at least 1");
+        List<String> timeSeriesNames = new ArrayList<>();
+        List<ChangeCursor> startCursors = new ArrayList<>();
+        List<BatchRead> batchReads = new ArrayList<>();
+        for (Map.Entry<String, ChangeCursor> cursorForSeries : cursorsBySeries.entrySet()) {
+            ChangeCursor startCursor = cursorForSeries.getValue() != null ? cursorForSeries.getValue() : ChangeCursor.START;
+            timeSeriesNames.add(cursorForSeries.getKey());
+            startCursors.add(startCursor);
+            if (!isTimeBucketed()) {
+                batchReads.add(new BatchRead(asCurrentKeyForTimeSeries(cursorForSeries.getKey()), opsForPointsSince(startCursor.readFromTime(), maxPoints)));
+            }
+        }
+        Record[] currentBlocks = isTimeBucketed() ? new Record[timeSeriesNames.size()] : get(multiSeriesBatchPolicy(), batchReads);
+        TimeSeriesChanges[] changes = new TimeSeriesChanges[timeSeriesNames.size()];
+        List<Callable<Void>> archivedBlockReads = new ArrayList<>();
+        for (int i = 0; i < changes.length; i++) {
+            if (currentBlockHoldsChanges(startCursors.get(i), currentBlocks[i])) {
+                changes[i] = changesSince(timeSeriesNames.get(i), startCursors.get(i), currentBlocks[i], maxPoints);
+                continue;
+            }
+            int seriesIndex = i;
+            archivedBlockReads.add(() -> {
+                changes[seriesIndex] = changesSince(timeSeriesNames.get(seriesIndex), startCursors.get(seriesIndex), currentBlocks[seriesIndex], maxPoints);
+                return null;
+            });
+        }
+        invokeAll(archivedBlockReads);
+        Map<String, TimeSeriesChanges> changesBySeries = new LinkedHashMap<>();
+        for (int i = 0; i < changes.length; i++) changesBySeries.put(timeSeriesNames.get(i), changes[i]);
+        return changesBySeries;
+    }
+
+    /**
+     * Points added to a named time series since a cursor, given its current block as read using opsForPointsSince
+     *
+     * @param timeSeriesName - name of time series
+     * @param cursor         - cursor to read from
+     * @param currentBlock   - current block record - null if there is none, or blocks are keyed by time bucket
+     * @param maxPoints      - max number of points returned
+     * @return points added since the cursor, and the cursor to use in the next call
+     */
+    private TimeSeriesChanges changesSince(String timeSeriesName, ChangeCursor cursor, Record currentBlock, int maxPoints) {
+        if (cursor.isAtEnd()) return new TimeSeriesChanges(new DataPoint[0], cursor);
+        // Read before any archived blocks, so if a block is archived while they are read the next call reads the index again
+        long currentBlockStartTime = currentBlockStartTime(currentBlock);
+        DataPoint[] dataPoints;
+        if (currentBlockHoldsChanges(cursor, currentBlock)) {
+            // Already limited to maxPoints by the read
+            dataPoints = timeSeriesPointsFromBlocks(new Record[]{currentBlock}, cursor.readFromTime(), Long.MAX_VALUE).toDataPoints();
+        } else {
+            // Iterator needs a start time within the series, so the index window holds its blocks
+            long startTime = cursor.readFromTime() == Long.MIN_VALUE ? startTimeForSeries(timeSeriesName) : cursor.readFromTime();
+            // Stop reading blocks once we have enough points
+            Iterator<DataPoint> iterator = new TimeSeriesPointIterator(this, timeSeriesName, startTime, Long.MAX_VALUE,
+                    Constants.DEFAULT_BLOCKS_PER_FETCH, getPrefetchExecutor());
+            List<DataPoint> dataPointList = new ArrayList<>();
+            while (dataPointList.size() < maxPoints && iterator.hasNext()) dataPointList.add(iterator.next());
+            dataPoints = dataPointList.toArray(new DataPoint[0]);
+        }
+        if (dataPoints.length == 0) return new TimeSeriesChanges(dataPoints, new ChangeCursor(currentBlockStartTime, cursor.getLastTimestamp()));
+        long lastTimestamp = dataPoints[dataPoints.length - 1].getTimestamp();
+        // If the points were cut short before the current block, some of those left are in archived blocks, so the next call
+        // must not read the current block alone
+        if (dataPoints.length == maxPoints && lastTimestamp < currentBlockStartTime) currentBlockStartTime = TimeSeriesIndexCache.NO_CURRENT_BLOCK;
+        return new TimeSeriesChanges(dataPoints, new ChangeCursor(currentBlockStartTime, lastTimestamp));
+    }
+
+    /**
+     * Whether every point added since a cursor is in the current block - true if the current block start time is unchanged,
+     * as it changes whenever a block is archived
+     *
+     * @param cursor       - cursor to read from
+     * @param currentBlock - current block record, including the metadata bin. May be null
+     * @return true if only the current block need be read
+     */
+    static boolean currentBlockHoldsChanges(ChangeCursor cursor, Record currentBlock) {
+        long currentBlockStartTime = currentBlockStartTime(currentBlock);
+        return currentBlockStartTime != TimeSeriesIndexCache.NO_CURRENT_BLOCK && currentBlockStartTime == cursor.getBlockStartTime();
+    }
+
+    /**
+     * Operations reading the first maxPoints points of a block from startTime on, and its metadata, which holds the block start time
+     * The current block is never compressed, so this is not read
+     *
+     * @param startTime - timestamp of first point required
+     * @param maxPoints - max number of points read
+     * @return the operations required
+     */
+    static Operation[] opsForPointsSince(long startTime, int maxPoints) {
+        return new Operation[]{
+                // Index range relative to the first key at or after startTime
+                MapOperation.getByKeyRelativeIndexRange(Constants.TIME_SERIES_BIN_NAME, new Value.LongValue(startTime), 0, maxPoints,
+                        MapReturnType.KEY_VALUE),
+                Operation.get(Constants.METADATA_BIN_NAME)
+        };
+    }
+
+    /**
+     * Retrieve all time series points between two given date / times (inclusive)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return array of DataPoint objects
+     */
+    public DataPoint[] getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return getTimeSeriesPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime()).toDataPoints();
+    }
+
+    /**
+     * Retrieve the time series points between two given date / times (inclusive), reduced to at most targetPointCount points for charting
+     * <p>
+     * The range is divided into targetPointCount / 4 equal time buckets, and the first, last, lowest and highest points of each
+     * are kept - the M4 aggregation. A line chart one pixel column per bucket wide looks the same drawn from these points as from
+     * every point. The range is read using iterator, each point being folded into its bucket as it arrives, so the points are
+     * never all held at once - memory depends on targetPointCount, not the length of the range.
+     * <p>
+     * The range is first limited to the span of the series, so open ended ranges are divided over the points that exist
+     *
+     * @param timeSeriesName   - name of time series
+     * @param fromDateTime     - start time for required range
+     * @param toDateTime       - end time for required range
+     * @param targetPointCount - max number of points to return e.g. the width of the chart in pixels. At least 4
+     * @return array of DataPoint objects, in time order
+     */
+    public DataPoint[] getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime, int targetPointCount) {
+        if (targetPointCount < DownsamplingAccumulator.POINTS_PER_BUCKET) {
+            throw new IllegalArgumentException("targetPointCount must be at least " + DownsamplingAccumulator.POINTS_PER_BUCKET);
+        }
+        long startTime = Math.max(fromDateTime.getTime(), startTimeForSeries(timeSeriesName));
+        long endTime = Math.min(toDateTime.getTime(), endTimeForSeries(timeSeriesName));
+        if (endTime < startTime) return new DataPoint[0];
+        DownsamplingAccumulator accumulator = new DownsamplingAccumulator(startTime, endTime,
+                targetPointCount / DownsamplingAccumulator.POINTS_PER_BUCKET);
+        new TimeSeriesPointIterator(this, timeSeriesName, startTime, endTime, Constants.DEFAULT_BLOCKS_PER_FETCH, getPrefetchExecutor())
+                .consumeRemaining(accumulator);
+        return accumulator.toDataPoints();
+    }
+
+    /**
+     * Retrieve the time series points between two given date / times (inclusive) whose value meets a predicate e.g. value &gt; 95
+     * <p>
+     * Points are selected on the server using a map value range operation, so only matching points are transferred. Archived
+     * blocks whose index entry summary shows no value can match are not read at all. The blocks at either end of the range
+     * are selected by value but not trimmed to the range, so matching points just outside the range may also be transferred,
+     * before being discarded by the client. Compressed blocks cannot be read selectively, so are read whole and filtered by the client
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @param predicate      - condition on the values of the points e.g. ValuePredicate.greaterThan(95)
+     * @return array of DataPoint objects
+     */
+    public DataPoint[] getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime, ValuePredicate predicate) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        if (endTime < startTime) return new DataPoint[0];
+        List<Key> keys = new ArrayList<>();
+        // If blocks are keyed by time bucket, keys can be calculated unless the range is very wide
+        List<BatchRead> bucketReads = isTimeBucketed() ? batchReadsForTimeBucketRange(timeSeriesName, startTime, endTime) : null;
+        if (bucketReads != null) {
+            for (BatchRead bucketRead : bucketReads) keys.add(bucketRead.key);
+        } else {
+            TreeMap<Long, long[]> indexEntries = indexEntriesForRange(timeSeriesName, startTime, endTime);
+            for (Map.Entry<Long, long[]> indexEntry : indexEntries.entrySet()) {
+                double[] summary = blockSummaryFromIndexEntry(indexEntry.getValue());
+                if (summary != null && !predicate.overlaps(summary[QueryAccumulator.SUMMARY_MIN], summary[QueryAccumulator.SUMMARY_MAX])) continue;
+                keys.add(asKeyForHistoricTimeSeriesBlock(timeSeriesName, indexEntry.getKey()));
+            }
+            if (currentBlockNeeded(indexEntries, endTime)) keys.add(asCurrentKeyForTimeSeries(timeSeriesName));
+        }
+        List<BatchRead> batchReads = new ArrayList<>();
+        for (Key key : keys) batchReads.add(selectiveBatchReadForBlock(key, predicate));
+        return selectedPoints(timeSeriesPointsFromBlocks(get(batchReads), startTime, endTime), predicate);
+    }
+
+    /**
+     * Batch read for the points of a block meeting a predicate. Compressed blocks are read whole
+     * The record read holds a list of map entries in the TIME_SERIES_BIN_NAME bin, as for a trimmed read - see batchReadForBlock
+     *
+     * @param key       - block key
+     * @param predicate - condition on the values of the points
+     * @return batch read
+     */
+    static BatchRead selectiveBatchReadForBlock(Key key, ValuePredicate predicate) {
+        return new BatchRead(key, new Operation[]{
+                predicate.opForSelectedPoints(),
+                Operation.get(Constants.COMPRESSED_TIME_SERIES_BIN_NAME)
+        });
+    }
+
+    /**
+     * Points meeting a predicate - removes points from compressed blocks, which are not selected on the server
+     *
+     * @param timeSeriesPoints - points read
+     * @param predicate        - condition on the values of the points
+     * @return array of DataPoint objects
+     */
+    static DataPoint[] selectedPoints(TimeSeriesPoints timeSeriesPoints, ValuePredicate predicate) {
+        List<DataPoint> dataPoints = new ArrayList<>();
+        for (int i = 0; i < timeSeriesPoints.size(); i++) {
+            if (predicate.test(timeSeriesPoints.getValue(i))) dataPoints.add(timeSeriesPoints.getDataPoint(i));
+        }
+        return dataPoints.toArray(new DataPoint[0]);
+    }
+
+    /**
+     * Retrieve all time series points between two given date / times (inclusive), in columnar form
+     * Avoids creating an object per data point, so is preferable to getPoints for large ranges
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return TimeSeriesPoints object
+     */
+    public TimeSeriesPoints getTimeSeriesPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return getTimeSeriesPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime());
+    }
+
+    /**
+     * Iterate over the time series points between two given date / times (inclusive), in timestamp order
+     * Blocks are fetched Constants.DEFAULT_BLOCKS_PER_FETCH at a time - see iterator(String, Date, Date, int)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return iterator over DataPoint objects
+     */
+    @SuppressWarnings("unused") // Required in API
+    public Iterator<DataPoint> iterator(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return iterator(timeSeriesName, fromDateTime, toDateTime, Constants.DEFAULT_BLOCKS_PER_FETCH);
+    }
+
+    /**
+     * Iterate over the time series points between two given date / times (inclusive), in timestamp order
+     * <p>
+     * Unlike getPoints, the range is not read all at once. Blocks are fetched at most blocksPerFetch at a time, and the next fetch
+     * is made in the background while the points from the last one are consumed. Memory use is bounded by the fetch size,
+     * so ranges of any length can be iterated over. The iterator is not thread safe
+     * <p>
+     * AerospikeExceptions from fetches are thrown by hasNext and next
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @param blocksPerFetch - max number of blocks read by each fetch
+     * @return iterator over DataPoint objects
+     */
+    public Iterator<DataPoint> iterator(String timeSeriesName, Date fromDateTime, Date toDateTime, int blocksPerFetch) {
+        if (blocksPerFetch < 1) throw new IllegalArgumentException("blocksPerFetch must be at least 1");
+        return new TimeSeriesPointIterator(this, timeSeriesName, fromDateTime.getTime(), toDateTime.getTime(), blocksPerFetch,
+                getPrefetchExecutor());
+    }
+
+    /**
+     * Stream of the time series points between two given date / times (inclusive), in timestamp order
+     * Blocks are fetched Constants.DEFAULT_BLOCKS_PER_FETCH at a time - see iterator(String, Date, Date, int)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return sequential stream of DataPoint objects
+     */
+    @SuppressWarnings("unused") // Required in API
+    public Stream<DataPoint> stream(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return stream(timeSeriesName, fromDateTime, toDateTime, Constants.DEFAULT_BLOCKS_PER_FETCH);
+    }
+
+    /**
+     * Stream of the time series points between two given date / times (inclusive), in timestamp order
+     * Points are fetched as the stream is consumed - see iterator(String, Date, Date, int)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @param blocksPerFetch - max number of blocks read by each fetch
+     * @return sequential stream of DataPoint objects
+     */
+    public Stream<DataPoint> stream(String timeSeriesName, Date fromDateTime, Date toDateTime, int blocksPerFetch) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(timeSeriesName, fromDateTime, toDateTime, blocksPerFetch),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Thread pool making fetches for iterators. Threads are daemon threads, and are discarded once idle
+     *
+     * @return executor service
+     */
+    private synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "TimeSeriesClient-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return prefetchExecutor;
+    }
+
+    /**
+     * Aerospike Key for a given time series name
+     * Package level visibility to allow testing
+     *
+     * @param timeSeriesName name of time series
+     * @return Aerospike Key for current block for this time series
+     */
+    public Key asCurrentKeyForTimeSeries(String timeSeriesName) {
+        return new Key(asNamespace, timeSeriesSet, timeSeriesName);
+    }
+
+    /**
+     * Aerospike Key for a given block for a given time series
+     *
+     * @param timeSeriesName         - name of time series
+     * @param startTimestampForBlock - start timestamp for block
+     * @return Aerospike Key for required block
+     */
+    public Key asKeyForHistoricTimeSeriesBlock(String timeSeriesName, long startTimestampForBlock) {
+        String historicBlockKey = String.format("%s-%d", timeSeriesName, startTimestampForBlock);
+        return new Key(asNamespace, timeSeriesSet, historicBlockKey);
+    }
+
+    /**
+     * Aerospike Index Key name for a given time series name
+     *
+     * @param timeSeriesName - time series in question
+     * @return - Aerospike Key to index block for that time series
+     */
+    public Key asKeyForTimeSeriesIndexes(String timeSeriesName) {
+        return new Key(asNamespace, timeSeriesIndexSetName(), timeSeriesName);
+    }
+
+    /**
+     * Aerospike Key for a page of the index for a given time series
+     *
+     * @param timeSeriesName - time series in question
+     * @param pageStartTime  - start of the time range covered by the page
+     * @return - Aerospike Key to index page
+     */
+    public Key asKeyForTimeSeriesIndexPage(String timeSeriesName, long pageStartTime) {
+        String indexPageKey = String.format("%s-%d", timeSeriesName, pageStartTime);
+        return new Key(asNamespace, timeSeriesIndexSetName(), indexPageKey);
+    }
+
+    /**
+     * Aerospike Key for a record of a rollup tier for a given time series
+     *
+     * @param timeSeriesName  - time series in question
+     * @param rollupTier      - rollup tier
+     * @param recordStartTime - start of the time range covered by the record - see RollupTier.recordStartTime
+     * @return - Aerospike Key to rollup record
+     */
+    public Key asKeyForRollupRecord(String timeSeriesName, RollupTier rollupTier, long recordStartTime) {
+        String rollupRecordKey = String.format("%s-%d", timeSeriesName, recordStartTime);
+        return new Key(asNamespace, rollupSetName(rollupTier), rollupRecordKey);
+    }
+
+    /**
+     * Name of the set a rollup tier is stored in. See setRollupsEnabled
+     *
+     * @param rollupTier - rollup tier
+     * @return set name
+     */
+    public String rollupSetName(RollupTier rollupTier) {
+        return rollupSetName(timeSeriesSet, rollupTier);
+    }
+
+    /**
+     * Static method allowing inference of the name of the set a rollup tier is stored in
+     *
+     * @param setName    - the name of the set that stores the time series data
+     * @param rollupTier - rollup tier
+     * @return - the name of the set to store the rollup tier in
+     */
+    public static String rollupSetName(String setName, RollupTier rollupTier) {
+        return String.format("%s%s%s", setName, ROLLUP_SET_SUFFIX, rollupTier.getShortName());
+    }
+
+    /**
+     * Aerospike Key for a record of the tag index listing the series with a given tag
+     * Each tag is split across Constants.TAG_INDEX_SHARD_COUNT records - the one listing a series is given by tagIndexShard
+     *
+     * @param tagName  - tag name
+     * @param tagValue - tag value
+     * @param shard    - shard number, from 0 to Constants.TAG_INDEX_SHARD_COUNT - 1
+     * @return - Aerospike Key to tag index record
+     */
+    public Key asKeyForTagIndex(String tagName, String tagValue, int shard) {
+        return new Key(asNamespace, tagIndexSetName(), tagName + TAG_SEPARATOR + tagValue + TAG_INDEX_SHARD_SEPARATOR + shard);
+    }
+
+    /**
+     * Shard of the tag index listing a series. String hash codes are the same in every JVM, so all clients agree
+     *
+     * @param timeSeriesName - time series name
+     * @return shard number
+     */
+    static int tagIndexShard(String timeSeriesName) {
+        return Math.floorMod(timeSeriesName.hashCode(), Constants.TAG_INDEX_SHARD_COUNT);
+    }
+
+    /**
+     * Name of the set the tag index is stored in. See setTags
+     *
+     * @return set name
+     */
+    public String tagIndexSetName() {
+        return tagIndexSetName(timeSeriesSet);
+    }
+
+    /**
+     * Static method allowing inference of the name of the set the tag index is stored in
+     *
+     * @param setName - the name of the set that stores the time series data
+     * @return - the name of the set to store the tag index in
+     */
+    public static String tagIndexSetName(String setName) {
+        return String.format("%s%s", setName, TAG_SET_SUFFIX);
+    }
+
+    /**
+     * Each time series will have a number of Aerospike records associated with it
+     * We keep a record of these to make data retrieval efficient
+     * <p>
+     * The index is split into pages, each covering indexPageDurationMs. A block is added to the page covering its start time.
+     * The root index record lists the pages that exist. It also holds any block which ends in a later page than the one it
+     * starts in, so reading the pages covering a time range, together with the root, finds every block overlapping the range
+     * <p>
+     * The page entry for an archived block also holds a summary of the block's values, allowing queries to be answered without
+     * reading blocks that lie entirely within the query range. See runQuery
+     *
+     * @param timeSeriesName - name of time series we are updating index for
+     * @param startTime      - start time of the block we're adding to the index
+     * @param endTime        - end time of the block
+     * @param entryCount     - number of data points in the block
+     * @param summary        - summary of the block's values, as given by blockSummary. Null if the block may change once indexed
+     */
+    private void addTimeSeriesIndexRecord(String timeSeriesName, long startTime, long endTime, long entryCount, double[] summary) {
+        asClient.operate(writePolicy, asKeyForTimeSeriesIndexPage(timeSeriesName, indexPageStartTime(startTime)),
+                opsForTimeSeriesIndexRecord(timeSeriesName, startTime, endTime, entryCount, summary));
+        asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opsForTimeSeriesIndexRoot(timeSeriesName, startTime, endTime, entryCount));
+        TimeSeriesIndexCache cache = indexCache;
+        if (cache != null) cache.addIndexEntry(timeSeriesName, startTime, decodeIndexEntry(startTime, indexEntryList(startTime, endTime, entryCount, summary)));
+    }
+
+    /**
+     * Operations needed to add a block to the index page covering its start time
+     *
+     * @param timeSeriesName - name of time series we are updating index for
+     * @param startTime      - start time of the block we're adding to the index
+     * @param endTime        - end time of the block
+     * @param entryCount     - number of data points in the block
+     * @param summary        - summary of the block's values - may be null
+     * @return the operations required
+     */
+    Operation[] opsForTimeSeriesIndexRecord(String timeSeriesName, long startTime, long endTime, long entryCount, double[] summary) {
+        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
+        return new Operation[]{
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))),
+                MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_INDEX_BIN_NAME,
+                        new Value.LongValue(startTime), new Value.ListValue(indexEntryList(startTime, endTime, entryCount, summary)))
+        };
+    }
+
+    /**
+     * Operations needed to update the root index record once a block has been added to its index page
+     * The page entry is written every time, rather than only when the page is new, so a root write which failed is repaired
+     * by the next block added to the page. Re-writing an existing entry leaves it unchanged
+     * The block is also added to the root if it ends in a later page than the one it starts in. Spanning block entries do not
+     * hold a block summary - only page entries are updated by updateIndexEntryCount
+     *
+     * @param timeSeriesName - name of time series we are updating index for
+     * @param startTime      - start time of the block
+     * @param endTime        - end time of the block
+     * @param entryCount     - number of data points in the block
+     * @return the operations required
+     */
+    Operation[] opsForTimeSeriesIndexRoot(String timeSeriesName, long startTime, long endTime, long entryCount) {
+        long pageStartTime = indexPageStartTime(startTime);
+        List<Operation> ops = new ArrayList<>();
+        ops.add(Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))));
+        ops.add(MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME,
+                new Value.LongValue(pageStartTime), new Value.LongValue(pageStartTime + indexPageDurationMs - 1)));
+        boolean spansIndexPages = indexPageStartTime(endTime) != pageStartTime;
+        if (spansIndexPages) {
+            ops.add(MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_SPANNING_BLOCKS_BIN_NAME,
+                    new Value.LongValue(startTime), new Value.ListValue(indexEntryList(startTime, endTime, entryCount, null))));
+        }
+        return ops.toArray(new Operation[0]);
+    }
+
+    /**
+     * Index entries are packed as [EndTime - StartTime, EntryCount], keyed by block start time
+     * Entries for archived blocks are followed by the block summary - [..., Sum, SumSquaredDifferences, Min, Max, First, Last]
+     *
+     * @param startTime  - start time of the block
+     * @param endTime    - end time of the block
+     * @param entryCount - number of data points in the block
+     * @param summary    - summary of the block's values, as given by blockSummary - may be null
+     * @return index entry
+     */
+    private static List<Object> indexEntryList(long startTime, long endTime, long entryCount, double[] summary) {
+        List<Object> indexEntry = new ArrayList<>();
+        indexEntry.add(endTime - startTime);
+        indexEntry.add(entryCount);
+        if (summary != null) for (double summaryValue : summary) indexEntry.add(summaryValue);
+        return indexEntry;
+    }
+
+    /**
+     * Summary of the values in a block about to be archived - stored in the block's index entry
+     *
+     * @param currentRecord - current block record
+     * @return block summary, in the form given by QueryAccumulator.summary
+     */
+    static double[] blockSummary(Record currentRecord) {
+        QueryAccumulator accumulator = new QueryAccumulator(Long.MIN_VALUE, Long.MAX_VALUE);
+        // Accumulator requires points in timestamp order, which the map type returned by the client need not keep
+        for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME)).entrySet()) {
+            accumulator.accept((Long) entry.getKey(), (Double) entry.getValue());
+        }
+        return accumulator.summary();
+    }
+
+    /**
+     * Quantile sketch of the values in a block about to be archived - stored in the historic block
+     *
+     * @param currentRecord - current block record
+     * @return quantile sketch
+     */
+    static QuantileSketch blockQuantileSketch(Record currentRecord) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (Object value : currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).values()) sketch.add((Double) value);
+        return sketch;
+    }
+
+    /**
+     * Unpack an index entry. Entries written by earlier versions are maps of EndTime and EntryCount
+     * If the entry holds a block summary, its values follow as raw long bits - see blockSummaryFromIndexEntry
+     *
+     * @param startTime  - start time of the block - the index entry key
+     * @param indexEntry - index entry value
+     * @return {end time, entry count} or {end time, entry count, summary values...}
+     */
+    static long[] decodeIndexEntry(long startTime, Object indexEntry) {
+        if (indexEntry instanceof List) {
+            List<?> packedEntry = (List<?>) indexEntry;
+            if (packedEntry.size() < 2 + QueryAccumulator.SUMMARY_LENGTH) {
+                return new long[]{startTime + (Long) packedEntry.get(0), (Long) packedEntry.get(1)};
+            }
+            long[] summarisedEntry = new long[2 + QueryAccumulator.SUMMARY_LENGTH];
+            summarisedEntry[0] = startTime + (Long) packedEntry.get(0);
+            summarisedEntry[1] = (Long) packedEntry.get(1);
+            for (int i = 2; i < summarisedEntry.length; i++) summarisedEntry[i] = Double.doubleToRawLongBits((Double) packedEntry.get(i));
+            return summarisedEntry;
+        }
+        Map<?, ?> legacyEntry = (Map<?, ?>) indexEntry;
+        return new long[]{(Long) legacyEntry.get(Constants.END_TIME_FIELD_NAME), (Long) legacyEntry.get(Constants.ENTRY_COUNT_FIELD_NAME)};
+    }
+
+    /**
+     * Block summary held in an index entry, as decoded by decodeIndexEntry
+     *
+     * @param indexEntry - decoded index entry
+     * @return block summary, in the form given by QueryAccumulator.summary - null if the entry has none
+     */
+    static double[] blockSummaryFromIndexEntry(long[] indexEntry) {
+        if (indexEntry.length < 2 + QueryAccumulator.SUMMARY_LENGTH) return null;
+        double[] summary = new double[QueryAccumulator.SUMMARY_LENGTH];
+        for (int i = 0; i < summary.length; i++) summary[i] = Double.longBitsToDouble(indexEntry[i + 2]);
+        return summary;
+    }
+
+    /**
+     * Start time of the index page covering a timestamp
+     *
+     * @param timestamp - timestamp
+     * @return index page start time
+     */
+    long indexPageStartTime(long timestamp) {
+        // Avoid overflow for timestamps close to Long.MIN_VALUE
+        long boundedTimestamp = Math.max(timestamp, Long.MIN_VALUE + indexPageDurationMs);
+        return Math.floorDiv(boundedTimestamp, indexPageDurationMs) * indexPageDurationMs;
+    }
+
+    /**
+     * Start times of the index pages covering startTime to endTime, calculated without reference to the root index record
+     *
+     * @param startTime - start time of range
+     * @param endTime   - end time of range
+     * @return index page start times - null if more than Constants.MAX_INDEX_PAGES_READ_WITHOUT_ROOT pages would be needed
+     */
+    long[] indexPageStartTimesForRange(long startTime, long endTime) {
+        long firstPageStartTime = indexPageStartTime(startTime);
+        // Difference can overflow for extreme ranges - treat as too many pages
+        long difference = indexPageStartTime(endTime) - firstPageStartTime;
+        if (difference < 0 || difference / indexPageDurationMs >= Constants.MAX_INDEX_PAGES_READ_WITHOUT_ROOT) return null;
+        long[] pageStartTimes = new long[(int) (difference / indexPageDurationMs) + 1];
+        for (int i = 0; i < pageStartTimes.length; i++) pageStartTimes[i] = firstPageStartTime + i * indexPageDurationMs;
+        return pageStartTimes;
+    }
+
+    /**
+     * Operation retrieving the start times of the index pages that exist between startTime and endTime from the root index record
+     *
+     * @param startTime - start time of range
+     * @param endTime   - end time of range
+     * @return the operation required
+     */
+    Operation opForIndexPageRange(long startTime, long endTime) {
+        return MapOperation.getByKeyRange(Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME,
+                new Value.LongValue(indexPageStartTime(startTime)),
+                // End of key range is exclusive
+                new Value.LongValue(indexPageStartTime(endTime) + 1),
+                MapReturnType.KEY);
+    }
+
+    /**
+     * Start time of the first index page that exists after a given time, or of the first block after it listed in the root
+     * index record by earlier versions - found from the root index record
+     *
+     * @param timeSeriesName - time series name
+     * @param time           - time after which to look
+     * @return start time - Long.MAX_VALUE if there is none
+     */
+    long nextIndexedStartTime(String timeSeriesName, long time) {
+        if (time == Long.MAX_VALUE) return Long.MAX_VALUE;
+        Value afterTime = new Value.LongValue(time + 1);
+        Record rootIndexRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
+                MapOperation.getByKeyRelativeIndexRange(Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME, afterTime, 0, 1, MapReturnType.KEY),
+                MapOperation.getByKeyRelativeIndexRange(Constants.TIME_SERIES_INDEX_BIN_NAME, afterTime, 0, 1, MapReturnType.KEY));
+        long nextIndexedStartTime = Long.MAX_VALUE;
+        if (rootIndexRecord == null) return nextIndexedStartTime;
+        for (String binName : new String[]{Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME, Constants.TIME_SERIES_INDEX_BIN_NAME}) {
+            List<?> startTimes = rootIndexRecord.getList(binName);
+            if (startTimes != null && !startTimes.isEmpty()) nextIndexedStartTime = Math.min(nextIndexedStartTime, (Long) startTimes.get(0));
+        }
+        return nextIndexedStartTime;
+    }
+
+    /**
+     * Index page start times from a root index record, as retrieved using opForIndexPageRange
+     *
+     * @param rootIndexRecord - root index record. May be null
+     * @return index page start times
+     */
+    static long[] indexPageStartTimes(Record rootIndexRecord) {
+        if (rootIndexRecord == null) return new long[0];
+        List<?> pageStartTimeList = rootIndexRecord.getList(Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME);
+        if (pageStartTimeList == null) return new long[0];
+        long[] pageStartTimes = new long[pageStartTimeList.size()];
+        for (int i = 0; i < pageStartTimes.length; i++) pageStartTimes[i] = (Long) pageStartTimeList.get(i);
+        return pageStartTimes;
+    }
+
+    /**
+     * Keys to read to find the blocks overlapping a time range - the index pages, followed by the root index record
+     * Read using opsForIndexRead
+     *
+     * @param timeSeriesName - time series name
+     * @param pageStartTimes - start times of the index pages covering the range
+     * @return Aerospike Key[]
+     */
+    Key[] keysForIndexRead(String timeSeriesName, long[] pageStartTimes) {
+        Key[] keys = new Key[pageStartTimes.length + 1];
+        for (int i = 0; i < pageStartTimes.length; i++) keys[i] = asKeyForTimeSeriesIndexPage(timeSeriesName, pageStartTimes[i]);
+        // Holds blocks spanning pages, and all entries for series indexed by earlier versions
+        keys[pageStartTimes.length] = asKeyForTimeSeriesIndexes(timeSeriesName);
+        return keys;
+    }
+
+    /**
+     * Operations applied to the records given by keysForIndexRead, returning only the index entries for blocks that may overlap
+     * startTime to endTime, rather than the whole index
+     * <p>
+     * Blocks starting after the range are not read. Any block in a page starting before the range may overlap it - blocks can
+     * overlap, as a point arriving late, or left behind when a block is archived, starts a block earlier than the end of the last
+     * - so these are read and those ending before the range discarded by indexEntriesFromRecords. Blocks starting in an earlier
+     * page that overlap the range are held in the spanning blocks bin of the root index record
+     *
+     * @param startTime - start time of range
+     * @param endTime   - end time of range
+     * @return the operations required
+     */
+    static Operation[] opsForIndexRead(long startTime, long endTime) {
+        // End of key range is exclusive. Null means no limit
+        Value rangeEnd = endTime == Long.MAX_VALUE ? null : new Value.LongValue(endTime + 1);
+        return new Operation[]{
+                MapOperation.getByKeyRange(Constants.TIME_SERIES_INDEX_BIN_NAME, null, rangeEnd, MapReturnType.KEY_VALUE),
+                MapOperation.getByKeyRange(Constants.TIME_SERIES_SPANNING_BLOCKS_BIN_NAME, null, rangeEnd, MapReturnType.KEY_VALUE)
+        };
+    }
+
+    /**
+     * Index entries for the blocks overlapping startTime to endTime, from the records read using keysForIndexRead and opsForIndexRead
+     *
+     * @param indexRecords - index page and root records. May contain nulls
+     * @param startTime    - start time of range
+     * @param endTime      - end time of range
+     * @return map of block start time to {end time, entry count}
+     */
+    static TreeMap<Long, long[]> indexEntriesFromRecords(Record[] indexRecords, long startTime, long endTime) {
+        TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+        for (Record indexRecord : indexRecords) {
+            if (indexRecord == null) continue;
+            addIndexEntries(indexEntries, indexRecord.getValue(Constants.TIME_SERIES_INDEX_BIN_NAME), startTime, endTime);
+            addIndexEntries(indexEntries, indexRecord.getValue(Constants.TIME_SERIES_SPANNING_BLOCKS_BIN_NAME), startTime, endTime);
+        }
+        return indexEntries;
+    }
+
+    /**
+     * Add the index entries overlapping startTime to endTime from a KEY_VALUE map operation result
+     * A bin with more than one operation applied gives a list of results
+     *
+     * @param indexEntries - map of block start time to {end time, entry count} being built
+     * @param opResult     - operation result - a list of map entries, or a list of such lists. May be null
+     * @param startTime    - start time of range
+     * @param endTime      - end time of range
+     */
+    private static void addIndexEntries(TreeMap<Long, long[]> indexEntries, Object opResult, long startTime, long endTime) {
+        if (!(opResult instanceof List)) return;
+        for (Object item : (List<?>) opResult) {
+            if (item instanceof List) {
+                addIndexEntries(indexEntries, item, startTime, endTime);
+            } else {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) item;
+                long blockStartTime = (Long) entry.getKey();
+                long[] indexEntry = decodeIndexEntry(blockStartTime, entry.getValue());
+                // Index pages are read before the root, and their entries take precedence - counts are only updated in pages
+                if (blockStartTime <= endTime && indexEntry[0] >= startTime) indexEntries.putIfAbsent(blockStartTime, indexEntry);
+            }
+        }
+    }
+
+    /**
+     * Index entries for the blocks of a time series overlapping startTime to endTime
+     * The index pages covering the range are read in a single batch call. If the range covers many pages, those that exist
+     * are first found from the root index record
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return map of block start time to {end time, entry count}
+     */
+    TreeMap<Long, long[]> indexEntriesForRange(String timeSeriesName, long startTime, long endTime) {
+        long[] pageStartTimes = indexPageStartTimesForRange(startTime, endTime);
+        if (pageStartTimes == null) {
+            pageStartTimes = indexPageStartTimes(asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
+                    opForIndexPageRange(startTime, endTime)));
+        }
+        Record[] indexRecords = asClient.get(new BatchPolicy(readPolicy), keysForIndexRead(timeSeriesName, pageStartTimes),
+                opsForIndexRead(startTime, endTime));
+        return indexEntriesFromRecords(indexRecords, startTime, endTime);
+    }
+
+    /**
+     * The index cache, if enabled and applicable to this client's reads
+     *
+     * @return index cache - null if reads should not use it
+     */
+    private TimeSeriesIndexCache indexCacheForReads() {
+        return isTimeBucketed() ? null : indexCache;
+    }
+
+    /**
+     * Index entries for the blocks of a time series overlapping startTime to endTime, from the index cache
+     * If the series is not cached, or its cached index has expired, the current block start time is read before the index is refreshed
+     * - so any block archived after the refresh will change it
+     *
+     * @param cache          - index cache
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return map of block start time to {end time, entry count}
+     */
+    private TreeMap<Long, long[]> cachedIndexEntriesForRange(TimeSeriesIndexCache cache, String timeSeriesName, long startTime, long endTime) {
+        TreeMap<Long, long[]> indexEntries = cache.indexEntriesForRange(timeSeriesName, startTime, endTime);
+        if (indexEntries != null) return indexEntries;
+        Record currentRecord = asClient.get(readPolicy, asCurrentKeyForTimeSeries(timeSeriesName), Constants.METADATA_BIN_NAME);
+        return refreshIndexCache(cache, timeSeriesName, currentBlockStartTime(currentRecord), startTime, endTime);
+    }
+
+    /**
+     * Bring the cached index for a series up to date. Entries for blocks starting before the last cached block do not change,
+     * so only entries from that block on are read
+     *
+     * @param cache                 - index cache
+     * @param timeSeriesName        - time series name
+     * @param currentBlockStartTime - current block start time, read before this call
+     * @param startTime             - start time of range required
+     * @param endTime               - end time of range required
+     * @return map of block start time to {end time, entry count} for the blocks overlapping startTime to endTime
+     */
+    private TreeMap<Long, long[]> refreshIndexCache(TimeSeriesIndexCache cache, String timeSeriesName, long currentBlockStartTime,
+                                                    long startTime, long endTime) {
+        long readFromStartTime = cache.lastIndexEntryStartTime(timeSeriesName);
+        TreeMap<Long, long[]> indexEntries = cache.refresh(timeSeriesName, indexEntriesForRange(timeSeriesName, readFromStartTime, Long.MAX_VALUE),
+                readFromStartTime, currentBlockStartTime, startTime, endTime);
+        // Series was discarded from the cache while we were reading - read the index directly
+        return indexEntries != null ? indexEntries : indexEntriesForRange(timeSeriesName, startTime, endTime);
+    }
+
+    /**
+     * Start time of a current block, as held in its metadata. Changes whenever the current block is archived
+     *
+     * @param currentRecord - current block record, including the metadata bin. May be null
+     * @return current block start time - TimeSeriesIndexCache.NO_CURRENT_BLOCK if there is no current block
+     */
+    static long currentBlockStartTime(Record currentRecord) {
+        Map<?, ?> metadata = currentRecord != null ? currentRecord.getMap(Constants.METADATA_BIN_NAME) : null;
+        Object startTime = metadata != null ? metadata.get(Constants.START_TIME_FIELD_NAME) : null;
+        return startTime != null ? (Long) startTime : TimeSeriesIndexCache.NO_CURRENT_BLOCK;
+    }
+
+    /**
+     * Whether the current block may hold points up to endTime, given the index entries for the range
+     * Points after the end of the last archived block are in the current block. There is no current block if blocks are keyed by time bucket
+     *
+     * @param indexEntries - index entries, as returned by indexEntriesFromRecords
+     * @param endTime      - end time of range
+     * @return true if the current block is needed
+     */
+    private boolean currentBlockNeeded(TreeMap<Long, long[]> indexEntries, long endTime) {
+        return !isTimeBucketed() && (indexEntries.isEmpty() || indexEntries.lastEntry().getValue()[0] < endTime);
+    }
+
+    /**
+     * Get the start times of the blocks we need to retrieve for time range represented by timestamps startTime and endTime
+     * The current block, if needed, is represented by CURRENT_RECORD_TIMESTAMP, which will be the last entry
+     *
+     * @param timeSeriesName - name of time series we are getting block start times for
+     * @param startTime      - start time of range we're interested in
+     * @param endTime        - end time of range we're interested in
+     * @return long[] containing the timestamps
+     */
+    public long[] getTimestampsForTimeSeries(String timeSeriesName, long startTime, long endTime) {
+        if (endTime < startTime) return new long[0];
+        TimeSeriesIndexCache cache = indexCacheForReads();
+        TreeMap<Long, long[]> indexEntries = cache != null ? cachedIndexEntriesForRange(cache, timeSeriesName, startTime, endTime)
+                : indexEntriesForRange(timeSeriesName, startTime, endTime);
+        boolean currentBlockNeeded = currentBlockNeeded(indexEntries, endTime);
+        long[] timestamps = new long[indexEntries.size() + (currentBlockNeeded ? 1 : 0)];
+        int i = 0;
+        for (long blockStartTime : indexEntries.keySet()) timestamps[i++] = blockStartTime;
+        if (currentBlockNeeded) timestamps[i] = CURRENT_RECORD_TIMESTAMP;
+        return timestamps;
+    }
+
+    /**
+     * Aerospike Keys for the blocks listed in a set of index entries, plus the current block if needed
+     *
+     * @param timeSeriesName - time series name
+     * @param indexEntries   - index entries, as returned by indexEntriesFromRecords
+     * @param endTime        - end time of range
+     * @return Aerospike Key[]
+     */
+    Key[] keysForIndexEntries(String timeSeriesName, TreeMap<Long, long[]> indexEntries, long endTime) {
+        boolean currentBlockNeeded = currentBlockNeeded(indexEntries, endTime);
+        Key[] keys = new Key[indexEntries.size() + (currentBlockNeeded ? 1 : 0)];
+        int i = 0;
+        for (long blockStartTime : indexEntries.keySet()) keys[i++] = asKeyForHistoricTimeSeriesBlock(timeSeriesName, blockStartTime);
+        if (currentBlockNeeded) keys[i] = asCurrentKeyForTimeSeries(timeSeriesName);
+        return keys;
+    }
+
+    /**
+     * Batch reads for the blocks listed in a set of index entries, plus the current block if needed
+     * Blocks lying entirely within the range are read whole, others are trimmed - see batchReadForBlock
+     *
+     * @param timeSeriesName - time series name
+     * @param indexEntries   - index entries, as returned by indexEntriesFromRecords
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return batch reads - the current block, if needed, is last
+     */
+    List<BatchRead> batchReadsForIndexEntries(String timeSeriesName, TreeMap<Long, long[]> indexEntries, long startTime, long endTime) {
+        return batchReadsForIndexEntries(timeSeriesName, indexEntries, startTime, endTime, currentBlockNeeded(indexEntries, endTime));
+    }
+
+    /**
+     * Batch reads for the blocks listed in a set of index entries, plus the current block if specified
+     *
+     * @param timeSeriesName     - time series name
+     * @param indexEntries       - index entries for the blocks to read
+     * @param startTime          - start time of range
+     * @param endTime            - end time of range
+     * @param currentBlockNeeded - true if the current block should be read
+     * @return batch reads - the current block, if needed, is last
+     */
+    private List<BatchRead> batchReadsForIndexEntries(String timeSeriesName, TreeMap<Long, long[]> indexEntries, long startTime, long endTime,
+                                                      boolean currentBlockNeeded) {
+        List<BatchRead> batchReads = new ArrayList<>();
+        for (Map.Entry<Long, long[]> indexEntry : indexEntries.entrySet()) {
+            boolean withinRange = indexEntry.getKey() >= startTime && indexEntry.getValue()[0] <= endTime;
+            batchReads.add(batchReadForBlock(asKeyForHistoricTimeSeriesBlock(timeSeriesName, indexEntry.getKey()), withinRange, startTime, endTime));
+        }
+        // The current block has no known end time, so is always trimmed
+        if (currentBlockNeeded) {
+            batchReads.add(batchReadForBlock(asCurrentKeyForTimeSeries(timeSeriesName), false, startTime, endTime));
+        }
+        return batchReads;
+    }
+
+    /**
+     * Batch read for a block. Blocks lying entirely within the required range are read whole
+     * Others are trimmed to the range on the server, using a map key range operation, so points outside the range are not transferred.
+     * Historic blocks in compressed form cannot be trimmed, so are read whole. The block metadata is also read when trimming
+     * <p>
+     * Records read using trimmed reads hold a list of map entries in the TIME_SERIES_BIN_NAME bin, rather than a map. timeSeriesPointsFromBlocks handles both
+     *
+     * @param key         - block key
+     * @param withinRange - true if all points in the block lie within the range
+     * @param startTime   - start time of range
+     * @param endTime     - end time of range
+     * @return batch read
+     */
+    static BatchRead batchReadForBlock(Key key, boolean withinRange, long startTime, long endTime) {
+        if (withinRange) return new BatchRead(key, new String[]{Constants.TIME_SERIES_BIN_NAME, Constants.COMPRESSED_TIME_SERIES_BIN_NAME});
+        return new BatchRead(key, new Operation[]{
+                MapOperation.getByKeyRange(Constants.TIME_SERIES_BIN_NAME, new Value.LongValue(startTime),
+                        // End of key range is exclusive. Null means no upper limit
+                        endTime == Long.MAX_VALUE ? null : new Value.LongValue(endTime + 1), MapReturnType.KEY_VALUE),
+                Operation.get(Constants.COMPRESSED_TIME_SERIES_BIN_NAME),
+                Operation.get(Constants.METADATA_BIN_NAME)
+        });
+    }
+
+    /**
+     * Execute batch reads
+     *
+     * @param batchReads - batch reads, as given by batchReadsForIndexEntries or batchReadsForTimeBucketRange
+     * @return records read, in the same order. Contains nulls for records not found
+     */
+    Record[] get(List<BatchRead> batchReads) {
+        return get(new BatchPolicy(readPolicy), batchReads);
+    }
+
+    private Record[] get(BatchPolicy batchPolicy, List<BatchRead> batchReads) {
+        if (!batchReads.isEmpty()) asClient.get(batchPolicy, batchReads);
+        return recordsFromBatchReads(batchReads);
+    }
+
+    /**
+     * Batch policy for reads spanning many series. The records are spread across the cluster, so the sub-requests for each
+     * node are sent in parallel rather than one node at a time
+     *
+     * @return batch policy
+     */
+    private BatchPolicy multiSeriesBatchPolicy() {
+        BatchPolicy batchPolicy = new BatchPolicy(readPolicy);
+        batchPolicy.maxConcurrentThreads = 0;
+        return batchPolicy;
+    }
+
+    /**
+     * Records from executed batch reads
+     *
+     * @param batchReads - executed batch reads
+     * @return records read, in the same order
+     */
+    static Record[] recordsFromBatchReads(List<BatchRead> batchReads) {
+        Record[] records = new Record[batchReads.size()];
+        for (int i = 0; i < records.length; i++) records[i] = batchReads.get(i).record;
+        return records;
+    }
+
+    /**
+     * Internal method - retrieve time series data points with start and end time expressed
+     * as unix epochs (seconds since 1st Jan 1970) multiplied by required resolution
+     * (10^Constants.TIMESTAMP_DECIMAL_PLACES_PER_SECOND)
+     *
+     * @param timeSeriesName name of time series we're retrieving points fpr
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return TimeSeriesPoints
+     */
+    private TimeSeriesPoints getTimeSeriesPoints(String timeSeriesName, long startTime, long endTime) {
+        if (endTime < startTime) return TimeSeriesPoints.EMPTY;
+        return timeSeriesPointsFromBlocks(getBlocks(timeSeriesName, startTime, endTime), startTime, endTime);
+    }
+
+    /**
+     * Retrieve the blocks holding the data points between startTime and endTime - those at the ends of the range are trimmed
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of required range
+     * @param endTime        - end time of required range
+     * @return block records, in time order. May contain nulls
+     */
+    private Record[] getBlocks(String timeSeriesName, long startTime, long endTime) {
+        TimeSeriesIndexCache cache = indexCacheForReads();
+        if (cache != null) return getBlocksUsingIndexCache(cache, timeSeriesName, startTime, endTime);
+        // If blocks are keyed by time bucket, keys can be calculated unless the range is very wide
+        List<BatchRead> batchReads = isTimeBucketed() ? batchReadsForTimeBucketRange(timeSeriesName, startTime, endTime) : null;
+        if (batchReads == null) {
+            batchReads = batchReadsForIndexEntries(timeSeriesName, indexEntriesForRange(timeSeriesName, startTime, endTime), startTime, endTime);
+        }
+        return get(batchReads);
+    }
+
+    /**
+     * Retrieve time series blocks using the index cache - a single round trip if the cached index is up to date
+     * The current block start time is checked against the cached index. If it has changed, blocks have been archived since the
+     * cached index was refreshed - the index is refreshed and any further blocks needed are retrieved
+     *
+     * @param cache          - index cache
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of required range
+     * @param endTime        - end time of required range
+     * @return block records, in time order. May contain nulls
+     */
+    private Record[] getBlocksUsingIndexCache(TimeSeriesIndexCache cache, String timeSeriesName, long startTime, long endTime) {
+        TreeMap<Long, long[]> indexEntries = cachedIndexEntriesForRange(cache, timeSeriesName, startTime, endTime);
+        boolean currentBlockNeeded = currentBlockNeeded(indexEntries, endTime);
+        // Current block read includes its metadata, giving the current block start time
+        Record[] timeSeriesBlocks = get(batchReadsForIndexEntries(timeSeriesName, indexEntries, startTime, endTime));
+        if (currentBlockNeeded) {
+            long currentBlockStartTime = currentBlockStartTime(timeSeriesBlocks[timeSeriesBlocks.length - 1]);
+            if (!cache.isCurrentBlockUnchanged(timeSeriesName, currentBlockStartTime)) {
+                TreeMap<Long, long[]> archivedBlockEntries = refreshIndexCache(cache, timeSeriesName, currentBlockStartTime, startTime, endTime);
+                archivedBlockEntries.keySet().removeAll(indexEntries.keySet());
+                if (!archivedBlockEntries.isEmpty()) {
+                    List<BatchRead> batchReads = batchReadsForIndexEntries(timeSeriesName, archivedBlockEntries, startTime, endTime);
+                    // Current block has already been read
+                    if (currentBlockNeeded(archivedBlockEntries, endTime)) batchReads.remove(batchReads.size() - 1);
+                    Record[] archivedBlocks = get(batchReads);
+                    // Archived blocks go before the current block, keeping the blocks in time order
+                    Record[] allBlocks = Arrays.copyOf(timeSeriesBlocks, timeSeriesBlocks.length + archivedBlocks.length);
+                    System.arraycopy(archivedBlocks, 0, allBlocks, timeSeriesBlocks.length - 1, archivedBlocks.length);
+                    allBlocks[allBlocks.length - 1] = timeSeriesBlocks[timeSeriesBlocks.length - 1];
+                    timeSeriesBlocks = allBlocks;
+                }
+            }
+        }
+        return timeSeriesBlocks;
+    }
+
+    /**
+     * Extract the data points between startTime and endTime from time series blocks, removing duplicates
+     * Each block yields a run of points in timestamp order. The runs are merged by TimeSeriesPoints.merge - where a timestamp
+     * is found in more than one block, the point from the earliest block in timeSeriesBlocks is kept
+     *
+     * @param timeSeriesBlocks - block records, as retrieved by a batch get. May contain nulls
+     * @param startTime        - start time of required range
+     * @param endTime          - end time of required range
+     * @return TimeSeriesPoints in timestamp order
+     */
+    static TimeSeriesPoints timeSeriesPointsFromBlocks(Record[] timeSeriesBlocks, long startTime, long endTime) {
+        long[][] runTimestamps = new long[timeSeriesBlocks.length][];
+        double[][] runValues = new double[timeSeriesBlocks.length][];
+        int[] runLengths = new int[timeSeriesBlocks.length];
+
+        for (int run = 0; run < timeSeriesBlocks.length; run++) {
+            Record currentRecord = timeSeriesBlocks[run];
+            // Null record is a possibility if we have just made the current block a historic block
+            if (currentRecord == null) continue;
+            byte[] compressedBlock = (byte[]) currentRecord.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME);
+            if (compressedBlock != null) {
+                int dataPointCount = GorillaCodec.dataPointCount(compressedBlock);
+                long[] timestamps = new long[dataPointCount];
+                double[] values = new double[dataPointCount];
+                GorillaCodec.decode(compressedBlock, timestamps, values);
+                runTimestamps[run] = timestamps;
+                runValues[run] = values;
+            } else {
+                // A map if the block was read whole, a list of map entries if it was trimmed to the range
+                Object timeSeries = currentRecord.getValue(Constants.TIME_SERIES_BIN_NAME);
+                Collection<?> timeSeriesEntries = timeSeries instanceof Map ? ((Map<?, ?>) timeSeries).entrySet() : (Collection<?>) timeSeries;
+                if (timeSeriesEntries == null) continue;
+                long[] timestamps = new long[timeSeriesEntries.size()];
+                double[] values = new double[timeSeriesEntries.size()];
+                int i = 0;
+                for (Object timeSeriesEntry : timeSeriesEntries) {
+                    Map.Entry<?, ?> entry = (Map.Entry<?, ?>) timeSeriesEntry;
+                    timestamps[i] = (Long) entry.getKey();
+                    values[i++] = (Double) entry.getValue();
+                }
+                runTimestamps[run] = timestamps;
+                runValues[run] = values;
+            }
+            // Blocks are stored in timestamp order, but the map type used by the client to return them is not guaranteed to keep it
+            sortByTimestamp(runTimestamps[run], runValues[run]);
+            runLengths[run] = trimToRange(runTimestamps[run], runValues[run], startTime, endTime);
+        }
+        return TimeSeriesPoints.merge(runTimestamps, runValues, runLengths);
+    }
+
+    /**
+     * Move the points between startTime and endTime to the start of the arrays
+     *
+     * @param timestamps - timestamps, in ascending order
+     * @param values     - corresponding values
+     * @param startTime  - start time of required range
+     * @param endTime    - end time of required range
+     * @return number of points in range
+     */
+    private static int trimToRange(long[] timestamps, double[] values, long startTime, long endTime) {
+        int from = 0;
+        while (from < timestamps.length && timestamps[from] < startTime) from++;
+        int to = timestamps.length;
+        while (to > from && timestamps[to - 1] > endTime) to--;
+        if (from > 0) {
+            System.arraycopy(timestamps, from, timestamps, 0, to - from);
+            System.arraycopy(values, from, values, 0, to - from);
+        }
+        return to - from;
+    }
+
+    /**
+     * Sort timestamps into ascending order, keeping values aligned. Does nothing if already sorted
+     *
+     * @param timestamps - timestamps
+     * @param values     - corresponding values
+     */
+    private static void sortByTimestamp(long[] timestamps, double[] values) {
+        boolean sorted = true;
+        for (int i = 1; i < timestamps.length && sorted; i++) sorted = timestamps[i - 1] < timestamps[i];
+        if (sorted) return;
+        Integer[] order = new Integer[timestamps.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> timestamps[i]));
+        long[] originalTimestamps = timestamps.clone();
+        double[] originalValues = values.clone();
+        for (int i = 0; i < order.length; i++) {
+            timestamps[i] = originalTimestamps[order[i]];
+            values[i] = originalValues[order[i]];
+        }
+    }
+
+    /**
+     * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     * <p>
+     * Archived blocks lying entirely within the range are answered from the summary held in their index entry, so only the
+     * blocks at the ends of the range, and the current block, are read. If the summaries cannot be used - blocks overlap in time,
+     * or blocks have been archived since the cached index was refreshed - all the blocks in the range are read instead
+     * <p>
+     * Quantile operations such as P99 also read the quantile sketch stored with each of these blocks, rather than its points
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @return result of the query as a double
+     */
+    public double runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        if (endTime < startTime) return queryResult(operation, TimeSeriesPoints.EMPTY);
+        return accumulateQuery(timeSeriesName, startTime, endTime, operation.isQuantile()).result(operation);
+    }
+
+    /**
+     * Estimate any number of quantiles of the values of a particular time series range e.g. {0.5, 0.95, 0.999}
+     * Estimates are within Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY of the true values. As for runQuery with a quantile
+     * operation such as P99, archived blocks lying entirely within the range are answered from their quantile sketch
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param quantiles      - quantiles required, each between 0 and 1
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @return estimate of each quantile, in the order given - NaN if the range holds no points
+     */
+    public double[] runQuantileQuery(String timeSeriesName, double[] quantiles, Date fromDateTime, Date toDateTime) {
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0 && quantile <= 1)) throw new IllegalArgumentException("quantiles must be between 0 and 1");
+        }
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        QueryAccumulator accumulator = endTime < startTime ? new QueryAccumulator(startTime, endTime, true) :
+                accumulateQuery(timeSeriesName, startTime, endTime, true);
+        double[] estimates = new double[quantiles.length];
+        for (int i = 0; i < estimates.length; i++) estimates[i] = accumulator.quantile(quantiles[i]);
+        return estimates;
+    }
+
+    /**
+     * Accumulate the points of a particular time series range, as per runQuery
+     *
+     * @param timeSeriesName  - time series name
+     * @param startTime       - start time of range
+     * @param endTime         - end time of range
+     * @param sketchQuantiles - true if quantile operations are needed
+     * @return accumulator holding every point in the range
+     */
+    private QueryAccumulator accumulateQuery(String timeSeriesName, long startTime, long endTime, boolean sketchQuantiles) {
+        // Time buckets are not summarised, as they change after being indexed
+        if (!isTimeBucketed()) {
+            TimeSeriesIndexCache cache = indexCacheForReads();
+            TreeMap<Long, long[]> indexEntries = cache != null ? cachedIndexEntriesForRange(cache, timeSeriesName, startTime, endTime)
+                    : indexEntriesForRange(timeSeriesName, startTime, endTime);
+            boolean currentBlockNeeded = currentBlockNeeded(indexEntries, endTime);
+            Record[] timeSeriesBlocks = get(batchReadsForUnsummarisedBlocks(timeSeriesName, indexEntries, startTime, endTime, sketchQuantiles));
+            boolean currentBlockUnchanged = cache == null || !currentBlockNeeded ||
+                    cache.isCurrentBlockUnchanged(timeSeriesName, currentBlockStartTime(timeSeriesBlocks[timeSeriesBlocks.length - 1]));
+            if (currentBlockUnchanged) {
+                QueryAccumulator accumulator = accumulateIndexedBlocks(indexEntries, timeSeriesBlocks, startTime, endTime, sketchQuantiles);
+                if (accumulator.isComplete()) return accumulator;
+            }
+        }
+        return accumulateBlocks(getBlocks(timeSeriesName, startTime, endTime), startTime, endTime, sketchQuantiles);
+    }
+
+    /**
+     * Retrieve the points between two given date / times (inclusive) for many series
+     * <p>
+     * Intended for the case where many series are read at once e.g. by a monitoring loop. The index pages covering the range
+     * for every series are read in a single batch call, then every block needed in a second, so the whole read takes two
+     * round trips however many series there are. Ranges covering more than Constants.MAX_INDEX_PAGES_READ_WITHOUT_ROOT
+     * index pages need a third, to find the pages that exist. The index cache is not used
+     *
+     * @param timeSeriesNames - names of time series
+     * @param fromDateTime    - start time for required range
+     * @param toDateTime      - end time for required range
+     * @return DataPoint[] for each series, keyed by time series name. Series with no points in the range map to an empty array
+     */
+    public Map<String, DataPoint[]> getPoints(Collection<String> timeSeriesNames, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        Map<String, DataPoint[]> dataPointsBySeries = new LinkedHashMap<>();
+        Map<String, Record[]> blocksBySeries = getBlocks(timeSeriesNames, startTime, endTime);
+        for (String timeSeriesName : timeSeriesNames) {
+            dataPointsBySeries.put(timeSeriesName, timeSeriesPointsFromBlocks(blocksBySeries.get(timeSeriesName), startTime, endTime).toDataPoints());
+        }
+        return dataPointsBySeries;
+    }
+
+    /**
+     * Run a query vs the same range of many series. Query types are as per the enum QueryOperation
+     * <p>
+     * As for getPoints(Collection, Date, Date), the index entries for every series are read in a single batch call, and the
+     * blocks needed in a second. Archived blocks lying entirely within the range are answered from their index entry summaries,
+     * as per runQuery(String, QueryOperation, Date, Date)
+     *
+     * @param timeSeriesNames - names of time series to run query against
+     * @param operation       - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime    - start time for required time series range
+     * @param toDateTime      - end time for required time series range
+     * @return result of the query for each series, keyed by time series name
+     */
+    public Map<String, Double> runQuery(Collection<String> timeSeriesNames, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        return runQuery(timeSeriesNames, operation, fromDateTime.getTime(), toDateTime.getTime(), new HashMap<>());
+    }
+
+    /**
+     * Run a query vs the same range of many series, as per runQuery(Collection, QueryOperation, Date, Date)
+     *
+     * @param timeSeriesNames      - names of time series to run query against
+     * @param operation            - operation to apply to query
+     * @param startTime            - start time of range
+     * @param endTime              - end time of range
+     * @param indexEntriesBySeries - index entries for the range already read for some of the series, which are not read again
+     * @return result of the query for each series, keyed by time series name
+     */
+    private Map<String, Double> runQuery(Collection<String> timeSeriesNames, QueryOperation operation, long startTime, long endTime,
+                                         Map<String, TreeMap<Long, long[]>> indexEntriesBySeries) {
+        Map<String, Double> resultsBySeries = new LinkedHashMap<>();
+        Map<String, Record[]> blocksBySeries = getBlocks(timeSeriesNames, startTime, endTime, operation, indexEntriesBySeries);
+        for (String timeSeriesName : timeSeriesNames) {
+            Record[] timeSeriesBlocks = blocksBySeries.get(timeSeriesName);
+            TreeMap<Long, long[]> indexEntries = indexEntriesBySeries.get(timeSeriesName);
+            if (indexEntries == null) {
+                resultsBySeries.put(timeSeriesName, queryResultFromBlocks(operation, timeSeriesBlocks, startTime, endTime));
+                continue;
+            }
+            QueryAccumulator accumulator = accumulateIndexedBlocks(indexEntries, timeSeriesBlocks, startTime, endTime, operation.isQuantile());
+            // Blocks overlap in time, or lack a quantile sketch - read them all
+            resultsBySeries.put(timeSeriesName, accumulator.isComplete() ? accumulator.result(operation) :
+                    queryResultFromBlocks(operation, getBlocks(timeSeriesName, startTime, endTime), startTime, endTime));
+        }
+        return resultsBySeries;
+    }
+
+    /**
+     * Set the tags for a series, replacing any it already has. Tags are name/value pairs e.g. host=server1, pubid=42
+     * <p>
+     * Tags are held in the series' root index record. The tag index - records in the set given by tagIndexSetName listing the
+     * series holding each tag - is updated in the same call, so series can be found by tag without scanning the namespace.
+     * See getTimeSeriesNames(Map). The series for a tag are split across Constants.TAG_INDEX_SHARD_COUNT records by a hash
+     * of the series name, so tags held by many series do not reach the record size limit
+     * <p>
+     * The series is added to the index for its new tags before they are set, and removed from the index for tags it no longer
+     * holds once they have been replaced, so it can always be found by its current tags. Tags for a given series should not
+     * be set by more than one client at once
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - tag values keyed by tag name. Tag names may not contain '='
+     */
+    public void setTags(String timeSeriesName, Map<String, String> tags) {
+        for (String tagName : tags.keySet()) {
+            if (tagName.contains(TAG_SEPARATOR)) throw new IllegalArgumentException("Tag names may not contain " + TAG_SEPARATOR);
+        }
+        int shard = tagIndexShard(timeSeriesName);
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            asClient.operate(writePolicy, asKeyForTagIndex(tag.getKey(), tag.getValue(), shard), opForTagIndexAdd(timeSeriesName));
+        }
+        Record previousTagsRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opsForTagsReplace(timeSeriesName, tags));
+        for (Map.Entry<String, String> staleTag : staleTags(previousTagsRecord, tags).entrySet()) {
+            asClient.operate(writePolicy, asKeyForTagIndex(staleTag.getKey(), staleTag.getValue(), shard),
+                    MapOperation.removeByKey(Constants.TAG_INDEX_BIN_NAME, new Value.StringValue(timeSeriesName), MapReturnType.NONE));
+        }
+    }
+
+    /**
+     * Get the tags for a series
+     *
+     * @param timeSeriesName - time series name
+     * @return tag values keyed by tag name - empty if the series has no tags
+     */
+    public Map<String, String> getTags(String timeSeriesName) {
+        return tagsFromRecord(asClient.get(readPolicy, asKeyForTimeSeriesIndexes(timeSeriesName), Constants.TAGS_BIN_NAME));
+    }
+
+    /**
+     * Names of the series holding all of a set of tags, found from the tag index in a single batch call reading every shard of each tag
+     *
+     * @param tagSelector - tag values keyed by tag name. A series must hold every tag to be selected
+     * @return names of the selected series, in name order
+     */
+    public List<String> getTimeSeriesNames(Map<String, String> tagSelector) {
+        if (tagSelector.isEmpty()) throw new IllegalArgumentException("tagSelector must hold at least one tag");
+        Key[] keys = new Key[tagSelector.size() * Constants.TAG_INDEX_SHARD_COUNT];
+        int i = 0;
+        for (Map.Entry<String, String> tag : tagSelector.entrySet()) {
+            for (int shard = 0; shard < Constants.TAG_INDEX_SHARD_COUNT; shard++) keys[i++] = asKeyForTagIndex(tag.getKey(), tag.getValue(), shard);
+        }
+        return seriesNamesHoldingAllTags(asClient.get(multiSeriesBatchPolicy(), keys, Constants.TAG_INDEX_BIN_NAME), Constants.TAG_INDEX_SHARD_COUNT);
+    }
+
+    /**
+     * Get the data points between fromDateTime and toDateTime for every series holding a set of tags
+     * The series are found using getTimeSeriesNames(Map), then read as per getPoints(Collection, Date, Date)
+     *
+     * @param tagSelector  - tag values keyed by tag name. A series must hold every tag to be selected
+     * @param fromDateTime - start time for required range
+     * @param toDateTime   - end time for required range
+     * @return DataPoint[] for each selected series, keyed by time series name
+     */
+    public Map<String, DataPoint[]> getPoints(Map<String, String> tagSelector, Date fromDateTime, Date toDateTime) {
+        return getPoints(getTimeSeriesNames(tagSelector), fromDateTime, toDateTime);
+    }
+
+    /**
+     * Run a query vs the same range of every series holding a set of tags. Query types are as per the enum QueryOperation
+     * The series are found using getTimeSeriesNames(Map), then queried as per runQuery(Collection, QueryOperation, Date, Date)
+     *
+     * @param tagSelector  - tag values keyed by tag name. A series must hold every tag to be selected
+     * @param operation    - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime - start time for required time series range
+     * @param toDateTime   - end time for required time series range
+     * @return result of the query for each selected series, keyed by time series name
+     */
+    public Map<String, Double> runQuery(Map<String, String> tagSelector, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        return runQuery(getTimeSeriesNames(tagSelector), operation, fromDateTime, toDateTime);
+    }
+
+    /**
+     * Find the K series with the highest result for a query vs the same range e.g. the 20 series with the highest max over the last day
+     * <p>
+     * The series are split into groups of Constants.TOP_K_QUERY_SERIES_PER_TASK, handled by tasks running in parallel - see
+     * setMultiSeriesWriteParallelism. Each task reads the index entries for its series, and the size and greatest value of their
+     * current blocks, in two batch calls. These give an upper bound on each series' result, without reading its blocks - see topKBound.
+     * Series are then queried a round of Constants.TOP_K_QUERY_SERIES_PER_ROUND at a time, highest bound first, as per
+     * runQuery(Collection, QueryOperation, Date, Date). Results are kept in a heap holding the best K found by any task, and a
+     * task stops once no remaining series can beat the lowest of them, so most series need never have their blocks read.
+     * <p>
+     * VOL and STD_DEV cannot be bounded, nor can series keyed by time bucket, so every such series is queried, though still in parallel
+     *
+     * @param timeSeriesNames - names of time series to rank
+     * @param operation       - operation to rank the series by e.g. avg, max
+     * @param fromDateTime    - start time for required time series range
+     * @param toDateTime      - end time for required time series range
+     * @param k               - number of series to return
+     * @return results for the top K series, keyed by time series name, highest first. Series with no result for the operation -
+     * e.g. no points in the range - are not ranked, so fewer than K may be returned
+     */
+    public Map<String, Double> runTopKQuery(Collection<String> timeSeriesNames, QueryOperation operation, Date fromDateTime, Date toDateTime, int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be at least 1");
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        List<String> distinctSeriesNames = new ArrayList<>(new LinkedHashSet<>(timeSeriesNames));
+        TopKHeap topK = new TopKHeap(k);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < distinctSeriesNames.size(); i += Constants.TOP_K_QUERY_SERIES_PER_TASK) {
+            List<String> taskSeriesNames = distinctSeriesNames.subList(i, Math.min(i + Constants.TOP_K_QUERY_SERIES_PER_TASK, distinctSeriesNames.size()));
+            tasks.add(() -> {
+                accumulateTopK(taskSeriesNames, operation, startTime, endTime, topK);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+        return topK.results();
+    }
+
+    /**
+     * Find the K series holding a set of tags with the highest result for a query vs the same range
+     * The series are found using getTimeSeriesNames(Map), then ranked as per runTopKQuery(Collection, QueryOperation, Date, Date, int)
+     *
+     * @param tagSelector  - tag values keyed by tag name. A series must hold every tag to be selected
+     * @param operation    - operation to rank the series by e.g. avg, max
+     * @param fromDateTime - start time for required time series range
+     * @param toDateTime   - end time for required time series range
+     * @param k            - number of series to return
+     * @return results for the top K selected series, keyed by time series name, highest first
+     */
+    public Map<String, Double> runTopKQuery(Map<String, String> tagSelector, QueryOperation operation, Date fromDateTime, Date toDateTime, int k) {
+        return runTopKQuery(getTimeSeriesNames(tagSelector), operation, fromDateTime, toDateTime, k);
+    }
+
+    /**
+     * Offer the results for a group of series to a top-K heap, querying only those whose bound is not below the heap threshold
+     *
+     * @param timeSeriesNames - names of time series
+     * @param operation       - operation to rank the series by
+     * @param startTime       - start time of range
+     * @param endTime         - end time of range
+     * @param topK            - heap holding the best results found so far, shared with other tasks
+     */
+    private void accumulateTopK(List<String> timeSeriesNames, QueryOperation operation, long startTime, long endTime, TopKHeap topK) {
+        Map<String, TreeMap<Long, long[]>> indexEntriesBySeries = new HashMap<>();
+        Map<String, Double> boundsBySeries = new HashMap<>();
+        if (isTimeBucketed() || endTime < startTime) {
+            for (String timeSeriesName : timeSeriesNames) boundsBySeries.put(timeSeriesName, Double.POSITIVE_INFINITY);
+        } else {
+            indexEntriesBySeries.putAll(indexEntriesForRange(timeSeriesNames, startTime, endTime));
+            List<BatchRead> currentBlockReads = new ArrayList<>();
+            for (String timeSeriesName : timeSeriesNames) {
+                currentBlockReads.add(new BatchRead(asCurrentKeyForTimeSeries(timeSeriesName), opsForCurrentBlockBound()));
+            }
+            Record[] currentRecords = get(multiSeriesBatchPolicy(), currentBlockReads);
+            for (int i = 0; i < currentRecords.length; i++) {
+                String timeSeriesName = timeSeriesNames.get(i);
+                TreeMap<Long, long[]> indexEntries = indexEntriesBySeries.get(timeSeriesName);
+                boundsBySeries.put(timeSeriesName, topKBound(operation, indexEntries, startTime, endTime,
+                        currentBlockNeeded(indexEntries, endTime) ? currentRecords[i] : null));
+            }
+        }
+
+        List<String> candidates = new ArrayList<>(timeSeriesNames);
+        candidates.sort(Comparator.comparing(boundsBySeries::get, Comparator.reverseOrder()));
+        for (int i = 0; i < candidates.size(); i += Constants.TOP_K_QUERY_SERIES_PER_ROUND) {
+            double threshold = topK.threshold();
+            List<String> roundSeriesNames = new ArrayList<>();
+            for (String timeSeriesName : candidates.subList(i, Math.min(i + Constants.TOP_K_QUERY_SERIES_PER_ROUND, candidates.size()))) {
+                if (boundsBySeries.get(timeSeriesName) >= threshold) roundSeriesNames.add(timeSeriesName);
+            }
+            // Candidates are in bound order, so no later series can make the top K either
+            if (roundSeriesNames.isEmpty()) return;
+            for (Map.Entry<String, Double> result : runQuery(roundSeriesNames, operation, startTime, endTime, indexEntriesBySeries).entrySet()) {
+                topK.offer(result.getKey(), result.getValue());
+            }
+        }
+    }
+
+    /**
+     * Operations reading the number of points in a current block and its greatest value, used by topKBound
+     *
+     * @return the operations required
+     */
+    static Operation[] opsForCurrentBlockBound() {
+        return new Operation[]{
+                MapOperation.size(Constants.TIME_SERIES_BIN_NAME),
+                // A rank range, unlike a single rank, is not an error if the block is empty
+                MapOperation.getByRankRange(Constants.TIME_SERIES_BIN_NAME, -1, 1, MapReturnType.VALUE)
+        };
+    }
+
+    /**
+     * Upper bound on the result of a query over a series, from the index entry summaries for its archived blocks and the size and
+     * greatest value of its current block. Blocks only partly within the range count as if wholly within it.
+     * <p>
+     * MAX, AVG, FIRST, LAST and the percentiles are bounded by the greatest value of any block, COUNT by the total number of points.
+     * MIN is bounded by the least value of any block lying within the range. SUM uses the sum of each block lying within the range,
+     * and the number of points times the greatest value of any other.
+     * <p>
+     * If blocks overlap in time, as when a point is rewritten after its block was archived, a point in one block may be replaced
+     * by a point in another, so the summaries of the blocks within the range no longer bound the result. MIN is then bounded by the
+     * greatest value, and SUM by the number of points times the greatest value, so a series is never wrongly pruned.
+     *
+     * @param operation     - query operation
+     * @param indexEntries  - index entries for the range
+     * @param startTime     - start time of range
+     * @param endTime       - end time of range
+     * @param currentRecord - current block record, read using opsForCurrentBlockBound - null if there is none, or it is not needed
+     * @return bound - Double.POSITIVE_INFINITY if the operation cannot be bounded, or a block has no summary
+     */
+    static double topKBound(QueryOperation operation, TreeMap<Long, long[]> indexEntries, long startTime, long endTime, Record currentRecord) {
+        if (operation == QueryOperation.VOL || operation == QueryOperation.STD_DEV) return Double.POSITIVE_INFINITY;
+        long count = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        double minWithinRange = Double.POSITIVE_INFINITY;
+        double sum = 0;
+        boolean blocksOverlap = false;
+        // Latest end time of the blocks so far - entries are in start time order
+        long latestEndTime = Long.MIN_VALUE;
+        for (Map.Entry<Long, long[]> indexEntry : indexEntries.entrySet()) {
+            long[] entry = indexEntry.getValue();
+            double[] summary = blockSummaryFromIndexEntry(entry);
+            if (summary == null) return Double.POSITIVE_INFINITY;
+            if (indexEntry.getKey() <= latestEndTime) blocksOverlap = true;
+            latestEndTime = Math.max(latestEndTime, entry[0]);
+            count += entry[1];
+            max = Math.max(max, summary[QueryAccumulator.SUMMARY_MAX]);
+            if (indexEntry.getKey() >= startTime && entry[0] <= endTime) {
+                minWithinRange = Math.min(minWithinRange, summary[QueryAccumulator.SUMMARY_MIN]);
+                sum += summary[QueryAccumulator.SUMMARY_SUM];
+            } else {
+                sum += entry[1] * Math.max(summary[QueryAccumulator.SUMMARY_MAX], 0);
+            }
+        }
+        List<?> currentBlockBound = currentRecord != null ? currentRecord.getList(Constants.TIME_SERIES_BIN_NAME) : null;
+        if (currentBlockBound != null && !((List<?>) currentBlockBound.get(1)).isEmpty()) {
+            long currentBlockCount = (Long) currentBlockBound.get(0);
+            double currentBlockMax = (Double) ((List<?>) currentBlockBound.get(1)).get(0);
+            count += currentBlockCount;
+            max = Math.max(max, currentBlockMax);
+            sum += currentBlockCount * Math.max(currentBlockMax, 0);
+        }
+        switch (operation) {
+            case COUNT:
+                return count;
+            case SUM:
+                return blocksOverlap ? count * Math.max(max, 0) : sum;
+            case MIN:
+                return blocksOverlap ? max : Math.min(minWithinRange, max);
+            default:
+                return max;
+        }
+    }
+
+    /**
+     * Operation adding a series to a tag index record
+     *
+     * @param timeSeriesName - time series name
+     * @return the operation required
+     */
+    Operation opForTagIndexAdd(String timeSeriesName) {
+        // Only the keys are used - the map is key ordered so series names are returned in order
+        return MapOperation.put(insertMapPolicy, Constants.TAG_INDEX_BIN_NAME, new Value.StringValue(timeSeriesName), new Value.LongValue(1));
+    }
+
+    /**
+     * Operations replacing the tags held in the root index record for a series, returning the tags replaced
+     * The series name is also stored, as the root index record may not yet exist
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - new tags
+     * @return the operations required
+     */
+    static Operation[] opsForTagsReplace(String timeSeriesName, Map<String, String> tags) {
+        return new Operation[]{
+                Operation.get(Constants.TAGS_BIN_NAME),
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))),
+                Operation.put(new Bin(Constants.TAGS_BIN_NAME, new Value.MapValue(new TreeMap<>(tags))))
+        };
+    }
+
+    /**
+     * Tags from a record holding the tags bin
+     *
+     * @param tagsRecord - record. May be null
+     * @return tag values keyed by tag name
+     */
+    static Map<String, String> tagsFromRecord(Record tagsRecord) {
+        Map<String, String> tags = new TreeMap<>();
+        Map<?, ?> storedTags = tagsRecord != null ? tagsRecord.getMap(Constants.TAGS_BIN_NAME) : null;
+        if (storedTags != null) for (Map.Entry<?, ?> tag : storedTags.entrySet()) tags.put((String) tag.getKey(), (String) tag.getValue());
+        return tags;
+    }
+
+    /**
+     * Tags held before a call to setTags that are not among the new tags, so the series must be removed from their tag index records
+     *
+     * @param previousTagsRecord - record read by opsForTagsReplace
+     * @param tags               - new tags
+     * @return stale tags
+     */
+    static Map<String, String> staleTags(Record previousTagsRecord, Map<String, String> tags) {
+        Map<String, String> staleTags = tagsFromRecord(previousTagsRecord);
+        staleTags.entrySet().removeIf(tag -> tag.getValue().equals(tags.get(tag.getKey())));
+        return staleTags;
+    }
+
+    /**
+     * Names of the series listed for every one of a set of tags
+     * A series is always listed in the same shard, so the series in each shard holding every tag are found, then combined
+     *
+     * @param tagIndexRecords - tag index records, shardCount per tag, in shard order. May contain nulls
+     * @param shardCount      - number of shards per tag
+     * @return series names, in name order
+     */
+    static List<String> seriesNamesHoldingAllTags(Record[] tagIndexRecords, int shardCount) {
+        Set<String> seriesNames = new TreeSet<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            Set<String> shardSeriesNames = null;
+            for (int i = shard; i < tagIndexRecords.length; i += shardCount) {
+                Map<?, ?> taggedSeries = tagIndexRecords[i] != null ? tagIndexRecords[i].getMap(Constants.TAG_INDEX_BIN_NAME) : null;
+                if (taggedSeries == null) {
+                    shardSeriesNames = null;
+                    break;
+                }
+                if (shardSeriesNames == null) {
+                    shardSeriesNames = new HashSet<>();
+                    for (Object seriesName : taggedSeries.keySet()) shardSeriesNames.add((String) seriesName);
+                } else {
+                    shardSeriesNames.retainAll(taggedSeries.keySet());
+                }
+            }
+            if (shardSeriesNames != null) seriesNames.addAll(shardSeriesNames);
+        }
+        return new ArrayList<>(seriesNames);
+    }
+
+    /**
+     * Retrieve the blocks holding the data points between startTime and endTime for many series, in a single batch call
+     * once the index entries for all the series have been read - see indexEntriesForRange(Collection, long, long)
+     *
+     * @param timeSeriesNames      - names of time series
+     * @param startTime            - start time of required range
+     * @param endTime              - end time of required range
+     * @param queryOperation       - if not null, the query the blocks are read for - blocks answered by their index entry summary
+     *                               are not read, or only their quantile sketch is - see batchReadsForUnsummarisedBlocks
+     * @param indexEntriesBySeries - if not null, index entries for each series. Entries already held for a series are used rather
+     *                               than read, and those read are added. Series keyed by time bucket, whose blocks are found
+     *                               without the index, are not included
+     * @return block records for each series, in time order, keyed by time series name. May contain nulls
+     */
+    private Map<String, Record[]> getBlocks(Collection<String> timeSeriesNames, long startTime, long endTime, QueryOperation queryOperation,
+                                            Map<String, TreeMap<Long, long[]>> indexEntriesBySeries) {
+        Map<String, Record[]> blocksBySeries = new HashMap<>();
+        if (endTime < startTime) {
+            for (String timeSeriesName : timeSeriesNames) blocksBySeries.put(timeSeriesName, new Record[0]);
+            return blocksBySeries;
+        }
+        // Time bucket keys can be calculated unless the range is very wide - other series need their index entries first
+        Map<String, List<BatchRead>> batchReadsBySeries = new LinkedHashMap<>();
+        List<String> indexedSeriesNames = new ArrayList<>();
+        for (String timeSeriesName : timeSeriesNames) {
+            List<BatchRead> bucketReads = isTimeBucketed() ? batchReadsForTimeBucketRange(timeSeriesName, startTime, endTime) : null;
+            if (bucketReads != null) batchReadsBySeries.put(timeSeriesName, bucketReads);
+            else indexedSeriesNames.add(timeSeriesName);
+        }
+        Map<String, TreeMap<Long, long[]>> indexEntriesForSeries = indexEntriesBySeries != null && !isTimeBucketed() ?
+                indexEntriesBySeries : new HashMap<>();
+        List<String> unreadSeriesNames = new ArrayList<>();
+        for (String timeSeriesName : indexedSeriesNames) {
+            if (!indexEntriesForSeries.containsKey(timeSeriesName)) unreadSeriesNames.add(timeSeriesName);
+        }
+        indexEntriesForSeries.putAll(indexEntriesForRange(unreadSeriesNames, startTime, endTime));
+        for (String timeSeriesName : indexedSeriesNames) {
+            TreeMap<Long, long[]> indexEntries = indexEntriesForSeries.get(timeSeriesName);
+            batchReadsBySeries.put(timeSeriesName, queryOperation != null && !isTimeBucketed() ?
+                    batchReadsForUnsummarisedBlocks(timeSeriesName, indexEntries, startTime, endTime, queryOperation.isQuantile()) :
+                    batchReadsForIndexEntries(timeSeriesName, indexEntries, startTime, endTime));
+        }
+
+        // All the blocks in a single batch call
+        List<BatchRead> batchReads = new ArrayList<>();
+        for (List<BatchRead> seriesBatchReads : batchReadsBySeries.values()) batchReads.addAll(seriesBatchReads);
+        Record[] records = get(multiSeriesBatchPolicy(), batchReads);
+        int offset = 0;
+        for (Map.Entry<String, List<BatchRead>> seriesBatchReads : batchReadsBySeries.entrySet()) {
+            int count = seriesBatchReads.getValue().size();
+            blocksBySeries.put(seriesBatchReads.getKey(), Arrays.copyOfRange(records, offset, offset + count));
+            offset += count;
+        }
+        return blocksBySeries;
+    }
+
+    private Map<String, Record[]> getBlocks(Collection<String> timeSeriesNames, long startTime, long endTime) {
+        return getBlocks(timeSeriesNames, startTime, endTime, null, null);
+    }
+
+    /**
+     * Index entries for the blocks of many series overlapping startTime to endTime
+     * The index pages covering the range for every series are read in a single batch call. If the range covers many pages,
+     * those that exist are first found from the root index record of every series, again in a single batch call
+     *
+     * @param timeSeriesNames - names of time series
+     * @param startTime       - start time of range
+     * @param endTime         - end time of range
+     * @return map of block start time to {end time, entry count} for each series, keyed by time series name
+     */
+    private Map<String, TreeMap<Long, long[]>> indexEntriesForRange(List<String> timeSeriesNames, long startTime, long endTime) {
+        Map<String, TreeMap<Long, long[]>> indexEntriesBySeries = new HashMap<>();
+        if (timeSeriesNames.isEmpty()) return indexEntriesBySeries;
+        long[] pageStartTimes = indexPageStartTimesForRange(startTime, endTime);
+        Record[] rootIndexRecords = null;
+        if (pageStartTimes == null) {
+            List<BatchRead> rootReads = new ArrayList<>();
+            for (String timeSeriesName : timeSeriesNames) {
+                rootReads.add(new BatchRead(asKeyForTimeSeriesIndexes(timeSeriesName), new Operation[]{opForIndexPageRange(startTime, endTime)}));
+            }
+            rootIndexRecords = get(multiSeriesBatchPolicy(), rootReads);
+        }
+        List<Key> keys = new ArrayList<>();
+        int[] keyCounts = new int[timeSeriesNames.size()];
+        for (int i = 0; i < keyCounts.length; i++) {
+            long[] seriesPageStartTimes = rootIndexRecords != null ? indexPageStartTimes(rootIndexRecords[i]) : pageStartTimes;
+            Key[] seriesKeys = keysForIndexRead(timeSeriesNames.get(i), seriesPageStartTimes);
+            keys.addAll(Arrays.asList(seriesKeys));
+            keyCounts[i] = seriesKeys.length;
+        }
+        Record[] indexRecords = asClient.get(multiSeriesBatchPolicy(), keys.toArray(new Key[0]), opsForIndexRead(startTime, endTime));
+        int offset = 0;
+        for (int i = 0; i < keyCounts.length; i++) {
+            indexEntriesBySeries.put(timeSeriesNames.get(i),
+                    indexEntriesFromRecords(Arrays.copyOfRange(indexRecords, offset, offset + keyCounts[i]), startTime, endTime));
+            offset += keyCounts[i];
+        }
+        return indexEntriesBySeries;
+    }
+
+    /**
+     * Whether an index entry's block can be answered from its summary, rather than by reading it
+     *
+     * @param blockStartTime - start time of the block
+     * @param indexEntry     - index entry for the block
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return true if the block lies entirely within the range and has a summary
+     */
+    private static boolean isSummarisedWithinRange(long blockStartTime, long[] indexEntry, long startTime, long endTime) {
+        return blockStartTime >= startTime && indexEntry[0] <= endTime && blockSummaryFromIndexEntry(indexEntry) != null;
+    }
+
+    /**
+     * Batch reads for the blocks needed by a query that cannot be answered from their index entry summary
+     * If quantile sketches are needed, only the sketch is read for blocks that can
+     *
+     * @param timeSeriesName         - time series name
+     * @param indexEntries           - index entries for the range
+     * @param startTime              - start time of range
+     * @param endTime                - end time of range
+     * @param quantileSketchesNeeded - true if the query estimates quantiles
+     * @return batch reads, in time order - the current block, if needed, is last
+     */
+    List<BatchRead> batchReadsForUnsummarisedBlocks(String timeSeriesName, TreeMap<Long, long[]> indexEntries, long startTime, long endTime,
+                                                    boolean quantileSketchesNeeded) {
+        List<BatchRead> batchReads = new ArrayList<>();
+        for (Map.Entry<Long, long[]> indexEntry : indexEntries.entrySet()) {
+            Key key = asKeyForHistoricTimeSeriesBlock(timeSeriesName, indexEntry.getKey());
+            if (!isSummarisedWithinRange(indexEntry.getKey(), indexEntry.getValue(), startTime, endTime)) {
+                boolean withinRange = indexEntry.getKey() >= startTime && indexEntry.getValue()[0] <= endTime;
+                batchReads.add(batchReadForBlock(key, withinRange, startTime, endTime));
+            } else if (quantileSketchesNeeded) {
+                batchReads.add(new BatchRead(key, new String[]{Constants.QUANTILE_SKETCH_BIN_NAME}));
+            }
+        }
+        if (currentBlockNeeded(indexEntries, endTime)) {
+            batchReads.add(batchReadForBlock(asCurrentKeyForTimeSeries(timeSeriesName), false, startTime, endTime));
+        }
+        return batchReads;
+    }
+
+    /**
+     * Accumulate the points between startTime and endTime, taking blocks lying within the range from their index entry summary
+     * and the remainder from the blocks read using batchReadsForUnsummarisedBlocks
+     *
+     * @param indexEntries           - index entries for the range
+     * @param timeSeriesBlocks       - block records read using batchReadsForUnsummarisedBlocks. May contain nulls
+     * @param startTime              - start time of range
+     * @param endTime                - end time of range
+     * @param quantileSketchesNeeded - as passed to batchReadsForUnsummarisedBlocks
+     * @return accumulator - if not complete, blocks overlap in time or lack a quantile sketch, and must be read whole using accumulateBlocks
+     */
+    static QueryAccumulator accumulateIndexedBlocks(TreeMap<Long, long[]> indexEntries, Record[] timeSeriesBlocks, long startTime, long endTime,
+                                                    boolean quantileSketchesNeeded) {
+        QueryAccumulator accumulator = new QueryAccumulator(startTime, endTime, quantileSketchesNeeded);
+        int blockIndex = 0;
+        for (Map.Entry<Long, long[]> indexEntry : indexEntries.entrySet()) {
+            long[] entry = indexEntry.getValue();
+            if (isSummarisedWithinRange(indexEntry.getKey(), entry, startTime, endTime)) {
+                accumulator.addBlockSummary(indexEntry.getKey(), entry[0], entry[1], blockSummaryFromIndexEntry(entry));
+                if (quantileSketchesNeeded) accumulator.addBlockQuantileSketch(QuantileSketch.fromRecord(timeSeriesBlocks[blockIndex++]));
+            } else {
+                accumulateBlock(accumulator, timeSeriesBlocks[blockIndex++]);
+            }
+            if (!accumulator.isComplete()) return accumulator;
+        }
+        // Current block
+        while (blockIndex < timeSeriesBlocks.length) accumulateBlock(accumulator, timeSeriesBlocks[blockIndex++]);
+        return accumulator;
+    }
+
+    /**
+     * Apply a query operation to the data points between startTime and endTime held in a set of blocks
+     * Each block's points are folded into a single pass accumulator as they are decoded, so no arrays or DataPoint objects are built.
+     * If blocks overlap in time, the points are merged using timeSeriesPointsFromBlocks first, removing duplicates
+     *
+     * @param operation        - operation to apply e.g. avg, vol, max, min
+     * @param timeSeriesBlocks - block records, in time order, as retrieved by a batch get. May contain nulls
+     * @param startTime        - start time of range
+     * @param endTime          - end time of range
+     * @return result of the query as a double
+     */
+    static double queryResultFromBlocks(QueryOperation operation, Record[] timeSeriesBlocks, long startTime, long endTime) {
+        return accumulateBlocks(timeSeriesBlocks, startTime, endTime, operation.isQuantile()).result(operation);
+    }
+
+    /**
+     * Accumulate the data points between startTime and endTime held in a set of blocks, as per queryResultFromBlocks
+     *
+     * @param timeSeriesBlocks - block records, in time order, as retrieved by a batch get. May contain nulls
+     * @param startTime        - start time of range
+     * @param endTime          - end time of range
+     * @param sketchQuantiles  - true if quantile operations are needed
+     * @return accumulator holding the points of the blocks
+     */
+    static QueryAccumulator accumulateBlocks(Record[] timeSeriesBlocks, long startTime, long endTime, boolean sketchQuantiles) {
+        QueryAccumulator accumulator = new QueryAccumulator(startTime, endTime, sketchQuantiles);
+        for (Record timeSeriesBlock : timeSeriesBlocks) {
+            accumulateBlock(accumulator, timeSeriesBlock);
+            if (accumulator.isOutOfOrder()) {
+                return accumulatePoints(timeSeriesPointsFromBlocks(timeSeriesBlocks, startTime, endTime), sketchQuantiles);
+            }
+        }
+        return accumulator;
+    }
+
+    /**
+     * Fold the points held in a block into an accumulator as they are decoded
+     *
+     * @param accumulator     - accumulator
+     * @param timeSeriesBlock - block record, as retrieved by a batch get. May be null
+     */
+    private static void accumulateBlock(GorillaCodec.DataPointConsumer accumulator, Record timeSeriesBlock) {
+        if (timeSeriesBlock == null) return;
+        byte[] compressedBlock = (byte[]) timeSeriesBlock.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME);
+        if (compressedBlock != null) {
+            GorillaCodec.decode(compressedBlock, accumulator);
+            return;
+        }
+        // A map if the block was read whole, a list of map entries if it was trimmed to the range
+        Object timeSeries = timeSeriesBlock.getValue(Constants.TIME_SERIES_BIN_NAME);
+        Collection<?> timeSeriesEntries = timeSeries instanceof Map ? ((Map<?, ?>) timeSeries).entrySet() : (Collection<?>) timeSeries;
+        if (timeSeriesEntries == null) return;
+        for (Object timeSeriesEntry : timeSeriesEntries) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) timeSeriesEntry;
+            accumulator.accept((Long) entry.getKey(), (Double) entry.getValue());
+        }
+    }
+
+    /**
+     * Run a query vs a particular time series range, giving a result for each time bucket of the range - e.g. hourly averages
+     * Buckets are bucketWidthMs wide, starting at fromDateTime, the last being cut short at toDateTime if need be
+     * <p>
+     * The blocks for the whole range are retrieved once, and each point is folded into the accumulator for its bucket as
+     * blocks are decoded, so no more work is done than for a single runQuery over the range
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to each bucket e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @param bucketWidthMs  - width of each bucket in milliseconds
+     * @return result of the query for each bucket, in time order. Buckets with no points give the result for no points e.g. NaN for avg
+     */
+    public double[] runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime, long bucketWidthMs) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        if (endTime < startTime) return new double[0];
+        BucketedQueryAccumulator accumulator = new BucketedQueryAccumulator(startTime, endTime, bucketWidthMs, operation.isQuantile());
+        return accumulateBucketedQuery(accumulator, getBlocks(timeSeriesName, startTime, endTime)).results(operation);
+    }
+
+    /**
+     * Fold the points held in a set of blocks into a bucketed accumulator as they are decoded
+     * If blocks overlap in time, the points are merged using timeSeriesPointsFromBlocks first, removing duplicates
+     *
+     * @param accumulator      - empty bucketed accumulator
+     * @param timeSeriesBlocks - block records, in time order, as retrieved by a batch get. May contain nulls
+     * @return accumulator holding the points of the blocks
+     */
+    static BucketedQueryAccumulator accumulateBucketedQuery(BucketedQueryAccumulator accumulator, Record[] timeSeriesBlocks) {
+        for (Record timeSeriesBlock : timeSeriesBlocks) {
+            accumulateBlock(accumulator, timeSeriesBlock);
+            if (accumulator.isOutOfOrder()) {
+                BucketedQueryAccumulator mergedAccumulator = accumulator.emptyCopy();
+                TimeSeriesPoints timeSeriesPoints = timeSeriesPointsFromBlocks(timeSeriesBlocks, accumulator.getStartTime(), accumulator.getEndTime());
+                for (int i = 0; i < timeSeriesPoints.size(); i++) mergedAccumulator.accept(timeSeriesPoints.getTimestamp(i), timeSeriesPoints.getValue(i));
+                return mergedAccumulator;
+            }
+        }
+        return accumulator;
+    }
+
+    /**
+     * Apply a query operation to a set of data points
+     *
+     * @param operation        - operation to apply e.g. avg, vol, max, min
+     * @param timeSeriesPoints - data points to apply it to
+     * @return result of the query as a double
+     */
+    static double queryResult(QueryOperation operation, TimeSeriesPoints timeSeriesPoints) {
+        return accumulatePoints(timeSeriesPoints, operation.isQuantile()).result(operation);
+    }
+
+    private static QueryAccumulator accumulatePoints(TimeSeriesPoints timeSeriesPoints, boolean sketchQuantiles) {
+        QueryAccumulator accumulator = new QueryAccumulator(Long.MIN_VALUE, Long.MAX_VALUE, sketchQuantiles);
+        for (int i = 0; i < timeSeriesPoints.size(); i++) accumulator.accept(timeSeriesPoints.getTimestamp(i), timeSeriesPoints.getValue(i));
+        return accumulator;
+    }
+
+    /**
+     * Retrieve the count, sum, min and max of the points of a series in time buckets no wider than resolutionMs, between two
+     * given date / times (inclusive)
+     * <p>
+     * If rollups are enabled, buckets are read from the coarsest rollup tier no wider than resolutionMs - see setRollupsEnabled.
+     * Buckets are then whole, so the first and last may include points outside the range. Points not yet archived are read from
+     * the current block and added to the buckets. Otherwise, or if resolutionMs is finer than every tier, the points in the range
+     * are read and summarised in buckets of resolutionMs
+     * <p>
+     * A block archived while rollups are being read may be missed, or counted twice, by that read
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @param resolutionMs   - widest bucket acceptable, in milliseconds
+     * @return array of RollupPoint objects, in time order, for the buckets holding points
+     */
+    public RollupPoint[] getRollups(String timeSeriesName, Date fromDateTime, Date toDateTime, long resolutionMs) {
+        if (resolutionMs < 1) throw new IllegalArgumentException("resolutionMs must be at least 1");
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        if (endTime < startTime) return new RollupPoint[0];
+        RollupTier rollupTier = rollupsEnabled && !isTimeBucketed() ? RollupTier.coarsestWithin(resolutionMs) : null;
+        if (rollupTier == null) return rollupsFromPoints(getTimeSeriesPoints(timeSeriesName, startTime, endTime), resolutionMs);
+
+        // Whole buckets, avoiding overflow at the end of the range
+        long rollupStartTime = rollupTier.bucketStartTime(startTime);
+        long lastBucketStartTime = rollupTier.bucketStartTime(endTime);
+        long rollupEndTime = lastBucketStartTime > Long.MAX_VALUE - rollupTier.getBucketDurationMs() + 1 ?
+                Long.MAX_VALUE : lastBucketStartTime + rollupTier.getBucketDurationMs() - 1;
+        long recordDurationMs = rollupTier.getBucketDurationMs() * Constants.ROLLUP_BUCKETS_PER_RECORD;
+        // Very wide ranges are limited to the span of the series, so only records that may exist are read
+        if (Math.floorDiv(rollupEndTime, recordDurationMs) - Math.floorDiv(rollupStartTime, recordDurationMs) >= Constants.MAX_ROLLUP_RECORDS_READ_WITHOUT_BOUNDS) {
+            long seriesStartTime = startTimeForSeries(timeSeriesName);
+            if (seriesStartTime == Long.MAX_VALUE) return new RollupPoint[0];
+            rollupStartTime = Math.max(rollupStartTime, rollupTier.bucketStartTime(seriesStartTime));
+            rollupEndTime = Math.min(rollupEndTime, endTimeForSeries(timeSeriesName));
+        }
+
+        // Rollup records, and the current block for points not yet archived, in a single batch call
+        List<BatchRead> batchReads = new ArrayList<>();
+        batchReads.add(batchReadForBlock(asCurrentKeyForTimeSeries(timeSeriesName), false, rollupStartTime, rollupEndTime));
+        Operation[] rollupReadOps = new Operation[]{MapOperation.getByKeyRange(Constants.ROLLUP_BIN_NAME, new Value.LongValue(rollupStartTime),
+                // End of key range is exclusive. Null means no upper limit
+                rollupEndTime == Long.MAX_VALUE ? null : new Value.LongValue(rollupEndTime + 1), MapReturnType.KEY_VALUE)};
+        for (long recordIndex = Math.floorDiv(rollupStartTime, recordDurationMs); recordIndex <= Math.floorDiv(rollupEndTime, recordDurationMs); recordIndex++) {
+            batchReads.add(new BatchRead(asKeyForRollupRecord(timeSeriesName, rollupTier, recordIndex * recordDurationMs), rollupReadOps));
+        }
+        Record[] records = get(batchReads);
+
+        TreeMap<Long, RollupPoint> rollups = new TreeMap<>();
+        for (int i = 1; i < records.length; i++) {
+            Object storedBuckets = records[i] != null ? records[i].getValue(Constants.ROLLUP_BIN_NAME) : null;
+            if (storedBuckets == null) continue;
+            for (Object storedBucket : (List<?>) storedBuckets) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) storedBucket;
+                rollups.computeIfAbsent((Long) entry.getKey(), RollupPoint::new).add((List<?>) entry.getValue());
+            }
+        }
+        Object currentBlockEntries = records[0] != null ? records[0].getValue(Constants.TIME_SERIES_BIN_NAME) : null;
+        if (currentBlockEntries != null) {
+            for (Object currentBlockEntry : (List<?>) currentBlockEntries) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) currentBlockEntry;
+                rollups.computeIfAbsent(rollupTier.bucketStartTime((Long) entry.getKey()), RollupPoint::new).add((Double) entry.getValue());
+            }
+        }
+        return rollups.values().toArray(new RollupPoint[0]);
+    }
+
+    /**
+     * Summarise a set of data points in buckets of a given duration
+     *
+     * @param timeSeriesPoints - data points, in time order
+     * @param bucketDurationMs - bucket duration in milliseconds
+     * @return RollupPoint for each bucket holding points, in time order
+     */
+    static RollupPoint[] rollupsFromPoints(TimeSeriesPoints timeSeriesPoints, long bucketDurationMs) {
+        List<RollupPoint> rollups = new ArrayList<>();
+        RollupPoint rollup = null;
+        for (int i = 0; i < timeSeriesPoints.size(); i++) {
+            long bucketStartTime = Math.floorDiv(timeSeriesPoints.getTimestamp(i), bucketDurationMs) * bucketDurationMs;
+            if (rollup == null || rollup.getBucketStartTime() != bucketStartTime) {
+                rollup = new RollupPoint(bucketStartTime);
+                rollups.add(rollup);
+            }
+            rollup.add(timeSeriesPoints.getValue(i));
+        }
+        return rollups.toArray(new RollupPoint[0]);
+    }
+
+    /**
+     * Add the points of an archived block to each rollup tier
+     * Each rollup record affected is read, then written with a generation check, retrying if another client updated it in between.
+     * The block start time is written with the buckets, and records already holding it are left alone, so a block is only added
+     * once, even if a write whose outcome is unknown is retried
+     *
+     * @param timeSeriesName - name of series being archived
+     * @param currentRecord  - current block record as archived
+     */
+    void updateRollups(String timeSeriesName, Record currentRecord) {
+        long blockStartTime = (Long) currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
+        for (Map.Entry<Key, TreeMap<Long, RollupPoint>> rollupRecordUpdate : rollupRecordUpdates(timeSeriesName, currentRecord).entrySet()) {
+            Key rollupKey = rollupRecordUpdate.getKey();
+            while (true) {
+                Record storedRecord;
+                try {
+                    storedRecord = asClient.operate(writePolicy, rollupKey, opsForRollupRead(rollupRecordUpdate.getValue(), blockStartTime));
+                } catch (AerospikeException e) {
+                    if (e.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR) throw e;
+                    storedRecord = null;
+                }
+                if (isBlockInRollupRecord(storedRecord)) break;
+                try {
+                    asClient.operate(rollupWritePolicy(storedRecord), rollupKey,
+                            opsForRollupWrite(timeSeriesName, storedRecord, rollupRecordUpdate.getValue(), blockStartTime));
+                    break;
+                } catch (AerospikeException e) {
+                    if (!isRollupWriteConflict(e)) throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * The buckets of each rollup record to be updated when a block is archived, summarising the points of the block
+     *
+     * @param timeSeriesName - name of series being archived
+     * @param currentRecord  - current block record being archived
+     * @return map of rollup record key to the buckets to add to it, keyed by bucket start time
+     */
+    Map<Key, TreeMap<Long, RollupPoint>> rollupRecordUpdates(String timeSeriesName, Record currentRecord) {
+        Map<Key, TreeMap<Long, RollupPoint>> rollupRecordUpdates = new LinkedHashMap<>();
+        Map<?, ?> timeSeries = currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
+        for (RollupTier rollupTier : RollupTier.values()) {
+            // Group by record start time first, so a key is only built once per record
+            TreeMap<Long, TreeMap<Long, RollupPoint>> tierUpdates = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : timeSeries.entrySet()) {
+                long timestamp = (Long) entry.getKey();
+                tierUpdates.computeIfAbsent(rollupTier.recordStartTime(timestamp), recordStartTime -> new TreeMap<>())
+                        .computeIfAbsent(rollupTier.bucketStartTime(timestamp), RollupPoint::new).add((Double) entry.getValue());
+            }
+            for (Map.Entry<Long, TreeMap<Long, RollupPoint>> tierUpdate : tierUpdates.entrySet()) {
+                rollupRecordUpdates.put(asKeyForRollupRecord(timeSeriesName, rollupTier, tierUpdate.getKey()), tierUpdate.getValue());
+            }
+        }
+        return rollupRecordUpdates;
+    }
+
+    /**
+     * Operations reading the stored buckets of a rollup record that an update will change, and whether the block has already been added
+     *
+     * @param buckets        - buckets to be added, keyed by bucket start time
+     * @param blockStartTime - start time of the block being added
+     * @return the operations required
+     */
+    static Operation[] opsForRollupRead(TreeMap<Long, RollupPoint> buckets, long blockStartTime) {
+        List<Value> bucketStartTimes = new ArrayList<>();
+        for (long bucketStartTime : buckets.keySet()) bucketStartTimes.add(new Value.LongValue(bucketStartTime));
+        return new Operation[]{
+                MapOperation.getByKeyList(Constants.ROLLUP_BIN_NAME, bucketStartTimes, MapReturnType.KEY_VALUE),
+                MapOperation.getByKey(Constants.ROLLUP_BLOCKS_BIN_NAME, new Value.LongValue(blockStartTime), MapReturnType.KEY)
+        };
+    }
+
+    /**
+     * Whether a rollup record already holds a block, from the result of opsForRollupRead
+     *
+     * @param storedRecord - result of opsForRollupRead - null if the record does not exist
+     * @return true if the block has already been added
+     */
+    static boolean isBlockInRollupRecord(Record storedRecord) {
+        return storedRecord != null && storedRecord.getValue(Constants.ROLLUP_BLOCKS_BIN_NAME) != null;
+    }
+
+    /**
+     * Operations writing buckets to a rollup record, combined with the values already stored for them
+     * The block start time is recorded, keeping only the latest Constants.ROLLUP_BLOCKS_HELD_PER_RECORD
+     *
+     * @param timeSeriesName - time series name
+     * @param storedRecord   - result of opsForRollupRead - null if the record does not exist
+     * @param buckets        - buckets to be added, keyed by bucket start time
+     * @param blockStartTime - start time of the block being added
+     * @return the operations required
+     */
+    Operation[] opsForRollupWrite(String timeSeriesName, Record storedRecord, TreeMap<Long, RollupPoint> buckets, long blockStartTime) {
+        Map<Long, RollupPoint> combinedBuckets = new HashMap<>();
+        for (RollupPoint bucket : buckets.values()) {
+            RollupPoint combinedBucket = new RollupPoint(bucket.getBucketStartTime());
+            combinedBucket.add(bucket);
+            combinedBuckets.put(bucket.getBucketStartTime(), combinedBucket);
+        }
+        Object storedBuckets = storedRecord != null ? storedRecord.getValue(Constants.ROLLUP_BIN_NAME) : null;
+        if (storedBuckets != null) {
+            for (Object storedBucket : (List<?>) storedBuckets) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) storedBucket;
+                combinedBuckets.get((Long) entry.getKey()).add((List<?>) entry.getValue());
+            }
+        }
+        Map<Value, Value> bucketItems = new HashMap<>();
+        for (RollupPoint combinedBucket : combinedBuckets.values()) {
+            bucketItems.put(new Value.LongValue(combinedBucket.getBucketStartTime()), new Value.ListValue(combinedBucket.toStoredBucket()));
+        }
+        return new Operation[]{
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))),
+                MapOperation.putItems(insertMapPolicy, Constants.ROLLUP_BIN_NAME, bucketItems),
+                // Held with the time it was added
+                MapOperation.put(insertMapPolicy, Constants.ROLLUP_BLOCKS_BIN_NAME, new Value.LongValue(blockStartTime),
+                        new Value.LongValue(System.currentTimeMillis())),
+                MapOperation.removeByIndexRange(Constants.ROLLUP_BLOCKS_BIN_NAME, -Constants.ROLLUP_BLOCKS_HELD_PER_RECORD,
+                        Constants.ROLLUP_BLOCKS_HELD_PER_RECORD, MapReturnType.NONE | MapReturnType.INVERTED)
+        };
+    }
+
+    /**
+     * Write policy for a rollup record update - the record must not have been created or changed since it was read
+     *
+     * @param storedRecord - result of opsForRollupRead - null if the record does not exist
+     * @return write policy
+     */
+    WritePolicy rollupWritePolicy(Record storedRecord) {
+        if (storedRecord != null) return generationCheckWritePolicy(storedRecord.generation);
+        WritePolicy createOnlyPolicy = new WritePolicy(writePolicy);
+        createOnlyPolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+        return createOnlyPolicy;
+    }
+
+    /**
+     * Whether a rollup record update failed because another client updated the record first, so should be retried
+     *
+     * @param e - exception thrown by the write
+     * @return true if the update should be retried
+     */
+    static boolean isRollupWriteConflict(AerospikeException e) {
+        return e.getResultCode() == ResultCode.GENERATION_ERROR || e.getResultCode() == ResultCode.KEY_EXISTS_ERROR;
+    }
+
+    /**
+     * We store some 'indexes' to make the time series db work.
+     * This gives the name of the set they're stored in
+     * It simply suffixes the time series set name with TIME_SERIES_INDEX_SET_SUFFIX
+     *
+     * @return the set name for the time series indexes
+     */
+    public String timeSeriesIndexSetName() {
+        return timeSeriesIndexSetName(timeSeriesSet);
+    }
+
+    /**
+     * Static method allowing inference of the time index set name - useful in a couple of places elsewhere
+     *
+     * @param setName - the name of the set that stores the time series data
+     * @return - the name of the set to store the indexes in
+     */
+    public static String timeSeriesIndexSetName(String setName) {
+        return String.format("%s%s", setName, TIME_SERIES_INDEX_SET_SUFFIX);
+    }
+
+    /**
+     * Get the earliest timestamp for the given series
+     *
+     * @param timeSeriesName time series name
+     * @return earliest timestamp Long.MAX if series does not exist
+     */
+    public long startTimeForSeries(String timeSeriesName) {
+        if (isTimeBucketed()) return timeBucketBoundaryTimestamp(timeSeriesName, 0);
+        // The first index entry never changes once it exists, so a cached value can always be used
+        TimeSeriesIndexCache cache = indexCache;
+        long cachedStartTime = cache != null ? cache.firstIndexEntryStartTime(timeSeriesName) : Long.MAX_VALUE;
+        if (cachedStartTime != Long.MAX_VALUE) return cachedStartTime;
+        // First we get the earliest start time from the index, if it exists
+        // Then earliest start time from the current block
+        // else Long.MAX - there is no data for this series
+        long startTime = Long.MAX_VALUE;
+
+        long[] firstIndexEntry = indexEntryAtBoundary(timeSeriesName, 0);
+        if (firstIndexEntry != null) {
+            startTime = firstIndexEntry[0];
+        } else {
+            WritePolicy currentRecordExistsPolicy = new WritePolicy(getWritePolicy());
+            currentRecordExistsPolicy.filterExp = Exp.build(Exp.binExists(Constants.TIME_SERIES_BIN_NAME));
+
+            Record startTimeFromCurrentBlockRecord = asClient.operate(currentRecordExistsPolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                    MapOperation.getByIndex(Constants.TIME_SERIES_BIN_NAME, 0, MapReturnType.KEY));
+            if (startTimeFromCurrentBlockRecord != null) {
+                startTime = startTimeFromCurrentBlockRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
+            }
+        }
+        return startTime;
+    }
+
+    /**
+     * Get the latest timestamp for the given series
+     *
+     * @param timeSeriesName time series name
+     * @return latest timestamp Long.MAX if series does not exist
+     */
+    public long endTimeForSeries(String timeSeriesName) {
+        if (isTimeBucketed()) return timeBucketBoundaryTimestamp(timeSeriesName, -1);
+        // First we get the latest time from the current block.
+        // If this does not exist then we get the end time of the last block in the index, if it exists
         // else Long.MAX - there is no data for this series
         long endTime = Long.MAX_VALUE;
         // Create a policy to make sure, when we look up the last end time from the current block, we don't get an error if it doesn't exist
@@ -660,23 +3702,8 @@ public class TimeSeriesClient implements ITimeSeriesClient {
         if (endTimeFromCurrentBlockRecord != null) {
             endTime = endTimeFromCurrentBlockRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
         } else {
-            // Create a policy to make sure, when we look up the last end time from the index that we don't get an error if it doesn't exist
-            WritePolicy blockRecordExistsPolicy = new WritePolicy(getWritePolicy());
-            blockRecordExistsPolicy.filterExp = Exp.build(Exp.binExists(Constants.TIME_SERIES_INDEX_BIN_NAME));
-
-            // Now try and get the latest start time from the index
-            // Get the start time for the most recent historic block
-            Record startTimeForLastHistoricBlockRecord = asClient.operate(blockRecordExistsPolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
-                    MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_BIN_NAME, -1, MapReturnType.KEY));
-            // If it exists
-            if (startTimeForLastHistoricBlockRecord != null) {
-                long startTimeForLastBlock = startTimeForLastHistoricBlockRecord.getLong(Constants.TIME_SERIES_INDEX_BIN_NAME);
-                // Get the last timestamp from that record
-                Record endTimeFromLastBlockRecord = asClient.operate(currentRecordExistsPolicy,
-                        asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTimeForLastBlock),
-                        MapOperation.getByIndex(Constants.TIME_SERIES_BIN_NAME, -1, MapReturnType.KEY));
-                endTime = endTimeFromLastBlockRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
-            }
+            long[] lastIndexEntry = indexEntryAtBoundary(timeSeriesName, -1);
+            if (lastIndexEntry != null) endTime = lastIndexEntry[1];
         }
         return endTime;
     }
@@ -689,17 +3716,34 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      */
     public long dataPointCount(String timeSeriesName) {
         long dataPointCount = 0;
-        // Get the start times from the index block
-        Record metadataRecord = asClient.get(getWritePolicy(), asKeyForTimeSeriesIndexes(timeSeriesName),
-                Constants.TIME_SERIES_INDEX_BIN_NAME);
-        if (metadataRecord != null) {
-            // If there are any, get the size of each block
-            @SuppressWarnings("unchecked") // Type is expected
-            Map<Long, Map<String, Long>> metadataMap = (Map<Long, Map<String, Long>>) metadataRecord.getMap(Constants.TIME_SERIES_INDEX_BIN_NAME);
-            for (long startTime : metadataMap.keySet()) {
-                dataPointCount += metadataMap.get(startTime).get(Constants.ENTRY_COUNT_FIELD_NAME);
+        TimeSeriesIndexCache cache = indexCacheForReads();
+        if (cache != null) {
+            // Current block size and start time in one call. If the start time has changed, blocks have been archived since the cached index was refreshed
+            Record currentRecord = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                    MapOperation.size(Constants.TIME_SERIES_BIN_NAME), Operation.get(Constants.METADATA_BIN_NAME));
+            long currentBlockStartTime = currentBlockStartTime(currentRecord);
+            TreeMap<Long, long[]> indexEntries = cache.indexEntriesForRange(timeSeriesName, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (indexEntries == null || !cache.isCurrentBlockUnchanged(timeSeriesName, currentBlockStartTime)) {
+                indexEntries = refreshIndexCache(cache, timeSeriesName, currentBlockStartTime, Long.MIN_VALUE, Long.MAX_VALUE);
             }
+            for (long[] indexEntry : indexEntries.values()) dataPointCount += indexEntry[1];
+            if (currentRecord != null && currentRecord.getValue(Constants.TIME_SERIES_BIN_NAME) != null) {
+                dataPointCount += currentRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
+            }
+            return dataPointCount;
+        }
+        TreeMap<Long, long[]> indexEntries = indexEntriesForRange(timeSeriesName, Long.MIN_VALUE, Long.MAX_VALUE);
+        if (isTimeBucketed()) {
+            // Buckets are written to after they are indexed, so need their sizes
+            if (indexEntries.isEmpty()) return 0;
+            Key[] keys = keysForIndexEntries(timeSeriesName, indexEntries, Long.MAX_VALUE);
+            for (Record sizeRecord : asClient.get(new BatchPolicy(readPolicy), keys, MapOperation.size(Constants.TIME_SERIES_BIN_NAME))) {
+                if (sizeRecord != null) dataPointCount += sizeRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
+            }
+            return dataPointCount;
         }
+        // Size of each archived block is held in the index
+        for (long[] indexEntry : indexEntries.values()) dataPointCount += indexEntry[1];
 
         // Create a policy to make sure, when we look up the size from the current block, there are no errors
         WritePolicy currentRecordExistsPolicy = new WritePolicy(getWritePolicy());
@@ -712,4 +3756,85 @@ public class TimeSeriesClient implements ITimeSeriesClient {
         return dataPointCount;
     }
 
+    /**
+     * Update the data point count held in the index for an archived block
+     * For use if points are removed from an archived block
+     *
+     * @param timeSeriesName - time series name
+     * @param blockStartTime - start time of the block
+     * @param entryCount     - number of data points now in the block
+     */
+    public void updateIndexEntryCount(String timeSeriesName, long blockStartTime, long entryCount) {
+        // Entry is [EndTime - StartTime, EntryCount, block summary...]. Counts are only read from index pages
+        // The block summary no longer reflects the block, so is removed - queries will read the block instead
+        CTX blockEntry = CTX.mapKey(new Value.LongValue(blockStartTime));
+        asClient.operate(writePolicy, asKeyForTimeSeriesIndexPage(timeSeriesName, indexPageStartTime(blockStartTime)),
+                ListOperation.set(Constants.TIME_SERIES_INDEX_BIN_NAME, 1, new Value.LongValue(entryCount), blockEntry),
+                ListOperation.removeByIndexRange(Constants.TIME_SERIES_INDEX_BIN_NAME, 2, ListReturnType.NONE, blockEntry));
+        TimeSeriesIndexCache cache = indexCache;
+        if (cache != null) cache.updateEntryCount(timeSeriesName, blockStartTime, entryCount);
+    }
+
+    /**
+     * First or last entry in the index for a series
+     * The root index record gives the first or last index page, which is then read for its first or last entry
+     * Series indexed by earlier versions may hold entries in the root record itself
+     *
+     * @param timeSeriesName - time series name
+     * @param mapIndex       - 0 for first entry, -1 for last
+     * @return {block start time, block end time, entry count} - null if there are no index entries
+     */
+    private long[] indexEntryAtBoundary(String timeSeriesName, int mapIndex) {
+        // Create a policy to make sure we don't get an error if there is no index
+        WritePolicy rootExistsPolicy = new WritePolicy(getWritePolicy());
+        rootExistsPolicy.filterExp = Exp.build(Exp.or(
+                Exp.binExists(Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME), Exp.binExists(Constants.TIME_SERIES_INDEX_BIN_NAME)));
+        Record rootRecord = asClient.operate(rootExistsPolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
+                MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME, mapIndex, MapReturnType.KEY),
+                MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_BIN_NAME, mapIndex, MapReturnType.KEY_VALUE));
+        if (rootRecord == null) return null;
+        Object pageStartTime = rootRecord.getValue(Constants.TIME_SERIES_INDEX_PAGES_BIN_NAME);
+        long[] rootEntry = indexEntryFromKeyValueResult(rootRecord.getValue(Constants.TIME_SERIES_INDEX_BIN_NAME));
+        // Entries held in the root pre-date any held in pages
+        if (pageStartTime == null || (rootEntry != null && mapIndex == 0)) return rootEntry;
+
+        Record pageRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexPage(timeSeriesName, (Long) pageStartTime),
+                MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_BIN_NAME, mapIndex, MapReturnType.KEY_VALUE));
+        return pageRecord != null ? indexEntryFromKeyValueResult(pageRecord.getValue(Constants.TIME_SERIES_INDEX_BIN_NAME)) : rootEntry;
+    }
+
+    /**
+     * Convert the result of a KEY_VALUE map operation on an index map into an index entry
+     *
+     * @param keyValueResult - operation result
+     * @return {block start time, block end time, entry count} - null if no result
+     */
+    private static long[] indexEntryFromKeyValueResult(Object keyValueResult) {
+        if (keyValueResult instanceof List) {
+            List<?> results = (List<?>) keyValueResult;
+            keyValueResult = results.isEmpty() ? null : results.get(0);
+        }
+        if (keyValueResult == null) return null;
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) keyValueResult;
+        long blockStartTime = (Long) entry.getKey();
+        long[] indexEntry = decodeIndexEntry(blockStartTime, entry.getValue());
+        return new long[]{blockStartTime, indexEntry[0], indexEntry[1]};
+    }
+
+    /**
+     * First or last timestamp for a series whose blocks are keyed by time bucket
+     * The index gives the first or last bucket, which is then read for the first or last timestamp it holds
+     *
+     * @param timeSeriesName - time series name
+     * @param mapIndex       - 0 for first timestamp, -1 for last
+     * @return timestamp - Long.MAX_VALUE if series does not exist
+     */
+    private long timeBucketBoundaryTimestamp(String timeSeriesName, int mapIndex) {
+        long[] indexEntry = indexEntryAtBoundary(timeSeriesName, mapIndex);
+        if (indexEntry == null) return Long.MAX_VALUE;
+        Record timestampRecord = asClient.operate(writePolicy, asKeyForHistoricTimeSeriesBlock(timeSeriesName, indexEntry[0]),
+                MapOperation.getByIndex(Constants.TIME_SERIES_BIN_NAME, mapIndex, MapReturnType.KEY));
+        return timestampRecord != null ? timestampRecord.getLong(Constants.TIME_SERIES_BIN_NAME) : Long.MAX_VALUE;
+    }
+
 }
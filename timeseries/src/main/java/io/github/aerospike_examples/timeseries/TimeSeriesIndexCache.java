@@ -0,0 +1,226 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used, in-process cache of the block index for each time series
+ * <p>
+ * Index entries for archived blocks do not change once written, so a cached copy of the index only needs new entries adding.
+ * Each cached index records the start time of the current block when the index was last refreshed. A block is only
+ * added to the index when the current block is archived, which changes the current block start time - so a reader seeing a
+ * different current block start time knows the cached index needs refreshing. Cached indexes are also refreshed once
+ * older than maxAgeMs.
+ * <p>
+ * The cache holds at most maxCachedSeries series and maxCachedIndexEntries index entries in total, discarding the least
+ * recently used series first. A series with more than maxCachedIndexEntries entries is not cached.
+ * <p>
+ * All methods are thread safe
+ */
+class TimeSeriesIndexCache {
+
+    // Recorded current block start time if there was no current block
+    static final long NO_CURRENT_BLOCK = Long.MIN_VALUE;
+
+    // Size limits
+    private final int maxCachedSeries;
+    private final long maxCachedIndexEntries;
+    // Max time a cached index is used for without being refreshed
+    private final long maxAgeMs;
+
+    // Cached indexes by series name, in access order
+    private final LinkedHashMap<String, CachedIndex> cachedIndexes = new LinkedHashMap<>(16, 0.75f, true);
+    // Total index entries held
+    private long cachedIndexEntryCount = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * TimeSeriesIndexCache constructor
+     *
+     * @param maxCachedSeries       - max number of series cached
+     * @param maxCachedIndexEntries - max number of index entries held across all series
+     * @param maxAgeMs              - max time in milliseconds a cached index is used for before it is refreshed
+     */
+    TimeSeriesIndexCache(int maxCachedSeries, long maxCachedIndexEntries, long maxAgeMs) {
+        this.maxCachedSeries = maxCachedSeries;
+        this.maxCachedIndexEntries = maxCachedIndexEntries;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    private static class CachedIndex {
+        // Block start time -> {end time, entry count}
+        private final TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+        // Longest time range covered by a block - blocks starting more than this before a range cannot overlap it
+        private long maxBlockDurationMs = 0;
+        // Start time of the current block when last refreshed - NO_CURRENT_BLOCK if there was none
+        private long currentBlockStartTime;
+        private long refreshTime;
+    }
+
+    /**
+     * Cached index entries for the blocks overlapping startTime to endTime
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of range
+     * @param endTime        - end time of range
+     * @return map of block start time to {end time, entry count} - null if the series is not cached, or needs refreshing
+     */
+    synchronized TreeMap<Long, long[]> indexEntriesForRange(String timeSeriesName, long startTime, long endTime) {
+        CachedIndex cachedIndex = freshCachedIndex(timeSeriesName);
+        if (cachedIndex == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entriesForRange(cachedIndex, startTime, endTime);
+    }
+
+    /**
+     * Whether the current block start time seen by a reader is the one recorded when the cached index was last refreshed
+     * If not, blocks have been archived since, and the cached index needs refreshing
+     *
+     * @param timeSeriesName        - time series name
+     * @param currentBlockStartTime - start time of the current block, NO_CURRENT_BLOCK if there is none
+     * @return true if the series is cached and the current block is unchanged
+     */
+    synchronized boolean isCurrentBlockUnchanged(String timeSeriesName, long currentBlockStartTime) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        return cachedIndex != null && cachedIndex.currentBlockStartTime == currentBlockStartTime;
+    }
+
+    /**
+     * Start time of the last block in the cached index - entries from this block on are re-read by an incremental refresh
+     *
+     * @param timeSeriesName - time series name
+     * @return start time of last cached block - Long.MIN_VALUE if the series is not cached or has no index entries
+     */
+    synchronized long lastIndexEntryStartTime(String timeSeriesName) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        return cachedIndex != null && !cachedIndex.indexEntries.isEmpty() ? cachedIndex.indexEntries.lastKey() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Add index entries read from the database for a series, and record the current block start time seen before they were read
+     * The entries overlapping startTime to endTime are returned. They are returned even if the series is then discarded
+     * to keep within the size limits
+     *
+     * @param timeSeriesName        - time series name
+     * @param indexEntries          - index entries read
+     * @param readFromStartTime     - entries were read for blocks ending at or after this time - the lastIndexEntryStartTime value
+     * @param currentBlockStartTime - current block start time, NO_CURRENT_BLOCK if there was none
+     * @param startTime             - start time of range required
+     * @param endTime               - end time of range required
+     * @return map of block start time to {end time, entry count} for the blocks overlapping startTime to endTime
+     * - null if the series was discarded while the entries were read, so the entries read are incomplete
+     */
+    synchronized TreeMap<Long, long[]> refresh(String timeSeriesName, TreeMap<Long, long[]> indexEntries, long readFromStartTime,
+                                               long currentBlockStartTime, long startTime, long endTime) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        if (cachedIndex == null) {
+            if (readFromStartTime != Long.MIN_VALUE) return null;
+            cachedIndex = new CachedIndex();
+            cachedIndexes.put(timeSeriesName, cachedIndex);
+        }
+        for (Map.Entry<Long, long[]> entry : indexEntries.entrySet()) put(cachedIndex, entry.getKey(), entry.getValue());
+        cachedIndex.currentBlockStartTime = currentBlockStartTime;
+        cachedIndex.refreshTime = System.currentTimeMillis();
+        TreeMap<Long, long[]> indexEntriesForRange = entriesForRange(cachedIndex, startTime, endTime);
+        evict();
+        return indexEntriesForRange;
+    }
+
+    /**
+     * Record a block added to the index by this client. Ignored if the series is not cached
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - block start time
+     * @param indexEntry     - index entry, as given by TimeSeriesClient.decodeIndexEntry
+     */
+    synchronized void addIndexEntry(String timeSeriesName, long startTime, long[] indexEntry) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        if (cachedIndex == null) return;
+        put(cachedIndex, startTime, indexEntry);
+        evict();
+    }
+
+    /**
+     * Update the entry count for a cached block, following a change made by this client. Ignored if the block is not cached
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - block start time
+     * @param entryCount     - number of data points now in the block
+     */
+    synchronized void updateEntryCount(String timeSeriesName, long startTime, long entryCount) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        long[] indexEntry = cachedIndex != null ? cachedIndex.indexEntries.get(startTime) : null;
+        if (indexEntry != null) cachedIndex.indexEntries.put(startTime, new long[]{indexEntry[0], entryCount});
+    }
+
+    /**
+     * Number of lookups answered from the cache
+     *
+     * @return hit count
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of lookups for series not cached, or needing refresh
+     *
+     * @return miss count
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Start time of the first block in the cached index. Entries for archived blocks do not change, so this does not need refreshing
+     *
+     * @param timeSeriesName - time series name
+     * @return start time of first cached block - Long.MAX_VALUE if the series is not cached or has no index entries
+     */
+    synchronized long firstIndexEntryStartTime(String timeSeriesName) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        return cachedIndex != null && !cachedIndex.indexEntries.isEmpty() ? cachedIndex.indexEntries.firstKey() : Long.MAX_VALUE;
+    }
+
+    private void put(CachedIndex cachedIndex, long startTime, long[] indexEntry) {
+        if (cachedIndex.indexEntries.put(startTime, indexEntry) == null) cachedIndexEntryCount++;
+        // Block durations are at least zero, so overflow gives a negative value - treat as unbounded
+        long blockDurationMs = indexEntry[0] - startTime;
+        cachedIndex.maxBlockDurationMs = blockDurationMs < 0 ? Long.MAX_VALUE : Math.max(cachedIndex.maxBlockDurationMs, blockDurationMs);
+    }
+
+    private static TreeMap<Long, long[]> entriesForRange(CachedIndex cachedIndex, long startTime, long endTime) {
+        TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+        // Only blocks starting between startTime - maxBlockDurationMs and endTime can overlap the range
+        long earliestStartTime = startTime < Long.MIN_VALUE + cachedIndex.maxBlockDurationMs ?
+                Long.MIN_VALUE : startTime - cachedIndex.maxBlockDurationMs;
+        if (earliestStartTime > endTime) return indexEntries;
+        for (Map.Entry<Long, long[]> entry : cachedIndex.indexEntries.subMap(earliestStartTime, true, endTime, true).entrySet()) {
+            if (entry.getValue()[0] >= startTime) indexEntries.put(entry.getKey(), entry.getValue());
+        }
+        return indexEntries;
+    }
+
+    private CachedIndex freshCachedIndex(String timeSeriesName) {
+        CachedIndex cachedIndex = cachedIndexes.get(timeSeriesName);
+        if (cachedIndex == null || System.currentTimeMillis() - cachedIndex.refreshTime > maxAgeMs) return null;
+        return cachedIndex;
+    }
+
+    // Discard least recently used series until within size limits
+    private void evict() {
+        Iterator<CachedIndex> iterator = cachedIndexes.values().iterator();
+        while (iterator.hasNext() && (cachedIndexes.size() > maxCachedSeries || cachedIndexEntryCount > maxCachedIndexEntries)) {
+            cachedIndexEntryCount -= iterator.next().indexEntries.size();
+            iterator.remove();
+        }
+    }
+}
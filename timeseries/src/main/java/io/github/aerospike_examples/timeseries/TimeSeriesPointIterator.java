@@ -0,0 +1,198 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRead;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.GorillaCodec;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Iterator over the data points of a time series between two times, fetching blocks a few at a time
+ * <p>
+ * The range is read in fetches of at most blocksPerFetch blocks, each a single batch read. While the points from one fetch
+ * are consumed, the next is made in the background, so at most two fetches are held in memory however long the range.
+ * <p>
+ * Index entries are read a window of index pages at a time. The window starts at a single page, and is widened while
+ * windows hold fewer than blocksPerFetch blocks, so sparse series do not need a round trip per page. A window holding
+ * no blocks is extended to the next index page that exists, so gaps in the series - and open ended ranges - are skipped.
+ * Blocks keyed by time bucket are found the same way, as they are also indexed.
+ * <p>
+ * Instances are not thread safe. Create via TimeSeriesClient.iterator
+ */
+class TimeSeriesPointIterator implements Iterator<DataPoint> {
+
+    private final TimeSeriesClient timeSeriesClient;
+    private final String timeSeriesName;
+    private final long endTime;
+    private final int blocksPerFetch;
+    private final Executor prefetchExecutor;
+
+    // Points being consumed, and the position of the next one
+    private TimeSeriesPoints points = TimeSeriesPoints.EMPTY;
+    private int position = 0;
+    // Fetch in progress - null once the end of the range has been fetched
+    private CompletableFuture<Fetch> nextFetch;
+
+    // Fetch state - only used by fetches, which run one after another
+    // Index entries for the blocks in the current index window not yet fully fetched
+    private TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+    // End of the current index window - the start time of the next fetch is after this if a new window is needed
+    private long indexWindowEndTime;
+    private int indexWindowPageCount = 1;
+
+    /**
+     * TimeSeriesPointIterator constructor. The first fetch is started straight away
+     *
+     * @param timeSeriesClient - client to read with
+     * @param timeSeriesName   - time series name
+     * @param startTime        - start time of range
+     * @param endTime          - end time of range
+     * @param blocksPerFetch   - max number of blocks read by each fetch
+     * @param prefetchExecutor - executor used to make fetches
+     */
+    TimeSeriesPointIterator(TimeSeriesClient timeSeriesClient, String timeSeriesName, long startTime, long endTime,
+                            int blocksPerFetch, Executor prefetchExecutor) {
+        this.timeSeriesClient = timeSeriesClient;
+        this.timeSeriesName = timeSeriesName;
+        this.endTime = endTime;
+        this.blocksPerFetch = blocksPerFetch;
+        this.prefetchExecutor = prefetchExecutor;
+        indexWindowEndTime = startTime - 1;
+        if (endTime >= startTime) nextFetch = CompletableFuture.supplyAsync(() -> fetch(startTime), prefetchExecutor);
+    }
+
+    // Points read by a single fetch
+    private static class Fetch {
+        private final TimeSeriesPoints points;
+        // Start time for the next fetch - Long.MIN_VALUE if the end of the range has been reached
+        private final long nextStartTime;
+
+        private Fetch(TimeSeriesPoints points, long nextStartTime) {
+            this.points = points;
+            this.nextStartTime = nextStartTime;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position == points.size()) {
+            if (nextFetch == null) return false;
+            Fetch fetch = join(nextFetch);
+            points = fetch.points;
+            position = 0;
+            // Start the next fetch while these points are consumed
+            nextFetch = fetch.nextStartTime == Long.MIN_VALUE ? null :
+                    CompletableFuture.supplyAsync(() -> fetch(fetch.nextStartTime), prefetchExecutor);
+        }
+        return true;
+    }
+
+    @Override
+    public DataPoint next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return points.getDataPoint(position++);
+    }
+
+    /**
+     * Pass the remaining points to a consumer, without creating a DataPoint object for each
+     *
+     * @param consumer - consumer of the points, which arrive in timestamp order
+     */
+    void consumeRemaining(GorillaCodec.DataPointConsumer consumer) {
+        while (hasNext()) {
+            for (; position < points.size(); position++) consumer.accept(points.getTimestamp(position), points.getValue(position));
+        }
+    }
+
+    /**
+     * Read the points from startTime on, up to the end of the range or the end of the first blocksPerFetch blocks
+     *
+     * @param startTime - start time for this fetch
+     * @return points read and start time for the next fetch
+     */
+    private Fetch fetch(long startTime) {
+        if (startTime > indexWindowEndTime) readIndexWindow(startTime);
+        long fetchEndTime = indexFetchEndTime(startTime);
+        List<BatchRead> batchReads = batchReadsForIndexEntries(startTime, fetchEndTime);
+        TimeSeriesPoints fetchPoints = TimeSeriesClient.timeSeriesPointsFromBlocks(timeSeriesClient.get(batchReads), startTime, fetchEndTime);
+        return new Fetch(fetchPoints, fetchEndTime >= endTime ? Long.MIN_VALUE : fetchEndTime + 1);
+    }
+
+    /**
+     * End time for a fetch using the index - the end of the index window, or just before the first block beyond blocksPerFetch blocks
+     *
+     * @param startTime - start time for this fetch
+     * @return end time for this fetch
+     */
+    private long indexFetchEndTime(long startTime) {
+        if (indexEntries.size() <= blocksPerFetch) return indexWindowEndTime;
+        Iterator<Long> blockStartTimes = indexEntries.keySet().iterator();
+        for (int i = 0; i < blocksPerFetch; i++) blockStartTimes.next();
+        return Math.max(startTime, blockStartTimes.next() - 1);
+    }
+
+    /**
+     * Batch reads for the blocks from the index window overlapping startTime to fetchEndTime, plus the current block if needed
+     * Blocks ending by fetchEndTime are discarded from the window. Others are read again, trimmed, by the next fetch
+     *
+     * @param startTime    - start time for this fetch
+     * @param fetchEndTime - end time for this fetch
+     * @return batch reads
+     */
+    private List<BatchRead> batchReadsForIndexEntries(long startTime, long fetchEndTime) {
+        TreeMap<Long, long[]> fetchIndexEntries = new TreeMap<>(indexEntries.headMap(fetchEndTime, true));
+        indexEntries.values().removeIf(indexEntry -> indexEntry[0] <= fetchEndTime);
+        return timeSeriesClient.batchReadsForIndexEntries(timeSeriesName, fetchIndexEntries, startTime, fetchEndTime);
+    }
+
+    /**
+     * Read the index entries for the window of index pages starting with the page containing startTime
+     * The window is widened for the next read if this one holds too few blocks to fill a fetch, otherwise reset to a single page
+     * <p>
+     * If the window holds no blocks, no block overlaps the time between it and the next index page that exists, so the window is
+     * extended up to that page - or to the end of the range if there is none, any remaining points being in the current block
+     *
+     * @param startTime - start time of window
+     */
+    private void readIndexWindow(long startTime) {
+        long pageDurationMs = timeSeriesClient.getIndexPageDurationMs();
+        indexWindowEndTime = windowEndTime(timeSeriesClient.indexPageStartTime(startTime), pageDurationMs, indexWindowPageCount);
+        indexEntries = timeSeriesClient.indexEntriesForRange(timeSeriesName, startTime, indexWindowEndTime);
+        if (indexEntries.isEmpty() && indexWindowEndTime < endTime) {
+            long nextIndexedStartTime = timeSeriesClient.nextIndexedStartTime(timeSeriesName, indexWindowEndTime);
+            indexWindowEndTime = nextIndexedStartTime > endTime ? endTime : Math.max(indexWindowEndTime, nextIndexedStartTime - 1);
+        }
+        indexWindowPageCount = indexEntries.size() < blocksPerFetch ?
+                Math.min(indexWindowPageCount * 2, Constants.MAX_INDEX_PAGES_READ_WITHOUT_ROOT) : 1;
+    }
+
+    /**
+     * End of a window of periodCount index pages starting at windowStartTime, limited to the end of the range
+     *
+     * @param windowStartTime - start time of window
+     * @param periodMs        - index page duration
+     * @param periodCount     - number of index pages
+     * @return window end time
+     */
+    private long windowEndTime(long windowStartTime, long periodMs, int periodCount) {
+        // Treat overflow as unbounded
+        long windowDurationMs = periodMs * periodCount;
+        if (windowDurationMs / periodCount != periodMs || windowStartTime > Long.MAX_VALUE - windowDurationMs) return endTime;
+        return Math.min(endTime, windowStartTime + windowDurationMs - 1);
+    }
+
+    private static Fetch join(CompletableFuture<Fetch> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new AerospikeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * Columnar query result - timestamps and values held in primitive arrays, in timestamp order
+ * <p>
+ * Large query results held as DataPoint[] require an object per point. TimeSeriesPoints holds the same data in two arrays,
+ * so a result of any size is three objects. Use TimeSeriesClient.getTimeSeriesPoints to obtain one.
+ */
+public class TimeSeriesPoints {
+
+    // Result with no data points
+    static final TimeSeriesPoints EMPTY = new TimeSeriesPoints(new long[0], new double[0]);
+
+    private final long[] timestamps;
+    private final double[] values;
+
+    /**
+     * TimeSeriesPoints constructor. Arrays are not copied, and must be the same length
+     *
+     * @param timestamps - timestamps, in ascending order with no duplicates
+     * @param values     - values corresponding to timestamps
+     */
+    TimeSeriesPoints(long[] timestamps, double[] values) {
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    /**
+     * Number of data points
+     *
+     * @return data point count
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Timestamp of the i'th data point
+     *
+     * @param i - index of data point
+     * @return timestamp
+     */
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    /**
+     * Value of the i'th data point
+     *
+     * @param i - index of data point
+     * @return value
+     */
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * All timestamps, in ascending order. The array is not copied so should not be modified
+     *
+     * @return timestamps
+     */
+    @SuppressWarnings("unused") // Required in API
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * All values, in timestamp order. The array is not copied so should not be modified
+     *
+     * @return values
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * The i'th data point as a DataPoint object
+     *
+     * @param i - index of data point
+     * @return data point
+     */
+    public DataPoint getDataPoint(int i) {
+        return new DataPoint(timestamps[i], values[i]);
+    }
+
+    /**
+     * Data points as DataPoint objects
+     *
+     * @return DataPoint[] in timestamp order
+     */
+    public DataPoint[] toDataPoints() {
+        DataPoint[] dataPoints = new DataPoint[timestamps.length];
+        for (int i = 0; i < dataPoints.length; i++) dataPoints[i] = getDataPoint(i);
+        return dataPoints;
+    }
+
+    /**
+     * Merge sorted runs of points into a single sorted result, removing duplicate timestamps
+     * Where a timestamp appears in more than one run, the point from the earliest run is kept
+     * <p>
+     * Runs that follow each other in time - the usual case, as blocks are archived in time order - are simply concatenated.
+     * Otherwise a k-way merge is done using a heap of run indexes
+     *
+     * @param runTimestamps - timestamps for each run, each in ascending order with no duplicates. Empty runs may be null
+     * @param runValues     - values for each run
+     * @param runLengths    - number of points in each run - runs may be shorter than their arrays
+     * @return merged points
+     */
+    static TimeSeriesPoints merge(long[][] runTimestamps, double[][] runValues, int[] runLengths) {
+        int runCount = runLengths.length;
+        int totalLength = 0;
+        boolean ordered = true;
+        long previousLastTimestamp = Long.MIN_VALUE;
+        boolean seenPoint = false;
+        for (int run = 0; run < runCount; run++) {
+            if (runLengths[run] == 0) continue;
+            totalLength += runLengths[run];
+            if (seenPoint && runTimestamps[run][0] <= previousLastTimestamp) ordered = false;
+            previousLastTimestamp = runTimestamps[run][runLengths[run] - 1];
+            seenPoint = true;
+        }
+        long[] timestamps = new long[totalLength];
+        double[] values = new double[totalLength];
+        if (ordered) {
+            int position = 0;
+            for (int run = 0; run < runCount; run++) {
+                if (runLengths[run] == 0) continue;
+                System.arraycopy(runTimestamps[run], 0, timestamps, position, runLengths[run]);
+                System.arraycopy(runValues[run], 0, values, position, runLengths[run]);
+                position += runLengths[run];
+            }
+            return new TimeSeriesPoints(timestamps, values);
+        }
+
+        // Heap of runs with points remaining, ordered by next timestamp then run index
+        int[] heap = new int[runCount];
+        int[] runPositions = new int[runCount];
+        int heapSize = 0;
+        for (int run = 0; run < runCount; run++) {
+            if (runLengths[run] > 0) {
+                heap[heapSize++] = run;
+                siftUp(heap, heapSize - 1, runTimestamps, runPositions);
+            }
+        }
+        int length = 0;
+        while (heapSize > 0) {
+            int run = heap[0];
+            long timestamp = runTimestamps[run][runPositions[run]];
+            // Runs are taken in index order for equal timestamps, so the earliest run's point is kept
+            if (length == 0 || timestamps[length - 1] != timestamp) {
+                timestamps[length] = timestamp;
+                values[length] = runValues[run][runPositions[run]];
+                length++;
+            }
+            if (++runPositions[run] == runLengths[run]) heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, runTimestamps, runPositions);
+        }
+        return length == totalLength ? new TimeSeriesPoints(timestamps, values) :
+                new TimeSeriesPoints(Arrays.copyOf(timestamps, length), Arrays.copyOf(values, length));
+    }
+
+    // Heap ordering - by next timestamp, then by run index
+    private static boolean isBefore(int run1, int run2, long[][] runTimestamps, int[] runPositions) {
+        long timestamp1 = runTimestamps[run1][runPositions[run1]];
+        long timestamp2 = runTimestamps[run2][runPositions[run2]];
+        return timestamp1 < timestamp2 || (timestamp1 == timestamp2 && run1 < run2);
+    }
+
+    private static void siftUp(int[] heap, int position, long[][] runTimestamps, int[] runPositions) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!isBefore(heap[position], heap[parent], runTimestamps, runPositions)) return;
+            swap(heap, position, parent);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int heapSize, long[][] runTimestamps, int[] runPositions) {
+        int position = 0;
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < heapSize && isBefore(heap[left], heap[smallest], runTimestamps, runPositions)) smallest = left;
+            if (right < heapSize && isBefore(heap[right], heap[smallest], runTimestamps, runPositions)) smallest = right;
+            if (smallest == position) return;
+            swap(heap, position, smallest);
+            position = smallest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int temp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = temp;
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded heap holding the K series with the highest query results offered to it - see TimeSeriesClient.runTopKQuery
+ * <p>
+ * The lowest of the K results is at the head of the heap, so each offer takes O(log K) time and memory is O(K) however
+ * many series are offered. Once K results are held, the lowest is the threshold a series must beat to be worth querying.
+ * <p>
+ * Instances are thread safe, being shared by the tasks of a top-K query
+ */
+class TopKHeap {
+
+    // Lowest result first. Ties broken by name, so the series kept do not depend on the order results arrive in
+    private static final Comparator<Map.Entry<String, Double>> LOWEST_FIRST =
+            Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey(Comparator.reverseOrder()));
+
+    private final int k;
+    private final PriorityQueue<Map.Entry<String, Double>> heap;
+
+    /**
+     * TopKHeap constructor
+     *
+     * @param k - number of results to keep
+     */
+    TopKHeap(int k) {
+        this.k = k;
+        this.heap = new PriorityQueue<>(k, LOWEST_FIRST);
+    }
+
+    /**
+     * Offer the result for a series. NaN results, from series with too few points for the operation, are ignored
+     *
+     * @param timeSeriesName - time series name
+     * @param result         - query result for the series
+     */
+    synchronized void offer(String timeSeriesName, double result) {
+        if (Double.isNaN(result)) return;
+        Map.Entry<String, Double> entry = new AbstractMap.SimpleImmutableEntry<>(timeSeriesName, result);
+        if (heap.size() < k) {
+            heap.add(entry);
+        } else if (LOWEST_FIRST.compare(entry, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    /**
+     * Result a series must exceed to enter the heap
+     *
+     * @return lowest result held - Double.NEGATIVE_INFINITY if fewer than K are held
+     */
+    synchronized double threshold() {
+        return heap.size() < k ? Double.NEGATIVE_INFINITY : heap.peek().getValue();
+    }
+
+    /**
+     * Results held
+     *
+     * @return results keyed by time series name, highest first
+     */
+    synchronized Map<String, Double> results() {
+        List<Map.Entry<String, Double>> entries = new ArrayList<>(heap);
+        entries.sort(LOWEST_FIRST.reversed());
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : entries) results.put(entry.getKey(), entry.getValue());
+        return results;
+    }
+}
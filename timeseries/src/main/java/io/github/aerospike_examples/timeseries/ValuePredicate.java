@@ -0,0 +1,107 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Operation;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapReturnType;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+/**
+ * Condition on the value of a data point, used by TimeSeriesClient.getPoints(String, Date, Date, ValuePredicate) to select points
+ * on the server. Held as an inclusive range of values - greaterThan and lessThan exclude their threshold
+ */
+public class ValuePredicate {
+
+    private final double minValue;
+    private final double maxValue;
+
+    private ValuePredicate(double minValue, double maxValue) {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Points with a value greater than a threshold
+     *
+     * @param value - threshold
+     * @return predicate
+     */
+    public static ValuePredicate greaterThan(double value) {
+        if (Double.isNaN(value)) throw new IllegalArgumentException("value must not be NaN");
+        return new ValuePredicate(Math.nextUp(value), Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Points with a value less than a threshold
+     *
+     * @param value - threshold
+     * @return predicate
+     */
+    public static ValuePredicate lessThan(double value) {
+        if (Double.isNaN(value)) throw new IllegalArgumentException("value must not be NaN");
+        return new ValuePredicate(Double.NEGATIVE_INFINITY, Math.nextDown(value));
+    }
+
+    /**
+     * Points with a value between two values (inclusive)
+     *
+     * @param minValue - lowest value selected
+     * @param maxValue - highest value selected
+     * @return predicate
+     */
+    public static ValuePredicate between(double minValue, double maxValue) {
+        if (!(minValue <= maxValue)) throw new IllegalArgumentException("minValue must not be greater than maxValue");
+        return new ValuePredicate(minValue, maxValue);
+    }
+
+    /**
+     * Lowest value selected
+     *
+     * @return min value - Double.NEGATIVE_INFINITY if there is no lower limit
+     */
+    public double getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * Highest value selected
+     *
+     * @return max value - Double.POSITIVE_INFINITY if there is no upper limit
+     */
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Whether a value is selected
+     *
+     * @param value - value
+     * @return true if selected
+     */
+    public boolean test(double value) {
+        return value >= minValue && value <= maxValue;
+    }
+
+    /**
+     * Whether any value between two values may be selected - used to pass over blocks using the min and max in their summary
+     *
+     * @param min - least value
+     * @param max - greatest value
+     * @return true if some value from min to max is selected
+     */
+    boolean overlaps(double min, double max) {
+        return max >= minValue && min <= maxValue;
+    }
+
+    /**
+     * Operation reading the selected points from a block held as a map - as a list of map entries, in value order
+     *
+     * @return the operation required
+     */
+    Operation opForSelectedPoints() {
+        // Start of value range is inclusive, and null means no lower limit. End is exclusive, and null means no upper limit
+        return MapOperation.getByValueRange(Constants.TIME_SERIES_BIN_NAME,
+                minValue == Double.NEGATIVE_INFINITY ? null : new Value.DoubleValue(minValue),
+                maxValue == Double.POSITIVE_INFINITY ? null : new Value.DoubleValue(Math.nextUp(maxValue)), MapReturnType.KEY_VALUE);
+    }
+}
@@ -22,11 +22,56 @@ public final class Constants {
      */
     public final static String TIME_SERIES_BIN_NAME = "tsSeries";
 
+    /**
+     * Bin in which we store compressed time series data for historic blocks, if compression is enabled - bin = tsCompressed
+     */
+    public final static String COMPRESSED_TIME_SERIES_BIN_NAME = "tsCompressed";
+
+    /**
+     * Bin in which we store the quantile sketch for historic blocks - bin = tsSketch
+     */
+    public final static String QUANTILE_SKETCH_BIN_NAME = "tsSketch";
+
+    /**
+     * Bin used to mark a current block as being archived, holding the time the claim was made - bin = rolloverClaim
+     */
+    public final static String ROLLOVER_CLAIM_BIN_NAME = "rolloverClaim";
+
+    /**
+     * Bin in which we store rollup buckets, in the sets used for rollup tiers - bin = tsRollups
+     */
+    public final static String ROLLUP_BIN_NAME = "tsRollups";
+
+    /**
+     * Bin in rollup records holding the start times of the latest blocks added to them, so no block is added twice - bin = tsRollupBlocks
+     */
+    public final static String ROLLUP_BLOCKS_BIN_NAME = "tsRollupBlocks";
+
     /**
      * Bin in which we store time series index data - bin = tsIndex
      */
     public final static String TIME_SERIES_INDEX_BIN_NAME = "tsIndex";
 
+    /**
+     * Bin in the root index record listing the index pages for a series - bin = tsIndexPages
+     */
+    public final static String TIME_SERIES_INDEX_PAGES_BIN_NAME = "tsIndexPages";
+
+    /**
+     * Bin in the root index record holding index entries for blocks that span more than one index page - bin = tsIndexSpanning
+     */
+    public final static String TIME_SERIES_SPANNING_BLOCKS_BIN_NAME = "tsIndexSpanning";
+
+    /**
+     * Bin in the root index record holding the tags for a series - bin = tsTags
+     */
+    public final static String TAGS_BIN_NAME = "tsTags";
+
+    /**
+     * Bin in each tag index record holding the names of the series with that tag - bin = tsTagSeries
+     */
+    public final static String TAG_INDEX_BIN_NAME = "tsTagSeries";
+
     /**
      * Field name used when storing time series name - = TimeSeriesName
      */
@@ -63,6 +108,96 @@ public final class Constants {
      */
     public final static int DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK = 1000;
 
+    /**
+     * A full current block waiting to be archived takes further points, up to this multiple of the max entries per block.
+     * Beyond this the writer archives the block itself before writing more - = 2
+     */
+    public final static int MAX_CURRENT_BLOCK_OVERFLOW_FACTOR = 2;
+
+    /**
+     * Time a writer waits before retrying the archive of a current block at its overflow limit, while another client holds
+     * the claim on it, in milliseconds - = 10
+     */
+    public final static long OVERFLOW_ROLLOVER_RETRY_MS = 10;
+
+    /**
+     * Default number of points a TimeSeriesBufferedWriter will hold for a series before writing them - = 100
+     */
+    public final static int DEFAULT_BUFFERED_WRITER_MAX_POINTS_PER_SERIES = 100;
+
+    /**
+     * Default time a TimeSeriesBufferedWriter will hold points for before writing them, in milliseconds - = 1000
+     */
+    public final static long DEFAULT_BUFFERED_WRITER_LINGER_MS = 1000;
+
+    /**
+     * Default number of series TimeSeriesClient.put(Map) will write concurrently - = 16
+     */
+    public final static int DEFAULT_MULTI_SERIES_WRITE_PARALLELISM = 16;
+
+    /**
+     * Default duration of the time range covered by each index page - = 1 day
+     */
+    public final static long DEFAULT_INDEX_PAGE_DURATION_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Default max number of blocks read by each fetch made by TimeSeriesClient.iterator and TimeSeriesClient.stream - = 10
+     */
+    public final static int DEFAULT_BLOCKS_PER_FETCH = 10;
+
+    /**
+     * Max number of index pages read using keys calculated from the time range. Wider ranges use the root index record to find the pages that exist - = 100
+     */
+    public final static int MAX_INDEX_PAGES_READ_WITHOUT_ROOT = 100;
+
+    /**
+     * Number of records the tag index entry for each tag value is split across, by a hash of the series name, so a tag value
+     * held by many series does not reach the record size limit. Must be the same for every client using a given set - = 16
+     */
+    public final static int TAG_INDEX_SHARD_COUNT = 16;
+
+    /**
+     * Max number of time buckets read by getPoints using keys calculated from the time range. Wider ranges use the index to find the buckets that exist - = 1000
+     */
+    public final static int MAX_TIME_BUCKETS_READ_WITHOUT_INDEX = 1000;
+
+    /**
+     * Max number of series for which a client remembers the last time bucket it added to the index. Past this the record is
+     * cleared, and buckets are added to the index again on their next write - = 100000
+     */
+    public final static int MAX_INDEXED_TIME_BUCKET_SERIES = 100000;
+
+    /**
+     * Number of buckets held in each rollup record - e.g. a day of one minute buckets - = 1440
+     */
+    public final static int ROLLUP_BUCKETS_PER_RECORD = 1440;
+
+    /**
+     * Number of block start times held in each rollup record. A block can only be archived again once its predecessors in
+     * the current block have been, so only the latest few need holding - = 16
+     */
+    public final static int ROLLUP_BLOCKS_HELD_PER_RECORD = 16;
+
+    /**
+     * Max number of rollup records read by getRollups using keys calculated from the time range. Wider ranges are first limited to the span of the series - = 1000
+     */
+    public final static int MAX_ROLLUP_RECORDS_READ_WITHOUT_BOUNDS = 1000;
+
+    /**
+     * Relative accuracy of the quantile estimates given by percentile queries e.g. QueryOperation.P99 - = 0.01 i.e. within 1%
+     */
+    public final static double QUANTILE_SKETCH_RELATIVE_ACCURACY = 0.01;
+
+    /**
+     * Number of series each task of a top-K query bounds and queries - tasks run concurrently - = 1000
+     */
+    public final static int TOP_K_QUERY_SERIES_PER_TASK = 1000;
+
+    /**
+     * Number of series queried in each round of a top-K query task. Series whose bound cannot beat the K results found so far are not queried - = 100
+     */
+    public final static int TOP_K_QUERY_SERIES_PER_ROUND = 100;
+
     /**
      * Converting seconds to milliseconds and back again is so prevalent, best to make it a constant for clarity
      */
@@ -0,0 +1,288 @@
+package io.github.aerospike_examples.timeseries.util;
+
+import java.util.Arrays;
+
+/**
+ * Encoder / decoder for compressed time series blocks, following the approach described in the Facebook Gorilla paper
+ * (https://www.vldb.org/pvldb/vol8/p1816-teller.pdf)
+ * <p>
+ * Timestamps are stored using delta-of-delta encoding and values are stored as the XOR of each value with its predecessor.
+ * Regularly spaced, slowly changing series compress to a small number of bits per data point.
+ * </p>
+ * <p>
+ * Layout is
+ * <ul>
+ *     <li>1 byte format version</li>
+ *     <li>4 bytes data point count</li>
+ *     <li>64 bits first timestamp, 64 bits first value</li>
+ *     <li>For each subsequent data point, the delta-of-delta timestamp encoding followed by the XOR value encoding</li>
+ * </ul>
+ */
+public final class GorillaCodec {
+
+    /**
+     * Format version written as the first byte of every encoded block
+     */
+    private static final byte FORMAT_VERSION = 1;
+
+    // Header is version byte + 4 byte count
+    private static final int HEADER_SIZE_BYTES = 5;
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * Encode a series of data points
+     * Timestamps are expected to be in ascending order - as they would be when read from a key ordered map
+     *
+     * @param timestamps timestamps of the data points
+     * @param values     values of the data points
+     * @param count      number of data points to encode, taken from the start of the arrays
+     * @return encoded block as a byte[]
+     */
+    public static byte[] encode(long[] timestamps, double[] values, int count) {
+        BitWriter writer = new BitWriter(HEADER_SIZE_BYTES + 2 * Long.BYTES + count * 3);
+        writer.writeBits(FORMAT_VERSION, 8);
+        writer.writeBits(count, 32);
+        if (count == 0) return writer.toByteArray();
+
+        writer.writeBits(timestamps[0], 64);
+        writer.writeBits(Double.doubleToRawLongBits(values[0]), 64);
+
+        long previousTimestamp = timestamps[0];
+        long previousDelta = 0;
+        long previousValueBits = Double.doubleToRawLongBits(values[0]);
+        // Leading / trailing zero counts of the last 'meaningful bits' window written for values
+        int previousLeadingZeros = Integer.MAX_VALUE;
+        int previousTrailingZeros = 0;
+
+        for (int i = 1; i < count; i++) {
+            // Timestamp - delta of delta
+            long delta = timestamps[i] - previousTimestamp;
+            writeDeltaOfDelta(writer, delta - previousDelta);
+            previousDelta = delta;
+            previousTimestamp = timestamps[i];
+
+            // Value - XOR with previous value
+            long valueBits = Double.doubleToRawLongBits(values[i]);
+            long xor = valueBits ^ previousValueBits;
+            previousValueBits = valueBits;
+            if (xor == 0) {
+                writer.writeBit(false);
+            } else {
+                writer.writeBit(true);
+                int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailingZeros = Long.numberOfTrailingZeros(xor);
+                if (leadingZeros >= previousLeadingZeros && trailingZeros >= previousTrailingZeros) {
+                    // Meaningful bits fit inside the previous window - re-use it
+                    writer.writeBit(false);
+                    writer.writeBits(xor >>> previousTrailingZeros, 64 - previousLeadingZeros - previousTrailingZeros);
+                } else {
+                    int meaningfulBits = 64 - leadingZeros - trailingZeros;
+                    writer.writeBit(true);
+                    writer.writeBits(leadingZeros, 5);
+                    // 64 meaningful bits is stored as zero - 6 bits are not enough to hold 64
+                    writer.writeBits(meaningfulBits == 64 ? 0 : meaningfulBits, 6);
+                    writer.writeBits(xor >>> trailingZeros, meaningfulBits);
+                    previousLeadingZeros = leadingZeros;
+                    previousTrailingZeros = trailingZeros;
+                }
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Number of data points held in an encoded block
+     *
+     * @param encodedBlock block produced by encode
+     * @return data point count
+     */
+    public static int dataPointCount(byte[] encodedBlock) {
+        checkFormat(encodedBlock);
+        return (int) new BitReader(encodedBlock, 8).readBits(32);
+    }
+
+    /**
+     * Receives the data points of a block as it is decoded
+     */
+    public interface DataPointConsumer {
+        /**
+         * Called for each data point, in block order
+         *
+         * @param timestamp timestamp of the data point
+         * @param value     value of the data point
+         */
+        void accept(long timestamp, double value);
+    }
+
+    /**
+     * Decode a block produced by encode into the supplied arrays
+     * The arrays must be at least dataPointCount(encodedBlock) in length
+     *
+     * @param encodedBlock block produced by encode
+     * @param timestamps   array to receive the timestamps
+     * @param values       array to receive the values
+     * @return number of data points decoded
+     */
+    public static int decode(byte[] encodedBlock, long[] timestamps, double[] values) {
+        int[] position = new int[1];
+        decode(encodedBlock, (timestamp, value) -> {
+            timestamps[position[0]] = timestamp;
+            values[position[0]++] = value;
+        });
+        return position[0];
+    }
+
+    /**
+     * Decode a block produced by encode, passing each data point to a consumer rather than storing it
+     *
+     * @param encodedBlock block produced by encode
+     * @param consumer     receives each data point in turn
+     * @return number of data points decoded
+     */
+    public static int decode(byte[] encodedBlock, DataPointConsumer consumer) {
+        checkFormat(encodedBlock);
+        BitReader reader = new BitReader(encodedBlock, 8);
+        int count = (int) reader.readBits(32);
+        if (count == 0) return 0;
+
+        long timestamp = reader.readBits(64);
+        long valueBits = reader.readBits(64);
+        consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+
+        long delta = 0;
+        int leadingZeros = 0;
+        int trailingZeros = 0;
+
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(reader);
+            timestamp += delta;
+
+            if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leadingZeros = (int) reader.readBits(5);
+                    int meaningfulBits = (int) reader.readBits(6);
+                    if (meaningfulBits == 0) meaningfulBits = 64;
+                    trailingZeros = 64 - leadingZeros - meaningfulBits;
+                }
+                valueBits ^= reader.readBits(64 - leadingZeros - trailingZeros) << trailingZeros;
+            }
+            consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+        }
+        return count;
+    }
+
+    /*
+        Delta of delta buckets. Control bits are followed by a zig-zag encoded value of the given width
+        0       -> delta of delta is zero
+        10      -> 7 bits
+        110     -> 9 bits
+        1110    -> 12 bits
+        11110   -> 32 bits
+        11111   -> 64 bits
+     */
+    private static final int[] DELTA_OF_DELTA_BUCKET_WIDTHS = new int[]{7, 9, 12, 32};
+
+    private static void writeDeltaOfDelta(BitWriter writer, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writer.writeBit(false);
+            return;
+        }
+        long zigZag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+        for (int width : DELTA_OF_DELTA_BUCKET_WIDTHS) {
+            writer.writeBit(true);
+            if ((zigZag >>> width) == 0) {
+                writer.writeBit(false);
+                writer.writeBits(zigZag, width);
+                return;
+            }
+        }
+        writer.writeBit(true);
+        writer.writeBits(zigZag, 64);
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (!reader.readBit()) return 0;
+        int width = 64;
+        for (int bucketWidth : DELTA_OF_DELTA_BUCKET_WIDTHS) {
+            if (!reader.readBit()) {
+                width = bucketWidth;
+                break;
+            }
+        }
+        long zigZag = reader.readBits(width);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    private static void checkFormat(byte[] encodedBlock) {
+        if (encodedBlock.length < HEADER_SIZE_BYTES || encodedBlock[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unrecognised compressed time series block format");
+        }
+    }
+
+    /**
+     * Append-only bit buffer, most significant bit first
+     */
+    private static class BitWriter {
+        private byte[] buffer;
+        private int bitPosition = 0;
+
+        BitWriter(int initialSizeBytes) {
+            buffer = new byte[Math.max(initialSizeBytes, 16)];
+        }
+
+        void writeBit(boolean bit) {
+            ensureCapacity(1);
+            if (bit) buffer[bitPosition >>> 3] |= (byte) (0x80 >>> (bitPosition & 7));
+            bitPosition++;
+        }
+
+        // Write the lowest 'width' bits of value
+        void writeBits(long value, int width) {
+            ensureCapacity(width);
+            for (int i = width - 1; i >= 0; i--) {
+                if (((value >>> i) & 1) != 0) buffer[bitPosition >>> 3] |= (byte) (0x80 >>> (bitPosition & 7));
+                bitPosition++;
+            }
+        }
+
+        private void ensureCapacity(int additionalBits) {
+            int requiredBytes = (bitPosition + additionalBits + 7) >>> 3;
+            if (requiredBytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(requiredBytes, buffer.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (bitPosition + 7) >>> 3);
+        }
+    }
+
+    /**
+     * Reads bits written by BitWriter
+     */
+    private static class BitReader {
+        private final byte[] buffer;
+        private int bitPosition;
+
+        BitReader(byte[] buffer, int startBitPosition) {
+            this.buffer = buffer;
+            this.bitPosition = startBitPosition;
+        }
+
+        boolean readBit() {
+            boolean bit = (buffer[bitPosition >>> 3] & (0x80 >>> (bitPosition & 7))) != 0;
+            bitPosition++;
+            return bit;
+        }
+
+        long readBits(int width) {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                value = (value << 1) | (readBit() ? 1 : 0);
+            }
+            return value;
+        }
+    }
+}
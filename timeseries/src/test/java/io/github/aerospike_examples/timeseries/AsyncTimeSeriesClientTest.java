@@ -0,0 +1,150 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.async.EventPolicy;
+import com.aerospike.client.async.NioEventLoops;
+import com.aerospike.client.policy.ClientPolicy;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.TestConstants;
+import io.github.aerospike_examples.timeseries.util.TestUtilities;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class AsyncTimeSeriesClientTest {
+
+    // Name of test time series
+    private static final String TEST_TIME_SERIES_NAME = "TimeSeriesExample";
+    // Base timestamp for test time series - 2022-01-01
+    private static final long BASE_TIMESTAMP = 1640995200000L;
+    // Random data generation object
+    private static final Random RANDOM = new Random();
+
+    private EventLoops eventLoops;
+    private AerospikeClient asClient;
+
+    @Before
+    // Async calls need an event loop enabled Aerospike client
+    public void setup() {
+        eventLoops = new NioEventLoops(new EventPolicy(), 2);
+        ClientPolicy clientPolicy = new ClientPolicy();
+        clientPolicy.eventLoops = eventLoops;
+        asClient = new AerospikeClient(clientPolicy, TestConstants.AEROSPIKE_HOST, 3100);
+    }
+
+    @Test
+    /*
+        Points written one at a time, with many writes in flight, should all be retrievable
+        Blocks should be archived as they fill, so the block count should be as expected
+        Results from the async client should match those from the sync client
+     */
+    public void singlePointPuts() {
+        int recordsPerBlock = 50;
+        int requiredBlocks = 4;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(asClient, TestConstants.AEROSPIKE_NAMESPACE,
+                TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        AsyncTimeSeriesClient asyncTimeSeriesClient = new AsyncTimeSeriesClient(timeSeriesClient, eventLoops);
+
+        DataPoint[] dataPoints = createDataPoints(recordsPerBlock * requiredBlocks);
+        // Each block's points are written concurrently, but blocks in sequence so archiving stays in timestamp order
+        for (int block = 0; block < requiredBlocks; block++) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = block * recordsPerBlock; i < (block + 1) * recordsPerBlock; i++) {
+                futures.add(asyncTimeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[i]));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        }
+
+        DataPoint[] retrievedDataPoints = asyncTimeSeriesClient.getPoints(TEST_TIME_SERIES_NAME,
+                new Date(dataPoints[0].getTimestamp()), new Date(dataPoints[dataPoints.length - 1].getTimestamp())).join();
+        checkPoints(dataPoints, retrievedDataPoints);
+        checkPoints(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME,
+                new Date(dataPoints[0].getTimestamp()), new Date(dataPoints[dataPoints.length - 1].getTimestamp())));
+        Assert.assertEquals(requiredBlocks, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    /*
+        Bulk put should span blocks in the same way as the sync client
+        Sub-range retrieval and queries should agree with the sync client
+     */
+    public void bulkPutAndQuery() {
+        int recordsPerBlock = 7;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(asClient, TestConstants.AEROSPIKE_NAMESPACE,
+                TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        AsyncTimeSeriesClient asyncTimeSeriesClient = new AsyncTimeSeriesClient(timeSeriesClient, eventLoops);
+
+        DataPoint[] dataPoints = createDataPoints(5 * recordsPerBlock + 3);
+        asyncTimeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPoint[]{dataPoints[0]}).join();
+        DataPoint[] remainingDataPoints = new DataPoint[dataPoints.length - 1];
+        System.arraycopy(dataPoints, 1, remainingDataPoints, 0, remainingDataPoints.length);
+        asyncTimeSeriesClient.put(TEST_TIME_SERIES_NAME, remainingDataPoints).join();
+        Assert.assertEquals(dataPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+
+        Date startTime = new Date(dataPoints[10].getTimestamp());
+        Date endTime = new Date(dataPoints[30].getTimestamp());
+        checkPoints(timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, startTime, endTime),
+                asyncTimeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, startTime, endTime).join());
+        for (QueryOperation operation : QueryOperation.values()) {
+            Assert.assertEquals(timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, startTime, endTime),
+                    asyncTimeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, startTime, endTime).join(), 0);
+        }
+        // Inverted range and non-existent series should give no points
+        Assert.assertEquals(0, asyncTimeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, endTime, startTime).join().length);
+        Assert.assertEquals(0, asyncTimeSeriesClient.getPoints("NoSuchSeries", startTime, endTime).join().length);
+    }
+
+    @Test
+    /*
+        A current block already holding more than max points, as left while another writer holds the rollover claim, should
+        take points up to its overflow limit, then be archived, without any point being lost
+     */
+    public void putToOverflowingBlock() {
+        int recordsPerBlock = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(asClient, TestConstants.AEROSPIKE_NAMESPACE,
+                TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        AsyncTimeSeriesClient asyncTimeSeriesClient = new AsyncTimeSeriesClient(timeSeriesClient, eventLoops);
+
+        DataPoint[] dataPoints = createDataPoints(8 * recordsPerBlock);
+        // Written directly, so the block is not archived when full
+        int overflowCount = recordsPerBlock + 2;
+        asClient.operate(null, timeSeriesClient.asCurrentKeyForTimeSeries(TEST_TIME_SERIES_NAME),
+                timeSeriesClient.opsForDataPointInsert(TEST_TIME_SERIES_NAME, dataPoints, 0, overflowCount));
+        asyncTimeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, overflowCount, dataPoints.length - 1)).join();
+        asyncTimeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[dataPoints.length - 1]).join();
+
+        checkPoints(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME,
+                new Date(dataPoints[0].getTimestamp()), new Date(dataPoints[dataPoints.length - 1].getTimestamp())));
+        Assert.assertTrue(TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME) > 1);
+    }
+
+    @After
+    // Truncate the time series set and release the event loops
+    public void teardown() {
+        TestUtilities.removeTimeSeriesTestDataForSet(TestConstants.TIME_SERIES_TEST_SET);
+        asClient.close();
+        eventLoops.close();
+    }
+
+    private static DataPoint[] createDataPoints(int iterations) {
+        DataPoint[] dataPoints = new DataPoint[iterations];
+        for (int i = 0; i < iterations; i++) {
+            dataPoints[i] = new DataPoint(BASE_TIMESTAMP + i * Constants.MILLISECONDS_IN_SECOND, RANDOM.nextDouble());
+        }
+        return dataPoints;
+    }
+
+    private static void checkPoints(DataPoint[] expected, DataPoint[] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) Assert.assertTrue(expected[i].equals(actual[i]));
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeClient;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.TestConstants;
+import io.github.aerospike_examples.timeseries.util.TestUtilities;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimeSeriesBufferedWriterTest {
+
+    // Name of test time series
+    private static final String TEST_TIME_SERIES_NAME = "TimeSeriesExample";
+    // Base timestamp for test time series - 2022-01-01
+    private static final long BASE_TIMESTAMP = 1640995200000L;
+    // Random data generation object
+    private static final Random RANDOM = new Random();
+
+    @Test
+    /*
+        Points should not be written until the size threshold is reached
+        Once it is reached, all the buffered points should be written
+     */
+    public void sizeThresholdRespected() {
+        int maxBufferedPoints = 10;
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        // Linger time long enough that it will not be triggered during the test
+        TimeSeriesBufferedWriter writer = new TimeSeriesBufferedWriter(timeSeriesClient, maxBufferedPoints, 60 * Constants.MILLISECONDS_IN_SECOND);
+
+        DataPoint[] dataPoints = createDataPoints(maxBufferedPoints);
+        for (int i = 0; i < maxBufferedPoints - 1; i++) writer.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+        Assert.assertEquals(0, retrievePoints(timeSeriesClient).length);
+        Assert.assertEquals(maxBufferedPoints - 1, writer.getBufferedPointCount());
+
+        writer.put(TEST_TIME_SERIES_NAME, dataPoints[maxBufferedPoints - 1]);
+        Assert.assertEquals(0, writer.getBufferedPointCount());
+        checkPoints(dataPoints, retrievePoints(timeSeriesClient));
+        writer.close();
+    }
+
+    @Test
+    /*
+        Points should be written once the linger time has elapsed, even if the size threshold is not reached
+     */
+    public void lingerTimeRespected() throws Exception {
+        long lingerMs = 200;
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        TimeSeriesBufferedWriter writer = new TimeSeriesBufferedWriter(timeSeriesClient, 1000, lingerMs);
+
+        DataPoint[] dataPoints = createDataPoints(5);
+        writer.put(TEST_TIME_SERIES_NAME, dataPoints);
+        Assert.assertEquals(0, retrievePoints(timeSeriesClient).length);
+
+        Thread.sleep(lingerMs * 5);
+        Assert.assertEquals(0, writer.getBufferedPointCount());
+        checkPoints(dataPoints, retrievePoints(timeSeriesClient));
+        writer.close();
+    }
+
+    @Test
+    /*
+        flush and close should write everything that is buffered, even if points were supplied out of order
+        Blocks should still be rolled over correctly
+        put after close should not be allowed
+     */
+    public void flushAndCloseWriteBufferedPoints() {
+        int recordsPerBlock = 7;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        TimeSeriesBufferedWriter writer = new TimeSeriesBufferedWriter(timeSeriesClient, 1000, 60 * Constants.MILLISECONDS_IN_SECOND);
+
+        DataPoint[] dataPoints = createDataPoints(3 * recordsPerBlock + 2);
+        int halfway = dataPoints.length / 2;
+        // Each half is supplied in reverse order
+        for (int i = halfway - 1; i >= 0; i--) writer.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+        writer.flush();
+        Assert.assertEquals(halfway, retrievePoints(timeSeriesClient).length);
+
+        for (int i = dataPoints.length - 1; i >= halfway; i--) writer.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+        writer.close();
+        checkPoints(dataPoints, retrievePoints(timeSeriesClient));
+        Assert.assertEquals(dataPoints[0].getTimestamp(), timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+
+        try {
+            writer.put(TEST_TIME_SERIES_NAME, dataPoints[0]);
+            Assert.fail("put after close should throw an exception");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    /*
+        close should wait for a linger write already in progress, rather than return before its points are written
+     */
+    public void closeWaitsForLingerWrite() throws Exception {
+        long lingerMs = 50;
+        long writeDurationMs = 500;
+        TimeSeriesClient defaultClient = TestUtilities.defaultTimeSeriesClient();
+        // Slow writes, so close is called while the linger write is in progress
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(defaultClient.getAsClient(), defaultClient.getAsNamespace(),
+                defaultClient.getTimeSeriesSet(), Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK) {
+            @Override
+            public void put(String timeSeriesName, DataPoint[] dataPoints) {
+                try {
+                    Thread.sleep(writeDurationMs);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.put(timeSeriesName, dataPoints);
+            }
+        };
+        TimeSeriesBufferedWriter writer = new TimeSeriesBufferedWriter(timeSeriesClient, 1000, lingerMs);
+
+        DataPoint[] dataPoints = createDataPoints(5);
+        writer.put(TEST_TIME_SERIES_NAME, dataPoints);
+        Thread.sleep(lingerMs * 4);
+        writer.close();
+        checkPoints(dataPoints, retrievePoints(timeSeriesClient));
+    }
+
+    @Test
+    /*
+        Points from failed linger writes should stay buffered, and be written by close, which reports the failure
+     */
+    public void failedWritePointsRetained() throws Exception {
+        long lingerMs = 50;
+        TimeSeriesClient defaultClient = TestUtilities.defaultTimeSeriesClient();
+        // Writes fail until told otherwise
+        AtomicBoolean failing = new AtomicBoolean(true);
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(defaultClient.getAsClient(), defaultClient.getAsNamespace(),
+                defaultClient.getTimeSeriesSet(), Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK) {
+            @Override
+            public void put(String timeSeriesName, DataPoint[] dataPoints) {
+                if (failing.get()) throw new IllegalStateException("Write failure");
+                super.put(timeSeriesName, dataPoints);
+            }
+        };
+        TimeSeriesBufferedWriter writer = new TimeSeriesBufferedWriter(timeSeriesClient, 1000, lingerMs);
+
+        DataPoint[] dataPoints = createDataPoints(5);
+        writer.put(TEST_TIME_SERIES_NAME, dataPoints);
+        // Several linger writes fail in this time
+        Thread.sleep(lingerMs * 4);
+        Assert.assertEquals(0, retrievePoints(timeSeriesClient).length);
+        failing.set(false);
+        try {
+            writer.close();
+            Assert.fail("close should report the failed linger writes");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        Assert.assertEquals(0, writer.getBufferedPointCount());
+        checkPoints(dataPoints, retrievePoints(timeSeriesClient));
+    }
+
+    @Test
+    /*
+        Every put racing with close should either be rejected, or have its points written by close
+     */
+    public void putsRacingCloseNotLost() throws Exception {
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        // Size threshold and linger time too large to trigger, so accepted points are only written by close
+        TimeSeriesBufferedWriter writer = new TimeSeriesBufferedWriter(timeSeriesClient, Integer.MAX_VALUE, 60 * Constants.MILLISECONDS_IN_SECOND);
+        AtomicLong nextTimestamp = new AtomicLong(BASE_TIMESTAMP);
+        AtomicInteger acceptedCount = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        writer.put(TEST_TIME_SERIES_NAME, new DataPoint(nextTimestamp.getAndIncrement(), RANDOM.nextDouble()));
+                        acceptedCount.incrementAndGet();
+                    }
+                } catch (IllegalStateException e) {
+                    // Closed
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(50);
+        writer.close();
+        for (Thread thread : threads) thread.join();
+
+        Assert.assertEquals(0, writer.getBufferedPointCount());
+        Assert.assertEquals(acceptedCount.get(), retrievePoints(timeSeriesClient).length);
+    }
+
+    @After
+    // Truncate the time series set
+    public void teardown() {
+        TestUtilities.removeTimeSeriesTestDataForSet(TestConstants.TIME_SERIES_TEST_SET);
+    }
+
+    private static DataPoint[] createDataPoints(int iterations) {
+        DataPoint[] dataPoints = new DataPoint[iterations];
+        for (int i = 0; i < iterations; i++) {
+            dataPoints[i] = new DataPoint(BASE_TIMESTAMP + i * Constants.MILLISECONDS_IN_SECOND, RANDOM.nextDouble());
+        }
+        return dataPoints;
+    }
+
+    private static DataPoint[] retrievePoints(TimeSeriesClient timeSeriesClient) {
+        return timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+    }
+
+    private static void checkPoints(DataPoint[] expected, DataPoint[] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) Assert.assertTrue(expected[i].equals(actual[i]));
+    }
+}
@@ -1,10 +1,12 @@
 package io.github.aerospike_examples.timeseries;
 
 import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.Key;
 import com.aerospike.client.Record;
 import com.aerospike.client.cdt.MapOperation;
 import com.aerospike.client.policy.WritePolicy;
 import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.GorillaCodec;
 import io.github.aerospike_examples.timeseries.util.TestConstants;
 import io.github.aerospike_examples.timeseries.util.TestUtilities;
 import io.github.aerospike_examples.timeseries.util.Utilities;
@@ -13,8 +15,17 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 
 public class TimeSeriesClientTest {
 
@@ -203,6 +214,31 @@ public class TimeSeriesClientTest {
         doCorrectSeriesForTimeRangeChecks();
     }
 
+    @Test
+    /*
+      Check correct time series points are retrieved when historic blocks are compressed
+
+      The same checks are used as for correctSeriesForTimeRange. In addition, every point read back should match the point written
+     */
+    public void correctSeriesForTimeRangeWithCompression() throws Exception {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 10;
+        int intervalInSeconds = 1;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setCompressHistoricBlocks(true);
+
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), intervalInSeconds, requiredBlocks * entriesPerBlock);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+
+        doCorrectSeriesForTimeRangeChecks();
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME,
+                new Date(dataPoints[0].getTimestamp()), new Date(dataPoints[dataPoints.length - 1].getTimestamp()));
+        Assert.assertEquals(dataPoints.length, retrievedDataPoints.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrievedDataPoints[i]));
+        Assert.assertEquals(dataPoints[dataPoints.length - 1].getTimestamp(), timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+    }
+
     private void doCorrectSeriesForTimeRangeChecks() throws Exception {
         checkCorrectSeriesForTimeRange(30, 90, 90 - 30 + 1);
         checkCorrectSeriesForTimeRange(60, 150, 150 - 60 + 1);
@@ -269,13 +305,14 @@ public class TimeSeriesClientTest {
         checkCorrectBlocksForTimeRange(30, 20, 0, false);
         checkCorrectBlocksForTimeRange(30, 30, 1, false);
         checkCorrectBlocksForTimeRange(60, 60, 1, false);
-        checkCorrectBlocksForTimeRange(600, 650, 2, true);
+        // Beyond the end of the last historic block - only the current block is needed
+        checkCorrectBlocksForTimeRange(600, 650, 1, true);
     }
 
     @Test
     /*
       Check that our query functions do what they are supposed to do
-      i.e. Correct average, count, max, min,vol
+      i.e. Correct average, count, max, min, vol, sum, first, last, std dev
       We do this by doing the calculations directly, and comparing them with the api results
      */
     public void checkQueryFunctions() throws Exception {
@@ -293,6 +330,10 @@ public class TimeSeriesClientTest {
         double queryMax = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.MAX, new Date(startTime), new Date(endTime));
         double queryMin = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.MIN, new Date(startTime), new Date(endTime));
         double queryVol = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.VOL, new Date(startTime), new Date(endTime));
+        double querySum = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.SUM, new Date(startTime), new Date(endTime));
+        double queryFirst = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.FIRST, new Date(startTime), new Date(endTime));
+        double queryLast = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.LAST, new Date(startTime), new Date(endTime));
+        double queryStdDev = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.STD_DEV, new Date(startTime), new Date(endTime));
 
         // Aggregates - as computed 'by hand'
         double foundSum = 0;
@@ -317,6 +358,11 @@ public class TimeSeriesClientTest {
         Assert.assertEquals(foundMin, queryMin, 0.0);
         // Need to compare volatility using a tolerance - rounding makes the values different
         Assert.assertTrue(Utilities.valueInTolerance(queryVol, foundVol, 0.001));
+        Assert.assertEquals(foundSum, querySum, 0.0);
+        Assert.assertEquals(tsValues[0], queryFirst, 0.0);
+        Assert.assertEquals(tsValues[tsValues.length - 1], queryLast, 0.0);
+        double foundStdDev = Math.sqrt((foundSumSq - tsValues.length * Math.pow(foundAvg, 2)) / (tsValues.length - 1));
+        Assert.assertTrue(Utilities.valueInTolerance(queryStdDev, foundStdDev, 0.001));
     }
 
     @Test
@@ -339,8 +385,16 @@ public class TimeSeriesClientTest {
         double queryMax = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.MAX, new Date(startTime), new Date(endTime));
         double queryMin = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.MIN, new Date(startTime), new Date(endTime));
         double queryVol = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.VOL, new Date(startTime), new Date(endTime));
+        double querySum = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.SUM, new Date(startTime), new Date(endTime));
+        double queryFirst = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.FIRST, new Date(startTime), new Date(endTime));
+        double queryLast = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.LAST, new Date(startTime), new Date(endTime));
+        double queryStdDev = TestUtilities.defaultTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, QueryOperation.STD_DEV, new Date(startTime), new Date(endTime));
 
         Assert.assertTrue(Double.isNaN(queryAvgValue));
+        Assert.assertTrue(Double.isNaN(queryFirst));
+        Assert.assertTrue(Double.isNaN(queryLast));
+        Assert.assertTrue(Double.isNaN(queryStdDev));
+        Assert.assertEquals(0, querySum, 0.0);
         Assert.assertTrue(Double.isNaN(queryVol));
         Assert.assertTrue(Double.isNaN(queryMax));
         Assert.assertTrue(Double.isNaN(queryMin));
@@ -369,6 +423,7 @@ public class TimeSeriesClientTest {
         if (startTimeOffsetInSeconds <= endTimeOffsetInSeconds) {
             Assert.assertEquals(timestamps.length, expectedBlocks);
             Assert.assertTrue(timestamps[0] == startTimeAsTimestamp ||
+                    ((timestamps.length == 1) && (timestamps[0] == TimeSeriesClient.CURRENT_RECORD_TIMESTAMP)) ||
                     timestamps[0] == getTestBaseDate().getTime() ||
                     (timestamps[1] > startTimeAsTimestamp && timestamps[0] < startTimeAsTimestamp) ||
                     ((timestamps.length == 2) && (timestamps[1] == TimeSeriesClient.CURRENT_RECORD_TIMESTAMP)));
@@ -504,6 +559,1443 @@ public class TimeSeriesClientTest {
         timeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPoint[0]);
     }
 
+    @Test
+    /*
+        Write to several series at once, some of which already exist
+        Series should fill and roll over blocks independently, and all points should be retrievable
+        Check both the parallel and the single threaded code paths
+     */
+    public void multiSeriesPutTest() throws Exception {
+        int recordsPerBlock = 5;
+        int seriesCount = 20;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long startTime = getTestBaseDate().getTime();
+
+        // Pre-existing points for even numbered series
+        Map<String, DataPoint[]> dataPointsBySeries = new HashMap<>();
+        for (int i = 0; i < seriesCount; i += 2) {
+            DataPoint[] dataPoints = createDataPoints(startTime, 1, 3);
+            timeSeriesClient.put(multiSeriesName(i), dataPoints);
+            dataPointsBySeries.put(multiSeriesName(i), dataPoints);
+        }
+
+        for (int parallelism : new int[]{4, 1}) {
+            timeSeriesClient.setMultiSeriesWriteParallelism(parallelism);
+            // Far enough on that there is no overlap with points already written
+            startTime += 100 * Constants.MILLISECONDS_IN_SECOND;
+            Map<String, DataPoint[]> toWrite = new HashMap<>();
+            // Series i gets i points, so some series span several blocks and one gets none
+            for (int i = 0; i < seriesCount; i++) toWrite.put(multiSeriesName(i), createDataPoints(startTime, 1, i));
+            timeSeriesClient.put(toWrite);
+            for (int i = 0; i < seriesCount; i++) {
+                DataPoint[] existing = dataPointsBySeries.getOrDefault(multiSeriesName(i), new DataPoint[0]);
+                DataPoint[] combined = Arrays.copyOf(existing, existing.length + i);
+                System.arraycopy(toWrite.get(multiSeriesName(i)), 0, combined, existing.length, i);
+                dataPointsBySeries.put(multiSeriesName(i), combined);
+            }
+        }
+
+        for (int i = 0; i < seriesCount; i++) {
+            DataPoint[] expected = dataPointsBySeries.get(multiSeriesName(i));
+            DataPoint[] retrieved = timeSeriesClient.getPoints(multiSeriesName(i), new Date(0), new Date(Long.MAX_VALUE));
+            Assert.assertEquals(expected.length, retrieved.length);
+            for (int j = 0; j < expected.length; j++) Assert.assertTrue(expected[j].equals(retrieved[j]));
+            Assert.assertEquals(expected.length, timeSeriesClient.dataPointCount(multiSeriesName(i)));
+        }
+        // Empty map should be handled without exception
+        timeSeriesClient.put(new HashMap<>());
+    }
+
+    @Test
+    /*
+        Multi-series reads should give the same results as reading each series separately, for narrow and wide ranges
+        Series that do not exist should give no points
+     */
+    public void multiSeriesReadTest() throws Exception {
+        int recordsPerBlock = 5;
+        int seriesCount = 10;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long startTime = getTestBaseDate().getTime();
+        List<String> timeSeriesNames = new ArrayList<>();
+        // Series i gets 3i points, so some series span several blocks and one gets none
+        for (int i = 0; i < seriesCount; i++) {
+            timeSeriesClient.put(multiSeriesName(i), createDataPoints(startTime, 1, 3 * i));
+            timeSeriesClient.put(multiSeriesName(i), createDataPoints(startTime + 3 * i * Constants.MILLISECONDS_IN_SECOND, 1, i));
+            timeSeriesNames.add(multiSeriesName(i));
+        }
+        timeSeriesNames.add("NoSuchSeries");
+
+        long[][] ranges = new long[][]{{startTime + 4 * Constants.MILLISECONDS_IN_SECOND, startTime + 20 * Constants.MILLISECONDS_IN_SECOND},
+                {0, Long.MAX_VALUE}};
+        for (long[] range : ranges) {
+            Date fromDate = new Date(range[0]);
+            Date toDate = new Date(range[1]);
+            Map<String, DataPoint[]> dataPointsBySeries = timeSeriesClient.getPoints(timeSeriesNames, fromDate, toDate);
+            Map<String, Double> averagesBySeries = timeSeriesClient.runQuery(timeSeriesNames, QueryOperation.AVG, fromDate, toDate);
+            Assert.assertEquals(timeSeriesNames.size(), dataPointsBySeries.size());
+            for (String timeSeriesName : timeSeriesNames) {
+                DataPoint[] expected = timeSeriesClient.getPoints(timeSeriesName, fromDate, toDate);
+                DataPoint[] retrieved = dataPointsBySeries.get(timeSeriesName);
+                Assert.assertEquals(expected.length, retrieved.length);
+                for (int j = 0; j < expected.length; j++) Assert.assertTrue(expected[j].equals(retrieved[j]));
+                Assert.assertEquals(timeSeriesClient.runQuery(timeSeriesName, QueryOperation.AVG, fromDate, toDate),
+                        averagesBySeries.get(timeSeriesName), 1e-9);
+            }
+        }
+        Assert.assertTrue(timeSeriesClient.getPoints(new ArrayList<>(), new Date(0), new Date(Long.MAX_VALUE)).isEmpty());
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Series should be found by tag without scanning, and replacing tags should remove the series from the index for old tags
+     */
+    public void tagTest() throws Exception {
+        int seriesCount = 6;
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        long startTime = getTestBaseDate().getTime();
+        // Series i is on server i % 2, and has pubid i % 3
+        for (int i = 0; i < seriesCount; i++) {
+            timeSeriesClient.put(multiSeriesName(i), createDataPoints(startTime, 1, i + 1));
+            Map<String, String> tags = new HashMap<>();
+            tags.put("server", "server" + i % 2);
+            tags.put("pubid", Integer.toString(i % 3));
+            timeSeriesClient.setTags(multiSeriesName(i), tags);
+        }
+        Assert.assertEquals(Arrays.asList(multiSeriesName(0), multiSeriesName(2), multiSeriesName(4)),
+                timeSeriesClient.getTimeSeriesNames(Collections.singletonMap("server", "server0")));
+        Map<String, String> tagSelector = new HashMap<>();
+        tagSelector.put("server", "server1");
+        tagSelector.put("pubid", "0");
+        Assert.assertEquals(Collections.singletonList(multiSeriesName(3)), timeSeriesClient.getTimeSeriesNames(tagSelector));
+        Assert.assertTrue(timeSeriesClient.getTimeSeriesNames(Collections.singletonMap("server", "server2")).isEmpty());
+
+        Date fromDate = new Date(startTime);
+        Date toDate = new Date(startTime + seriesCount * Constants.MILLISECONDS_IN_SECOND);
+        Map<String, Double> countsBySeries = timeSeriesClient.runQuery(Collections.singletonMap("pubid", "1"), QueryOperation.COUNT, fromDate, toDate);
+        Assert.assertEquals(2, countsBySeries.size());
+        Assert.assertEquals(2, countsBySeries.get(multiSeriesName(1)), 0);
+        Assert.assertEquals(5, countsBySeries.get(multiSeriesName(4)), 0);
+        Assert.assertEquals(5, timeSeriesClient.getPoints(Collections.singletonMap("pubid", "1"), fromDate, toDate).get(multiSeriesName(4)).length);
+
+        // Move series 0 to server1, keeping its pubid
+        Map<String, String> newTags = new HashMap<>();
+        newTags.put("server", "server1");
+        newTags.put("pubid", "0");
+        timeSeriesClient.setTags(multiSeriesName(0), newTags);
+        Assert.assertEquals(newTags, timeSeriesClient.getTags(multiSeriesName(0)));
+        Assert.assertEquals(Arrays.asList(multiSeriesName(2), multiSeriesName(4)),
+                timeSeriesClient.getTimeSeriesNames(Collections.singletonMap("server", "server0")));
+        Assert.assertEquals(Arrays.asList(multiSeriesName(0), multiSeriesName(3)), timeSeriesClient.getTimeSeriesNames(tagSelector));
+        Assert.assertTrue(timeSeriesClient.getTags("NoSuchSeries").isEmpty());
+    }
+
+    @Test
+    /*
+        Check series are selected only if listed for every tag, and that only tags no longer held are treated as stale
+     */
+    public void tagSelectionTest() {
+        Record serverRecord = tagIndexRecord("B", "A");
+        Record pubidRecord = tagIndexRecord("B", "C");
+        Assert.assertEquals(Arrays.asList("A", "B"), TimeSeriesClient.seriesNamesHoldingAllTags(new Record[]{serverRecord}, 1));
+        Assert.assertEquals(Collections.singletonList("B"), TimeSeriesClient.seriesNamesHoldingAllTags(new Record[]{serverRecord, pubidRecord}, 1));
+        Assert.assertTrue(TimeSeriesClient.seriesNamesHoldingAllTags(new Record[]{serverRecord, null}, 1).isEmpty());
+        // Two shards per tag - series in each shard are selected separately, then combined
+        Record[] shardedRecords = new Record[]{serverRecord, tagIndexRecord("D", "E"), pubidRecord, tagIndexRecord("E")};
+        Assert.assertEquals(Arrays.asList("B", "E"), TimeSeriesClient.seriesNamesHoldingAllTags(shardedRecords, 2));
+        Assert.assertEquals(Collections.singletonList("E"), TimeSeriesClient.seriesNamesHoldingAllTags(new Record[]{null, tagIndexRecord("D", "E"), null, tagIndexRecord("E")}, 2));
+        for (String timeSeriesName : Arrays.asList("A", "B", TEST_TIME_SERIES_NAME)) {
+            int shard = TimeSeriesClient.tagIndexShard(timeSeriesName);
+            Assert.assertTrue(shard >= 0 && shard < Constants.TAG_INDEX_SHARD_COUNT);
+        }
+
+        Map<String, Object> tagsBins = new HashMap<>();
+        Map<String, String> previousTags = new HashMap<>();
+        previousTags.put("server", "server0");
+        previousTags.put("pubid", "1");
+        tagsBins.put(Constants.TAGS_BIN_NAME, previousTags);
+        Map<String, String> tags = new HashMap<>();
+        tags.put("server", "server1");
+        tags.put("pubid", "1");
+        Assert.assertEquals(Collections.singletonMap("server", "server0"), TimeSeriesClient.staleTags(new Record(tagsBins, 1, 0), tags));
+        Assert.assertTrue(TimeSeriesClient.staleTags(null, tags).isEmpty());
+    }
+
+    @Test
+    /*
+        Top-K queries should give the series with the highest results, as found by querying every series, for each operation
+        Series whose bound cannot make the top K are pruned, and series without a result are not ranked
+     */
+    public void topKQueryTest() throws Exception {
+        int recordsPerBlock = 5;
+        int seriesCount = 12;
+        int k = 3;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long startTime = getTestBaseDate().getTime();
+        List<String> timeSeriesNames = new ArrayList<>();
+        // Series i gets 2i points, so some series span several blocks and one gets none
+        for (int i = 0; i < seriesCount; i++) {
+            timeSeriesClient.put(multiSeriesName(i), createDataPoints(startTime, 1, 2 * i));
+            timeSeriesNames.add(multiSeriesName(i));
+        }
+        timeSeriesNames.add("NoSuchSeries");
+
+        Date fromDate = new Date(startTime + 3 * Constants.MILLISECONDS_IN_SECOND);
+        Date toDate = new Date(startTime + 17 * Constants.MILLISECONDS_IN_SECOND);
+        for (QueryOperation operation : QueryOperation.values()) {
+            List<Map.Entry<String, Double>> expected = new ArrayList<>();
+            for (Map.Entry<String, Double> result : timeSeriesClient.runQuery(timeSeriesNames, operation, fromDate, toDate).entrySet()) {
+                if (!Double.isNaN(result.getValue())) expected.add(result);
+            }
+            expected.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+            Map<String, Double> topK = timeSeriesClient.runTopKQuery(timeSeriesNames, operation, fromDate, toDate, k);
+            Assert.assertEquals(Math.min(k, expected.size()), topK.size());
+            int j = 0;
+            for (double result : topK.values()) Assert.assertEquals(expected.get(j++).getValue(), result, 1e-9);
+        }
+        Assert.assertEquals(Collections.singleton(multiSeriesName(seriesCount - 1)),
+                timeSeriesClient.runTopKQuery(timeSeriesNames, QueryOperation.COUNT, new Date(0), new Date(Long.MAX_VALUE), 1).keySet());
+        Assert.assertTrue(timeSeriesClient.runTopKQuery(new ArrayList<>(), QueryOperation.MAX, fromDate, toDate, k).isEmpty());
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        A point rewritten with a low value after its block was archived leaves blocks overlapping in time. The rewritten value is
+        not the one queried, so must not lower the series' bound enough for it to be pruned from the top K
+     */
+    public void topKOverlappingBlocksTest() throws Exception {
+        int recordsPerBlock = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long startTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = new DataPoint[2 * recordsPerBlock];
+        for (int i = 0; i < dataPoints.length; i++) dataPoints[i] = new DataPoint(startTime + i * Constants.MILLISECONDS_IN_SECOND, 10);
+        timeSeriesClient.put(multiSeriesName(0), dataPoints);
+        // Rewrite an archived point, then fill the block holding it so it is archived too
+        timeSeriesClient.put(multiSeriesName(0), new DataPoint(dataPoints[2].getTimestamp(), -100));
+        for (int i = 0; i < recordsPerBlock - 1; i++) {
+            timeSeriesClient.put(multiSeriesName(0), new DataPoint(startTime + (dataPoints.length + i) * Constants.MILLISECONDS_IN_SECOND, 10));
+        }
+        DataPoint[] lowerPoints = createDataPoints(startTime, 1, 2 * recordsPerBlock);
+        for (int i = 0; i < lowerPoints.length; i++) lowerPoints[i] = new DataPoint(lowerPoints[i].getTimestamp(), 5);
+        timeSeriesClient.put(multiSeriesName(1), lowerPoints);
+
+        List<String> timeSeriesNames = Arrays.asList(multiSeriesName(0), multiSeriesName(1));
+        for (QueryOperation operation : new QueryOperation[]{QueryOperation.MIN, QueryOperation.SUM}) {
+            Map<String, Double> results = timeSeriesClient.runQuery(timeSeriesNames, operation, new Date(0), new Date(Long.MAX_VALUE));
+            String expectedSeries = results.get(multiSeriesName(0)) > results.get(multiSeriesName(1)) ? multiSeriesName(0) : multiSeriesName(1);
+            Map<String, Double> topK = timeSeriesClient.runTopKQuery(timeSeriesNames, operation, new Date(0), new Date(Long.MAX_VALUE), 1);
+            Assert.assertEquals(Collections.singleton(expectedSeries), topK.keySet());
+            Assert.assertEquals(results.get(expectedSeries), topK.get(expectedSeries), 1e-9);
+        }
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Bounds should be no lower than the query result for every operation that can be bounded
+        The heap should keep only the best K results, whatever the order they are offered in
+     */
+    public void topKBoundTest() {
+        Record[] blocks = new Record[]{
+                blockRecord(new long[]{1000, 2000, 3000}, new double[]{1, 5, 3}),
+                blockRecord(new long[]{4000, 5000, 6000}, new double[]{2, 8, 4}),
+                blockRecord(new long[]{7000, 8000, 9000}, new double[]{7, -1, 6}),
+                blockRecord(new long[]{10000, 11000}, new double[]{10, -3})};
+        TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+        for (int i = 0; i < 3; i++) indexEntries.put(1000L + 3000 * i, summarisedIndexEntry(1000 + 3000 * i, blocks[i]));
+        // Current block as read using opsForCurrentBlockBound - size and greatest value
+        Map<String, Object> currentBins = new HashMap<>();
+        currentBins.put(Constants.TIME_SERIES_BIN_NAME, Arrays.asList(2L, Collections.singletonList(10.0)));
+        Record currentRecord = new Record(currentBins, 1, 0);
+
+        for (QueryOperation operation : QueryOperation.values()) {
+            double bound = TimeSeriesClient.topKBound(operation, indexEntries, 2000, 10000, currentRecord);
+            Assert.assertTrue(bound >= TimeSeriesClient.queryResultFromBlocks(operation, blocks, 2000, 10000));
+        }
+        Assert.assertEquals(10, TimeSeriesClient.topKBound(QueryOperation.MAX, indexEntries, 2000, 10000, currentRecord), 0);
+        Assert.assertEquals(11, TimeSeriesClient.topKBound(QueryOperation.COUNT, indexEntries, 2000, 10000, currentRecord), 0);
+        // Only the middle blocks lie within the range
+        Assert.assertEquals(-1, TimeSeriesClient.topKBound(QueryOperation.MIN, indexEntries, 2000, 10000, currentRecord), 0);
+        Assert.assertEquals(3 * 5 + 14 + 12 + 2 * 10, TimeSeriesClient.topKBound(QueryOperation.SUM, indexEntries, 2000, 10000, currentRecord), 0);
+        Assert.assertEquals(Double.POSITIVE_INFINITY, TimeSeriesClient.topKBound(QueryOperation.VOL, indexEntries, 2000, 10000, currentRecord), 0);
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, TimeSeriesClient.topKBound(QueryOperation.MAX, new TreeMap<>(), 2000, 10000, null), 0);
+        // A later block overlapping the first, holding a low value for a timestamp already in the first. Bounds fall back to the greatest value
+        TreeMap<Long, long[]> overlappingIndexEntries = new TreeMap<>(indexEntries);
+        overlappingIndexEntries.put(2000L, summarisedIndexEntry(2000, blockRecord(new long[]{2000, 9500}, new double[]{-50, 2})));
+        Assert.assertEquals(8, TimeSeriesClient.topKBound(QueryOperation.MIN, overlappingIndexEntries, 2000, 10000, null), 0);
+        Assert.assertEquals(11 * 8, TimeSeriesClient.topKBound(QueryOperation.SUM, overlappingIndexEntries, 2000, 10000, null), 0);
+        // Entries without a summary cannot be bounded
+        indexEntries.put(12000L, TimeSeriesClient.decodeIndexEntry(12000, Arrays.asList(1000L, 3L)));
+        Assert.assertEquals(Double.POSITIVE_INFINITY, TimeSeriesClient.topKBound(QueryOperation.MAX, indexEntries, 2000, 10000, null), 0);
+
+        TopKHeap topK = new TopKHeap(3);
+        Assert.assertEquals(Double.NEGATIVE_INFINITY, topK.threshold(), 0);
+        double[] results = new double[]{4, 9, Double.NaN, 1, 7, 3, 9, 2};
+        for (int i = 0; i < results.length; i++) topK.offer(multiSeriesName(i), results[i]);
+        Assert.assertEquals(7, topK.threshold(), 0);
+        Assert.assertEquals(Arrays.asList(multiSeriesName(1), multiSeriesName(6), multiSeriesName(4)), new ArrayList<>(topK.results().keySet()));
+        Assert.assertEquals(Arrays.asList(9.0, 9.0, 7.0), new ArrayList<>(topK.results().values()));
+    }
+
+    @Test
+    /*
+        With background rollover enabled, all points should be visible immediately after put, whether or not
+        their block has been archived
+        Once the client is closed, all rollovers should be complete - blocks should be as if rollover was done synchronously
+     */
+    public void backgroundRolloverTest() throws Exception {
+        int recordsPerBlock = 20;
+        int requiredBlocks = 10;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        timeSeriesClient.enableBackgroundRollover(2, 4);
+
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, recordsPerBlock * requiredBlocks);
+        for (int i = 0; i < dataPoints.length; i++) {
+            timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+            if (i % recordsPerBlock == 0) {
+                Assert.assertEquals(i + 1, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE)).length);
+            }
+        }
+        // Bulk put should also work when the current block is full and waiting to be archived
+        DataPoint[] moreDataPoints = createDataPoints(dataPoints[dataPoints.length - 1].getTimestamp() + Constants.MILLISECONDS_IN_SECOND, 1, 2 * recordsPerBlock);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, moreDataPoints);
+        timeSeriesClient.close();
+
+        Assert.assertEquals(0, timeSeriesClient.getRolloverQueueDepth());
+        Assert.assertEquals(0, timeSeriesClient.getRolloverLagMs());
+        Assert.assertEquals(0, timeSeriesClient.getFailedRolloverCount());
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(dataPoints.length + moreDataPoints.length, retrieved.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrieved[i]));
+        Assert.assertEquals(dataPoints.length + moreDataPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        // No current block should remain as the last put filled it
+        Assert.assertEquals(0, checkCurrentRecordCount(timeSeriesClient, TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    /*
+        A bulk put of many blocks' worth of points with background rollover should not grow the current block without bound
+        Once a block reaches its overflow limit the writer archives it, so no block should exceed the limit and no point be lost
+     */
+    public void backgroundRolloverOverflowTest() throws Exception {
+        int recordsPerBlock = 20;
+        int maxOverflowingBlockEntryCount = recordsPerBlock * Constants.MAX_CURRENT_BLOCK_OVERFLOW_FACTOR;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        timeSeriesClient.enableBackgroundRollover(1, 1);
+
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 50 * recordsPerBlock + 7);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        Assert.assertTrue(checkCurrentRecordCount(timeSeriesClient, TEST_TIME_SERIES_NAME) <= maxOverflowingBlockEntryCount);
+        timeSeriesClient.close();
+
+        Assert.assertEquals(0, timeSeriesClient.getFailedRolloverCount());
+        for (long[] indexEntry : timeSeriesClient.indexEntriesForRange(TEST_TIME_SERIES_NAME, Long.MIN_VALUE, Long.MAX_VALUE).values()) {
+            Assert.assertTrue(indexEntry[1] <= maxOverflowingBlockEntryCount);
+        }
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(dataPoints.length, retrieved.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrieved[i]));
+        Assert.assertEquals(dataPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    /*
+        Several threads writing to the same series, with small blocks, so blocks are frequently filled by one thread
+        while another is archiving them
+        No point should be lost or held twice - points retrieved and the count of points should match those written
+     */
+    public void concurrentRolloverTest() throws Exception {
+        int recordsPerBlock = 10;
+        int threadCount = 8;
+        int pointsPerThread = 100;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, threadCount * pointsPerThread);
+        Thread[] threads = new Thread[threadCount];
+        Throwable[] failures = new Throwable[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int threadIndex = t;
+            // Threads write interleaved points so every block is filled by more than one thread
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = threadIndex; i < dataPoints.length; i += threadCount) {
+                        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+                    }
+                } catch (Throwable e) {
+                    failures[threadIndex] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (Throwable failure : failures) Assert.assertNull(failure);
+
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(dataPoints.length, retrieved.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrieved[i]));
+        Assert.assertEquals(dataPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        // Any current block should not be full, and should not hold the rollover claim
+        Assert.assertTrue(checkCurrentRecordCount(timeSeriesClient, TEST_TIME_SERIES_NAME) < recordsPerBlock);
+        Record currentRecord = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asCurrentKeyForTimeSeries(TEST_TIME_SERIES_NAME));
+        if (currentRecord != null) Assert.assertNull(currentRecord.getValue(Constants.ROLLOVER_CLAIM_BIN_NAME));
+    }
+
+    @Test
+    /*
+        With blocks keyed by time bucket, points written in any order should be retrievable, for ranges read with and
+        without the index
+        There should be one block per bucket, and start time, end time and point count should be correct
+     */
+    public void timeBucketedSeriesTest() throws Exception {
+        long bucketDurationMs = 60 * Constants.MILLISECONDS_IN_SECOND;
+        int requiredBuckets = 10;
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        timeSeriesClient.setTimeBucketDurationMs(bucketDurationMs);
+
+        // Base date is a bucket boundary, so one point per second gives 60 points per bucket
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, (int) (requiredBuckets * bucketDurationMs / Constants.MILLISECONDS_IN_SECOND));
+        DataPoint[] shuffledDataPoints = dataPoints.clone();
+        Collections.shuffle(Arrays.asList(shuffledDataPoints), RANDOM);
+        // Mix of single and bulk puts
+        for (int i = 0; i < shuffledDataPoints.length / 2; i++) timeSeriesClient.put(TEST_TIME_SERIES_NAME, shuffledDataPoints[i]);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(shuffledDataPoints, shuffledDataPoints.length / 2, shuffledDataPoints.length));
+
+        Assert.assertEquals(requiredBuckets, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+        // Range spanning bucket boundaries - keys calculated from the range
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(dataPoints[30].getTimestamp()), new Date(dataPoints[150].getTimestamp()));
+        Assert.assertEquals(150 - 30 + 1, retrieved.length);
+        for (int i = 0; i < retrieved.length; i++) Assert.assertTrue(dataPoints[30 + i].equals(retrieved[i]));
+        // Very wide range - buckets found using the index
+        retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(dataPoints.length, retrieved.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrieved[i]));
+        Assert.assertEquals(0, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(dataPoints[10].getTimestamp()), new Date(dataPoints[5].getTimestamp())).length);
+
+        Assert.assertEquals(dataPoints[0].getTimestamp(), timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints[dataPoints.length - 1].getTimestamp(), timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(Long.MAX_VALUE, timeSeriesClient.startTimeForSeries("NoSuchSeries"));
+    }
+
+    @Test
+    /*
+        If adding a time bucket to the index fails after the bucket has been written, the next write to the bucket should
+        add it, so reads using the index find it
+     */
+    public void timeBucketIndexRepairTest() throws Exception {
+        long bucketDurationMs = 60 * Constants.MILLISECONDS_IN_SECOND;
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        timeSeriesClient.setTimeBucketDurationMs(bucketDurationMs);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 10);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOf(dataPoints, 5));
+
+        // Lose the index, as if the index write had failed
+        long bucketStartTime = timeSeriesClient.timeBucketStartTime(dataPoints[0].getTimestamp());
+        timeSeriesClient.getAsClient().delete(null, timeSeriesClient.asKeyForTimeSeriesIndexPage(TEST_TIME_SERIES_NAME,
+                timeSeriesClient.indexPageStartTime(bucketStartTime)));
+        timeSeriesClient.getAsClient().delete(null, timeSeriesClient.asKeyForTimeSeriesIndexes(TEST_TIME_SERIES_NAME));
+
+        // A client which has not yet indexed the bucket repairs the index with its first write to it
+        TimeSeriesClient otherClient = TestUtilities.defaultTimeSeriesClient();
+        otherClient.setTimeBucketDurationMs(bucketDurationMs);
+        otherClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, 5, dataPoints.length));
+
+        // Very wide range - buckets found using the index
+        DataPoint[] retrieved = otherClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(dataPoints.length, retrieved.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrieved[i]));
+    }
+
+    @Test
+    /*
+        If the root index record is lost after blocks have been added to an index page, the next block added to the page
+        should restore the page entry, so reads using the root find every block
+     */
+    public void indexRootRepairTest() throws Exception {
+        int recordsPerBlock = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 4 * recordsPerBlock);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOf(dataPoints, 2 * recordsPerBlock));
+
+        // Lose the root, as if its write had failed
+        timeSeriesClient.getAsClient().delete(null, timeSeriesClient.asKeyForTimeSeriesIndexes(TEST_TIME_SERIES_NAME));
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, 2 * recordsPerBlock, dataPoints.length));
+
+        // Very wide range - pages found using the root
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(dataPoints.length, retrieved.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(dataPoints[i].equals(retrieved[i]));
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        A point arriving after its block has been archived starts a block overlapping the archived one
+        Ranges lying within the archived block, but after the start of the later block, should still return every point
+     */
+    public void overlappingBlocksTest() throws Exception {
+        int recordsPerBlock = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 2, 2 * recordsPerBlock);
+        // First block archived, then a late point between its second and third points starts the next block
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOf(dataPoints, recordsPerBlock));
+        DataPoint latePoint = new DataPoint(dataPoints[1].getTimestamp() + Constants.MILLISECONDS_IN_SECOND, 1000);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, latePoint);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, recordsPerBlock, 2 * recordsPerBlock));
+
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME,
+                new Date(dataPoints[3].getTimestamp()), new Date(dataPoints[4].getTimestamp()));
+        Assert.assertEquals(2, retrieved.length);
+        Assert.assertTrue(dataPoints[3].equals(retrieved[0]));
+        Assert.assertTrue(dataPoints[4].equals(retrieved[1]));
+        Assert.assertEquals(2 * recordsPerBlock + 1, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME,
+                new Date(dataPoints[0].getTimestamp()), new Date(dataPoints[dataPoints.length - 1].getTimestamp())).length);
+        Assert.assertEquals(2, (int) timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.COUNT,
+                new Date(dataPoints[3].getTimestamp()), new Date(dataPoints[4].getTimestamp())));
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        With small index pages, blocks are spread over many pages, and sparse data gives blocks spanning several pages
+        Any range, narrow or wide, should return the points in that range
+        Start time, end time and point count should be correct
+     */
+    public void indexPagingTest() throws Exception {
+        int recordsPerBlock = 20;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        timeSeriesClient.setIndexPageDurationMs(60 * Constants.MILLISECONDS_IN_SECOND);
+
+        // Dense, then sparse - a point every 1000 seconds - then dense again
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] densePoints = createDataPoints(baseTime, 1, 10 * recordsPerBlock);
+        DataPoint[] sparsePoints = createDataPoints(baseTime + 1000 * Constants.MILLISECONDS_IN_SECOND, 1000, recordsPerBlock);
+        DataPoint[] moreDensePoints = createDataPoints(baseTime + 30000 * Constants.MILLISECONDS_IN_SECOND, 1, 3 * recordsPerBlock + 5);
+        DataPoint[] dataPoints = new DataPoint[densePoints.length + sparsePoints.length + moreDensePoints.length];
+        System.arraycopy(densePoints, 0, dataPoints, 0, densePoints.length);
+        System.arraycopy(sparsePoints, 0, dataPoints, densePoints.length, sparsePoints.length);
+        System.arraycopy(moreDensePoints, 0, dataPoints, densePoints.length + sparsePoints.length, moreDensePoints.length);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+
+        long lastTime = dataPoints[dataPoints.length - 1].getTimestamp();
+        long[][] ranges = new long[][]{
+                {baseTime + 50 * Constants.MILLISECONDS_IN_SECOND, baseTime + 130 * Constants.MILLISECONDS_IN_SECOND},
+                // Inside the sparse block, away from its start and end index pages
+                {baseTime + 5500 * Constants.MILLISECONDS_IN_SECOND, baseTime + 7500 * Constants.MILLISECONDS_IN_SECOND},
+                {baseTime + 5500 * Constants.MILLISECONDS_IN_SECOND, baseTime + 5600 * Constants.MILLISECONDS_IN_SECOND},
+                // Dense and sparse, needing the root to find pages
+                {baseTime, baseTime + 15000 * Constants.MILLISECONDS_IN_SECOND},
+                {baseTime + 150 * Constants.MILLISECONDS_IN_SECOND, lastTime},
+                {0, Long.MAX_VALUE}
+        };
+        for (long[] range : ranges) {
+            DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(range[0]), new Date(range[1]));
+            int expectedIndex = 0;
+            for (DataPoint dataPoint : dataPoints) {
+                if (dataPoint.getTimestamp() >= range[0] && dataPoint.getTimestamp() <= range[1]) {
+                    Assert.assertTrue(dataPoint.equals(retrieved[expectedIndex++]));
+                }
+            }
+            Assert.assertEquals(expectedIndex, retrieved.length);
+        }
+
+        Assert.assertEquals(dataPoints[0].getTimestamp(), timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(lastTime, timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        // Once the current block is archived, end time comes from the index
+        DataPoint[] finalPoints = createDataPoints(lastTime + Constants.MILLISECONDS_IN_SECOND, 1, recordsPerBlock - 5);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, finalPoints);
+        Assert.assertEquals(0, checkCurrentRecordCount(timeSeriesClient, TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(finalPoints[finalPoints.length - 1].getTimestamp(), timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints.length + finalPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    /*
+        Iterating over a range a few blocks at a time should give the same points as getPoints
+        Covers dense data, sparse data with gaps between index pages, open ended ranges and time bucketed series
+     */
+    public void iteratorTest() throws Exception {
+        int recordsPerBlock = 20;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        timeSeriesClient.setIndexPageDurationMs(60 * Constants.MILLISECONDS_IN_SECOND);
+
+        // Dense, then sparse, then dense again after a long gap. Last few points remain in the current block
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] densePoints = createDataPoints(baseTime, 1, 10 * recordsPerBlock);
+        DataPoint[] sparsePoints = createDataPoints(baseTime + 1000 * Constants.MILLISECONDS_IN_SECOND, 1000, recordsPerBlock);
+        DataPoint[] moreDensePoints = createDataPoints(baseTime + 300000 * Constants.MILLISECONDS_IN_SECOND, 1, 3 * recordsPerBlock + 5);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, densePoints);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, sparsePoints);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, moreDensePoints);
+
+        long lastTime = moreDensePoints[moreDensePoints.length - 1].getTimestamp();
+        long[][] ranges = new long[][]{
+                {baseTime + 50 * Constants.MILLISECONDS_IN_SECOND, baseTime + 130 * Constants.MILLISECONDS_IN_SECOND},
+                {baseTime + 5500 * Constants.MILLISECONDS_IN_SECOND, baseTime + 7500 * Constants.MILLISECONDS_IN_SECOND},
+                {baseTime, lastTime},
+                {baseTime + 150 * Constants.MILLISECONDS_IN_SECOND, Long.MAX_VALUE},
+                {0, Long.MAX_VALUE}
+        };
+        for (long[] range : ranges) {
+            DataPoint[] expected = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(range[0]), new Date(range[1]));
+            for (int blocksPerFetch : new int[]{1, 3, Constants.DEFAULT_BLOCKS_PER_FETCH}) {
+                checkIteratorPoints(timeSeriesClient.iterator(TEST_TIME_SERIES_NAME, new Date(range[0]), new Date(range[1]), blocksPerFetch), expected);
+            }
+        }
+        Assert.assertEquals(densePoints.length + sparsePoints.length + moreDensePoints.length,
+                timeSeriesClient.stream(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE)).count());
+        Assert.assertFalse(timeSeriesClient.iterator(TEST_TIME_SERIES_NAME, new Date(lastTime), new Date(baseTime)).hasNext());
+        Assert.assertFalse(timeSeriesClient.iterator("NoSuchSeries", new Date(0), new Date(Long.MAX_VALUE)).hasNext());
+
+        // Time bucketed series - buckets found from the index
+        timeSeriesClient.setTimeBucketDurationMs(60 * Constants.MILLISECONDS_IN_SECOND);
+        DataPoint[] bucketedPoints = createDataPoints(baseTime, 7, 100);
+        timeSeriesClient.put(multiSeriesName(0), bucketedPoints);
+        checkIteratorPoints(timeSeriesClient.iterator(multiSeriesName(0), new Date(0), new Date(Long.MAX_VALUE), 2), bucketedPoints);
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Downsampled reads should give the same points as downsampling every point in the range, and no more than asked for
+        Open ended ranges should be divided over the span of the series
+     */
+    public void downsampledReadTest() throws Exception {
+        int recordsPerBlock = 20;
+        int targetPointCount = 40;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 1, 25 * recordsPerBlock + 5);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        long lastTime = dataPoints[dataPoints.length - 1].getTimestamp();
+
+        long[][] ranges = new long[][]{
+                {baseTime + 50 * Constants.MILLISECONDS_IN_SECOND, baseTime + 130 * Constants.MILLISECONDS_IN_SECOND},
+                {baseTime, lastTime},
+                {baseTime + 150 * Constants.MILLISECONDS_IN_SECOND, Long.MAX_VALUE},
+                {0, Long.MAX_VALUE}
+        };
+        for (long[] range : ranges) {
+            DownsamplingAccumulator accumulator = new DownsamplingAccumulator(Math.max(range[0], baseTime), Math.min(range[1], lastTime),
+                    targetPointCount / DownsamplingAccumulator.POINTS_PER_BUCKET);
+            for (DataPoint dataPoint : timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(range[0]), new Date(range[1]))) {
+                accumulator.accept(dataPoint.getTimestamp(), dataPoint.getValue());
+            }
+            DataPoint[] expected = accumulator.toDataPoints();
+            DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(range[0]), new Date(range[1]), targetPointCount);
+            Assert.assertTrue(retrieved.length <= targetPointCount);
+            Assert.assertEquals(expected.length, retrieved.length);
+            for (int j = 0; j < expected.length; j++) Assert.assertTrue(expected[j].equals(retrieved[j]));
+        }
+        Assert.assertEquals(0, timeSeriesClient.getPoints("NoSuchSeries", new Date(0), new Date(Long.MAX_VALUE), targetPointCount).length);
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Each bucket should give its first, lowest, highest and last points in time order, without repeating a point
+     */
+    public void downsamplingAccumulatorTest() {
+        // Buckets of 1000ms starting at 1000
+        DownsamplingAccumulator accumulator = new DownsamplingAccumulator(1000, 3999, 3);
+        long[] timestamps = new long[]{500, 1000, 1200, 1400, 1600, 1800, 2500, 3000, 3500, 4000};
+        double[] values = new double[]{-100, 5, 9, 1, 4, 6, 2, 3, 1, 100};
+        for (int i = 0; i < timestamps.length; i++) accumulator.accept(timestamps[i], values[i]);
+        DataPoint[] expected = new DataPoint[]{
+                // First bucket - the highest point comes before the lowest
+                new DataPoint(1000, 5), new DataPoint(1200, 9), new DataPoint(1400, 1), new DataPoint(1800, 6),
+                // A single point is given once
+                new DataPoint(2500, 2),
+                // Lowest point is also the last
+                new DataPoint(3000, 3), new DataPoint(3500, 1)};
+        DataPoint[] retrieved = accumulator.toDataPoints();
+        Assert.assertEquals(expected.length, retrieved.length);
+        for (int i = 0; i < expected.length; i++) Assert.assertTrue(expected[i].equals(retrieved[i]));
+
+        // Ranges wider than Long.MAX_VALUE
+        DownsamplingAccumulator wideAccumulator = new DownsamplingAccumulator(Long.MIN_VALUE, Long.MAX_VALUE, 2);
+        wideAccumulator.accept(Long.MIN_VALUE, 1);
+        wideAccumulator.accept(Long.MAX_VALUE, 2);
+        Assert.assertEquals(2, wideAccumulator.toDataPoints().length);
+        DownsamplingAccumulator singleBucketAccumulator = new DownsamplingAccumulator(Long.MIN_VALUE, Long.MAX_VALUE, 1);
+        singleBucketAccumulator.accept(Long.MAX_VALUE, 2);
+        Assert.assertEquals(1, singleBucketAccumulator.toDataPoints().length);
+    }
+
+    @Test
+    /*
+        Reads selecting points by value on the server should give the points found by filtering every point on the client,
+        for plain and compressed historic blocks, and for time bucketed series
+     */
+    public void filteredReadTest() throws Exception {
+        int recordsPerBlock = 20;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 1, 10 * recordsPerBlock + 5);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        timeSeriesClient.setCompressHistoricBlocks(true);
+        timeSeriesClient.put(multiSeriesName(0), dataPoints);
+        timeSeriesClient.setCompressHistoricBlocks(false);
+        timeSeriesClient.setTimeBucketDurationMs(60 * Constants.MILLISECONDS_IN_SECOND);
+        timeSeriesClient.put(multiSeriesName(1), dataPoints);
+
+        ValuePredicate[] predicates = new ValuePredicate[]{ValuePredicate.greaterThan(0.9), ValuePredicate.lessThan(0.1),
+                ValuePredicate.between(0.4, 0.6), ValuePredicate.greaterThan(1)};
+        Date fromDate = new Date(baseTime + 15 * Constants.MILLISECONDS_IN_SECOND);
+        Date toDate = new Date(baseTime + 190 * Constants.MILLISECONDS_IN_SECOND);
+        for (String timeSeriesName : new String[]{TEST_TIME_SERIES_NAME, multiSeriesName(0), multiSeriesName(1)}) {
+            // Only the time bucketed series is read as such
+            timeSeriesClient.setTimeBucketDurationMs(timeSeriesName.equals(multiSeriesName(1)) ? 60 * Constants.MILLISECONDS_IN_SECOND : 0);
+            for (ValuePredicate predicate : predicates) {
+                List<DataPoint> expected = new ArrayList<>();
+                for (DataPoint dataPoint : timeSeriesClient.getPoints(timeSeriesName, fromDate, toDate)) {
+                    if (predicate.test(dataPoint.getValue())) expected.add(dataPoint);
+                }
+                DataPoint[] retrieved = timeSeriesClient.getPoints(timeSeriesName, fromDate, toDate, predicate);
+                Assert.assertEquals(expected.size(), retrieved.length);
+                for (int j = 0; j < retrieved.length; j++) Assert.assertTrue(expected.get(j).equals(retrieved[j]));
+            }
+        }
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Predicates should select values as described, excluding the threshold for greater than and less than
+     */
+    public void valuePredicateTest() {
+        Assert.assertFalse(ValuePredicate.greaterThan(95).test(95));
+        Assert.assertTrue(ValuePredicate.greaterThan(95).test(Math.nextUp(95.0)));
+        Assert.assertFalse(ValuePredicate.lessThan(5).test(5));
+        Assert.assertTrue(ValuePredicate.lessThan(5).test(-1e300));
+        Assert.assertTrue(ValuePredicate.between(5, 95).test(5));
+        Assert.assertTrue(ValuePredicate.between(5, 95).test(95));
+        Assert.assertFalse(ValuePredicate.between(5, 95).test(Double.NaN));
+        // Blocks whose values lie wholly outside the predicate need not be read
+        Assert.assertFalse(ValuePredicate.greaterThan(95).overlaps(10, 95));
+        Assert.assertTrue(ValuePredicate.between(5, 95).overlaps(95, 100));
+
+        TimeSeriesPoints points = new TimeSeriesPoints(new long[]{1000, 2000, 3000}, new double[]{99, 1, 96});
+        DataPoint[] selected = TimeSeriesClient.selectedPoints(points, ValuePredicate.greaterThan(95));
+        Assert.assertEquals(2, selected.length);
+        Assert.assertTrue(new DataPoint(3000, 96).equals(selected[1]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    /*
+        Ranges selecting no values should be rejected
+     */
+    public void invalidValuePredicateTest() {
+        ValuePredicate.between(95, 5);
+    }
+
+    @Test
+    /*
+        The last n points should be those at the end of the full series, whether found in the current block alone, with the
+        newest archived block, or from earlier blocks too. Multi-series reads should agree with single series reads
+     */
+    public void lastPointsTest() throws Exception {
+        int recordsPerBlock = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long baseTime = getTestBaseDate().getTime();
+        // Four archived blocks, and three points in the current block
+        DataPoint[] dataPoints = createDataPoints(baseTime, 1, 4 * recordsPerBlock + 3);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        timeSeriesClient.setCompressHistoricBlocks(true);
+        timeSeriesClient.put(multiSeriesName(0), dataPoints);
+        timeSeriesClient.setCompressHistoricBlocks(false);
+        // Fewer points than a block
+        timeSeriesClient.put(multiSeriesName(1), Arrays.copyOf(dataPoints, 2));
+
+        List<String> timeSeriesNames = Arrays.asList(TEST_TIME_SERIES_NAME, multiSeriesName(0), multiSeriesName(1), "NoSuchSeries");
+        for (int n : new int[]{1, 3, 6, 12, 100}) {
+            Map<String, DataPoint[]> lastPointsBySeries = timeSeriesClient.getLast(timeSeriesNames, n);
+            Assert.assertEquals(timeSeriesNames.size(), lastPointsBySeries.size());
+            for (String timeSeriesName : timeSeriesNames) {
+                DataPoint[] allPoints = timeSeriesClient.getPoints(timeSeriesName, new Date(0), new Date(Long.MAX_VALUE));
+                DataPoint[] expected = Arrays.copyOfRange(allPoints, Math.max(0, allPoints.length - n), allPoints.length);
+                for (DataPoint[] retrieved : new DataPoint[][]{timeSeriesClient.getLast(timeSeriesName, n), lastPointsBySeries.get(timeSeriesName)}) {
+                    Assert.assertEquals(expected.length, retrieved.length);
+                    for (int j = 0; j < expected.length; j++) Assert.assertTrue(expected[j].equals(retrieved[j]));
+                }
+            }
+        }
+        Assert.assertTrue(dataPoints[dataPoints.length - 1].equals(timeSeriesClient.getLatest(TEST_TIME_SERIES_NAME)));
+        Assert.assertNull(timeSeriesClient.getLatest("NoSuchSeries"));
+        Map<String, DataPoint> latestBySeries = timeSeriesClient.getLatest(timeSeriesNames);
+        Assert.assertEquals(3, latestBySeries.size());
+        Assert.assertTrue(dataPoints[1].equals(latestBySeries.get(multiSeriesName(1))));
+
+        // A late point repeating the timestamp of a point in the newest archived block - the archived point takes precedence, as for getPoints
+        timeSeriesClient.put(multiSeriesName(3), dataPoints);
+        timeSeriesClient.put(multiSeriesName(3), new DataPoint(dataPoints[4 * recordsPerBlock - 1].getTimestamp(), 1000));
+        DataPoint[] allPoints = timeSeriesClient.getPoints(multiSeriesName(3), new Date(0), new Date(Long.MAX_VALUE));
+        DataPoint[] lastPoints = timeSeriesClient.getLast(multiSeriesName(3), 6);
+        Assert.assertEquals(6, lastPoints.length);
+        for (int j = 0; j < 6; j++) Assert.assertTrue(allPoints[allPoints.length - 6 + j].equals(lastPoints[j]));
+
+        // Time bucketed series have no current block - the newest bucket is found from the index
+        timeSeriesClient.setTimeBucketDurationMs(7 * Constants.MILLISECONDS_IN_SECOND);
+        timeSeriesClient.put(multiSeriesName(2), dataPoints);
+        DataPoint[] lastBucketedPoints = timeSeriesClient.getLast(multiSeriesName(2), 10);
+        Assert.assertEquals(10, lastBucketedPoints.length);
+        for (int j = 0; j < 10; j++) Assert.assertTrue(dataPoints[dataPoints.length - 10 + j].equals(lastBucketedPoints[j]));
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Only the points with the latest timestamps should be kept, in time order
+     */
+    public void lastDataPointsTest() {
+        TreeMap<Long, Double> points = new TreeMap<>();
+        for (long timestamp = 5000; timestamp >= 1000; timestamp -= 1000) points.put(timestamp, (double) timestamp);
+        DataPoint[] lastPoints = TimeSeriesClient.lastDataPoints(points, 2);
+        Assert.assertEquals(2, lastPoints.length);
+        Assert.assertTrue(new DataPoint(4000, 4000).equals(lastPoints[0]));
+        Assert.assertTrue(new DataPoint(5000, 5000).equals(lastPoints[1]));
+        Assert.assertEquals(5, TimeSeriesClient.lastDataPoints(points, 10).length);
+        Assert.assertEquals(0, TimeSeriesClient.lastDataPoints(new TreeMap<>(), 1).length);
+    }
+
+    @Test
+    /*
+        Each call to readSince should return just the points written since the previous call, whether they are in the current
+        block or blocks have been archived since. Multi-series reads should agree, and cursors should survive being stored as tokens
+     */
+    public void changeFeedTest() throws Exception {
+        int recordsPerBlock = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 1, 6 * recordsPerBlock);
+        // Batches of points written between reads - within the current block, then archiving one or more blocks
+        int[] batchEnds = new int[]{3, 4, 7, 7, 18, 30};
+
+        ChangeCursor cursor = null;
+        Map<String, ChangeCursor> cursorsBySeries = new HashMap<>();
+        cursorsBySeries.put(multiSeriesName(0), null);
+        cursorsBySeries.put("NoSuchSeries", null);
+        int batchStart = 0;
+        for (int batchEnd : batchEnds) {
+            DataPoint[] batch = Arrays.copyOfRange(dataPoints, batchStart, batchEnd);
+            if (batch.length > 0) {
+                timeSeriesClient.put(TEST_TIME_SERIES_NAME, batch);
+                timeSeriesClient.put(multiSeriesName(0), batch);
+            }
+            TimeSeriesChanges changes = timeSeriesClient.readSince(TEST_TIME_SERIES_NAME, cursor, dataPoints.length);
+            Map<String, TimeSeriesChanges> changesBySeries = timeSeriesClient.readSince(cursorsBySeries, dataPoints.length);
+            Assert.assertEquals(0, changesBySeries.get("NoSuchSeries").getDataPoints().length);
+            for (DataPoint[] retrieved : new DataPoint[][]{changes.getDataPoints(), changesBySeries.get(multiSeriesName(0)).getDataPoints()}) {
+                Assert.assertEquals(batch.length, retrieved.length);
+                for (int j = 0; j < batch.length; j++) Assert.assertTrue(batch[j].equals(retrieved[j]));
+            }
+            cursor = ChangeCursor.parse(changes.getCursor().toString());
+            for (Map.Entry<String, TimeSeriesChanges> changesForSeries : changesBySeries.entrySet()) {
+                cursorsBySeries.put(changesForSeries.getKey(), changesForSeries.getValue().getCursor());
+            }
+            batchStart = batchEnd;
+        }
+
+        // Following a time bucketed series from a given time
+        timeSeriesClient.setTimeBucketDurationMs(7 * Constants.MILLISECONDS_IN_SECOND);
+        timeSeriesClient.put(multiSeriesName(1), dataPoints);
+        TimeSeriesChanges bucketedChanges = timeSeriesClient.readSince(multiSeriesName(1), ChangeCursor.after(new Date(dataPoints[19].getTimestamp())), dataPoints.length);
+        Assert.assertEquals(10, bucketedChanges.getDataPoints().length);
+        for (int j = 0; j < 10; j++) Assert.assertTrue(dataPoints[20 + j].equals(bucketedChanges.getDataPoints()[j]));
+        Assert.assertEquals(0, timeSeriesClient.readSince(multiSeriesName(1), bucketedChanges.getCursor(), dataPoints.length).getDataPoints().length);
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        A consumer behind by several blocks should page through the backlog, maxPoints at a time, seeing every point once,
+        including points written between pages
+     */
+    public void changeFeedPagingTest() throws Exception {
+        int recordsPerBlock = 5;
+        int maxPoints = 3;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 6 * recordsPerBlock);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOf(dataPoints, 4 * recordsPerBlock));
+        timeSeriesClient.put(multiSeriesName(0), Arrays.copyOf(dataPoints, 4 * recordsPerBlock));
+
+        ChangeCursor cursor = null;
+        Map<String, ChangeCursor> cursorsBySeries = new HashMap<>();
+        cursorsBySeries.put(multiSeriesName(0), null);
+        List<DataPoint> retrieved = new ArrayList<>();
+        List<DataPoint> retrievedForMultiSeries = new ArrayList<>();
+        TimeSeriesChanges changes;
+        do {
+            // More points arrive while the consumer catches up
+            if (retrieved.size() == 3 * maxPoints) {
+                timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, 4 * recordsPerBlock, dataPoints.length));
+                timeSeriesClient.put(multiSeriesName(0), Arrays.copyOfRange(dataPoints, 4 * recordsPerBlock, dataPoints.length));
+            }
+            changes = timeSeriesClient.readSince(TEST_TIME_SERIES_NAME, cursor, maxPoints);
+            TimeSeriesChanges changesForMultiSeries = timeSeriesClient.readSince(cursorsBySeries, maxPoints).get(multiSeriesName(0));
+            Assert.assertTrue(changes.getDataPoints().length <= maxPoints);
+            retrieved.addAll(Arrays.asList(changes.getDataPoints()));
+            retrievedForMultiSeries.addAll(Arrays.asList(changesForMultiSeries.getDataPoints()));
+            cursor = changes.getCursor();
+            cursorsBySeries.put(multiSeriesName(0), changesForMultiSeries.getCursor());
+        } while (changes.getDataPoints().length == maxPoints);
+
+        for (List<DataPoint> points : Arrays.asList(retrieved, retrievedForMultiSeries)) {
+            Assert.assertEquals(dataPoints.length, points.size());
+            for (int j = 0; j < dataPoints.length; j++) Assert.assertTrue(dataPoints[j].equals(points.get(j)));
+        }
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Cursors parsed from their tokens should be equal to the original, and only the current block should be read while
+        its start time matches that held in the cursor
+     */
+    public void changeCursorTest() {
+        ChangeCursor cursor = new ChangeCursor(1000, 5000);
+        Assert.assertEquals(cursor, ChangeCursor.parse(cursor.toString()));
+        Assert.assertEquals(ChangeCursor.START, ChangeCursor.parse(ChangeCursor.START.toString()));
+        Assert.assertEquals(5001, cursor.readFromTime());
+        Assert.assertEquals(Long.MIN_VALUE, ChangeCursor.START.readFromTime());
+        Assert.assertTrue(new ChangeCursor(1000, Long.MAX_VALUE).isAtEnd());
+
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(Constants.START_TIME_FIELD_NAME, 1000L);
+        Record currentBlock = new Record(Collections.<String, Object>singletonMap(Constants.METADATA_BIN_NAME, metadata), 0, 0);
+        Assert.assertTrue(TimeSeriesClient.currentBlockHoldsChanges(cursor, currentBlock));
+        Assert.assertFalse(TimeSeriesClient.currentBlockHoldsChanges(new ChangeCursor(2000, 5000), currentBlock));
+        Assert.assertFalse(TimeSeriesClient.currentBlockHoldsChanges(cursor, null));
+        Assert.assertFalse(TimeSeriesClient.currentBlockHoldsChanges(ChangeCursor.START, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    /*
+        Tokens that are not cursor tokens should be rejected
+     */
+    public void invalidChangeCursorTest() {
+        ChangeCursor.parse("AAAA");
+    }
+
+    @Test
+    /*
+        A client using the index cache should see blocks archived by another client
+        Repeat reads should be answered from the cache, and least recently used series discarded once the cache is full
+     */
+    public void indexCacheTest() throws Exception {
+        int recordsPerBlock = 10;
+        AerospikeClient asClient = new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100);
+        TimeSeriesClient writingClient = new TimeSeriesClient(asClient, TestConstants.AEROSPIKE_NAMESPACE,
+                TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        TimeSeriesClient cachingClient = new TimeSeriesClient(asClient, TestConstants.AEROSPIKE_NAMESPACE,
+                TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        cachingClient.enableIndexCache(2, 1000, 60 * 60 * Constants.MILLISECONDS_IN_SECOND);
+
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 1, 10 * recordsPerBlock + 5);
+        int firstWriteCount = 3 * recordsPerBlock + 5;
+        writingClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOf(dataPoints, firstWriteCount));
+        checkIndexCachePoints(cachingClient, Arrays.copyOf(dataPoints, firstWriteCount));
+        Assert.assertEquals(1, cachingClient.getIndexCacheMissCount());
+        // No change - answered from the cache
+        checkIndexCachePoints(cachingClient, Arrays.copyOf(dataPoints, firstWriteCount));
+        Assert.assertEquals(1, cachingClient.getIndexCacheMissCount());
+        Assert.assertEquals(1, cachingClient.getIndexCacheHitCount());
+
+        // Blocks archived by the other client are picked up
+        writingClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, firstWriteCount, dataPoints.length));
+        checkIndexCachePoints(cachingClient, dataPoints);
+        Assert.assertEquals(dataPoints.length, cachingClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints[0].getTimestamp(), cachingClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertArrayEquals(writingClient.getTimestampsForTimeSeries(TEST_TIME_SERIES_NAME, 0, Long.MAX_VALUE),
+                cachingClient.getTimestampsForTimeSeries(TEST_TIME_SERIES_NAME, 0, Long.MAX_VALUE));
+        Assert.assertEquals(1, cachingClient.getIndexCacheMissCount());
+
+        // Cache holds two series, so reading two others discards the first
+        writingClient.put(multiSeriesName(1), dataPoints);
+        writingClient.put(multiSeriesName(2), dataPoints);
+        cachingClient.getPoints(multiSeriesName(1), new Date(0), new Date(Long.MAX_VALUE));
+        cachingClient.getPoints(multiSeriesName(2), new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(3, cachingClient.getIndexCacheMissCount());
+        checkIndexCachePoints(cachingClient, dataPoints);
+        Assert.assertEquals(4, cachingClient.getIndexCacheMissCount());
+    }
+
+    @Test
+    /*
+        Index reads return the results of several operations per bin - check these are combined correctly
+        and that only blocks overlapping the range are kept
+     */
+    public void indexEntriesFromRecordsTest() {
+        Map<String, Object> pageBins = new HashMap<>();
+        // Key range result, then the block before the range
+        pageBins.put(Constants.TIME_SERIES_INDEX_BIN_NAME, Arrays.asList(
+                Arrays.asList(new AbstractMap.SimpleEntry<>(100L, Arrays.asList(9L, 10L)), new AbstractMap.SimpleEntry<>(110L, Arrays.asList(9L, 10L))),
+                Collections.singletonList(new AbstractMap.SimpleEntry<>(90L, Arrays.asList(9L, 10L)))));
+        Map<String, Object> rootBins = new HashMap<>();
+        rootBins.put(Constants.TIME_SERIES_SPANNING_BLOCKS_BIN_NAME, Arrays.asList(
+                new AbstractMap.SimpleEntry<>(10L, Arrays.asList(85L, 5L)), new AbstractMap.SimpleEntry<>(20L, Arrays.asList(200L, 7L))));
+        Record[] indexRecords = new Record[]{new Record(pageBins, 1, 0), null, new Record(rootBins, 1, 0)};
+
+        TreeMap<Long, long[]> indexEntries = TimeSeriesClient.indexEntriesFromRecords(indexRecords, 98, 115);
+        // Block at 90 ends at 99, block at 10 ends at 95 so is excluded
+        Assert.assertArrayEquals(new Long[]{20L, 90L, 100L, 110L}, indexEntries.keySet().toArray(new Long[0]));
+        Assert.assertArrayEquals(new long[]{220, 7}, indexEntries.get(20L));
+        Assert.assertArrayEquals(new long[]{99, 10}, indexEntries.get(90L));
+    }
+
+    @Test
+    /*
+        Blocks within the range are read whole, others are trimmed on the server
+        Trimmed blocks give a list of map entries rather than a map - check both are handled
+     */
+    public void trimmedBlockReadTest() {
+        Key key = new Key(TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, TEST_TIME_SERIES_NAME);
+        Assert.assertNull(TimeSeriesClient.batchReadForBlock(key, true, 0, 10).ops);
+        Assert.assertNotNull(TimeSeriesClient.batchReadForBlock(key, false, 0, 10).ops);
+
+        Map<String, Object> trimmedBins = new HashMap<>();
+        trimmedBins.put(Constants.TIME_SERIES_BIN_NAME, Arrays.asList(
+                new AbstractMap.SimpleEntry<>(5L, 1.0), new AbstractMap.SimpleEntry<>(6L, 2.0)));
+        Map<String, Object> wholeBins = new HashMap<>();
+        TreeMap<Long, Double> wholeTimeSeries = new TreeMap<>();
+        wholeTimeSeries.put(7L, 3.0);
+        wholeTimeSeries.put(20L, 4.0);
+        wholeBins.put(Constants.TIME_SERIES_BIN_NAME, wholeTimeSeries);
+        DataPoint[] dataPoints = TimeSeriesClient.timeSeriesPointsFromBlocks(
+                new Record[]{new Record(trimmedBins, 1, 0), null, new Record(wholeBins, 1, 0)}, 5, 10).toDataPoints();
+        Assert.assertEquals(3, dataPoints.length);
+        Assert.assertTrue(dataPoints[0].equals(new DataPoint(5, 1.0)));
+        Assert.assertTrue(dataPoints[2].equals(new DataPoint(7, 3.0)));
+    }
+
+    /**
+     * Check merging of blocks into a columnar result - overlapping blocks are merged in timestamp order, duplicate timestamps
+     * are removed keeping the point from the earliest block, and blocks returned out of order are sorted
+     */
+    @Test
+    public void timeSeriesPointsMergeTest() {
+        // Blocks that follow each other in time are concatenated
+        TimeSeriesPoints points = TimeSeriesPoints.merge(new long[][]{{1, 2, 3, 0}, {}, {4, 5}}, new double[][]{{1, 2, 3, 0}, {}, {4, 5}},
+                new int[]{3, 0, 2});
+        Assert.assertArrayEquals(new long[]{1, 2, 3, 4, 5}, points.getTimestamps());
+        Assert.assertArrayEquals(new double[]{1, 2, 3, 4, 5}, points.getValues(), 0);
+
+        // Overlapping blocks are merged, first block wins on duplicate timestamps
+        points = TimeSeriesPoints.merge(new long[][]{{1, 4, 7}, {2, 4, 8}, {3, 4, 9}}, new double[][]{{1, 4, 7}, {2, -4, 8}, {3, -4, 9}},
+                new int[]{3, 3, 3});
+        Assert.assertArrayEquals(new long[]{1, 2, 3, 4, 7, 8, 9}, points.getTimestamps());
+        Assert.assertArrayEquals(new double[]{1, 2, 3, 4, 7, 8, 9}, points.getValues(), 0);
+        Assert.assertEquals(7, points.size());
+        Assert.assertTrue(points.getDataPoint(3).equals(new DataPoint(4, 4)));
+
+        // Block maps not in key order are sorted, and blocks are trimmed to the range
+        Map<Long, Double> unorderedTimeSeries = new HashMap<>();
+        for (long timestamp = 100; timestamp > 0; timestamp -= 7) unorderedTimeSeries.put(timestamp * 1000, (double) timestamp);
+        Map<String, Object> unorderedBins = new HashMap<>();
+        unorderedBins.put(Constants.TIME_SERIES_BIN_NAME, unorderedTimeSeries);
+        TreeMap<Long, Double> overlappingTimeSeries = new TreeMap<>();
+        overlappingTimeSeries.put(9000L, -1.0);
+        overlappingTimeSeries.put(10000L, 10.0);
+        Map<String, Object> overlappingBins = new HashMap<>();
+        overlappingBins.put(Constants.TIME_SERIES_BIN_NAME, overlappingTimeSeries);
+        points = TimeSeriesClient.timeSeriesPointsFromBlocks(
+                new Record[]{new Record(unorderedBins, 1, 0), new Record(overlappingBins, 1, 0)}, 5000, 30000);
+        Assert.assertArrayEquals(new long[]{9000, 10000, 16000, 23000, 30000}, points.getTimestamps());
+        Assert.assertArrayEquals(new double[]{9, 10, 16, 23, 30}, points.getValues(), 0);
+
+        Assert.assertEquals(0, TimeSeriesClient.timeSeriesPointsFromBlocks(new Record[]{null}, 0, 10).size());
+    }
+
+    /**
+     * Check aggregation of blocks as they are decoded - compressed, whole and trimmed blocks are aggregated in a single pass,
+     * overlapping blocks fall back to merging, and negative values give the right max
+     */
+    @Test
+    public void queryResultFromBlocksTest() {
+        long[] timestamps = new long[]{1000, 2000, 3000, 4000};
+        double[] values = new double[]{-4, -2, -3, -1};
+        Map<String, Object> compressedBins = new HashMap<>();
+        compressedBins.put(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, GorillaCodec.encode(timestamps, values, timestamps.length));
+        TreeMap<Long, Double> wholeTimeSeries = new TreeMap<>();
+        wholeTimeSeries.put(5000L, -5.0);
+        wholeTimeSeries.put(6000L, -6.0);
+        Map<String, Object> wholeBins = new HashMap<>();
+        wholeBins.put(Constants.TIME_SERIES_BIN_NAME, wholeTimeSeries);
+        Map<String, Object> trimmedBins = new HashMap<>();
+        trimmedBins.put(Constants.TIME_SERIES_BIN_NAME, Collections.singletonList(new AbstractMap.SimpleEntry<>(7000L, -7.0)));
+        Record[] blocks = new Record[]{new Record(compressedBins, 1, 0), null, new Record(wholeBins, 1, 0), new Record(trimmedBins, 1, 0)};
+
+        // Range excludes the first point
+        double[] expected = new double[]{-2, -3, -1, -5, -6, -7};
+        TimeSeriesPoints expectedPoints = TimeSeriesClient.timeSeriesPointsFromBlocks(blocks, 2000, 7000);
+        Assert.assertArrayEquals(expected, expectedPoints.getValues(), 0);
+        for (QueryOperation operation : QueryOperation.values()) {
+            Assert.assertEquals(TimeSeriesClient.queryResult(operation, expectedPoints),
+                    TimeSeriesClient.queryResultFromBlocks(operation, blocks, 2000, 7000), 1e-9);
+        }
+        Assert.assertEquals(-1, TimeSeriesClient.queryResultFromBlocks(QueryOperation.MAX, blocks, 2000, 7000), 0);
+        Assert.assertEquals(-7, TimeSeriesClient.queryResultFromBlocks(QueryOperation.MIN, blocks, 2000, 7000), 0);
+        Assert.assertEquals(-24, TimeSeriesClient.queryResultFromBlocks(QueryOperation.SUM, blocks, 2000, 7000), 0);
+        Assert.assertEquals(-2, TimeSeriesClient.queryResultFromBlocks(QueryOperation.FIRST, blocks, 2000, 7000), 0);
+        Assert.assertEquals(-7, TimeSeriesClient.queryResultFromBlocks(QueryOperation.LAST, blocks, 2000, 7000), 0);
+        Assert.assertEquals(Math.sqrt(28.0 / 5), TimeSeriesClient.queryResultFromBlocks(QueryOperation.STD_DEV, blocks, 2000, 7000), 1e-9);
+        Assert.assertEquals(Math.sqrt(28.0 / 6), TimeSeriesClient.queryResultFromBlocks(QueryOperation.VOL, blocks, 2000, 7000), 1e-9);
+
+        // Block overlapping the others, with a duplicate timestamp - points from the earlier block are kept
+        TreeMap<Long, Double> overlappingTimeSeries = new TreeMap<>();
+        overlappingTimeSeries.put(2000L, 100.0);
+        overlappingTimeSeries.put(2500L, -2.5);
+        Map<String, Object> overlappingBins = new HashMap<>();
+        overlappingBins.put(Constants.TIME_SERIES_BIN_NAME, overlappingTimeSeries);
+        Record[] overlappingBlocks = Arrays.copyOf(blocks, blocks.length + 1);
+        overlappingBlocks[blocks.length] = new Record(overlappingBins, 1, 0);
+        Assert.assertEquals(7, TimeSeriesClient.queryResultFromBlocks(QueryOperation.COUNT, overlappingBlocks, 2000, 7000), 0);
+        Assert.assertEquals(-1, TimeSeriesClient.queryResultFromBlocks(QueryOperation.MAX, overlappingBlocks, 2000, 7000), 0);
+        Assert.assertEquals(-7, TimeSeriesClient.queryResultFromBlocks(QueryOperation.LAST, overlappingBlocks, 2000, 7000), 0);
+
+        Assert.assertTrue(Double.isNaN(TimeSeriesClient.queryResultFromBlocks(QueryOperation.STD_DEV, blocks, 7000, 7000)));
+        Assert.assertEquals(0, TimeSeriesClient.queryResultFromBlocks(QueryOperation.COUNT, new Record[]{null}, 0, 10), 0);
+    }
+
+    @Test
+    /*
+        Rollups maintained as blocks are archived should match the points written, summarised in buckets of the same width
+        Points still in the current block are included. Resolutions finer than every tier are summarised from the points
+     */
+    public void rollupTest() throws Exception {
+        int recordsPerBlock = 50;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        timeSeriesClient.setRollupsEnabled(true);
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 7, 40 * recordsPerBlock + 10);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        Date endDate = new Date(dataPoints[dataPoints.length - 1].getTimestamp());
+
+        for (RollupTier rollupTier : RollupTier.values()) {
+            long resolutionMs = rollupTier.getBucketDurationMs();
+            RollupPoint[] expected = TimeSeriesClient.rollupsFromPoints(
+                    timeSeriesClient.getTimeSeriesPoints(TEST_TIME_SERIES_NAME, new Date(0), endDate), resolutionMs);
+            // Buckets are whole, so the first and last buckets include all their points even if the range starts part way through
+            checkRollups(expected, timeSeriesClient.getRollups(TEST_TIME_SERIES_NAME, new Date(baseTime + 1), endDate, resolutionMs));
+            checkRollups(expected, timeSeriesClient.getRollups(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE), resolutionMs + 1));
+        }
+        // Finer than every tier - summarised from the points in the range
+        RollupPoint[] rollups = timeSeriesClient.getRollups(TEST_TIME_SERIES_NAME, new Date(baseTime + 1), endDate, 10 * Constants.MILLISECONDS_IN_SECOND);
+        Assert.assertEquals(dataPoints.length - 1, Arrays.stream(rollups).mapToLong(RollupPoint::getCount).sum());
+        Assert.assertEquals(0, timeSeriesClient.getRollups("NoSuchSeries", new Date(0), new Date(Long.MAX_VALUE), 60000).length);
+
+        // Adding an archived block again, as a retried rollover would, should leave the rollups unchanged
+        Record archivedBlock = timeSeriesClient.getAsClient().get(null,
+                timeSeriesClient.asKeyForHistoricTimeSeriesBlock(TEST_TIME_SERIES_NAME, dataPoints[0].getTimestamp()));
+        timeSeriesClient.updateRollups(TEST_TIME_SERIES_NAME, archivedBlock);
+        for (RollupTier rollupTier : RollupTier.values()) {
+            RollupPoint[] expected = TimeSeriesClient.rollupsFromPoints(
+                    timeSeriesClient.getTimeSeriesPoints(TEST_TIME_SERIES_NAME, new Date(0), endDate), rollupTier.getBucketDurationMs());
+            checkRollups(expected, timeSeriesClient.getRollups(TEST_TIME_SERIES_NAME, new Date(0), endDate, rollupTier.getBucketDurationMs()));
+        }
+        timeSeriesClient.close();
+    }
+
+    @Test
+    public void rollupsFromPointsTest() {
+        Assert.assertNull(RollupTier.coarsestWithin(59999));
+        Assert.assertEquals(RollupTier.MINUTE, RollupTier.coarsestWithin(60000));
+        Assert.assertEquals(RollupTier.HOUR, RollupTier.coarsestWithin(24 * 60 * 60 * 1000L - 1));
+        Assert.assertEquals(RollupTier.DAY, RollupTier.coarsestWithin(Long.MAX_VALUE));
+        Assert.assertEquals(-60000, RollupTier.MINUTE.bucketStartTime(-1));
+
+        TimeSeriesPoints points = new TimeSeriesPoints(new long[]{-5, 1000, 1500, 1999, 4000}, new double[]{1, 2, -3, 4, 5});
+        RollupPoint[] rollups = TimeSeriesClient.rollupsFromPoints(points, 1000);
+        Assert.assertEquals(3, rollups.length);
+        Assert.assertEquals(-1000, rollups[0].getBucketStartTime());
+        Assert.assertEquals(1000, rollups[1].getBucketStartTime());
+        Assert.assertEquals(3, rollups[1].getCount());
+        Assert.assertEquals(3, rollups[1].getSum(), 0);
+        Assert.assertEquals(-3, rollups[1].getMin(), 0);
+        Assert.assertEquals(4, rollups[1].getMax(), 0);
+        Assert.assertEquals(1, rollups[1].getAverage(), 0);
+
+        // Combining stored buckets with new ones
+        rollups[1].add(Arrays.asList(2L, 10.0, -5.0, 6.0));
+        Assert.assertEquals(5, rollups[1].getCount());
+        Assert.assertEquals(-5, rollups[1].getMin(), 0);
+        Assert.assertEquals(6, rollups[1].getMax(), 0);
+        Assert.assertEquals(Arrays.asList(5L, 13.0, -5.0, 6.0), rollups[1].toStoredBucket());
+        Assert.assertTrue(Double.isNaN(new RollupPoint(0).getMin()));
+    }
+
+    private static void checkRollups(RollupPoint[] expected, RollupPoint[] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].getBucketStartTime(), actual[i].getBucketStartTime());
+            Assert.assertEquals(expected[i].getCount(), actual[i].getCount());
+            Assert.assertEquals(expected[i].getSum(), actual[i].getSum(), 1e-6);
+            Assert.assertEquals(expected[i].getMin(), actual[i].getMin(), 0);
+            Assert.assertEquals(expected[i].getMax(), actual[i].getMax(), 0);
+        }
+    }
+
+    @Test
+    /*
+        Percentile queries should be within the relative accuracy of the true values, whether blocks are answered from their
+        sketch or from their points
+     */
+    public void quantileQueryTest() throws Exception {
+        int recordsPerBlock = 50;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 20 * recordsPerBlock + 10);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+
+        // Range starts and ends part way through a block
+        int firstPoint = recordsPerBlock / 2;
+        int lastPoint = dataPoints.length - 5;
+        double[] values = new double[lastPoint - firstPoint + 1];
+        for (int i = firstPoint; i <= lastPoint; i++) values[i - firstPoint] = dataPoints[i].getValue();
+        Arrays.sort(values);
+        Date fromDate = new Date(dataPoints[firstPoint].getTimestamp());
+        Date toDate = new Date(dataPoints[lastPoint].getTimestamp());
+        double[] quantiles = new double[]{0.5, 0.9, 0.99, 0.999};
+        double[] estimates = timeSeriesClient.runQuantileQuery(TEST_TIME_SERIES_NAME, quantiles, fromDate, toDate);
+        for (int i = 0; i < quantiles.length; i++) {
+            double expected = values[(int) Math.floor(quantiles[i] * (values.length - 1))];
+            Assert.assertEquals(expected, estimates[i], expected * Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY);
+        }
+        Assert.assertEquals(estimates[0], timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.P50, fromDate, toDate), 0);
+        Assert.assertEquals(estimates[2], timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.P99, fromDate, toDate), 0);
+        Assert.assertTrue(Double.isNaN(timeSeriesClient.runQuantileQuery(TEST_TIME_SERIES_NAME, quantiles, toDate, fromDate)[0]));
+        timeSeriesClient.close();
+    }
+
+    @Test
+    /*
+        Bucketed query results should match a separate query over each bucket
+     */
+    public void bucketedQueryTest() throws Exception {
+        int recordsPerBlock = 50;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, 3100),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, recordsPerBlock);
+        long baseTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(baseTime, 7, 10 * recordsPerBlock + 10);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+
+        long bucketWidthMs = 600 * Constants.MILLISECONDS_IN_SECOND;
+        long startTime = baseTime + 100 * Constants.MILLISECONDS_IN_SECOND;
+        long endTime = dataPoints[dataPoints.length - 1].getTimestamp() + 2 * bucketWidthMs;
+        for (QueryOperation operation : QueryOperation.values()) {
+            double[] results = timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, new Date(startTime), new Date(endTime), bucketWidthMs);
+            Assert.assertEquals((endTime - startTime) / bucketWidthMs + 1, results.length);
+            for (int i = 0; i < results.length; i++) {
+                long bucketStartTime = startTime + i * bucketWidthMs;
+                double expected = timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, new Date(bucketStartTime),
+                        new Date(Math.min(endTime, bucketStartTime + bucketWidthMs - 1)));
+                Assert.assertEquals(expected, results[i], 1e-9);
+            }
+        }
+        timeSeriesClient.close();
+    }
+
+    @Test
+    public void bucketedQueryAccumulatorTest() {
+        TreeMap<Long, Double> firstTimeSeries = new TreeMap<>();
+        firstTimeSeries.put(1000L, 1.0);
+        firstTimeSeries.put(1500L, 3.0);
+        firstTimeSeries.put(2500L, 5.0);
+        TreeMap<Long, Double> secondTimeSeries = new TreeMap<>();
+        secondTimeSeries.put(2600L, 7.0);
+        secondTimeSeries.put(4100L, 9.0);
+        Map<String, Object> firstBins = new HashMap<>();
+        firstBins.put(Constants.TIME_SERIES_BIN_NAME, firstTimeSeries);
+        Map<String, Object> secondBins = new HashMap<>();
+        secondBins.put(Constants.TIME_SERIES_BIN_NAME, secondTimeSeries);
+        Record[] blocks = new Record[]{new Record(firstBins, 1, 0), null, new Record(secondBins, 1, 0)};
+
+        // Buckets 1000-1999, 2000-2999, 3000-3999, 4000-4099 - the point at 4100 is outside the range
+        BucketedQueryAccumulator accumulator = TimeSeriesClient.accumulateBucketedQuery(new BucketedQueryAccumulator(1000, 4099, 1000, false), blocks);
+        Assert.assertFalse(accumulator.isOutOfOrder());
+        Assert.assertArrayEquals(new double[]{2, 2, 0, 0}, accumulator.results(QueryOperation.COUNT), 0);
+        Assert.assertArrayEquals(new double[]{2, 6, Double.NaN, Double.NaN}, accumulator.results(QueryOperation.AVG), 0);
+        Assert.assertArrayEquals(new double[]{4, 12, 0, 0}, accumulator.results(QueryOperation.SUM), 0);
+
+        // Overlapping block with a duplicate timestamp - the point from the earlier block is kept
+        TreeMap<Long, Double> overlappingTimeSeries = new TreeMap<>();
+        overlappingTimeSeries.put(1500L, 100.0);
+        overlappingTimeSeries.put(3500L, 11.0);
+        Map<String, Object> overlappingBins = new HashMap<>();
+        overlappingBins.put(Constants.TIME_SERIES_BIN_NAME, overlappingTimeSeries);
+        Record[] overlappingBlocks = Arrays.copyOf(blocks, blocks.length + 1);
+        overlappingBlocks[blocks.length] = new Record(overlappingBins, 1, 0);
+        accumulator = TimeSeriesClient.accumulateBucketedQuery(new BucketedQueryAccumulator(1000, 4099, 1000, false), overlappingBlocks);
+        Assert.assertArrayEquals(new double[]{3, 7, 11, Double.NaN}, accumulator.results(QueryOperation.MAX), 0);
+
+        // Ranges wider than Long.MAX_VALUE
+        Assert.assertEquals(3, new BucketedQueryAccumulator(Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, false).results(QueryOperation.COUNT).length);
+    }
+
+    @Test
+    public void blockSummaryQueryTest() {
+        Record[] blocks = new Record[]{
+                blockRecord(new long[]{1000, 2000, 3000}, new double[]{1, 5, 3}),
+                blockRecord(new long[]{4000, 5000, 6000}, new double[]{2, 8, 4}),
+                blockRecord(new long[]{7000, 8000, 9000}, new double[]{7, -1, 6}),
+                blockRecord(new long[]{10000}, new double[]{10})};
+        TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+        for (int i = 0; i < 3; i++) indexEntries.put(1000L + 3000 * i, summarisedIndexEntry(1000 + 3000 * i, blocks[i]));
+
+        // The middle blocks lie within the range, so are answered from their summaries. The first block and current block are read
+        Record[] blocksRead = new Record[]{blocks[0], blocks[3]};
+        QueryAccumulator accumulator = TimeSeriesClient.accumulateIndexedBlocks(indexEntries, blocksRead, 2000, 10000, false);
+        Assert.assertFalse(accumulator.isOutOfOrder());
+        for (QueryOperation operation : QueryOperation.values()) {
+            // Quantiles need the block sketches - see quantileSketchQueryTest
+            if (operation.isQuantile()) continue;
+            Assert.assertEquals(TimeSeriesClient.queryResultFromBlocks(operation, blocks, 2000, 10000), accumulator.result(operation), 1e-9);
+        }
+        Assert.assertEquals(9, accumulator.result(QueryOperation.COUNT), 0);
+        Assert.assertEquals(5, accumulator.result(QueryOperation.FIRST), 0);
+        Assert.assertEquals(10, accumulator.result(QueryOperation.LAST), 0);
+
+        // Overlapping blocks cannot be answered from summaries
+        indexEntries.put(5500L, summarisedIndexEntry(5500, blockRecord(new long[]{5500}, new double[]{0})));
+        Assert.assertTrue(TimeSeriesClient.accumulateIndexedBlocks(indexEntries, blocksRead, 2000, 10000, false).isOutOfOrder());
+
+        // Entries without a summary, as written for time buckets and by earlier versions
+        Assert.assertNull(TimeSeriesClient.blockSummaryFromIndexEntry(TimeSeriesClient.decodeIndexEntry(1000, Arrays.asList(2000L, 3L))));
+    }
+
+    @Test
+    /*
+        Quantiles for blocks answered from their sketch should match those from reading every point
+        A block without a sketch, as archived by earlier versions, means the blocks must be read whole
+     */
+    public void quantileSketchQueryTest() {
+        Record[] blocks = new Record[]{
+                blockRecord(new long[]{1000, 2000, 3000}, new double[]{1, 5, 3}),
+                blockRecordWithSketch(new long[]{4000, 5000, 6000}, new double[]{2, 8, 4}),
+                blockRecordWithSketch(new long[]{7000, 8000, 9000}, new double[]{7, -1, 6}),
+                blockRecord(new long[]{10000}, new double[]{10})};
+        TreeMap<Long, long[]> indexEntries = new TreeMap<>();
+        for (int i = 0; i < 3; i++) indexEntries.put(1000L + 3000 * i, summarisedIndexEntry(1000 + 3000 * i, blocks[i]));
+
+        // Sketches are read for the middle blocks, in place of their points
+        QueryAccumulator accumulator = TimeSeriesClient.accumulateIndexedBlocks(indexEntries, blocks, 2000, 10000, true);
+        Assert.assertTrue(accumulator.isComplete());
+        for (QueryOperation operation : QueryOperation.values()) {
+            Assert.assertEquals(TimeSeriesClient.queryResultFromBlocks(operation, blocks, 2000, 10000), accumulator.result(operation), 1e-9);
+        }
+        Assert.assertEquals(5, accumulator.result(QueryOperation.P50), 5 * Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY);
+        Assert.assertEquals(8, accumulator.result(QueryOperation.P99), 8 * Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY);
+
+        Record[] blocksWithoutSketch = new Record[]{blocks[0], blockRecord(new long[0], new double[0]), blocks[2], blocks[3]};
+        Assert.assertFalse(TimeSeriesClient.accumulateIndexedBlocks(indexEntries, blocksWithoutSketch, 2000, 10000, true).isComplete());
+        // Sketches are not needed by other operations
+        Assert.assertTrue(TimeSeriesClient.accumulateIndexedBlocks(indexEntries, new Record[]{blocks[0], blocks[3]}, 2000, 10000, false).isComplete());
+    }
+
+    @Test
+    /*
+        Quantile estimates should be within the relative accuracy of the true values, and merging sketches should give
+        exactly the sketch of the values combined
+     */
+    public void quantileSketchTest() {
+        int valueCount = 10000;
+        double[] values = new double[valueCount];
+        QuantileSketch sketch = new QuantileSketch();
+        QuantileSketch firstHalfSketch = new QuantileSketch();
+        QuantileSketch secondHalfSketch = new QuantileSketch();
+        for (int i = 0; i < valueCount; i++) {
+            // Values spanning several orders of magnitude, either side of zero, with some zeroes
+            values[i] = i % 100 == 0 ? 0 : Math.exp(RANDOM.nextGaussian() * 5) * (RANDOM.nextDouble() < 0.2 ? -1 : 1);
+            sketch.add(values[i]);
+            (i < valueCount / 2 ? firstHalfSketch : secondHalfSketch).add(values[i]);
+        }
+        firstHalfSketch.merge(secondHalfSketch);
+        Arrays.sort(values);
+        Assert.assertEquals(valueCount, sketch.getCount());
+        for (double quantile : new double[]{0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1}) {
+            double expected = values[(int) Math.floor(quantile * (valueCount - 1))];
+            Assert.assertEquals(expected, sketch.quantile(quantile), Math.abs(expected) * Constants.QUANTILE_SKETCH_RELATIVE_ACCURACY);
+            Assert.assertEquals(sketch.quantile(quantile), firstHalfSketch.quantile(quantile), 0);
+        }
+        // Sketch should be unchanged by being stored
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.QUANTILE_SKETCH_BIN_NAME, sketch.toStoredSketch());
+        QuantileSketch storedSketch = QuantileSketch.fromRecord(new Record(bins, 1, 0));
+        Assert.assertEquals(valueCount, storedSketch.getCount());
+        Assert.assertEquals(sketch.quantile(0.99), storedSketch.quantile(0.99), 0);
+        Assert.assertNull(QuantileSketch.fromRecord(null));
+        Assert.assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+    }
+
+    private static Record blockRecordWithSketch(long[] timestamps, double[] values) {
+        Record block = blockRecord(timestamps, values);
+        Map<String, Object> bins = new HashMap<>(block.bins);
+        bins.put(Constants.QUANTILE_SKETCH_BIN_NAME, TimeSeriesClient.blockQuantileSketch(block).toStoredSketch());
+        return new Record(bins, 1, 0);
+    }
+
+    private static Record blockRecord(long[] timestamps, double[] values) {
+        TreeMap<Long, Double> timeSeries = new TreeMap<>();
+        for (int i = 0; i < timestamps.length; i++) timeSeries.put(timestamps[i], values[i]);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, timeSeries);
+        return new Record(bins, 1, 0);
+    }
+
+    private static long[] summarisedIndexEntry(long startTime, Record block) {
+        TreeMap<?, ?> timeSeries = (TreeMap<?, ?>) block.getMap(Constants.TIME_SERIES_BIN_NAME);
+        List<Object> packedEntry = new ArrayList<>();
+        packedEntry.add((Long) timeSeries.lastKey() - startTime);
+        packedEntry.add((long) timeSeries.size());
+        for (double summaryValue : TimeSeriesClient.blockSummary(block)) packedEntry.add(summaryValue);
+        return TimeSeriesClient.decodeIndexEntry(startTime, packedEntry);
+    }
+
+    private static void checkIteratorPoints(Iterator<DataPoint> iterator, DataPoint[] expected) {
+        int count = 0;
+        while (iterator.hasNext()) Assert.assertTrue(expected[count++].equals(iterator.next()));
+        Assert.assertEquals(expected.length, count);
+    }
+
+    private static void checkIndexCachePoints(TimeSeriesClient timeSeriesClient, DataPoint[] expected) {
+        DataPoint[] retrieved = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(0), new Date(Long.MAX_VALUE));
+        Assert.assertEquals(expected.length, retrieved.length);
+        for (int i = 0; i < expected.length; i++) Assert.assertTrue(expected[i].equals(retrieved[i]));
+    }
+
+    private static Record tagIndexRecord(String... timeSeriesNames) {
+        Map<String, Long> taggedSeries = new HashMap<>();
+        for (String timeSeriesName : timeSeriesNames) taggedSeries.put(timeSeriesName, 1L);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TAG_INDEX_BIN_NAME, taggedSeries);
+        return new Record(bins, 1, 0);
+    }
+
+    private static String multiSeriesName(int i) {
+        return String.format("%s-%d", TEST_TIME_SERIES_NAME, i);
+    }
+
     @SuppressWarnings("SameParameterValue") // avoid messages that the test cases always use the same timeSeriesName
     private static int checkCurrentRecordCount(TimeSeriesClient timeSeriesClient, String timeSeriesName) {
         int currentRecordCount = 0;
@@ -513,7 +2005,6 @@ public class TimeSeriesClientTest {
         return currentRecordCount;
     }
 
-    @SuppressWarnings("SameParameterValue") // avoid messages that the test cases always use the same intervalInSeconds
     private DataPoint[] createDataPoints(long startTime, int intervalInSeconds, int iterations) {
         DataPoint[] dataPoints = new DataPoint[iterations];
         for (int i = 0; i < iterations; i++) {
@@ -0,0 +1,90 @@
+package io.github.aerospike_examples.timeseries.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class GorillaCodecTest {
+
+    private static final Random RANDOM = new Random();
+
+    @Test
+    // Regularly spaced timestamps and slowly varying values - the typical case
+    public void roundTripRegularSeries() {
+        int count = 1000;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        double value = 100;
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = 1640995200000L + i * Constants.MILLISECONDS_IN_SECOND;
+            value += RANDOM.nextGaussian() / 10;
+            values[i] = Math.round(value * 100) / 100.0;
+        }
+        byte[] encodedBlock = checkRoundTrip(timestamps, values);
+        // 16 bytes per point uncompressed. Should do a good deal better than that
+        Assert.assertTrue(encodedBlock.length < count * 16 / 2);
+    }
+
+    @Test
+    // Constant values and constant intervals should need ~2 bits per point
+    public void roundTripConstantSeries() {
+        int count = 1000;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = i * 60 * Constants.MILLISECONDS_IN_SECOND;
+            values[i] = 42.5;
+        }
+        byte[] encodedBlock = checkRoundTrip(timestamps, values);
+        Assert.assertTrue(encodedBlock.length < 300);
+    }
+
+    @Test
+    // Irregular timestamps, large jumps and special values should all survive encoding
+    public void roundTripIrregularSeries() {
+        int count = 500;
+        long[] timestamps = new long[count];
+        double[] values = new double[count];
+        long timestamp = -1000;
+        for (int i = 0; i < count; i++) {
+            timestamp += RANDOM.nextInt(10) == 0 ? RANDOM.nextInt(Integer.MAX_VALUE) : RANDOM.nextInt(5000);
+            timestamps[i] = timestamp;
+            values[i] = RANDOM.nextDouble() * Math.pow(10, RANDOM.nextInt(20) - 10);
+        }
+        values[1] = Double.NaN;
+        values[2] = Double.POSITIVE_INFINITY;
+        values[3] = -0.0;
+        values[4] = Double.MIN_VALUE;
+        values[5] = -Double.MAX_VALUE;
+        timestamps[count - 1] = Long.MAX_VALUE;
+        checkRoundTrip(timestamps, values);
+    }
+
+    @Test
+    // Zero and one point blocks
+    public void roundTripSmallBlocks() {
+        checkRoundTrip(new long[0], new double[0]);
+        checkRoundTrip(new long[]{1234}, new double[]{5.6});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    // Blocks not produced by the codec should be rejected
+    public void unrecognisedFormatRejected() {
+        GorillaCodec.dataPointCount(new byte[]{99, 0, 0, 0, 0});
+    }
+
+    private static byte[] checkRoundTrip(long[] timestamps, double[] values) {
+        byte[] encodedBlock = GorillaCodec.encode(timestamps, values, timestamps.length);
+        Assert.assertEquals(timestamps.length, GorillaCodec.dataPointCount(encodedBlock));
+
+        long[] decodedTimestamps = new long[timestamps.length];
+        double[] decodedValues = new double[values.length];
+        Assert.assertEquals(timestamps.length, GorillaCodec.decode(encodedBlock, decodedTimestamps, decodedValues));
+        Assert.assertArrayEquals(timestamps, decodedTimestamps);
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decodedValues[i]));
+        }
+        return encodedBlock;
+    }
+}
@@ -7,6 +7,7 @@ import com.aerospike.client.exp.Exp;
 import com.aerospike.client.exp.MapExp;
 import com.aerospike.client.policy.InfoPolicy;
 import com.aerospike.client.policy.ScanPolicy;
+import io.github.aerospike_examples.timeseries.RollupTier;
 import io.github.aerospike_examples.timeseries.TimeSeriesClient;
 
 import java.util.Vector;
@@ -18,6 +19,10 @@ public final class TestUtilities {
 
         asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, timeSeriesSetName, null);
         asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, TimeSeriesClient.timeSeriesIndexSetName(timeSeriesSetName), null);
+        asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, TimeSeriesClient.tagIndexSetName(timeSeriesSetName), null);
+        for (RollupTier rollupTier : RollupTier.values()) {
+            asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, TimeSeriesClient.rollupSetName(timeSeriesSetName, rollupTier), null);
+        }
     }
 
     public static TimeSeriesClient defaultTimeSeriesClient() {